@@ -53,7 +53,7 @@ public abstract class AbstractStrategy  implements IStrategy{
     	return subParams.get(paramDef.getParameterName()).toLong();
     }
 	
-	private <E extends Enum<?> & IStrategyParameters> Map<String,Parameter> getIDMParameters(Class<E>  parameters){
+	protected <E extends Enum<?> & IStrategyParameters> Map<String,Parameter> getIDMParameters(Class<E>  parameters){
     	E[] values = parameters.getEnumConstants();
     	Map<String,Parameter> result = new HashMap<String, Parameter>(values.length);
     	for (E aParameter : values) {
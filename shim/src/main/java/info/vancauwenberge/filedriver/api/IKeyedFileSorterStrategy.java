@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+
+package info.vancauwenberge.filedriver.api;
+
+import java.io.File;
+
+/**
+ * A file sorter that can give the key to order a file on. The publisher then
+ * reads the key of a file only once, instead of asking
+ * {@link #getFirstFile(File[])} for every file it processes.
+ */
+public interface IKeyedFileSorterStrategy extends IFileSorterStrategy{
+
+	/*
+	 * Get the key to order the given file on. The publisher calls this once for every file it finds and processes
+	 * the file with the smallest key first. Files with equal (or null) keys are processed in the order they were found.
+	 */
+	public Comparable<?> getSortKey(File file);
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.api;
+
+import java.util.Map;
+
+/**
+ * Saves the publisher state: the file in process and the last record of that
+ * file that was processed. The publisher asks the strategy which command
+ * documents carry the state to the engine, and hands it every state once the
+ * records up to that state are processed.
+ */
+public interface IPublisherCheckpointStrategy extends IPublisherStrategy {
+	/**
+	 * State key: the number of the last processed record, -1 if the file is finished
+	 */
+	public static final String STATE_RECORDNUMBER = "recordNumber";
+	/**
+	 * State key: the path of the file in process
+	 */
+	public static final String STATE_FILE_PATH = "filePath";
+	/**
+	 * State key: the class name of the file reader
+	 */
+	public static final String STATE_FILE_READER_CLASS = "fileReader";
+	/**
+	 * State key: the position of a resumable reader after the last processed record
+	 */
+	public static final String STATE_RESUME_POSITION = "resumePosition";
+
+	/**
+	 * Called before a command document with the given number of records is sent.
+	 * @param recordCount the number of records in the document
+	 * @return true if the document must carry the publisher state to the engine
+	 */
+	public boolean isEngineCheckpoint(int recordCount);
+
+	/**
+	 * Save a state. Called once the records up to the state are processed.
+	 * @param state the publisher state (see the STATE_ keys)
+	 */
+	public void checkpoint(Map<String,String> state);
+
+	/**
+	 * Get the state to continue from after a restart.
+	 * @param engineState the publisher state stored by the engine, or null
+	 * @return the state, or null if there is none
+	 */
+	public Map<String,String> getRestartState(Map<String,String> engineState);
+}
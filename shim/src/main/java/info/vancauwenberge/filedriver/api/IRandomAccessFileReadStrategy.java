@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+
+package info.vancauwenberge.filedriver.api;
+
+import info.vancauwenberge.filedriver.exception.ReadException;
+
+import java.util.Map;
+
+/**
+ * A file reader that can position itself on a record without parsing all
+ * preceding records, and that can read a record by its number without changing
+ * the current read position.
+ */
+public interface IRandomAccessFileReadStrategy extends IFileReadStrategy {
+	/**
+	 * Skip the given number of records: the next call to
+	 * {@link #readRecord()} returns record <code>recordsToSkip+1</code>.
+	 * @param recordsToSkip
+	 * @return the number of records actually skipped (less than requested if the file does not contain enough records)
+	 * @throws ReadException
+	 */
+	public int skipRecords(int recordsToSkip) throws ReadException;
+
+	/**
+	 * Read the record with the given number (the first record is 1). The read
+	 * position used by {@link #readRecord()} is not changed.
+	 * @param recordNumber
+	 * @return the record, or null if the file does not contain this record
+	 * @throws ReadException
+	 */
+	public Map<String,String> readRecord(int recordNumber) throws ReadException;
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.api;
+
+import info.vancauwenberge.filedriver.exception.ReadException;
+
+/**
+ * A file reader that can give the position after a record and that can
+ * continue reading at such a position. The publisher stores the position in
+ * its state, so that a restarted driver does not need to read all processed
+ * records of an unfinished file again.
+ */
+public interface IResumableFileReadStrategy extends IFileReadStrategy {
+	/**
+	 * Get the position in the current file just after the given record.
+	 * @param recordNumber the number of the last processed record (0 if no record was processed)
+	 * @return the position, or null if the position of this record is not known
+	 */
+	public String getResumePosition(int recordNumber);
+
+	/**
+	 * Continue reading the file that was just opened at a position returned by
+	 * {@link #getResumePosition(int)}.
+	 * @param position
+	 * @param recordNumber the record number that was used to get the position
+	 * @return true if the next call to {@link #readRecord()} returns record <code>recordNumber+1</code>,
+	 * false if the position is not valid for this file. The read position is then not changed.
+	 * @throws ReadException
+	 */
+	public boolean resume(String position, int recordNumber) throws ReadException;
+}
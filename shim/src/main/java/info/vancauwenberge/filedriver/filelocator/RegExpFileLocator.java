@@ -64,51 +64,11 @@ public class RegExpFileLocator extends AbstractStrategy implements IFileLocatorS
 				if (actualFile.isDirectory()) {
 					trace.trace("File is a folder, ignored:" + name, TraceLevel.DEBUG);
 					return false;
+				} else if (isLocked(actualFile)) {
+					trace.trace("File is locked, ignored:" + name, TraceLevel.DEBUG);
+					return false;
 				} else {
-					// File f = new File(dir, name);
-					// Try to see if it locked.
-					FileChannel channel = null;
-					FileLock theLock = null;
-					RandomAccessFile raFileStream = null;
-					try {
-						raFileStream = new RandomAccessFile(actualFile, "rw");
-						channel = raFileStream.getChannel();
-						theLock = channel.tryLock();
-						if (theLock == null) {
-							trace.trace("File is locked, ignored:" + name, TraceLevel.DEBUG);
-							return false;
-						} else {
-							return true;
-						}
-					} catch (java.io.FileNotFoundException e) {
-						// RandomAccessFile throws FileNotFound when the file is
-						// locked
-						trace.trace("File is locked, ignored:" + name, TraceLevel.DEBUG);
-						return false;
-					} catch (Exception e) {
-						// No clue why this. Return false but print stack trace.
-						Util.printStackTrace(trace, e);
-						return false;
-					} finally {
-						if (theLock != null) {
-							try {
-								theLock.release();
-							} catch (Exception eIgnore) {
-							}
-						}
-						if (channel != null) {
-							try {
-								channel.close();
-							} catch (Exception eIgnore) {
-							}
-						}
-						if (raFileStream != null) {
-							try {
-								raFileStream.close();
-							} catch (Exception eIgnore) {
-							}
-						}
-					}
+					return true;
 				}
 			} else {
 				trace.trace("File does not match regexp, ignored:" + name, TraceLevel.DEBUG);
@@ -117,6 +77,51 @@ public class RegExpFileLocator extends AbstractStrategy implements IFileLocatorS
 		}
 	}
 
+	/**
+	 * Try to lock the file to see if another process is still using it.
+	 *
+	 * @param actualFile
+	 * @return true if the file is locked (or the lock test failed)
+	 */
+	protected boolean isLocked(File actualFile) {
+		FileChannel channel = null;
+		FileLock theLock = null;
+		RandomAccessFile raFileStream = null;
+		try {
+			raFileStream = new RandomAccessFile(actualFile, "rw");
+			channel = raFileStream.getChannel();
+			theLock = channel.tryLock();
+			return theLock == null;
+		} catch (java.io.FileNotFoundException e) {
+			// RandomAccessFile throws FileNotFound when the file is
+			// locked
+			return true;
+		} catch (Exception e) {
+			// No clue why this. Return true but print stack trace.
+			Util.printStackTrace(trace, e);
+			return true;
+		} finally {
+			if (theLock != null) {
+				try {
+					theLock.release();
+				} catch (Exception eIgnore) {
+				}
+			}
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (Exception eIgnore) {
+				}
+			}
+			if (raFileStream != null) {
+				try {
+					raFileStream.close();
+				} catch (Exception eIgnore) {
+				}
+			}
+		}
+	}
+
 	private enum Parameters implements IStrategyParameters {
 		/**
 		 * Source folder parameter
@@ -202,6 +207,20 @@ public class RegExpFileLocator extends AbstractStrategy implements IFileLocatorS
 		return null;
 	}
 
+	/**
+	 * @return the folder that is scanned for files
+	 */
+	protected String getSourceFolder() {
+		return sourceFolder;
+	}
+
+	/**
+	 * @return the regular expression the file names must match
+	 */
+	protected Pattern getPattern() {
+		return regExpMatcher.pattern();
+	}
+
 	/**
 	 * Return the file filter to use. Overwrite if you want to change the
 	 * default RegExpFileFilter.
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filelocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Constraint;
+import com.novell.nds.dirxml.driver.xds.DataType;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.RangeConstraint;
+import com.novell.nds.dirxml.driver.xds.XDSParameterException;
+
+import info.vancauwenberge.filedriver.api.IClaimableFileLocatorStrategy;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.util.TraceLevel;
+
+/**
+ * A {@link RegExpFileLocator} that does not open the files to find out if
+ * they are complete. The size and modification time of every candidate are
+ * remembered between polls: a file is ready when it did not change for a
+ * quiet period, counted from the poll that first saw it. The modification
+ * time of the file is not trusted for this: a copied or moved file can keep
+ * an old one while it is still being written. Optionally, a file is only ready when the producer created a
+ * marker file next to it (e.g. <code>input.csv.done</code>).
+ * <p>
+ * The lock test of the {@link RegExpFileLocator} is only done on the file the
+ * publisher is about to claim. A file that turns out to be locked is not
+ * offered again for a while, also when a marker file is used.
+ */
+public class StableFileLocator extends RegExpFileLocator implements IClaimableFileLocatorStrategy {
+	protected enum Parameters implements IStrategyParameters {
+		/**
+		 * Number of seconds a file must not change before it is picked up
+		 */
+		QUIET_SECONDS {
+			@Override
+			public String getParameterName() {
+				return "stableLocator_QuietSeconds";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "10";
+			}
+
+			@Override
+			public DataType getDataType() {
+				return DataType.INT;
+			}
+
+			@Override
+			public Constraint[] getConstraints() {
+				return new Constraint[] { new RangeConstraint(0, (Integer.MAX_VALUE / 1000)) };
+			}
+		},
+		/**
+		 * Extension of the marker file (e.g. .done). Empty if no marker is
+		 * used.
+		 */
+		DONE_EXTENSION {
+			@Override
+			public String getParameterName() {
+				return "stableLocator_DoneExtension";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "";
+			}
+
+			@Override
+			public DataType getDataType() {
+				return DataType.STRING;
+			}
+
+			@Override
+			public Constraint[] getConstraints() {
+				return null;
+			}
+		};
+
+		@Override
+		public abstract String getParameterName();
+
+		@Override
+		public abstract String getDefaultValue();
+
+		@Override
+		public abstract DataType getDataType();
+
+		@Override
+		public abstract Constraint[] getConstraints();
+	}
+
+	/**
+	 * Minimum number of milliseconds a locked file is kept out of the file
+	 * list
+	 */
+	private static final long CLAIM_RETRY_MILLIS = 1000;
+
+	/**
+	 * What was seen of a file at the last poll
+	 */
+	private static final class Candidate {
+		private long size;
+		private long modified;
+		/**
+		 * When the last change was seen
+		 */
+		private long changedAt;
+		/**
+		 * When the file was found locked by {@link StableFileLocator#canClaim(File)}, 0 if not
+		 */
+		private long claimRejectedAt = 0;
+
+		private Candidate(long size, long modified, long changedAt) {
+			this.size = size;
+			this.modified = modified;
+			this.changedAt = changedAt;
+		}
+	}
+
+	private Trace trace;
+	private long quietMillis;
+	/**
+	 * The marker extension, or null
+	 */
+	private String doneExtension;
+	private Matcher nameMatcher;
+	private final Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+
+	@Override
+	public void init(Trace trace, Map<String, Parameter> driverParams, IPublisher publisher)
+			throws XDSParameterException {
+		super.init(trace, driverParams, publisher);
+		this.trace = trace;
+		quietMillis = getIntValueFor(Parameters.QUIET_SECONDS, driverParams) * 1000L;
+		final String extension = getStringValueFor(Parameters.DONE_EXTENSION, driverParams);
+		doneExtension = ((extension == null) || "".equals(extension.trim())) ? null : extension.trim();
+		nameMatcher = getPattern().matcher("");
+		trace.trace("init: quiet period " + quietMillis + "ms, marker extension " + doneExtension);
+	}
+
+	@Override
+	public Map<String, Parameter> getParameterDefinitions() {
+		final Map<String, Parameter> result = super.getParameterDefinitions();
+		result.putAll(getIDMParameters(Parameters.class));
+		return result;
+	}
+
+	@Override
+	public File[] getFileList() {
+		trace.trace("getFileList start (" + getSourceFolder() + ")", TraceLevel.TRACE);
+		final String[] names = new File(getSourceFolder()).list();
+		if (names == null) {
+			trace.trace("FileList is null. Will try again in next polling cycle.", TraceLevel.ERROR_WARN);
+			return null;
+		}
+		final long now = System.currentTimeMillis();
+		final Set<String> present = new HashSet<String>(Arrays.asList(names));
+		final List<File> ready = new ArrayList<File>();
+		for (final String name : names) {
+			if ((doneExtension != null) && name.endsWith(doneExtension)) {
+				final String dataName = name.substring(0, name.length() - doneExtension.length());
+				if (!present.contains(dataName)) {
+					// The file was claimed (or never came): drop the marker
+					deleteMarker(new File(getSourceFolder(), name));
+				}
+				continue;
+			}
+			nameMatcher.reset(name);
+			if (!nameMatcher.matches()) {
+				continue;
+			}
+			final File file = new File(getSourceFolder(), name);
+			final BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			} catch (IOException e) {
+				// Gone in the mean time
+				continue;
+			}
+			if (attributes.isDirectory()) {
+				continue;
+			}
+			final long size = attributes.size();
+			final long modified = attributes.lastModifiedTime().toMillis();
+			Candidate candidate = candidates.get(name);
+			if (candidate == null) {
+				// The quiet period starts when the file is first seen
+				candidate = new Candidate(size, modified, now);
+				candidates.put(name, candidate);
+			} else if ((candidate.size != size) || (candidate.modified != modified)) {
+				candidate.size = size;
+				candidate.modified = modified;
+				candidate.changedAt = now;
+			}
+			if ((candidate.claimRejectedAt != 0)
+					&& ((now - candidate.claimRejectedAt) < Math.max(quietMillis, CLAIM_RETRY_MILLIS))) {
+				trace.trace("File was locked, ignored:" + name, TraceLevel.DEBUG);
+			} else if (doneExtension != null) {
+				if (present.contains(name + doneExtension)) {
+					ready.add(file);
+				}
+			} else if ((now - candidate.changedAt) >= quietMillis) {
+				ready.add(file);
+			} else {
+				trace.trace("File not stable yet, ignored:" + name, TraceLevel.DEBUG);
+			}
+		}
+		// Forget the files that are gone
+		final Iterator<String> it = candidates.keySet().iterator();
+		while (it.hasNext()) {
+			if (!present.contains(it.next())) {
+				it.remove();
+			}
+		}
+		trace.trace("getFileList done", TraceLevel.TRACE);
+		if (ready.isEmpty()) {
+			return null;
+		}
+		return ready.toArray(new File[ready.size()]);
+	}
+
+	@Override
+	public boolean canClaim(File file) {
+		if (isLocked(file)) {
+			trace.trace("File is locked, ignored:" + file.getName(), TraceLevel.DEBUG);
+			// Wait for a new quiet period, and do not offer the file again
+			// right away (a marker or a quiet period of 0 would)
+			final Candidate candidate = candidates.get(file.getName());
+			if (candidate != null) {
+				candidate.changedAt = System.currentTimeMillis();
+				candidate.claimRejectedAt = candidate.changedAt;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private void deleteMarker(File marker) {
+		if (marker.delete()) {
+			trace.trace("Marker file deleted:" + marker.getName(), TraceLevel.DEBUG);
+		}
+	}
+}
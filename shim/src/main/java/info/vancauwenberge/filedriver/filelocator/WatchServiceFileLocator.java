@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filelocator;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.XDSParameterException;
+import com.novell.nds.dirxml.driver.xds.XDSResultDocument;
+
+import info.vancauwenberge.filedriver.api.IShutdown;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.util.TraceLevel;
+import info.vancauwenberge.filedriver.util.Util;
+
+/**
+ * A {@link RegExpFileLocator} that watches the source folder. When a file
+ * that matches the regexp is created or written to, the publisher is woken up
+ * as soon as the file did not change for {@link #SETTLE_MILLIS}, instead of at
+ * the end of the polling interval.
+ * <p>
+ * The polling interval is still used: every poll lists the source folder, as
+ * the {@link RegExpFileLocator} does. This is the safety net for events that
+ * are lost (overflow) and for file systems that do not report changes (e.g.
+ * network shares). With this locator, the polling interval can be long.
+ */
+public class WatchServiceFileLocator extends RegExpFileLocator implements IShutdown {
+	/**
+	 * A file is picked up when it did not change for this long. There is no
+	 * close event: a file that is still being written to keeps sending modify
+	 * events.
+	 */
+	public static final long SETTLE_MILLIS = 1000;
+
+	private Trace trace;
+	private IPublisher publisher;
+	private WatchService watchService;
+
+	/**
+	 * Waits for events on the source folder and wakes up the publisher.
+	 */
+	private final class Watcher implements Runnable {
+		private final WatchService watchService;
+		private final Pattern pattern;
+
+		private Watcher(WatchService watchService, Pattern pattern) {
+			this.watchService = watchService;
+			this.pattern = pattern;
+		}
+
+		@Override
+		public void run() {
+			// File name - time of the last event
+			final Map<Path, Long> changed = new HashMap<Path, Long>();
+			try {
+				while (true) {
+					final WatchKey key = changed.isEmpty() ? watchService.take()
+							: watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+					final long now = System.currentTimeMillis();
+					if (key != null) {
+						for (WatchEvent<?> event : key.pollEvents()) {
+							if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+								trace.trace("Events on the source folder were lost. Rescanning the folder.",
+										TraceLevel.DEBUG);
+								publisher.wakeUp();
+							} else {
+								final Path name = (Path) event.context();
+								if (pattern.matcher(name.toString()).matches()) {
+									changed.put(name, Long.valueOf(now));
+								}
+							}
+						}
+						if (!key.reset()) {
+							trace.trace("The source folder is no longer watched. Files are only found by polling.",
+									TraceLevel.ERROR_WARN);
+							return;
+						}
+					}
+					// Wake up the publisher once for all settled files
+					boolean settled = false;
+					final Iterator<Map.Entry<Path, Long>> it = changed.entrySet().iterator();
+					while (it.hasNext()) {
+						final Map.Entry<Path, Long> entry = it.next();
+						if ((now - entry.getValue().longValue()) >= SETTLE_MILLIS) {
+							trace.trace("File ready: " + entry.getKey(), TraceLevel.DEBUG);
+							it.remove();
+							settled = true;
+						}
+					}
+					if (settled) {
+						publisher.wakeUp();
+					}
+				}
+			} catch (ClosedWatchServiceException e) {
+				// Shutdown
+			} catch (InterruptedException e) {
+				// Shutdown
+			}
+		}
+	}
+
+	@Override
+	public void init(Trace trace, Map<String, Parameter> driverParams, IPublisher publisher)
+			throws XDSParameterException {
+		super.init(trace, driverParams, publisher);
+		// A new init (e.g. a restart of the driver) replaces the watcher
+		closeWatchService();
+		this.trace = trace;
+		this.publisher = publisher;
+		final Path folder = Paths.get(getSourceFolder());
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			trace.trace("Unable to watch " + folder + ". Files are only found by polling.", TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+			closeWatchService();
+			return;
+		}
+		final Thread thread = new Thread(new Watcher(watchService, getPattern()), "pubFileWatcher");
+		thread.setDaemon(true);
+		thread.start();
+		trace.trace("Watching " + folder, TraceLevel.DEBUG);
+	}
+
+	@Override
+	public void onShutdown(XDSResultDocument reasonXml) {
+		closeWatchService();
+	}
+
+	/**
+	 * Close the watch service. This also ends the watcher thread.
+	 */
+	private void closeWatchService() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
+			watchService = null;
+		}
+	}
+}
@@ -24,10 +24,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.novell.nds.dirxml.driver.Trace;
 import com.novell.nds.dirxml.driver.xds.Constraint;
@@ -42,6 +46,7 @@ import info.vancauwenberge.filedriver.api.AbstractStrategy;
 import info.vancauwenberge.filedriver.api.IPublisherLoggerStrategy;
 import info.vancauwenberge.filedriver.exception.WriteException;
 import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.util.CSVCodec;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 import info.vancauwenberge.filedriver.util.Util;
 
@@ -128,6 +133,66 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 			public DataType getDataType() {
 				return DataType.BOOLEAN;
 			}
+		},
+
+		/**
+		 * Write the log entries on a background thread, so the publisher never waits for the log file.
+		 */
+		CSV_FILE_WRITE_ASYNC{
+			@Override
+			public String getParameterName() {
+				return "csvLogger_Async";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "false";
+			}
+
+			@Override
+			public DataType getDataType() {
+				return DataType.BOOLEAN;
+			}
+		},
+
+		/**
+		 * Async: number of log entries that can wait to be written. When full, new entries are dropped.
+		 */
+		CSV_FILE_ASYNC_BUFFER_SIZE{
+			@Override
+			public String getParameterName() {
+				return "csvLogger_AsyncBufferSize";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "8192";
+			}
+
+			@Override
+			public DataType getDataType() {
+				return DataType.INT;
+			}
+		},
+
+		/**
+		 * Async: maximum number of milliseconds a written entry stays in the file buffer
+		 */
+		CSV_FILE_ASYNC_FLUSH_MILLIS{
+			@Override
+			public String getParameterName() {
+				return "csvLogger_AsyncFlushMillis";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "1000";
+			}
+
+			@Override
+			public DataType getDataType() {
+				return DataType.INT;
+			}
 		};
 
 
@@ -151,6 +216,7 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 	private boolean writeHeader = false;
 	private boolean flushEvryLine = false;
 	private char seperator =';';
+	private CSVCodec codec;
 	private String encoding=null;
 	private BufferedWriter bos;
 	private File theFile;
@@ -158,6 +224,19 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 	private Trace trace;
 	private EnumMap<LogField, Integer> logFieldPositionMap ;
 	private String[] schema;
+	/**
+	 * Size of the file buffer in async mode, in characters
+	 */
+	private static final int ASYNC_WRITE_BUFFER = 64 * 1024;
+	private boolean async = false;
+	private int asyncBufferSize;
+	private long asyncFlushMillis;
+	/**
+	 * The entries waiting for the writer thread (async mode)
+	 */
+	private BlockingQueue<LogEntry> entries;
+	private AsyncWriter asyncWriter;
+	private int droppedEntries;
 
 	@Override
 	public void init(final Trace trace, final Map<String, Parameter> driverParams, final IPublisher publisher) throws Exception {
@@ -180,6 +259,19 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 		} else {
 			throw new XDSParameterException("Invalid parameter value for seperator:"+strSeperator);
 		}
+		codec = new CSVCodec(seperator);
+
+		async = getBoolValueFor(Parameters.CSV_FILE_WRITE_ASYNC, driverParams);
+		if (async){
+			asyncBufferSize = getIntValueFor(Parameters.CSV_FILE_ASYNC_BUFFER_SIZE, driverParams);
+			asyncFlushMillis = getIntValueFor(Parameters.CSV_FILE_ASYNC_FLUSH_MILLIS, driverParams);
+			if (asyncBufferSize < 1) {
+				throw new XDSParameterException("Invalid parameter value for async buffer size:"+asyncBufferSize);
+			}
+			if (asyncFlushMillis < 1) {
+				throw new XDSParameterException("Invalid parameter value for async flush interval:"+asyncFlushMillis);
+			}
+		}
 
 		if ("".equals(encoding) || (encoding==null)){
 			encoding=Util.getSystemDefaultEncoding();
@@ -191,39 +283,13 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 		trace.trace(" WriteHeader:"+writeHeader, TraceLevel.TRACE);
 		trace.trace(" FlushEvryLine:"+flushEvryLine, TraceLevel.TRACE);
 		trace.trace(" Seperator:"+seperator, TraceLevel.TRACE);
+		trace.trace(" Async:"+async, TraceLevel.TRACE);
 	}
 
 
-	/**
-	 * Escape the value in a csv file. Assumed seperator is ;
-	 * @param input
-	 * @return
-	 */
-	private String escapeCsv(final String input){
-		if (input==null) {
-			return "";
-		}
-		//if it contains a double quote: escape with double quote
-		String temp = input.replaceAll("\"","\"\"");
-		//if it contains a double quote, the seperator or newline: surround with double quote
-		if ((temp.indexOf('"')>=0) | (temp.indexOf('\n')>=0) | (temp.indexOf(seperator)>=0)) {
-			temp = "\""+temp+"\"";
-		}
-		return temp;
-	}
-
 	private void writeLine(final String[] values) throws IOException{
-		for (int i = 0; i < values.length; i++) {
-			if (i>0) {
-				bos.write(seperator);
-			}
-			final String string = values[i];
-			bos.write(escapeCsv(string));
-		}
+		codec.writeFields(bos, values);
 		bos.newLine();
-		if (flushEvryLine) {
-			bos.flush();
-		}
 	}
 
 
@@ -236,7 +302,7 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 		try {
 			final FileOutputStream fos = new FileOutputStream(f);
 			final OutputStreamWriter osw = new OutputStreamWriter(fos, encoding);
-			bos = new BufferedWriter(osw);
+			bos = async ? new BufferedWriter(osw, ASYNC_WRITE_BUFFER) : new BufferedWriter(osw);
 			theFile = f;
 			//Append the log schema fields at the end
 			final String[] extendedSchema = new String[schema.length+logFieldSchemaMap.size()];
@@ -251,6 +317,15 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 			}
 			if (writeHeader){
 				writeLine(extendedSchema);
+				if (flushEvryLine && !async) {
+					bos.flush();
+				}
+			}
+			if (async){
+				entries = new ArrayBlockingQueue<LogEntry>(asyncBufferSize);
+				droppedEntries = 0;
+				asyncWriter = new AsyncWriter(f.getName());
+				asyncWriter.start();
 			}
 		} catch (final Exception e) {
 			Util.printStackTrace(trace,e);
@@ -264,6 +339,22 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 	public File close() throws WriteException {
 		trace.trace(" Closing file.", TraceLevel.TRACE);
 		try {
+			if (asyncWriter != null){
+				//Wait for the entries in the buffer to be written
+				final AsyncWriter writer = asyncWriter;
+				asyncWriter = null;
+				writer.finish();
+				if (droppedEntries > 0) {
+					trace.trace(" "+droppedEntries+" log entries were dropped because the log buffer was full.", TraceLevel.ERROR_WARN);
+				}
+				if (writer.lateEntries > 0) {
+					trace.trace(" "+writer.lateEntries+" log entries were written more than "+asyncFlushMillis+" ms after they were logged.", TraceLevel.ERROR_WARN);
+				}
+				if (writer.error != null) {
+					bos.close();
+					throw writer.error;
+				}
+			}
 			bos.close();
 			return theFile;
 		} catch (final IOException e) {
@@ -286,6 +377,16 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 		if (xdsStatusElement != null){
 			values = appendStatusFields(recordNumber, xdsStatusElement, values);
 		}
+		if (asyncWriter != null){
+			//Never wait for the writer thread
+			if (!entries.offer(new LogEntry(values))){
+				if (droppedEntries == 0) {
+					trace.trace(" Log buffer full: log entries are dropped.", TraceLevel.ERROR_WARN);
+				}
+				droppedEntries++;
+			}
+			return;
+		}
 		try {
 			writeLine(values);
 			if (flushEvryLine) {
@@ -337,6 +438,118 @@ public class PublisherCSVLogger extends AbstractStrategy implements IPublisherLo
 		return values;
 	}
 
+	/**
+	 * A line for the log file, waiting to be written (async mode)
+	 */
+	private static final class LogEntry {
+		/**
+		 * Wakes up the writer when the file is closed
+		 */
+		private static final LogEntry FINISH = new LogEntry(null);
+		private final String[] values;
+		private final long loggedAt;
+
+		private LogEntry(final String[] values) {
+			this.values = values;
+			this.loggedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Thread that writes the entries of one log file in async mode. The entries are written in batches, and the file is
+	 * flushed when its buffer is full, asyncFlushMillis after the first entry that was not flushed, or when the file
+	 * is closed.
+	 */
+	private final class AsyncWriter extends Thread {
+		private volatile boolean finishing = false;
+		/**
+		 * The first write error. The next entries are dropped.
+		 */
+		private IOException error;
+		/**
+		 * Number of entries written more than asyncFlushMillis after they were logged
+		 */
+		private int lateEntries = 0;
+
+		private AsyncWriter(final String fileName) {
+			super("PublisherCSVLogger-" + fileName);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			final List<LogEntry> batch = new ArrayList<LogEntry>();
+			//Time of the first entry that was written, but not flushed. 0 if none.
+			long unflushedSince = 0;
+			try {
+				while (!finishing || !entries.isEmpty()) {
+					final long wait = (unflushedSince == 0) ? asyncFlushMillis
+							: Math.max(1, (unflushedSince + asyncFlushMillis) - System.currentTimeMillis());
+					final LogEntry first = entries.poll(wait, TimeUnit.MILLISECONDS);
+					if (first != null){
+						batch.add(first);
+						entries.drainTo(batch);
+						final long now = System.currentTimeMillis();
+						for (final LogEntry entry : batch) {
+							if (entry != LogEntry.FINISH) {
+								write(entry, now);
+							}
+						}
+						batch.clear();
+						if (unflushedSince == 0) {
+							unflushedSince = now;
+						}
+					}
+					if ((unflushedSince != 0) && ((System.currentTimeMillis() - unflushedSince) >= asyncFlushMillis)) {
+						flush();
+						unflushedSince = 0;
+					}
+				}
+			} catch (final InterruptedException e) {
+				//Stop writing
+			}
+			flush();
+		}
+
+		private void write(final LogEntry entry, final long now) {
+			if ((now - entry.loggedAt) > asyncFlushMillis) {
+				lateEntries++;
+			}
+			if (error == null) {
+				try {
+					writeLine(entry.values);
+				} catch (final IOException e) {
+					error = e;
+				}
+			}
+		}
+
+		private void flush() {
+			if (error == null) {
+				try {
+					bos.flush();
+				} catch (final IOException e) {
+					error = e;
+				}
+			}
+		}
+
+		/**
+		 * Write the remaining entries and stop.
+		 */
+		private void finish() {
+			finishing = true;
+			//Do not wait for the poll timeout. If the buffer is full, the writer is not waiting anyway.
+			entries.offer(LogEntry.FINISH);
+			try {
+				join();
+			} catch (final InterruptedException e) {
+				trace.trace(" Waiting for the log writer was interrupted.", TraceLevel.ERROR_WARN);
+				interrupt();
+			}
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <E extends Enum<?> & IStrategyParameters> Class<E> getParametersEnum() {
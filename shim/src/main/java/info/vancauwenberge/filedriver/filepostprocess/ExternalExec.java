@@ -25,7 +25,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -40,8 +39,8 @@ import com.novell.nds.dirxml.driver.xds.RangeConstraint;
 import info.vancauwenberge.filedriver.api.AbstractStrategy;
 import info.vancauwenberge.filedriver.api.IDriver;
 import info.vancauwenberge.filedriver.api.IPostProcessStrategy;
-import info.vancauwenberge.filedriver.filereader.csv.CSVFileParser;
 import info.vancauwenberge.filedriver.shim.ConnectionInfo;
+import info.vancauwenberge.filedriver.util.CSVCodec;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 import info.vancauwenberge.filedriver.util.Util;
 
@@ -256,13 +255,9 @@ public class ExternalExec extends AbstractStrategy implements IPostProcessStrate
 		if (!"".equals(command)){
 			commandAndParams = new ArrayList<String>();
 			//Parse the command as a CSV line with space as a separator
-			final CSVFileParser parser = new CSVFileParser(' ', new String[]{}, true, false, false);
-			parser.resetParser();
-			parser.doParse(new StringReader(command));
-			final Map<String,String> fields = parser.getQueue().getNextRecord();
+			final List<String> fields = new CSVCodec(' ').parseLine(command);
 			//loop over the fields and get the values
-			for (int i = 0; i < fields.size(); i++) {
-				final String value = fields.get("field"+i);
+			for (final String value : fields) {
 				if (! "".equals(value)) {
 					commandAndParams.add(value);
 				}
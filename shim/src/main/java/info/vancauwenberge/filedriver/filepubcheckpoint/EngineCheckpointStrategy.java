@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepubcheckpoint;
+
+import info.vancauwenberge.filedriver.api.IPublisherCheckpointStrategy;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+
+import java.util.Map;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+
+/**
+ * The publisher state is only kept by the engine: every command document
+ * carries the state of its last record.
+ */
+public class EngineCheckpointStrategy implements IPublisherCheckpointStrategy{
+
+	public Map<String, Parameter> getParameterDefinitions() {
+		return null;
+	}
+
+	public void init(Trace trace, Map<String, Parameter> driverParams, IPublisher publisher) throws Exception {
+
+	}
+
+	public boolean isEngineCheckpoint(int recordCount) {
+		return true;
+	}
+
+	public void checkpoint(Map<String, String> state) {
+
+	}
+
+	public Map<String, String> getRestartState(Map<String, String> engineState) {
+		return engineState;
+	}
+
+}
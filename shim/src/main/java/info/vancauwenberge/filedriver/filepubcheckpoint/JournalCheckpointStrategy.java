@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepubcheckpoint;
+
+import info.vancauwenberge.filedriver.api.AbstractStrategy;
+import info.vancauwenberge.filedriver.api.IPublisherCheckpointStrategy;
+import info.vancauwenberge.filedriver.api.IShutdown;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.util.TraceLevel;
+import info.vancauwenberge.filedriver.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Constraint;
+import com.novell.nds.dirxml.driver.xds.DataType;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.RangeConstraint;
+import com.novell.nds.dirxml.driver.xds.XDSResultDocument;
+
+/**
+ * Writes every publisher state to a local journal file that is forced to disk.
+ * The state is only sent to the engine every so many records or seconds (and
+ * when a file is finished), which keeps the command documents small.
+ * <p>
+ * The journal is a text file with one state per line. Every line starts with
+ * a checksum, so a line that was only partly written when the server crashed
+ * is ignored. The last valid line is the state to restart from.
+ */
+public class JournalCheckpointStrategy extends AbstractStrategy implements IPublisherCheckpointStrategy, IShutdown {
+	protected enum Parameters implements IStrategyParameters{
+		/**
+		 * The journal file. Defaults to publisher.journal in the work folder.
+		 */
+		JOURNAL_FILE {
+			@Override
+			public String getParameterName() {
+				return "journalCheckpoint_File";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "";
+			}
+
+			@Override
+			public DataType getDataType() {
+				return DataType.STRING;
+			}
+
+			@Override
+			public Constraint[] getConstraints() {
+				return null;
+			}
+		},
+		/**
+		 * Send the state to the engine after this number of records
+		 */
+		ENGINE_RECORDS {
+			@Override
+			public String getParameterName() {
+				return "journalCheckpoint_EngineRecords";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "1000";
+			}
+		},
+		/**
+		 * Send the state to the engine after this number of seconds
+		 */
+		ENGINE_SECONDS {
+			@Override
+			public String getParameterName() {
+				return "journalCheckpoint_EngineSeconds";
+			}
+
+			@Override
+			public String getDefaultValue() {
+				return "60";
+			}
+		};
+
+		public abstract String getParameterName();
+
+		public abstract String getDefaultValue();
+
+		public DataType getDataType() {
+			return DataType.INT;
+		}
+
+		public Constraint[] getConstraints() {
+			return new Constraint[]{RangeConstraint.POSITIVE};
+		}
+	}
+
+	/**
+	 * Default name of the journal in the work folder
+	 */
+	public static final String DEFAULT_JOURNAL_NAME = "publisher.journal";
+	/**
+	 * The journal is rewritten with only the last state when it grows larger
+	 */
+	private static final long MAX_JOURNAL_SIZE = 256 * 1024;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Trace trace;
+	private File journalFile;
+	private int engineRecords;
+	private long engineMillis;
+	private int recordsSinceEngine = 0;
+	private long lastEngineTime;
+	/**
+	 * Open journal, or null
+	 */
+	private FileChannel channel = null;
+	/**
+	 * Has the journal been rewritten since the driver started? This drops
+	 * any partly written line.
+	 */
+	private boolean compacted = false;
+	/**
+	 * Did the last write to the journal fail? If so, every state goes to the
+	 * engine.
+	 */
+	private boolean journalFailed = false;
+
+	public void init(Trace trace, Map<String, Parameter> driverParams, IPublisher publisher) throws Exception {
+		this.trace = trace;
+		final String fileName = getStringValueFor(Parameters.JOURNAL_FILE, driverParams);
+		if ((fileName == null) || "".equals(fileName.trim())) {
+			journalFile = new File(publisher.getWorkDir(), DEFAULT_JOURNAL_NAME);
+		} else {
+			journalFile = new File(fileName.trim());
+		}
+		engineRecords = getIntValueFor(Parameters.ENGINE_RECORDS, driverParams);
+		engineMillis = getIntValueFor(Parameters.ENGINE_SECONDS, driverParams) * 1000L;
+		lastEngineTime = System.currentTimeMillis();
+		trace.trace("Publisher state journal: " + journalFile.getAbsolutePath(), TraceLevel.DEBUG);
+	}
+
+	public synchronized boolean isEngineCheckpoint(int recordCount) {
+		recordsSinceEngine += recordCount;
+		final long now = System.currentTimeMillis();
+		if (journalFailed || (recordsSinceEngine >= engineRecords) || ((now - lastEngineTime) >= engineMillis)) {
+			recordsSinceEngine = 0;
+			lastEngineTime = now;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized void checkpoint(Map<String, String> state) {
+		final byte[] entry = encode(state);
+		try {
+			if (!compacted || ((channel != null) && ((channel.size() + entry.length) > MAX_JOURNAL_SIZE))) {
+				rewrite(entry);
+			} else {
+				if (channel == null) {
+					channel = new RandomAccessFile(journalFile, "rw").getChannel();
+					channel.position(channel.size());
+				}
+				final ByteBuffer buffer = ByteBuffer.wrap(entry);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			}
+			journalFailed = false;
+		} catch (IOException e) {
+			trace.trace("Writing the publisher state journal " + journalFile.getAbsolutePath()
+					+ " failed. The state is sent to the engine instead.", TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+			journalFailed = true;
+			closeChannel();
+			//An old state in the journal must not win from the engine state after a restart
+			if (journalFile.exists() && !journalFile.delete()) {
+				trace.trace("Unable to delete the publisher state journal " + journalFile.getAbsolutePath(),
+						TraceLevel.ERROR_WARN);
+			}
+		}
+	}
+
+	/**
+	 * Replace the journal by a journal with only the given entry.
+	 * @param entry
+	 * @throws IOException
+	 */
+	private void rewrite(byte[] entry) throws IOException {
+		closeChannel();
+		final File parent = journalFile.getAbsoluteFile().getParentFile();
+		if ((parent != null) && !parent.exists()) {
+			parent.mkdirs();
+		}
+		final File tmpFile = new File(journalFile.getPath() + ".tmp");
+		final RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw");
+		try {
+			tmp.setLength(0);
+			tmp.write(entry);
+			tmp.getChannel().force(false);
+		} finally {
+			tmp.close();
+		}
+		try {
+			Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		channel = new RandomAccessFile(journalFile, "rw").getChannel();
+		channel.position(channel.size());
+		compacted = true;
+	}
+
+	/**
+	 * The journal wins from the engine state: it is written after every
+	 * command. Only when both are about the same file, the one that is
+	 * furthest is used. The engine can be one command ahead when the
+	 * driver stopped before the journal was written.
+	 */
+	public synchronized Map<String, String> getRestartState(Map<String, String> engineState) {
+		final Map<String, String> journalState = readJournal();
+		if (journalState == null) {
+			trace.trace("No publisher state in the journal. Using the engine state.", TraceLevel.DEBUG);
+			return engineState;
+		}
+		final String filePath = journalState.get(STATE_FILE_PATH);
+		if ((engineState != null) && (filePath != null) && filePath.equals(engineState.get(STATE_FILE_PATH))
+				&& (getProgress(engineState) > getProgress(journalState))) {
+			trace.trace("The engine state is further than the journal. Using the engine state.", TraceLevel.DEBUG);
+			return engineState;
+		}
+		trace.trace("Using the publisher state from the journal: " + journalState, TraceLevel.DEBUG);
+		return journalState;
+	}
+
+	/**
+	 * The record number of a state. A finished file (-1) is the furthest.
+	 */
+	private static long getProgress(Map<String, String> state) {
+		try {
+			final int recordNumber = Integer.parseInt(state.get(STATE_RECORDNUMBER));
+			return (recordNumber < 0) ? Long.MAX_VALUE : recordNumber;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Get the last valid state in the journal, or null.
+	 */
+	private Map<String, String> readJournal() {
+		if (!journalFile.exists()) {
+			return null;
+		}
+		final String content;
+		try {
+			content = new String(Files.readAllBytes(journalFile.toPath()), UTF8);
+		} catch (IOException e) {
+			trace.trace("Reading the publisher state journal " + journalFile.getAbsolutePath() + " failed.",
+					TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+			return null;
+		}
+		final String[] lines = content.split("\n");
+		for (int i = lines.length - 1; i >= 0; i--) {
+			final Map<String, String> state = decode(lines[i]);
+			if (state != null) {
+				return state;
+			}
+			if (lines[i].length() > 0) {
+				trace.trace("Ignoring an invalid line in the publisher state journal.", TraceLevel.ERROR_WARN);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A journal line: the CRC32 of the entries (hex), followed by
+	 * tab separated key=value entries.
+	 */
+	static byte[] encode(Map<String, String> state) {
+		final StringBuilder entries = new StringBuilder();
+		final Iterator<Map.Entry<String, String>> iter = state.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Map.Entry<String, String> entry = iter.next();
+			escape(entries, entry.getKey());
+			entries.append('=');
+			escape(entries, (entry.getValue() == null) ? "" : entry.getValue());
+			if (iter.hasNext()) {
+				entries.append('\t');
+			}
+		}
+		final byte[] entryBytes = entries.toString().getBytes(UTF8);
+		final CRC32 crc = new CRC32();
+		crc.update(entryBytes);
+		return (Long.toHexString(crc.getValue()) + '\t' + entries + '\n').getBytes(UTF8);
+	}
+
+	/**
+	 * Decode a journal line. Returns null if the line is not valid.
+	 */
+	static Map<String, String> decode(String line) {
+		final int tabPos = line.indexOf('\t');
+		if (tabPos <= 0) {
+			return null;
+		}
+		final String entries = line.substring(tabPos + 1);
+		final CRC32 crc = new CRC32();
+		crc.update(entries.getBytes(UTF8));
+		if (!Long.toHexString(crc.getValue()).equals(line.substring(0, tabPos))) {
+			return null;
+		}
+		final Map<String, String> state = new LinkedHashMap<String, String>();
+		for (String entry : entries.split("\t")) {
+			final int eqPos = entry.indexOf('=');
+			if (eqPos < 0) {
+				return null;
+			}
+			state.put(unescape(entry.substring(0, eqPos)), unescape(entry.substring(eqPos + 1)));
+		}
+		return state;
+	}
+
+	private static void escape(StringBuilder sb, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '=':
+				sb.append("\\e");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		final StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '\\') && ((i + 1) < value.length())) {
+				i++;
+				switch (value.charAt(i)) {
+				case 't':
+					c = '\t';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'e':
+					c = '=';
+					break;
+				default:
+					c = value.charAt(i);
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				trace.trace("Closing the publisher state journal failed: " + e.getMessage(), TraceLevel.ERROR_WARN);
+			}
+			channel = null;
+		}
+	}
+
+	public synchronized void onShutdown(XDSResultDocument reasonXML) {
+		closeChannel();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E extends Enum<?> & IStrategyParameters> Class<E> getParametersEnum() {
+		return (Class<E>) Parameters.class;
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the vault lookups done for a dynamic command:
+ * association to the dest-dn of the associated object. An association without
+ * a (single) associated object is cached as well, as a negative entry. Entries
+ * expire after a time to live, so changes made in the vault by others are
+ * picked up.
+ */
+class AssociationCache {
+	/**
+	 * The cached result of one lookup.
+	 */
+	static final class Entry {
+		private final String destDn;
+		private final long expires;
+
+		private Entry(final String destDn, final long expires) {
+			this.destDn = destDn;
+			this.expires = expires;
+		}
+
+		/**
+		 * @return true if exactly one object is associated
+		 */
+		boolean isFound() {
+			return destDn != null;
+		}
+
+		/**
+		 * @return the dest-dn of the associated object, or null if not found
+		 */
+		String getDestDn() {
+			return destDn;
+		}
+	}
+
+	private final long ttlMillis;
+	private final Map<String, Entry> entries;
+
+	AssociationCache(final int maxSize, final long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, AssociationCache.Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Get the cached lookup of an association.
+	 *
+	 * @param association
+	 * @return the entry, or null if the association is not cached (or expired)
+	 */
+	synchronized Entry get(final String association) {
+		final Entry entry = entries.get(association);
+		if ((entry != null) && (entry.expires < System.currentTimeMillis())) {
+			entries.remove(association);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Cache the lookup of an association.
+	 *
+	 * @param association
+	 * @param destDn
+	 *            the dest-dn of the associated object, or null if there is
+	 *            none
+	 */
+	synchronized void put(final String association, final String destDn) {
+		entries.put(association, new Entry(destDn, System.currentTimeMillis() + ttlMillis));
+	}
+
+	/**
+	 * Forget an association (the publisher adds or deletes its object).
+	 *
+	 * @param association
+	 */
+	synchronized void remove(final String association) {
+		entries.remove(association);
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+}
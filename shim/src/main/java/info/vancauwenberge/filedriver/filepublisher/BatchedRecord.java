@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.novell.nds.dirxml.driver.xds.StatusLevel;
+import com.novell.nds.dirxml.driver.xds.XDSStatusElement;
+
+/**
+ * A record that is submitted in a batch of records, with the statuses
+ * returned for it.
+ */
+final class BatchedRecord {
+	final int recordNumber;
+	final Map<String, String> record;
+	final String eventId;
+	final List<XDSStatusElement> statusList = new ArrayList<XDSStatusElement>(1);
+
+	BatchedRecord(final int recordNumber, final Map<String, String> record, final String eventId) {
+		this.recordNumber = recordNumber;
+		this.record = record;
+		this.eventId = eventId;
+	}
+
+	/**
+	 * @return the last retry status of this record, or null
+	 */
+	XDSStatusElement getRetryStatus() {
+		XDSStatusElement retryStatus = null;
+		for (final XDSStatusElement xdsStatusElement : statusList) {
+			if (StatusLevel.RETRY.equals(xdsStatusElement.getLevel())) {
+				retryStatus = xdsStatusElement;
+			}
+		}
+		return retryStatus;
+	}
+
+	/**
+	 * Add the statuses of a response to the records they are about, matching
+	 * them by event-id. A status without a known event-id is about the whole
+	 * document: it is added to the last record and, if it is a retry, all
+	 * records without a status of their own are retried.
+	 *
+	 * @param statusList
+	 *            the statuses of the response (can be null)
+	 * @param sent
+	 *            the records of the document, in file order
+	 * @return the records that need a retry, in file order
+	 */
+	static List<BatchedRecord> assignStatuses(final List<XDSStatusElement> statusList,
+			final List<BatchedRecord> sent) {
+		final Map<String, BatchedRecord> byEventId = new HashMap<String, BatchedRecord>();
+		for (final BatchedRecord batchedRecord : sent) {
+			byEventId.put(batchedRecord.eventId, batchedRecord);
+		}
+		final BatchedRecord lastRecord = sent.get(sent.size() - 1);
+		boolean retryAll = false;
+		if (statusList != null) {
+			for (final XDSStatusElement xdsStatusElement : statusList) {
+				BatchedRecord batchedRecord = byEventId.get(xdsStatusElement.getEventID());
+				if (batchedRecord == null) {
+					batchedRecord = lastRecord;
+					if (StatusLevel.RETRY.equals(xdsStatusElement.getLevel())) {
+						retryAll = true;
+					}
+				}
+				batchedRecord.statusList.add(xdsStatusElement);
+			}
+		}
+
+		final List<BatchedRecord> toRetry = new ArrayList<BatchedRecord>();
+		for (final BatchedRecord batchedRecord : sent) {
+			if ((retryAll && (batchedRecord.statusList.isEmpty() || (batchedRecord == lastRecord)))
+					|| (batchedRecord.getRetryStatus() != null)) {
+				toRetry.add(batchedRecord);
+			}
+		}
+		return toRetry;
+	}
+
+	/**
+	 * The records were not processed (e.g. on shutdown): the publisher state
+	 * to save is the state after the record before the first of them.
+	 *
+	 * @param records
+	 *            the records that were not processed, in file order
+	 * @return the number of the last record that was processed
+	 */
+	static int getStateBefore(final List<BatchedRecord> records) {
+		return records.get(0).recordNumber - 1;
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+
+import info.vancauwenberge.filedriver.util.CSVCodec;
+
+/**
+ * CSV file with the records that were given up after too many retries. The
+ * file is only created when the first record is written. The columns are the
+ * fields of the schema, followed by the record number, the number of attempts
+ * and the message of the last retry status.
+ */
+final class DeadLetterWriter {
+	static final String FIELD_RECORDNUMBER = "recordNumber";
+	static final String FIELD_ATTEMPTS = "attempts";
+	static final String FIELD_MESSAGE = "lastStatus";
+	private static final CSVCodec CODEC = new CSVCodec(';');
+
+	private final File file;
+	private final String[] schema;
+	private BufferedWriter writer;
+	private int count = 0;
+
+	DeadLetterWriter(final File file, final String[] schema) {
+		this.file = file;
+		this.schema = schema;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of records written
+	 */
+	int getCount() {
+		return count;
+	}
+
+	void write(final int recordNumber, final Map<String, String> record, final int attempts, final String message)
+			throws IOException {
+		if (writer == null) {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			final String[] header = new String[schema.length + 3];
+			System.arraycopy(schema, 0, header, 0, schema.length);
+			header[schema.length] = FIELD_RECORDNUMBER;
+			header[schema.length + 1] = FIELD_ATTEMPTS;
+			header[schema.length + 2] = FIELD_MESSAGE;
+			writeLine(header);
+		}
+		final String[] values = new String[schema.length + 3];
+		for (int i = 0; i < schema.length; i++) {
+			values[i] = record.get(schema[i]);
+		}
+		values[schema.length] = Integer.toString(recordNumber);
+		values[schema.length + 1] = Integer.toString(attempts);
+		values[schema.length + 2] = message;
+		writeLine(values);
+		// Every record counts: do not keep it in the buffer
+		writer.flush();
+		count++;
+	}
+
+	void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private void writeLine(final String[] values) throws IOException {
+		CODEC.writeFields(writer, values);
+		writer.newLine();
+	}
+}
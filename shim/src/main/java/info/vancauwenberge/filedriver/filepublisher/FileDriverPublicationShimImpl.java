@@ -20,19 +20,33 @@
 package info.vancauwenberge.filedriver.filepublisher;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import com.novell.nds.dirxml.driver.DriverFilter;
@@ -52,6 +66,7 @@ import com.novell.nds.dirxml.driver.xds.StatusType;
 import com.novell.nds.dirxml.driver.xds.XDSAddAttrElement;
 import com.novell.nds.dirxml.driver.xds.XDSAddElement;
 import com.novell.nds.dirxml.driver.xds.XDSAddValueElement;
+import com.novell.nds.dirxml.driver.xds.XDSAssociationElement;
 import com.novell.nds.dirxml.driver.xds.XDSAttrDefElement;
 import com.novell.nds.dirxml.driver.xds.XDSAttrElement;
 import com.novell.nds.dirxml.driver.xds.XDSClassDefElement;
@@ -77,11 +92,15 @@ import com.novell.nds.dirxml.driver.xds.XDSValueElement;
 import com.novell.nds.dirxml.driver.xds.util.StatusAttributes;
 import com.novell.nds.dirxml.driver.xds.util.XDSUtil;
 
+import info.vancauwenberge.filedriver.api.IClaimableFileLocatorStrategy;
 import info.vancauwenberge.filedriver.api.IDriver;
 import info.vancauwenberge.filedriver.api.IFileLocatorStrategy;
 import info.vancauwenberge.filedriver.api.IFileReadStrategy;
 import info.vancauwenberge.filedriver.api.IFileSorterStrategy;
 import info.vancauwenberge.filedriver.api.IPubFileCleanStrategy;
+import info.vancauwenberge.filedriver.api.IPublisherCheckpointStrategy;
+import info.vancauwenberge.filedriver.api.IRandomAccessFileReadStrategy;
+import info.vancauwenberge.filedriver.api.IResumableFileReadStrategy;
 import info.vancauwenberge.filedriver.api.IPublisherLoggerStrategy;
 import info.vancauwenberge.filedriver.api.IPublisherLoggerStrategy.LogField;
 import info.vancauwenberge.filedriver.api.IPublisherStrategy;
@@ -91,10 +110,12 @@ import info.vancauwenberge.filedriver.exception.ReadException;
 import info.vancauwenberge.filedriver.exception.WriteException;
 import info.vancauwenberge.filedriver.filelocator.RegExpFileLocator;
 import info.vancauwenberge.filedriver.filelogger.PublisherNoLogger;
+import info.vancauwenberge.filedriver.filepubcheckpoint.EngineCheckpointStrategy;
 import info.vancauwenberge.filedriver.filepubclean.NoPubCleaningStrategy;
 import info.vancauwenberge.filedriver.filereader.csv.CSVFileReader;
 import info.vancauwenberge.filedriver.filesorter.NoSortSorter;
 import info.vancauwenberge.filedriver.query.QueryMatcher;
+import info.vancauwenberge.filedriver.query.RecordIndex;
 import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
 import info.vancauwenberge.filedriver.util.Errors;
 import info.vancauwenberge.filedriver.util.MetaDataManager;
@@ -150,6 +171,21 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		}
 	}
 
+	private enum FileOrder {
+		/**
+		 * Files are submitted in the order of the file sorter.
+		 */
+		SORTER,
+		/**
+		 * The file that has its first records ready is submitted first.
+		 */
+		FIRST_READY;
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+
 	private enum Parameters {
 		/**
 		 * File locator to use. Defaults to {@link RegExpFileLocator}
@@ -174,6 +210,11 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		 * folder? Defaults to {@link NoPubCleaningStrategy}
 		 */
 		FILE_CLEAN_STRATEGY("pub_fileClean", NoPubCleaningStrategy.class.getName(), DataType.STRING),
+		/**
+		 * Where is the publisher state saved? Defaults to
+		 * {@link EngineCheckpointStrategy}
+		 */
+		CHECKPOINT_STRATEGY("pub_checkpoint", EngineCheckpointStrategy.class.getName(), DataType.STRING),
 		/**
 		 * The polling interval (in seconds)
 		 */
@@ -235,7 +276,79 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		 * The name of the field in the logfile that will contain the status
 		 * type
 		 */
-		LOGFIELD_EVENTID("pub_logFieldEventID", "", DataType.STRING),;
+		LOGFIELD_EVENTID("pub_logFieldEventID", "", DataType.STRING),
+		/**
+		 * Number of worker threads that open and read files, and build their
+		 * commands, concurrently. With 1 worker the files are read on the
+		 * publisher thread, one at a time.
+		 */
+		WORKER_COUNT("pub_workerCount", "1", DataType.INT, RangeConstraint.POSITIVE),
+		/**
+		 * The order in which files read by the workers are submitted. Defaults
+		 * to {@link FileOrder#SORTER}.
+		 */
+		WORKER_FILE_ORDER("pub_workerFileOrder", FileOrder.SORTER.toString(), DataType.STRING, null,
+				FileOrder.values()),
+		/**
+		 * Number of records submitted together in one command document. Each
+		 * record keeps its own event-id.
+		 */
+		BATCH_SIZE("pub_batchSize", "1", DataType.INT, RangeConstraint.POSITIVE),
+		/**
+		 * Number of associations whose vault lookup (for a dynamic command) is
+		 * cached. 0 disables the cache.
+		 */
+		ASSOCIATION_CACHE_SIZE("pub_associationCacheSize", "0", DataType.INT, RangeConstraint.NON_NEGATIVE),
+		/**
+		 * Number of seconds a cached association lookup is used
+		 */
+		ASSOCIATION_CACHE_TTL("pub_associationCacheTTL", "300", DataType.INT, RangeConstraint.POSITIVE),
+		/**
+		 * Number of records whose associations are looked up together in one
+		 * query document. 0 disables the prefetch.
+		 */
+		ASSOCIATION_PREFETCH("pub_associationPrefetch", "0", DataType.INT, RangeConstraint.NON_NEGATIVE),
+		/**
+		 * Only publish the records that changed since the last complete file.
+		 * Each file is expected to be a full extract.
+		 */
+		DELTA_MODE("pub_deltaMode", "false", DataType.BOOLEAN),
+		/**
+		 * In delta mode: generate a delete for the associations that are no
+		 * longer in the file
+		 */
+		DELTA_DELETES("pub_deltaDeletes", "false", DataType.BOOLEAN),
+		/**
+		 * In delta mode: only put the attributes that changed in a modify
+		 */
+		DELTA_ATTRIBUTES("pub_deltaAttributes", "true", DataType.BOOLEAN),
+		/**
+		 * Index the current file on the first query, so the next queries on
+		 * the same file are lookups. Only used with a random access file
+		 * reader.
+		 */
+		QUERY_INDEX("pub_queryIndex", "false", DataType.BOOLEAN),
+		/**
+		 * Comma separated list of attributes that are indexed for a query (the
+		 * association and source dn are always indexed)
+		 */
+		QUERY_INDEX_ATTRIBUTES("pub_queryIndexAttributes", "", DataType.STRING),
+		/**
+		 * Number of times a record that gets a retry status is sent before it
+		 * is written to the dead-letter file. While a record waits for its
+		 * retry, the other records are published. 0 waits and sends the record
+		 * again until it succeeds, holding up all other records.
+		 */
+		RETRY_MAX_ATTEMPTS("pub_retryMaxAttempts", "0", DataType.INT, RangeConstraint.NON_NEGATIVE),
+		/**
+		 * Number of seconds before the first retry of a record. The delay
+		 * doubles with every retry.
+		 */
+		RETRY_DELAY("pub_retryDelay", "30", DataType.INT, RangeConstraint.POSITIVE),
+		/**
+		 * Maximum number of seconds between two retries of a record
+		 */
+		RETRY_MAX_DELAY("pub_retryMaxDelay", "600", DataType.INT, RangeConstraint.POSITIVE);
 
 		private final String paramName;
 		private final String defaultValue;
@@ -287,9 +400,24 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	}
 
 	// Publisher STATE names
-	private static final String STATE_RECORDNUMBER = "recordNumber";
-	private static final String STATE_FILE_PATH = "filePath";
-	private static final String STATE_FILRE_READER_CLASS = "fileReader";
+	private static final String STATE_RECORDNUMBER = IPublisherCheckpointStrategy.STATE_RECORDNUMBER;
+	private static final String STATE_FILE_PATH = IPublisherCheckpointStrategy.STATE_FILE_PATH;
+	private static final String STATE_FILRE_READER_CLASS = IPublisherCheckpointStrategy.STATE_FILE_READER_CLASS;
+	private static final String STATE_RESUME_POSITION = IPublisherCheckpointStrategy.STATE_RESUME_POSITION;
+
+	/**
+	 * Maximum number of records a worker reads ahead of the publisher thread.
+	 */
+	private static final int PREFETCH_SIZE = 256;
+	/**
+	 * Marks the end of the records of a file read by a worker.
+	 */
+	private static final PreparedRecord END_OF_FILE = new PreparedRecord(0, null, null, null);
+
+	/**
+	 * Name of the record snapshot (delta mode) in the work folder
+	 */
+	private static final String SNAPSHOT_FILE_NAME = "publisher.snapshot";
 
 	private PublisherStateMeta stateMeta = null;
 	/**
@@ -298,7 +426,7 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	 *
 	 * @see #start(XmlCommandProcessor)
 	 */
-	private boolean shutdown;
+	private volatile boolean shutdown;
 
 	/**
 	 * Variable used to control how often the thread in <code>start()</code>
@@ -325,7 +453,8 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		FILESORTER(Parameters.FILE_SORTER_STRATEGY, IFileSorterStrategy.class),
 		FILEREADER(Parameters.FILE_READER_STRATEGY, IFileReadStrategy.class), 
 		FILECLEANER(Parameters.FILE_CLEAN_STRATEGY, IPubFileCleanStrategy.class),
-		LOGGER(Parameters.FILE_LOGGER_STRATEGY, IPublisherLoggerStrategy.class); 
+		LOGGER(Parameters.FILE_LOGGER_STRATEGY, IPublisherLoggerStrategy.class),
+		CHECKPOINT(Parameters.CHECKPOINT_STRATEGY, IPublisherCheckpointStrategy.class);
 		//@formatter:onn
 		private Parameters parameter;
 		private Class<?> interfaceClass;
@@ -363,6 +492,12 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	 */
 	private final Object semaphore;
 
+	/**
+	 * Set by {@link #wakeUp()}: poll now, even if the polling interval did not
+	 * expire. Guarded by the semaphore.
+	 */
+	private boolean pollRequested = false;
+
 	/**
 	 * Used to filter application events before sending them to the DirXML
 	 * engine. Events are already filtered on the subscriber channel before they
@@ -400,6 +535,97 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 
 	private Pattern commandDeleteRegexp;
 
+	/**
+	 * Number of files read concurrently (see {@link Parameters#WORKER_COUNT})
+	 */
+	private int workerCount;
+
+	private FileOrder fileOrder;
+
+	/**
+	 * Number of records in one command document (see
+	 * {@link Parameters#BATCH_SIZE})
+	 */
+	private int batchSize;
+
+	/**
+	 * Cache of the vault lookups for a dynamic command, or null
+	 */
+	private AssociationCache associationCache;
+
+	/**
+	 * Number of associations looked up together (see
+	 * {@link Parameters#ASSOCIATION_PREFETCH})
+	 */
+	private int associationPrefetch;
+
+	/**
+	 * Snapshot of the last complete file in delta mode, or null
+	 */
+	private RecordSnapshot recordSnapshot;
+
+	/**
+	 * Generate deletes for the associations missing from a file (delta mode)
+	 */
+	private boolean deltaDeletes;
+
+	/**
+	 * The attributes indexed for a query, or null if queries do not use an
+	 * index
+	 */
+	private List<String> queryIndexAttributes;
+
+	/**
+	 * Index of the file that was last queried
+	 */
+	private volatile RecordIndex queryIndex;
+
+	/**
+	 * Reads the records of the current file by number for the queries. This
+	 * is not the reader that publishes the file: a query must not move its
+	 * read position or its index. Guarded by {@link #queryReaderLock}.
+	 */
+	private IRandomAccessFileReadStrategy queryReader;
+
+	/**
+	 * The file opened by {@link #queryReader}
+	 */
+	private File queryReaderFile;
+
+	private final Object queryReaderLock = new Object();
+
+	/**
+	 * Number of times a record is sent before it is written to the
+	 * dead-letter file, or 0 (see {@link Parameters#RETRY_MAX_ATTEMPTS})
+	 */
+	private int retryMaxAttempts;
+
+	/**
+	 * Delay before the first retry, in milliseconds
+	 */
+	private long retryDelay;
+
+	/**
+	 * Maximum delay between two retries, in milliseconds
+	 */
+	private long retryMaxDelay;
+
+	/**
+	 * The records of the current file that wait for a retry, or null
+	 */
+	private RetryScheduler<ParkedRecord> retries;
+
+	/**
+	 * The records of the current file that were given up
+	 */
+	private DeadLetterWriter deadLetters;
+
+	/**
+	 * The worker threads reading files. Only used when there is more than one
+	 * worker.
+	 */
+	private ExecutorService workers;
+
 	private Trace trace;
 
 	private IDriver driver;
@@ -642,6 +868,59 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 						.toString();
 				commandDeleteRegexp = Pattern.compile(commandDeleteRegexpStr);
 			}
+			// Concurrent reading of files
+			workerCount = pubParams.get(Parameters.WORKER_COUNT.getParamName()).toInteger().intValue();
+			fileOrder = FileOrder
+					.valueOf(pubParams.get(Parameters.WORKER_FILE_ORDER.getParamName()).toString().toUpperCase());
+			batchSize = pubParams.get(Parameters.BATCH_SIZE.getParamName()).toInteger().intValue();
+			// Association lookups for a dynamic command
+			final int associationCacheSize = pubParams.get(Parameters.ASSOCIATION_CACHE_SIZE.getParamName())
+					.toInteger().intValue();
+			associationPrefetch = pubParams.get(Parameters.ASSOCIATION_PREFETCH.getParamName()).toInteger().intValue();
+			if (((associationCacheSize > 0) || (associationPrefetch > 1)) && !isStaticCommand()) {
+				final long ttl = pubParams.get(Parameters.ASSOCIATION_CACHE_TTL.getParamName()).toInteger().intValue()
+						* 1000L;
+				// The prefetched associations must fit in the cache
+				associationCache = new AssociationCache(Math.max(associationCacheSize, associationPrefetch), ttl);
+			}
+			// Query index
+			if (pubParams.get(Parameters.QUERY_INDEX.getParamName()).toBoolean().booleanValue()) {
+				queryIndexAttributes = new ArrayList<String>();
+				final String attributes = pubParams.get(Parameters.QUERY_INDEX_ATTRIBUTES.getParamName()).toString();
+				if (attributes != null) {
+					for (final String attribute : attributes.split(",")) {
+						if (!"".equals(attribute.trim())) {
+							queryIndexAttributes.add(attribute.trim());
+						}
+					}
+				}
+			}
+			// The requested metaData
+			param = pubParams.get(Parameters.META_DATA.getParamName());
+			trace.trace("MetaData read:" + param);
+			metaData = new MetaDataManager(param.toString());
+			trace.trace("MetaData result:" + metaData);
+			// Delta mode
+			if (pubParams.get(Parameters.DELTA_MODE.getParamName()).toBoolean().booleanValue()) {
+				deltaDeletes = pubParams.get(Parameters.DELTA_DELETES.getParamName()).toBoolean().booleanValue();
+				// The metadata (file name, record number...) is not part of the record
+				recordSnapshot = new RecordSnapshot(new File(workDir, SNAPSHOT_FILE_NAME),
+						pubParams.get(Parameters.DELTA_ATTRIBUTES.getParamName()).toBoolean().booleanValue(),
+						metaData.getSchemaFields());
+				try {
+					recordSnapshot.load();
+					trace.trace("Delta mode: " + recordSnapshot.size() + " record(s) in snapshot "
+							+ recordSnapshot.getFile().getAbsolutePath(), TraceLevel.DEBUG);
+				} catch (final IOException e) {
+					trace.trace("Unable to read the record snapshot. All records of the next file are published.",
+							TraceLevel.ERROR_WARN);
+					Util.printStackTrace(trace, e);
+				}
+			}
+			// Retry of records that get a retry status
+			retryMaxAttempts = pubParams.get(Parameters.RETRY_MAX_ATTEMPTS.getParamName()).toInteger().intValue();
+			retryDelay = pubParams.get(Parameters.RETRY_DELAY.getParamName()).toInteger().intValue() * 1000L;
+			retryMaxDelay = pubParams.get(Parameters.RETRY_MAX_DELAY.getParamName()).toInteger().intValue() * 1000L;
 			// logField schema map
 			String value = pubParams.get(Parameters.LOGFIELD_STATUS.getParamName()).toString();
 			if ((value != null) && !value.trim().equals("")) {
@@ -661,11 +940,6 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			}
 			trace.trace("Log schema:" + logFieldschemaMap);
 
-			// The requested metaData
-			param = pubParams.get(Parameters.META_DATA.getParamName());
-			trace.trace("MetaData read:" + param);
-			metaData = new MetaDataManager(param.toString());
-			trace.trace("MetaData result:" + metaData);
 			// The fields that should be marked as sensitive
 			final String sensitive = pubParams.get(Parameters.SENSITIVE_ATTRIBUTES.getParamName()).toString();
 			if ((sensitive != null) && !"".equals(sensitive.trim())) {
@@ -770,27 +1044,44 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 
 	/**
 	 * Initialize the state of this driver (did it complete the file last
-	 * time?).
+	 * time?). The checkpoint strategy decides between the state stored by the
+	 * engine and its own state.
 	 *
 	 * @param init
 	 */
 	private void initState(final XDSInitDocument init) {
 		final XDSInitParamsElement pubOptionsParam = init.extractInitParamsElement();
 		final XDSPublisherStateElement pubOptions = pubOptionsParam.extractPublisherStateElement();
+		Map<String, String> engineState = null;
 		if (pubOptions != null) {
-			final String recNumber = pubOptions.attributeValueGet(STATE_RECORDNUMBER);
+			engineState = new HashMap<String, String>();
+			for (final String key : new String[] { STATE_RECORDNUMBER, STATE_FILE_PATH, STATE_FILRE_READER_CLASS,
+					STATE_RESUME_POSITION }) {
+				final String value = pubOptions.attributeValueGet(key);
+				if (value != null) {
+					engineState.put(key, value);
+				}
+			}
+		}
+		final Map<String, String> pubState = getCheckpointStrategy().getRestartState(engineState);
+		if (pubState != null) {
+			final String recNumber = pubState.get(STATE_RECORDNUMBER);
 			if (recNumber == null) {
 				trace.trace("init - Initial driver boot (no recNumber found)");
 			} else if ("-1".equals(recNumber)) {
 				trace.trace("init - Last file finished nicely. Nothing else to do.");
 			} else {
 				trace.trace("init - Last file did not complete.", TraceLevel.ERROR_WARN);
-				final String fileReaderFromState = pubOptions.attributeValueGet(STATE_FILRE_READER_CLASS);
+				final String fileReaderFromState = pubState.get(STATE_FILRE_READER_CLASS);
 				final IStrategy readerObject = strategyMap.get(Strategies.FILEREADER);
 				if (readerObject.getClass().getName().equals(fileReaderFromState)) {
 					// We still use the same class
-					final String filePath = pubOptions.attributeValueGet(STATE_FILE_PATH);
-					stateMeta = new PublisherStateMeta(Integer.parseInt(recNumber), filePath);
+					final String filePath = pubState.get(STATE_FILE_PATH);
+					String resumePosition = pubState.get(STATE_RESUME_POSITION);
+					if ("".equals(resumePosition)) {
+						resumePosition = null;
+					}
+					stateMeta = new PublisherStateMeta(Integer.parseInt(recNumber), filePath, resumePosition);
 					trace.trace("init - Will start file " + filePath + " after record " + recNumber,
 							TraceLevel.ERROR_WARN);
 				} else {
@@ -866,7 +1157,8 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			// If the last file did not complete, process it.
 			if (stateMeta != null) {
 				if (stateMeta.getRecordNumber() >= 0) {
-					processFile(processor, new File(stateMeta.getFileName()), stateMeta.getRecordNumber());
+					processFile(processor, new File(stateMeta.getFileName()), stateMeta.getRecordNumber(),
+							stateMeta.getResumePosition());
 				}
 				// clean up memory.
 				stateMeta = null;
@@ -878,7 +1170,8 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 				// shutdown and return
 				try {
 					published = false;
-					if (lastPollTime >= pollingInterval) {
+					final boolean wokenUp = isPollRequested();
+					if (wokenUp || (lastPollTime >= pollingInterval)) {
 						published = poll(processor);
 						lastPollTime = 0;
 					} // if
@@ -912,7 +1205,7 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 					// orderly shutdown of the driver.
 
 					synchronized (semaphore) {
-						if (!shutdown) {
+						if (!shutdown && !pollRequested) {
 							final long start = System.currentTimeMillis();
 							trace.trace("Sleeping for " + (sleep / 1000) + " seconds", 2);
 							semaphore.wait(sleep);
@@ -949,6 +1242,10 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		} finally {
 			trace.trace("stopping...", 2);
 			// Release any resources that need to be released...
+			if (workers != null) {
+				workers.shutdownNow();
+				workers = null;
+			}
 			strategyMap.clear();
 		}
 
@@ -988,16 +1285,20 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	 * @see FileDriverPublicationShimImpl#start(XmlCommandProcessor)
 	 */
 	private boolean poll(final XmlCommandProcessor processor) {
+		if (workerCount > 1) {
+			return pollConcurrent(processor);
+		}
 		boolean published = false;
 		trace.trace("poll start", TraceLevel.TRACE);
-		File[] inputFiles = null;
 		File targetFolder = null;
 		final IFileLocatorStrategy fileLocator = (IFileLocatorStrategy) strategyMap.get(Strategies.FILELOCATOR);
 		final IPubFileCleanStrategy pubCleaner = (IPubFileCleanStrategy) strategyMap.get(Strategies.FILECLEANER);
-		final IFileSorterStrategy fileSorter = (IFileSorterStrategy) strategyMap.get(Strategies.FILESORTER);
-		while (!shutdown && ((inputFiles = fileLocator.getFileList()) != null)) {
-			// Get the correct file from the list
-			final File theInputFile = fileSorter.getFirstFile(inputFiles);
+		final FileQueue fileQueue = new FileQueue((IFileSorterStrategy) strategyMap.get(Strategies.FILESORTER));
+		File theInputFile;
+		while (!shutdown && ((theInputFile = nextInputFile(fileLocator, fileQueue)) != null)) {
+			if (!canClaim(fileLocator, theInputFile)) {
+				continue;
+			}
 			trace.trace("File to process:" + theInputFile.getName(), TraceLevel.TRACE);
 			// Notify any file cleaning strategy
 			pubCleaner.onPreFile(theInputFile);
@@ -1006,21 +1307,16 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			// Note: this might cause in issue when a file with the same name is
 			// created while we are still processing the others.
 			if (targetFolder == null) {
-				targetFolder = new File(getNewTargetFolder());
-				targetFolder.mkdirs();
-				if (targetFolder.exists()) {
-					trace.trace("Folder created:" + targetFolder.getName(), TraceLevel.TRACE);
-				} else {
-					trace.trace("Folder creation failed:" + targetFolder.getName(), TraceLevel.ERROR_WARN);
-				}
+				targetFolder = createTargetFolder();
 			}
 			this.currentFile = new File(targetFolder, theInputFile.getName());
 			trace.trace("File size before move:" + theInputFile.length());
 			if (Util.moveFile(trace, theInputFile, currentFile)) {
 				trace.trace("File size after move:" + currentFile.length());
 				// OK, process the actual file now
-				published = processFile(processor, currentFile, 0);
+				published = processFile(processor, currentFile, 0, null);
 				// Notify any cleaning strategy that we are done.
+				closeQueryReader();
 				pubCleaner.onPostFile(currentFile);
 			} else {
 				trace.trace("poll - Move failed!", TraceLevel.ERROR_WARN);
@@ -1063,6 +1359,211 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 
 	}// poll(XmlCommandProcessor):boolean
 
+	/**
+	 * Get the next file to process. The folder is only listed again when all
+	 * files found before are processed, to pick up the files that arrived in
+	 * the mean time.
+	 *
+	 * @param fileLocator
+	 * @param fileQueue
+	 * @return the next file, or null if no new files were found
+	 */
+	private File nextInputFile(final IFileLocatorStrategy fileLocator, final FileQueue fileQueue) {
+		File next = fileQueue.poll();
+		while ((next == null) && !shutdown && (fileQueue.offer(fileLocator.getFileList()) > 0)) {
+			next = fileQueue.poll();
+		}
+		return next;
+	}
+
+	/**
+	 * Last check before a file found by the locator is moved to the work
+	 * folder.
+	 *
+	 * @param fileLocator
+	 * @param file
+	 * @return
+	 */
+	private boolean canClaim(final IFileLocatorStrategy fileLocator, final File file) {
+		if (fileLocator instanceof IClaimableFileLocatorStrategy) {
+			return ((IClaimableFileLocatorStrategy) fileLocator).canClaim(file);
+		}
+		return true;
+	}
+
+	/**
+	 * Create a new work folder for the files found by a poll.
+	 *
+	 * @return
+	 */
+	private File createTargetFolder() {
+		final File targetFolder = new File(getNewTargetFolder());
+		targetFolder.mkdirs();
+		if (targetFolder.exists()) {
+			trace.trace("Folder created:" + targetFolder.getName(), TraceLevel.TRACE);
+		} else {
+			trace.trace("Folder creation failed:" + targetFolder.getName(), TraceLevel.ERROR_WARN);
+		}
+		return targetFolder;
+	}
+
+	/**
+	 * Poll using worker threads. The workers open and read the files, and
+	 * build the commands if no vault query is needed, while the publisher
+	 * thread submits the records. All records of a file are submitted before
+	 * the next file is started, so the publisher state stays valid for a
+	 * restart.
+	 *
+	 * @param processor
+	 * @return true if any document got processed
+	 */
+	private boolean pollConcurrent(final XmlCommandProcessor processor) {
+		boolean published = false;
+		trace.trace("pollConcurrent start", TraceLevel.TRACE);
+		File targetFolder = null;
+		final IFileLocatorStrategy fileLocator = (IFileLocatorStrategy) strategyMap.get(Strategies.FILELOCATOR);
+		final IPubFileCleanStrategy pubCleaner = (IPubFileCleanStrategy) strategyMap.get(Strategies.FILECLEANER);
+		final FileQueue fileQueue = new FileQueue((IFileSorterStrategy) strategyMap.get(Strategies.FILESORTER));
+		final JobQueue<FileReadJob> jobs = new JobQueue<FileReadJob>(fileOrder == FileOrder.FIRST_READY);
+		FileReadJob job = null;
+		try {
+			while (!shutdown) {
+				// Only list the folder again when all files found before are
+				// started
+				if (fileQueue.isEmpty() && (fileQueue.offer(fileLocator.getFileList()) == 0)) {
+					break;
+				}
+				if (targetFolder == null) {
+					targetFolder = createTargetFolder();
+				}
+				startJobs(fileQueue, fileLocator, targetFolder, jobs);
+				if (jobs.isEmpty()) {
+					if (!fileQueue.isEmpty()) {
+						// No worker could be started
+						break;
+					}
+					// Nothing could be moved: look for new files only
+					continue;
+				}
+				while (!shutdown && ((job = nextJob(jobs)) != null)) {
+					// Give the worker of this file the next file right away
+					startJobs(fileQueue, fileLocator, targetFolder, jobs);
+					this.currentFile = job.workFile;
+					if (processFile(processor, job)) {
+						published = true;
+					}
+					// Notify any cleaning strategy that we are done.
+					closeQueryReader();
+					pubCleaner.onPostFile(job.workFile);
+					this.currentFile = null;
+					job = null;
+				}
+			}
+		} finally {
+			// A file that was partly submitted stays in the work folder. Files
+			// that were not submitted at all are moved back to the input
+			// folder.
+			if (job != null) {
+				job.close();
+			}
+			for (final FileReadJob notSubmitted : jobs.getJobs()) {
+				notSubmitted.restore();
+			}
+			this.currentFile = null;
+		}
+		trace.trace("pollConcurrent done", TraceLevel.TRACE);
+		return published;
+	}
+
+	/**
+	 * Move the next files (one for each worker, in the order of the file
+	 * sorter) to the work folder and start reading them.
+	 *
+	 * @param fileQueue
+	 * @param fileLocator
+	 * @param targetFolder
+	 * @param jobs
+	 *            the queue the started jobs are added to
+	 */
+	private void startJobs(final FileQueue fileQueue, final IFileLocatorStrategy fileLocator, final File targetFolder,
+			final JobQueue<FileReadJob> jobs) {
+		final IPubFileCleanStrategy pubCleaner = (IPubFileCleanStrategy) strategyMap.get(Strategies.FILECLEANER);
+		while (!shutdown && (jobs.size() < workerCount)) {
+			// Get the correct file from the queue
+			final File theInputFile = fileQueue.poll();
+			if (theInputFile == null) {
+				break;
+			}
+			if (!canClaim(fileLocator, theInputFile)) {
+				continue;
+			}
+			trace.trace("File to process:" + theInputFile.getName(), TraceLevel.TRACE);
+			final IFileReadStrategy fileReader;
+			try {
+				fileReader = createFileReader();
+			} catch (final Exception e) {
+				trace.trace("Unable to create a file reader for the worker.", TraceLevel.ERROR_WARN);
+				Util.printStackTrace(trace, e);
+				break;
+			}
+			// Notify any file cleaning strategy
+			pubCleaner.onPreFile(theInputFile);
+			final File workFile = new File(targetFolder, theInputFile.getName());
+			trace.trace("File size before move:" + theInputFile.length());
+			if (Util.moveFile(trace, theInputFile, workFile)) {
+				trace.trace("File size after move:" + workFile.length());
+				final FileReadJob job = new FileReadJob(theInputFile, workFile, fileReader, jobs);
+				jobs.add(job);
+				getWorkers().execute(job);
+			} else {
+				trace.trace("pollConcurrent - Move failed!", TraceLevel.ERROR_WARN);
+			}
+		}
+	}
+
+	/**
+	 * Get the next file to submit, or null if there is none.
+	 *
+	 * @param jobs
+	 * @return
+	 */
+	private FileReadJob nextJob(final JobQueue<FileReadJob> jobs) {
+		try {
+			while (!shutdown && !jobs.isEmpty()) {
+				final FileReadJob job = jobs.take(1, TimeUnit.SECONDS);
+				if (job != null) {
+					return job;
+				}
+			}
+		} catch (final InterruptedException e) {
+			// Maybe a shutdown. No clue what else could interrupt us.
+			trace.trace("nextJob: Waiting for a file was interrupted.", TraceLevel.ERROR_WARN);
+		}
+		return null;
+	}
+
+	/**
+	 * The worker threads. Created on first use.
+	 *
+	 * @return
+	 */
+	private ExecutorService getWorkers() {
+		if (workers == null) {
+			final String threadName = driver.getDriverInstanceName() + "-pubWorker-";
+			workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger();
+
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, threadName + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+
+
 	/**
 	 * Process a file. The file has already been moved to the work folder.
 	 *
@@ -1071,7 +1572,8 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	 * @param workFile
 	 * @return true of any document got processed
 	 */
-	private boolean processFile(final XmlCommandProcessor processor, final File workFile, final int recordsToSkip) {
+	private boolean processFile(final XmlCommandProcessor processor, final File workFile, final int recordsToSkip,
+			final String resumePosition) {
 		trace.trace("processFile: start", TraceLevel.TRACE);
 		boolean published = false;
 		final Map<String, String> metaDataMap = metaData.getStaticMetaData(workFile);
@@ -1082,15 +1584,21 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 
 		try { // try to process this file
 			final IFileReadStrategy fileReader = (IFileReadStrategy) strategyMap.get(Strategies.FILEREADER);
+			final RecordBatch batch = (batchSize > 1)
+					? new RecordBatch(fileLogger, fileReader, workFile, stateDataMap) : null;
 
 			// Start the file
 			currentFile = workFile;
 			fileReader.openFile(workFile);
 
-			int recordNumber = skipRecords(recordsToSkip);
+			int recordNumber = skipRecords(recordsToSkip, resumePosition);
+			if (recordSnapshot != null) {
+				recordSnapshot.startFile(recordNumber == 0);
+			}
 
-			Map<String, String> thisRecord = fileReader.readRecord();
-			Map<String, String> nextRecord = fileReader.readRecord();
+			final RecordReadAhead readAhead = new RecordReadAhead(processor, fileReader);
+			Map<String, String> thisRecord = readAhead.next();
+			Map<String, String> nextRecord = readAhead.next();
 
 			// sendStatusState(processor, workFile, stateDataMap, recordNumber);
 
@@ -1101,6 +1609,7 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 				trace.trace("Logging will be disabled since the file generated an error.", TraceLevel.ERROR_WARN);
 				Util.printStackTrace(trace, e1);
 			}
+			startRetries(workFile, fileReader);
 
 			// Process the records
 			while ((thisRecord != null) && !shutdown) {// While we have records,
@@ -1111,40 +1620,44 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 					metaData.addDynamicMetaData(metaDataMap, thisRecord, nextRecord, recordNumber);
 					trace.trace("processFile: dynamicMetaData added:" + metaDataMap, TraceLevel.TRACE);
 
-					// Execute the command
-					final boolean recordProcessed = sendRecord(processor, fileLogger, recordNumber, thisRecord,
-							stateDataMap);
-					// If the record was not processed, we need to send a status
-					// message with the previous record number
-					if (!recordProcessed) {
-						sendStatusState(processor, workFile, stateDataMap, recordNumber - 1);
+					if (batch == null) {
+						// Execute the command
+						final boolean recordProcessed = sendRecord(processor, fileLogger, fileReader, recordNumber,
+								thisRecord, stateDataMap, null);
+						// If the record was not processed, we need to send a
+						// status message with the previous record number
+						if (!recordProcessed) {
+							sendStatusState(processor, fileReader, workFile, stateDataMap, recordNumber - 1);
+						}
+					} else {
+						batch.add(processor, recordNumber, thisRecord);
 					}
 					published = true;
 				} catch (final Exception e) {
 					// Some exception. Submit the error on the pub. channel and
 					// go to next record.
-					final XDSCommandDocument command = driver.newCommandDoc();
-					final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR,
-							StatusType.DRIVER_GENERAL, null); // event-id
-					XDSUtil.appendStatus(command, // doc to append to
-							pollAttrs, // status attribute values
-							Errors.PROCESS_ERROR, // description
-							e, // exception
-							true, // append stack trace?
-							null); // xml to append
-					processor.execute(command.toXML(), this);
+					sendProcessError(processor, e);
+					rejectSnapshot(thisRecord);
 					published = true;
 				}
+				if ((batch != null) && batch.isFull()) {
+					batch.send(processor);
+				}
 				thisRecord = nextRecord;
-				nextRecord = fileReader.readRecord();
+				nextRecord = readAhead.next();
 			}
+			if (batch != null) {
+				batch.flush(processor);
+			}
+			finishRetries(processor, fileLogger, fileReader, workFile, stateDataMap);
+			finishSnapshot(processor);
 			// Close the status for this driver if we do not need to shut down
 			if (!shutdown) {
-				sendStatusState(processor, workFile, stateDataMap, -1);
+				sendStatusState(processor, fileReader, workFile, stateDataMap, -1);
 				published = true;
 			}
 			if (!published) {
-				sendStatusState(processor, workFile, stateDataMap, recordNumber);
+				sendStatusState(processor, fileReader, workFile, stateDataMap, recordNumber);
 				published = true;
 			}
 			// Close the fileReader
@@ -1158,25 +1671,13 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 				Util.printStackTrace(trace, e);
 			}
 		} catch (final ReadException re) {
-			final XDSCommandDocument command = driver.newCommandDoc();
-			final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR, StatusType.DRIVER_GENERAL,
-					null); // event-id
-			// Append the correct exception message
-			Exception e = (Exception) re.getCause();
-			if (e == null) {
-				e = re;
-			}
-			trace.trace(Errors.FILE_READ_ERROR + "(" + workFile.getAbsolutePath() + ")" + e.getMessage(),
-					TraceLevel.ERROR_WARN);
-			XDSUtil.appendStatus(command, // doc to append to
-					pollAttrs, // status attribute values
-					Errors.FILE_READ_ERROR + "(" + workFile.getAbsolutePath() + ")", // description:
-																						// Communications
-																						// error.
-					e, // exception
-					false, // append stack trace?
-					null); // xml to append
-			processor.execute(command.toXML(), this);
+			// The records read before the error still get their retries
+			finishRetries(processor, fileLogger, (IFileReadStrategy) strategyMap.get(Strategies.FILEREADER), workFile,
+					stateDataMap);
+			if (recordSnapshot != null) {
+				recordSnapshot.abort();
+			}
+			sendReadError(processor, workFile, re);
 			published = true;
 		}
 		trace.trace("processFile done", TraceLevel.TRACE);
@@ -1184,42 +1685,393 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	}
 
 	/**
-	 * Get the file name to use for logging purposes. For a file xxx.csv, this
-	 * will first try to get the xxx.log.csv If that exists, it will try
-	 * xxx.n.log.csv, where n is an increasing number
+	 * Process a file read by a worker. The file has already been moved to the
+	 * work folder. The commands are submitted in the order of the records.
 	 *
-	 * @param workFile
-	 * @return
+	 * @param processor
+	 * @param job
+	 * @return true of any document got processed
 	 */
-	private static File getLogFileFor(final File workFile) {
-		final String fileName = workFile.getName();
-		final int extentionPos = fileName.lastIndexOf('.');
-		final String extentionPart = fileName.substring(extentionPos + 1);
-		final String namePart = fileName.substring(0, extentionPos);
+	private boolean processFile(final XmlCommandProcessor processor, final FileReadJob job) {
+		trace.trace("processFile: start", TraceLevel.TRACE);
+		boolean published = false;
+		final File workFile = job.workFile;
+		final IFileReadStrategy fileReader = job.fileReader;
+		final IPublisherLoggerStrategy fileLogger = (IPublisherLoggerStrategy) strategyMap.get(Strategies.LOGGER);
+		final RecordBatch batch = (batchSize > 1)
+				? new RecordBatch(fileLogger, fileReader, workFile, job.stateDataMap) : null;
 
-		File logfile = new File(workFile.getParentFile(), namePart + ".log." + extentionPart);
-		if (logfile.exists()) {
-			int index = 0;
-			while (true) {
-				logfile = new File(workFile.getParentFile(), namePart + "." + index + ".log." + extentionPart);
-				if (logfile.exists()) {
-					index++;
-				} else {
-					return logfile;
-				}
+		try { // try to process this file
+			int recordNumber = 0;
+			if (recordSnapshot != null) {
+				recordSnapshot.startFile(true);
 			}
-		}
-		return logfile;
-	}
-
-	private void sendStatusState(final XmlCommandProcessor processor, final File workFile,
-			final Map<String, String> stateDataMap, final int recordNumber) {
-		final XDSCommandDocument command = driver.newCommandDoc();
+			// The file is opened once the first record (or the end) is read
+			PreparedRecord prepared = job.take(processor);
 
-		// In order to avoid "State only, not sending to remote side", we append
-		// a status to the state and disguise it as a heartbeat
-		final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.SUCCESS, StatusType.HEARTBEAT,
-				"gfd-pub-state-" + getNextEventId());
+			// Open the file logger
+			try {
+				fileLogger.openFile(getLogFileFor(workFile), fileReader.getActualSchema(), logFieldschemaMap);
+			} catch (final WriteException e1) {
+				trace.trace("Logging will be disabled since the file generated an error.", TraceLevel.ERROR_WARN);
+				Util.printStackTrace(trace, e1);
+			}
+			startRetries(workFile, fileReader);
+
+			// Process the records
+			while ((prepared != null) && !shutdown) {
+				recordNumber = prepared.recordNumber;
+				try {
+					if (prepared.error != null) {
+						throw prepared.error;
+					}
+					if (batch == null) {
+						// Execute the command
+						final boolean recordProcessed = sendRecord(processor, fileLogger, fileReader, recordNumber,
+								prepared.record, job.stateDataMap, prepared.command);
+						// If the record was not processed, we need to send a
+						// status message with the previous record number
+						if (!recordProcessed) {
+							sendStatusState(processor, fileReader, workFile, job.stateDataMap, recordNumber - 1);
+						}
+					} else {
+						batch.add(processor, recordNumber, prepared.record);
+					}
+					published = true;
+				} catch (final Exception e) {
+					// Some exception. Submit the error on the pub. channel and
+					// go to next record.
+					sendProcessError(processor, e);
+					rejectSnapshot(prepared.record);
+					published = true;
+				}
+				if ((batch != null) && batch.isFull()) {
+					batch.send(processor);
+				}
+				prepared = job.take(processor);
+			}
+			if (batch != null) {
+				batch.flush(processor);
+			}
+			finishRetries(processor, fileLogger, fileReader, workFile, job.stateDataMap);
+			finishSnapshot(processor);
+			// Close the status for this driver if we do not need to shut down
+			if (!shutdown) {
+				sendStatusState(processor, fileReader, workFile, job.stateDataMap, -1);
+				published = true;
+			}
+			if (!published) {
+				sendStatusState(processor, fileReader, workFile, job.stateDataMap, recordNumber);
+				published = true;
+			}
+			// Close the fileReader
+			job.close();
+			// Close the logger
+			try {
+				fileLogger.close();
+			} catch (final WriteException e) {
+				trace.trace("Failed to close the log file.", TraceLevel.ERROR_WARN);
+				Util.printStackTrace(trace, e);
+			}
+		} catch (final ReadException re) {
+			finishRetries(processor, fileLogger, fileReader, workFile, job.stateDataMap);
+			job.close();
+			if (recordSnapshot != null) {
+				recordSnapshot.abort();
+			}
+			sendReadError(processor, workFile, re);
+			published = true;
+		}
+		trace.trace("processFile done", TraceLevel.TRACE);
+		return published;
+	}
+
+	/**
+	 * Reads one file on a worker thread. The records are handed to the
+	 * publisher thread through a bounded queue, so a worker does not read too
+	 * far ahead of the records that are submitted.
+	 */
+	private final class FileReadJob implements Runnable {
+		private final File inputFile;
+		private final File workFile;
+		private final IFileReadStrategy fileReader;
+		private final Map<String, String> metaDataMap;
+		private final Map<String, String> stateDataMap;
+		private final boolean staticCommand;
+		private final BlockingQueue<PreparedRecord> records = new ArrayBlockingQueue<PreparedRecord>(PREFETCH_SIZE);
+		private final JobQueue<FileReadJob> jobs;
+		/**
+		 * Records taken from the queue, but not submitted yet. Only used by the
+		 * publisher thread.
+		 */
+		private final LinkedList<PreparedRecord> ahead = new LinkedList<PreparedRecord>();
+		/**
+		 * Set by the first of the worker (when it starts) and close (when the
+		 * job did not start yet).
+		 */
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean cancelled = false;
+		private volatile boolean opened = false;
+		private volatile ReadException readError = null;
+		private boolean ready = false;
+		private boolean closed = false;
+
+		private FileReadJob(final File inputFile, final File workFile, final IFileReadStrategy fileReader,
+				final JobQueue<FileReadJob> jobs) {
+			this.inputFile = inputFile;
+			this.workFile = workFile;
+			this.fileReader = fileReader;
+			this.jobs = jobs;
+			this.metaDataMap = metaData.getStaticMetaData(workFile);
+			this.stateDataMap = getInitialStateMap(workFile);
+			// A batch of records is built on the publisher thread
+			this.staticCommand = isStaticCommand() && (batchSize <= 1) && (recordSnapshot == null);
+		}
+
+		public void run() {
+			if (!claimed.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				fileReader.openFile(workFile);
+				opened = true;
+				int recordNumber = 0;
+				Map<String, String> thisRecord = fileReader.readRecord();
+				Map<String, String> nextRecord = (thisRecord == null) ? null : fileReader.readRecord();
+				while ((thisRecord != null) && !isStopped()) {
+					recordNumber++;
+					put(prepare(recordNumber, thisRecord, nextRecord));
+					thisRecord = nextRecord;
+					nextRecord = (thisRecord == null) ? null : fileReader.readRecord();
+				}
+			} catch (final ReadException e) {
+				readError = e;
+			} catch (final RuntimeException e) {
+				readError = new ReadException("Error while reading file " + workFile.getAbsolutePath(), e);
+			} finally {
+				put(END_OF_FILE);
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Add the meta data to a record and, if no vault query is needed,
+		 * create its command.
+		 */
+		private PreparedRecord prepare(final int recordNumber, final Map<String, String> thisRecord,
+				final Map<String, String> nextRecord) {
+			XDSCommandDocument command = null;
+			Exception error = null;
+			try {
+				metaData.addDynamicMetaData(metaDataMap, thisRecord, nextRecord, recordNumber);
+				if (staticCommand) {
+					command = createCommand(null, thisRecord);
+				}
+			} catch (final Exception e) {
+				error = e;
+			}
+			return new PreparedRecord(recordNumber, thisRecord, command, error);
+		}
+
+		private boolean isStopped() {
+			return cancelled || shutdown;
+		}
+
+		private void put(final PreparedRecord record) {
+			try {
+				while (!isStopped()) {
+					if (records.offer(record, 1, TimeUnit.SECONDS)) {
+						if (!ready) {
+							ready = true;
+							jobs.ready(this);
+						}
+						return;
+					}
+				}
+			} catch (final InterruptedException e) {
+				// The workers are stopped
+				cancelled = true;
+			}
+		}
+
+		/**
+		 * Get the next record to submit. The records that are already read
+		 * are taken together, so their associations can be looked up in one
+		 * query.
+		 *
+		 * @param processor
+		 * @return the record, or null at the end of the file or on shutdown
+		 * @throws ReadException
+		 *             if the worker failed to read the file
+		 */
+		private PreparedRecord take(final XmlCommandProcessor processor) throws ReadException {
+			if (ahead.isEmpty()) {
+				final PreparedRecord first = poll();
+				if (first == null) {
+					return null;
+				}
+				ahead.add(first);
+				if ((first != END_OF_FILE) && isPrefetching()) {
+					records.drainTo(ahead, associationPrefetch - 1);
+					final List<Map<String, String>> toPrefetch = new ArrayList<Map<String, String>>(ahead.size());
+					for (final PreparedRecord aheadRecord : ahead) {
+						if ((aheadRecord != END_OF_FILE) && (aheadRecord.error == null)) {
+							toPrefetch.add(aheadRecord.record);
+						}
+					}
+					prefetchAssociations(processor, toPrefetch);
+				}
+			}
+			final PreparedRecord record = ahead.removeFirst();
+			if (record == END_OF_FILE) {
+				if (readError != null) {
+					throw readError;
+				}
+				return null;
+			}
+			return record;
+		}
+
+		/**
+		 * Wait for the next record of the worker.
+		 *
+		 * @return the record, or null on shutdown
+		 */
+		private PreparedRecord poll() {
+			try {
+				while (!shutdown) {
+					final PreparedRecord record = records.poll(1, TimeUnit.SECONDS);
+					if (record != null) {
+						return record;
+					}
+				}
+			} catch (final InterruptedException e) {
+				// Maybe a shutdown. No clue what else could interrupt us.
+				trace.trace("processFile: Reading the next record was interrupted.", TraceLevel.ERROR_WARN);
+			}
+			return null;
+		}
+
+		/**
+		 * Stop reading and close the file reader. Only called from the
+		 * publisher thread.
+		 */
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			cancelled = true;
+			if (claimed.compareAndSet(false, true)) {
+				// The worker never started
+				done.countDown();
+			}
+			try {
+				if (!done.await(30, TimeUnit.SECONDS)) {
+					trace.trace("Worker reading " + workFile.getName() + " did not stop.", TraceLevel.ERROR_WARN);
+					return;
+				}
+			} catch (final InterruptedException e) {
+				trace.trace("Waiting for the worker reading " + workFile.getName() + " was interrupted.",
+						TraceLevel.ERROR_WARN);
+				return;
+			}
+			if (opened) {
+				try {
+					fileReader.close();
+				} catch (final ReadException e) {
+					trace.trace("Failed to close " + workFile.getName() + ".", TraceLevel.ERROR_WARN);
+					Util.printStackTrace(trace, e);
+				}
+			}
+		}
+
+		/**
+		 * Move a file that was not submitted back to the input folder.
+		 */
+		private void restore() {
+			close();
+			trace.trace("Moving unprocessed file " + workFile.getName() + " back.", TraceLevel.DEBUG);
+			if (!Util.moveFile(trace, workFile, inputFile)) {
+				trace.trace("Unable to move " + workFile.getAbsolutePath() + " back to " + inputFile.getAbsolutePath(),
+						TraceLevel.ERROR_WARN);
+			}
+		}
+	}
+
+	/**
+	 * A record read by a worker, with its command if it could be created on
+	 * the worker.
+	 */
+	private static final class PreparedRecord {
+		private final int recordNumber;
+		private final Map<String, String> record;
+		private final XDSCommandDocument command;
+		private final Exception error;
+
+		private PreparedRecord(final int recordNumber, final Map<String, String> record,
+				final XDSCommandDocument command, final Exception error) {
+			this.recordNumber = recordNumber;
+			this.record = record;
+			this.command = command;
+			this.error = error;
+		}
+	}
+
+
+	/**
+	 * Get the file name to use for logging purposes. For a file xxx.csv, this
+	 * will first try to get the xxx.log.csv If that exists, it will try
+	 * xxx.n.log.csv, where n is an increasing number
+	 *
+	 * @param workFile
+	 * @return
+	 */
+	private static File getLogFileFor(final File workFile) {
+		final String fileName = workFile.getName();
+		final int extentionPos = fileName.lastIndexOf('.');
+		final String extentionPart = fileName.substring(extentionPos + 1);
+		return getNewFileFor(workFile, "log." + extentionPart);
+	}
+
+	/**
+	 * Get a file next to the given work file. For a file xxx.csv and suffix
+	 * yyy, this will first try xxx.yyy. If that exists, it will try
+	 * xxx.n.yyy, where n is an increasing number
+	 *
+	 * @param workFile
+	 * @param suffix
+	 * @return
+	 */
+	private static File getNewFileFor(final File workFile, final String suffix) {
+		final String fileName = workFile.getName();
+		final int extentionPos = fileName.lastIndexOf('.');
+		final String namePart = fileName.substring(0, extentionPos);
+
+		File logfile = new File(workFile.getParentFile(), namePart + "." + suffix);
+		if (logfile.exists()) {
+			int index = 0;
+			while (true) {
+				logfile = new File(workFile.getParentFile(), namePart + "." + index + "." + suffix);
+				if (logfile.exists()) {
+					index++;
+				} else {
+					return logfile;
+				}
+			}
+		}
+		return logfile;
+	}
+
+	private void sendStatusState(final XmlCommandProcessor processor, final IFileReadStrategy fileReader,
+			final File workFile, final Map<String, String> stateDataMap, final int recordNumber) {
+		final XDSCommandDocument command = driver.newCommandDoc();
+
+		// In order to avoid "State only, not sending to remote side", we append
+		// a status to the state and disguise it as a heartbeat
+		final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.SUCCESS, StatusType.HEARTBEAT,
+				"gfd-pub-state-" + getNextEventId());
 		XDSUtil.appendStatus(command, // doc to append to
 				pollAttrs, // status attribute values
 				"Save state of file " + workFile.getName(), // description
@@ -1229,120 +2081,941 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 
 		// Submit the current state on the publisher channel
 		// TODO: Issue: State only, not sending to remote side...
-		addPublisherState(command, stateDataMap, recordNumber);
+		final Map<String, String> state = getPublisherState(fileReader, stateDataMap, recordNumber);
+		addPublisherState(command, state);
 		trace.trace("sendStatusState: heartbeat with status data.", TraceLevel.TRACE);
 		processor.execute(command.toXML(), this);
+		getCheckpointStrategy().checkpoint(state);
+	}
+
+	/**
+	 * Send a given record to the publisher channel, doing 'retry' if indicated
+	 * to do so. With {@link Parameters#RETRY_MAX_ATTEMPTS}, a record that gets
+	 * a retry status is parked instead, and a record with the association of a
+	 * parked record is held behind it.
+	 *
+	 * @param processor
+	 * @param recordNumber
+	 * @param preparedCommand
+	 *            the command for this record if it was already built, or null
+	 * @return true if the record was processed with or without succes. False if
+	 *         the record was not processed (retry & shutdown)
+	 * @throws XDSParseException
+	 */
+	private boolean sendRecord(final XmlCommandProcessor processor, final IPublisherLoggerStrategy fileLogger,
+			final IFileReadStrategy fileReader, final int recordNumber, final Map<String, String> thisRecord,
+			final Map<String, String> stateDataMap, final XDSCommandDocument preparedCommand) {
+
+		XDSCommandResultDocument response = null;
+		Map<String, String> state = null;
+		boolean toRetry = false;
+
+		if (retries != null) {
+			sendDueRetries(processor, fileLogger);
+			if (holdIfParked(recordNumber, thisRecord, preparedCommand)) {
+				return true;
+			}
+		}
+
+		try {
+
+			// Create the add command based on the attributes read
+			final XDSCommandDocument command = (preparedCommand == null) ? createCommand(processor, thisRecord)
+					: preparedCommand;
+			if (command == null) {
+				trace.trace("processFile: Record " + recordNumber + " did not change. Not published.",
+						TraceLevel.DEBUG);
+				return true;
+			}
+
+			// Add the state info for this record. Not while records wait for a
+			// retry: a restart would skip them.
+			state = getPublisherState(fileReader, stateDataMap, recordNumber);
+			if (!isRetrying() && getCheckpointStrategy().isEngineCheckpoint(1)) {
+				addPublisherState(command, state);
+			}
+
+			do {
+				toRetry = false;
+				XDSStatusElement retryStatus = null;
+				final XmlDocument xmlCommand = command.toXML();
+				trace.trace("processFile: Executing record " + recordNumber, TraceLevel.DEBUG);
+				trace.trace(xmlCommand);
+				final XmlDocument executeResponse = processor.execute(xmlCommand, this);
+				response = new XDSCommandResultDocument(executeResponse);
+
+				// check command results
+				final StatusLevel level = response.mostSevereStatusLevel("");
+				trace.trace("processFile: status == " + Util.toLiteral(level.toString()), TraceLevel.DEBUG);
+
+				@SuppressWarnings("unchecked")
+				final List<XDSStatusElement> statusList = response.extractStatusElements();
+				// If we did not get a status, make sure to log an entry as well
+				if ((statusList == null) || (statusList.size() == 0)) {
+					logCommand(fileLogger, recordNumber, thisRecord, null);
+				} else {
+					for (final XDSStatusElement xdsStatusElement : statusList) {
+						logCommand(fileLogger, recordNumber, thisRecord, xdsStatusElement);
+						if (StatusLevel.RETRY.equals(xdsStatusElement.getLevel())) {
+							toRetry = true;
+							retryStatus = xdsStatusElement;
+						}
+					}
+				}
+				if (toRetry) {
+					if (retries != null) {
+						parkRecord(getRetryKey(recordNumber, thisRecord), recordNumber, thisRecord, command, 1,
+								retryStatus);
+						toRetry = false;
+					} else {
+						waitForRetry();
+					}
+				}
+			} while (toRetry && !shutdown);
+		} catch (final XDSParseException xds) {
+			sendInvalidDocError(processor, xds, response);
+			rejectSnapshot(thisRecord);
+			toRetry = false;
+		} // catch
+		if (!toRetry && (state != null) && !isRetrying()) {
+			getCheckpointStrategy().checkpoint(state);
+		}
+		return !toRetry;
+	}
+
+	/**
+	 * A record that waits for a retry
+	 */
+	private static final class ParkedRecord {
+		private final int recordNumber;
+		private final Map<String, String> record;
+		/**
+		 * The command to send, or null if it must be created
+		 */
+		private final XDSCommandDocument command;
+
+		private ParkedRecord(final int recordNumber, final Map<String, String> record,
+				final XDSCommandDocument command) {
+			this.recordNumber = recordNumber;
+			this.record = record;
+			this.command = command;
+		}
+	}
+
+	/**
+	 * Prepare the retry of records for a file that was just opened.
+	 *
+	 * @param workFile
+	 * @param fileReader
+	 */
+	private void startRetries(final File workFile, final IFileReadStrategy fileReader) {
+		if (retryMaxAttempts > 0) {
+			retries = new RetryScheduler<ParkedRecord>(retryMaxAttempts, retryDelay, retryMaxDelay, new Random());
+			deadLetters = new DeadLetterWriter(getNewFileFor(workFile, "deadletter.csv"),
+					fileReader.getActualSchema());
+		}
+	}
+
+	/**
+	 * @return true if records of the current file wait for a retry
+	 */
+	private boolean isRetrying() {
+		return (retries != null) && !retries.isEmpty();
+	}
+
+	/**
+	 * The key that orders the retries: records with the same association are
+	 * sent in the order of the file.
+	 *
+	 * @param recordNumber
+	 * @param thisRecord
+	 * @return
+	 */
+	private String getRetryKey(final int recordNumber, final Map<String, String> thisRecord) {
+		String assValue = null;
+		try {
+			assValue = driver.getAssociationField(thisRecord);
+		} catch (final RuntimeException e) {
+			// No association: the record does not wait for other records
+		}
+		return (assValue == null) ? ("#" + recordNumber) : assValue;
+	}
+
+	/**
+	 * Hold a record behind a parked record with the same association.
+	 *
+	 * @param recordNumber
+	 * @param thisRecord
+	 * @param preparedCommand
+	 *            the command for this record if it was already built, or null
+	 * @return true if the record was held
+	 */
+	private boolean holdIfParked(final int recordNumber, final Map<String, String> thisRecord,
+			final XDSCommandDocument preparedCommand) {
+		final String key = getRetryKey(recordNumber, thisRecord);
+		if (!retries.isParked(key)) {
+			return false;
+		}
+		trace.trace("processFile: Record " + recordNumber + " waits for the retry of an earlier record.",
+				TraceLevel.DEBUG);
+		retries.hold(key, new ParkedRecord(recordNumber, thisRecord, preparedCommand));
+		return true;
+	}
+
+	/**
+	 * Park a record that got a retry status, or write it to the dead-letter
+	 * file if it was sent too many times.
+	 *
+	 * @param key
+	 * @param recordNumber
+	 * @param thisRecord
+	 * @param command
+	 *            the command to send again, or null to create it again
+	 * @param attempts
+	 *            number of times the record was sent
+	 * @param retryStatus
+	 *            the retry status, or null
+	 * @return true if the record was parked
+	 */
+	private boolean parkRecord(final String key, final int recordNumber, final Map<String, String> thisRecord,
+			final XDSCommandDocument command, final int attempts, final XDSStatusElement retryStatus) {
+		if (retries.park(key, new ParkedRecord(recordNumber, thisRecord, command), attempts,
+				System.currentTimeMillis())) {
+			trace.trace("processFile: Record " + recordNumber + " parked for retry (attempt " + attempts + ").",
+					TraceLevel.DEBUG);
+			return true;
+		}
+		trace.trace("processFile: Record " + recordNumber + " given up after " + attempts + " attempt(s).",
+				TraceLevel.ERROR_WARN);
+		rejectSnapshot(thisRecord);
+		try {
+			deadLetters.write(recordNumber, thisRecord, attempts,
+					(retryStatus == null) ? null : retryStatus.extractText());
+		} catch (final IOException e) {
+			trace.trace("Writing record " + recordNumber + " to " + deadLetters.getFile().getName() + " failed.",
+					TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+		}
+		return false;
+	}
+
+	/**
+	 * Send the parked records whose retry is due.
+	 *
+	 * @param processor
+	 * @param fileLogger
+	 */
+	private void sendDueRetries(final XmlCommandProcessor processor, final IPublisherLoggerStrategy fileLogger) {
+		RetryScheduler.Parked<ParkedRecord> parked;
+		while (!shutdown && ((parked = retries.takeDue(System.currentTimeMillis())) != null)) {
+			final ParkedRecord toSend = parked.getItem();
+			XDSCommandResultDocument response = null;
+			try {
+				final XDSCommandDocument command = (toSend.command == null)
+						? createCommand(processor, toSend.record) : toSend.command;
+				if (command == null) {
+					trace.trace("processFile: Record " + toSend.recordNumber + " did not change. Not published.",
+							TraceLevel.DEBUG);
+				} else {
+					final XmlDocument xmlCommand = command.toXML();
+					trace.trace("processFile: Retrying record " + toSend.recordNumber, TraceLevel.DEBUG);
+					trace.trace(xmlCommand);
+					response = new XDSCommandResultDocument(processor.execute(xmlCommand, this));
+					XDSStatusElement retryStatus = null;
+					@SuppressWarnings("unchecked")
+					final List<XDSStatusElement> statusList = response.extractStatusElements();
+					if ((statusList == null) || (statusList.size() == 0)) {
+						logCommand(fileLogger, toSend.recordNumber, toSend.record, null);
+					} else {
+						for (final XDSStatusElement xdsStatusElement : statusList) {
+							logCommand(fileLogger, toSend.recordNumber, toSend.record, xdsStatusElement);
+							if (StatusLevel.RETRY.equals(xdsStatusElement.getLevel())) {
+								retryStatus = xdsStatusElement;
+							}
+						}
+					}
+					if ((retryStatus != null) && parkRecord(parked.getKey(), toSend.recordNumber, toSend.record,
+							command, parked.getAttempts() + 1, retryStatus)) {
+						continue;
+					}
+				}
+			} catch (final XDSParseException xds) {
+				sendInvalidDocError(processor, xds, response);
+				rejectSnapshot(toSend.record);
+			} catch (final Exception e) {
+				sendProcessError(processor, e);
+				rejectSnapshot(toSend.record);
+			}
+			// Done: the records held behind it can go
+			retries.release(parked.getKey(), System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Send the parked records of the current file, waiting for their retries.
+	 * On shutdown, the state before the first record that was not processed
+	 * is saved.
+	 *
+	 * @param processor
+	 * @param fileLogger
+	 * @param fileReader
+	 * @param workFile
+	 * @param stateDataMap
+	 */
+	private void finishRetries(final XmlCommandProcessor processor, final IPublisherLoggerStrategy fileLogger,
+			final IFileReadStrategy fileReader, final File workFile, final Map<String, String> stateDataMap) {
+		if (retries == null) {
+			return;
+		}
+		while (!shutdown && !retries.isEmpty()) {
+			sendDueRetries(processor, fileLogger);
+			final long wait = retries.getNextDue() - System.currentTimeMillis();
+			if (!retries.isEmpty() && (wait > 0)) {
+				trace.trace("processFile: Waiting for the retry of " + retries.getItems().size() + " record(s).",
+						TraceLevel.DEBUG);
+				try {
+					synchronized (semaphore) {
+						if (!shutdown) {
+							semaphore.wait(wait);
+						}
+					}
+				} catch (final InterruptedException e) {
+					// Maybe a shutdown. No clue what else could interrupt us.
+					trace.trace("processFile: Retry was interrupted. Check the current state of the driver.", 1);
+				}
+			}
+		}
+		if (!retries.isEmpty()) {
+			int firstRecordNumber = Integer.MAX_VALUE;
+			for (final ParkedRecord parked : retries.getItems()) {
+				firstRecordNumber = Math.min(firstRecordNumber, parked.recordNumber);
+			}
+			sendStatusState(processor, fileReader, workFile, stateDataMap, firstRecordNumber - 1);
+		}
+		if (deadLetters.getCount() > 0) {
+			trace.trace(deadLetters.getCount() + " record(s) written to " + deadLetters.getFile().getName(),
+					TraceLevel.ERROR_WARN);
+		}
+		try {
+			deadLetters.close();
+		} catch (final IOException e) {
+			trace.trace("Failed to close " + deadLetters.getFile().getName() + ".", TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+		}
+		retries = null;
+		deadLetters = null;
+	}
+
+	/**
+	 * Write a record and one of its statuses to the publisher log.
+	 *
+	 * @param fileLogger
+	 * @param recordNumber
+	 * @param thisRecord
+	 * @param xdsStatusElement
+	 *            the status, or null if the command did not return a status
+	 */
+	private void logCommand(final IPublisherLoggerStrategy fileLogger, final int recordNumber,
+			final Map<String, String> thisRecord, final XDSStatusElement xdsStatusElement) {
+		if ((xdsStatusElement != null) && (StatusLevel.ERROR.equals(xdsStatusElement.getLevel())
+				|| StatusLevel.FATAL.equals(xdsStatusElement.getLevel()))) {
+			rejectSnapshot(thisRecord);
+		}
+		try {
+			fileLogger.logCommand(recordNumber, thisRecord, xdsStatusElement);
+		} catch (final WriteException e) {
+			trace.trace("Writing record entry to log file failed.", TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+		}
+	}
+
+	/**
+	 * Wait before sending a command that got a retry status again. The
+	 * semaphore is also notified by {@link #wakeUp()}: keep waiting until the
+	 * 30 seconds have passed, unless it is a shutdown.
+	 */
+	private void waitForRetry() {
+		trace.trace("processFile: Waiting for retry.", TraceLevel.ERROR_WARN);
+		final long due = System.currentTimeMillis() + 30000;
+		try {
+			synchronized (semaphore) {
+				long wait;
+				while (!shutdown && ((wait = due - System.currentTimeMillis()) > 0)) {
+					semaphore.wait(wait);
+				}
+			}
+		} catch (final InterruptedException e) {
+			// Maybe a shutdown. No clue what else could interrupt
+			// us.
+			trace.trace("processFile: Retry was interrupted. Check the current state of the driver.", 1);
+		}
+	}
+
+	/**
+	 * Submit an error on the publisher channel for a response that could not
+	 * be parsed.
+	 *
+	 * @param processor
+	 * @param xds
+	 * @param response
+	 *            the response, or null
+	 */
+	private void sendInvalidDocError(final XmlCommandProcessor processor, final XDSParseException xds,
+			final XDSCommandResultDocument response) {
+		// the doc we got back is malformed or invalid due to style sheet
+		// processing
+		final XDSCommandDocument command = driver.newCommandDoc();
+		final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR, StatusType.DRIVER_GENERAL,
+				null); // event-id
+		XDSUtil.appendStatus(command, // doc to append to
+				pollAttrs, // status attribute values
+				Errors.INVALID_DOC, // description
+				xds, // exception
+				false, // append stack trace?
+				(response == null) ? null : response.toXML()); // xml to
+																// append
+		processor.execute(command.toXML(), this);
+	}
+
+	/**
+	 * Records that are submitted together in one command document (see
+	 * {@link Parameters#BATCH_SIZE}). The statuses are matched with the
+	 * records by event-id. The document holds the publisher state of the last
+	 * record.
+	 */
+	private final class RecordBatch {
+		private final IPublisherLoggerStrategy fileLogger;
+		private final IFileReadStrategy fileReader;
+		private final File workFile;
+		private final Map<String, String> stateDataMap;
+		private final List<BatchedRecord> records = new ArrayList<BatchedRecord>();
+		private XDSCommandDocument command = null;
+
+		private RecordBatch(final IPublisherLoggerStrategy fileLogger, final IFileReadStrategy fileReader,
+				final File workFile, final Map<String, String> stateDataMap) {
+			this.fileLogger = fileLogger;
+			this.fileReader = fileReader;
+			this.workFile = workFile;
+			this.stateDataMap = stateDataMap;
+		}
+
+		/**
+		 * Add the command element of a record to the batch.
+		 *
+		 * @throws XDSParseException
+		 */
+		private void add(final XmlCommandProcessor processor, final int recordNumber,
+				final Map<String, String> thisRecord) throws XDSParseException {
+			if (retries != null) {
+				sendDueRetries(processor, fileLogger);
+				if (holdIfParked(recordNumber, thisRecord, null)) {
+					return;
+				}
+			}
+			if (command == null) {
+				command = driver.newCommandDoc();
+			}
+			final String eventId = addCommandElement(processor, command, thisRecord);
+			if (eventId == null) {
+				trace.trace("processFile: Record " + recordNumber + " did not change. Not published.",
+						TraceLevel.DEBUG);
+			} else {
+				records.add(new BatchedRecord(recordNumber, thisRecord, eventId));
+			}
+		}
+
+		private boolean isFull() {
+			return records.size() >= batchSize;
+		}
+
+		/**
+		 * The records were not published: keep them out of the snapshot.
+		 */
+		private void rejectSnapshot(final List<BatchedRecord> failed) {
+			for (final BatchedRecord batchedRecord : failed) {
+				FileDriverPublicationShimImpl.this.rejectSnapshot(batchedRecord.record);
+			}
+		}
+
+		/**
+		 * Send the remaining records. On shutdown, the records are not sent
+		 * and the state before the first of them is saved.
+		 */
+		private void flush(final XmlCommandProcessor processor) {
+			if (records.isEmpty()) {
+				return;
+			}
+			if (shutdown) {
+				sendStatusState(processor, fileReader, workFile, stateDataMap, BatchedRecord.getStateBefore(records));
+				records.clear();
+				command = null;
+			} else {
+				send(processor);
+			}
+		}
+
+		/**
+		 * Send the records, doing 'retry' for the records that got a retry
+		 * status. On shutdown during a retry, the state before the first
+		 * record that was not processed is saved.
+		 */
+		private void send(final XmlCommandProcessor processor) {
+			if (records.isEmpty()) {
+				return;
+			}
+			final int lastRecordNumber = records.get(records.size() - 1).recordNumber;
+			List<BatchedRecord> toSend = new ArrayList<BatchedRecord>(records);
+			XDSCommandDocument toExecute = command;
+			records.clear();
+			command = null;
+
+			// The state info for the last record
+			final Map<String, String> state = getPublisherState(fileReader, stateDataMap, lastRecordNumber);
+			final boolean withState = !isRetrying() && getCheckpointStrategy().isEngineCheckpoint(toSend.size());
+
+			XDSCommandResultDocument response = null;
+			try {
+				while (true) {
+					if (withState) {
+						addPublisherState(toExecute, state);
+					}
+					final XmlDocument xmlCommand = toExecute.toXML();
+					trace.trace("processFile: Executing " + toSend.size() + " record(s) from record "
+							+ toSend.get(0).recordNumber, TraceLevel.DEBUG);
+					trace.trace(xmlCommand);
+					final XmlDocument executeResponse = processor.execute(xmlCommand,
+							FileDriverPublicationShimImpl.this);
+					response = new XDSCommandResultDocument(executeResponse);
+					trace.trace("processFile: status == "
+							+ Util.toLiteral(response.mostSevereStatusLevel("").toString()), TraceLevel.DEBUG);
+
+					final List<BatchedRecord> toRetry = logStatus(response, toSend);
+					if (retries != null) {
+						// Retried one by one, without holding up the next
+						// records
+						for (final BatchedRecord batchedRecord : toRetry) {
+							parkRecord(getRetryKey(batchedRecord.recordNumber, batchedRecord.record),
+									batchedRecord.recordNumber, batchedRecord.record, null, 1,
+									batchedRecord.getRetryStatus());
+						}
+						toRetry.clear();
+					}
+					if (toRetry.isEmpty()) {
+						if (!isRetrying()) {
+							getCheckpointStrategy().checkpoint(state);
+						}
+						return;
+					}
+					waitForRetry();
+					if (shutdown) {
+						sendStatusState(processor, fileReader, workFile, stateDataMap,
+								BatchedRecord.getStateBefore(toRetry));
+						return;
+					}
+					// Send the records again, with new event-ids
+					toSend = new ArrayList<BatchedRecord>(toRetry.size());
+					toExecute = driver.newCommandDoc();
+					for (final BatchedRecord batchedRecord : toRetry) {
+						// Same command as before: the snapshot is only updated
+						// when the file completes
+						final String eventId = addCommandElement(processor, toExecute, batchedRecord.record);
+						toSend.add(new BatchedRecord(batchedRecord.recordNumber, batchedRecord.record, eventId));
+					}
+				}
+			} catch (final XDSParseException xds) {
+				sendInvalidDocError(processor, xds, response);
+				rejectSnapshot(toSend);
+				getCheckpointStrategy().checkpoint(state);
+			} catch (final Exception e) {
+				sendProcessError(processor, e);
+				rejectSnapshot(toSend);
+			}
+		}
+
+		/**
+		 * Log the statuses of the records and return the records that need a
+		 * retry (see {@link BatchedRecord#assignStatuses(List, List)}).
+		 */
+		private List<BatchedRecord> logStatus(final XDSCommandResultDocument response,
+				final List<BatchedRecord> sent) {
+			@SuppressWarnings("unchecked")
+			final List<XDSStatusElement> statusList = response.extractStatusElements();
+			final List<BatchedRecord> toRetry = BatchedRecord.assignStatuses(statusList, sent);
+			for (final BatchedRecord batchedRecord : sent) {
+				if (batchedRecord.statusList.isEmpty()) {
+					logCommand(fileLogger, batchedRecord.recordNumber, batchedRecord.record, null);
+				}
+				for (final XDSStatusElement xdsStatusElement : batchedRecord.statusList) {
+					logCommand(fileLogger, batchedRecord.recordNumber, batchedRecord.record, xdsStatusElement);
+				}
+			}
+			return toRetry;
+		}
+	}
+
+	/**
+	 * Create the command for a record. The state info is added when the
+	 * command is sent. The processor is only used for a dynamic command.
+	 *
+	 * @param processor
+	 * @param thisRecord
+	 * @return the command, or null if the record did not change (delta mode)
+	 * @throws XDSParseException
+	 */
+	private XDSCommandDocument createCommand(final XmlCommandProcessor processor,
+			final Map<String, String> thisRecord) throws XDSParseException {
+		final XDSCommandDocument command = driver.newCommandDoc();
+		if (addCommandElement(processor, command, thisRecord) == null) {
+			return null;
+		}
+		return command;
+	}
+
+	/**
+	 * The record was not published successfully: it must be published again
+	 * with the next file (delta mode).
+	 *
+	 * @param thisRecord
+	 */
+	private void rejectSnapshot(final Map<String, String> thisRecord) {
+		if ((recordSnapshot == null) || (thisRecord == null)) {
+			return;
+		}
+		try {
+			final String assValue = driver.getAssociationField(thisRecord);
+			if (assValue != null) {
+				recordSnapshot.reject(assValue);
+			}
+		} catch (final RuntimeException e) {
+			// Not in the snapshot
+		}
 	}
 
 	/**
-	 * Send a given record to the publisher channel, doing 'retry' if indicated
-	 * to do so.
+	 * End the file in delta mode: generate the deletes for the associations
+	 * that are not in the file and save the snapshot. On shutdown, the file
+	 * did not complete and the snapshot is left as it is.
 	 *
 	 * @param processor
-	 * @param recordNumber
-	 * @param command
-	 * @return true if the record was processed with or without succes. False if
-	 *         the record was not processed (retry & shutdown)
-	 * @throws XDSParseException
 	 */
-	private boolean sendRecord(final XmlCommandProcessor processor, final IPublisherLoggerStrategy fileLogger,
-			final int recordNumber, final Map<String, String> thisRecord, final Map<String, String> stateDataMap) {
-
-		XDSCommandResultDocument response = null;
-		boolean toRetry = false;
-
+	private void finishSnapshot(final XmlCommandProcessor processor) {
+		if (recordSnapshot == null) {
+			return;
+		}
+		if (shutdown) {
+			recordSnapshot.abort();
+			return;
+		}
+		if (deltaDeletes) {
+			sendSnapshotDeletes(processor);
+		}
+		if (shutdown) {
+			recordSnapshot.abort();
+			return;
+		}
 		try {
+			recordSnapshot.commit();
+			trace.trace("Delta mode: saved " + recordSnapshot.size() + " record(s) in the snapshot.",
+					TraceLevel.DEBUG);
+		} catch (final IOException e) {
+			trace.trace("Unable to save the record snapshot " + recordSnapshot.getFile().getAbsolutePath()
+					+ ". The records of this file are compared with the previous snapshot again.",
+					TraceLevel.ERROR_WARN);
+			Util.printStackTrace(trace, e);
+			recordSnapshot.abort();
+		}
+	}
 
-			// Create the add command based on the attributes read
+	/**
+	 * Generate a delete for every association of the snapshot that was not in
+	 * the file. The deletes are sent {@link Parameters#BATCH_SIZE} at a time.
+	 * An association whose delete fails stays in the snapshot, so the delete
+	 * is generated again with the next file.
+	 *
+	 * @param processor
+	 */
+	private void sendSnapshotDeletes(final XmlCommandProcessor processor) {
+		final List<String> missing = recordSnapshot.getMissing();
+		if (missing.isEmpty()) {
+			return;
+		}
+		trace.trace("Delta mode: " + missing.size()
+				+ " association(s) are no longer in the file. Generating delete events.", TraceLevel.DEBUG);
+		final Map<String, String> noRecord = Collections.emptyMap();
+		final int chunkSize = Math.max(1, batchSize);
+		int next = 0;
+		while ((next < missing.size()) && !shutdown) {
+			final List<String> chunk = missing.subList(next, Math.min(missing.size(), next + chunkSize));
+			next += chunk.size();
 			final XDSCommandDocument command = driver.newCommandDoc();
-			addCommandElement(processor, command, thisRecord);
-
-			// Add the state info for this record
-			addPublisherState(command, stateDataMap, recordNumber);
-
-			do {
-				toRetry = false;
+			final Map<String, String> byEventId = new HashMap<String, String>();
+			for (final String assValue : chunk) {
+				byEventId.put(_addCommandElement(command, noRecord, assValue, null, GenerateCommnd.DELETE, null),
+						assValue);
+				if (associationCache != null) {
+					associationCache.remove(assValue);
+				}
+			}
+			XDSCommandResultDocument response = null;
+			try {
 				final XmlDocument xmlCommand = command.toXML();
-				trace.trace("processFile: Executing record " + recordNumber, TraceLevel.DEBUG);
 				trace.trace(xmlCommand);
-				final XmlDocument executeResponse = processor.execute(xmlCommand, this);
-				response = new XDSCommandResultDocument(executeResponse);
-
-				// check command results
-				final StatusLevel level = response.mostSevereStatusLevel("");
-				trace.trace("processFile: status == " + Util.toLiteral(level.toString()), TraceLevel.DEBUG);
-
+				response = new XDSCommandResultDocument(processor.execute(xmlCommand, this));
 				@SuppressWarnings("unchecked")
 				final List<XDSStatusElement> statusList = response.extractStatusElements();
-				// If we did not get a status, make sure to log an entry as well
-				if ((statusList == null) || (statusList.size() == 0)) {
-					try {
-						fileLogger.logCommand(recordNumber, thisRecord, null);
-					} catch (final WriteException e) {
-						trace.trace("Writing record entry to log file failed.", TraceLevel.ERROR_WARN);
-						Util.printStackTrace(trace, e);
-					}
-				} else {
-					for (final XDSStatusElement xdsStatusElement : statusList) {
-						try {
-							fileLogger.logCommand(recordNumber, thisRecord, xdsStatusElement);
-						} catch (final WriteException e) {
-							trace.trace("Writing record entry to log file failed.", TraceLevel.ERROR_WARN);
-							Util.printStackTrace(trace, e);
-						}
-						if (StatusLevel.RETRY.equals(xdsStatusElement.getLevel())) {
-							toRetry = true;
+				if (statusList != null) {
+					for (final XDSStatusElement status : statusList) {
+						if (!StatusLevel.SUCCESS.equals(status.getLevel())
+								&& !StatusLevel.WARNING.equals(status.getLevel())) {
+							final String assValue = byEventId.get(status.getEventID());
+							if (assValue == null) {
+								// About the whole document
+								for (final String failed : chunk) {
+									recordSnapshot.reject(failed);
+								}
+							} else {
+								recordSnapshot.reject(assValue);
+							}
 						}
 					}
 				}
-				if (toRetry) {
-					trace.trace("processFile: Waiting for retry.", TraceLevel.ERROR_WARN);
-					try {
-						synchronized (semaphore) {
-							if (!shutdown) {
-								semaphore.wait(30000);
-							}
-						}
-					} catch (final InterruptedException e) {
-						// Maybe a shutdown. No clue what else could interrupt
-						// us.
-						trace.trace("processFile: Retry was interrupted. Check the current state of the driver.", 1);
+			} catch (final XDSParseException xds) {
+				sendInvalidDocError(processor, xds, response);
+				for (final String failed : chunk) {
+					recordSnapshot.reject(failed);
+				}
+			}
+		}
+		// The deletes that were not sent
+		for (int i = next; i < missing.size(); i++) {
+			recordSnapshot.reject(missing.get(i));
+		}
+	}
+
+	/**
+	 * Are the associations of several records looked up in one query?
+	 *
+	 * @return
+	 */
+	private boolean isPrefetching() {
+		return (associationCache != null) && (associationPrefetch > 1);
+	}
+
+	/**
+	 * Look up the associations of the given records that are not cached yet in
+	 * one query document (one query element per association) and cache the
+	 * result. If the result cannot be matched to the associations, nothing is
+	 * cached and every record is looked up on its own.
+	 *
+	 * @param processor
+	 * @param records
+	 */
+	private void prefetchAssociations(final XmlCommandProcessor processor,
+			final Collection<Map<String, String>> records) {
+		if (!isPrefetching()) {
+			return;
+		}
+		final Set<String> associations = new LinkedHashSet<String>();
+		for (final Map<String, String> aRecord : records) {
+			try {
+				final String assValue = driver.getAssociationField(aRecord);
+				if ((assValue != null) && (associationCache.get(assValue) == null)) {
+					associations.add(assValue);
+				}
+			} catch (final RuntimeException e) {
+				// The record will fail when it is submitted
+			}
+		}
+		if (associations.size() < 2) {
+			return;
+		}
+		trace.trace("Querying vault to find " + associations.size() + " associated objects.", TraceLevel.DEBUG);
+		final String objectClass = ((GenericFileDriverShim) driver).getObjectClass();
+		final XDSQueryDocument query = new XDSQueryDocument();
+		for (final String assValue : associations) {
+			Util.appendQueryElement(query, objectClass, null, assValue, null, null, null);
+		}
+		try {
+			final XmlDocument response = processor.execute(query.toXML(), null);
+			final XDSQueryResultDocument result = new XDSQueryResultDocument(response);
+			@SuppressWarnings("unchecked")
+			final List<XDSStatusElement> statusList = result.extractStatusElements();
+			if (statusList != null) {
+				for (final XDSStatusElement status : statusList) {
+					if (!StatusLevel.SUCCESS.equals(status.getLevel())) {
+						trace.trace("Association query returned status " + status.getLevel()
+								+ ". Looking up the records one by one.", TraceLevel.DEBUG);
+						return;
 					}
 				}
-			} while (toRetry && !shutdown);
-		} catch (final XDSParseException xds) {
-			// the doc we got back is malformed or invalid due to style sheet
-			// processing
-			final XDSCommandDocument command = driver.newCommandDoc();
-			final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR, StatusType.DRIVER_GENERAL,
-					null); // event-id
-			XDSUtil.appendStatus(command, // doc to append to
-					pollAttrs, // status attribute values
-					Errors.INVALID_DOC, // description
-					xds, // exception
-					false, // append stack trace?
-					(response == null) ? null : response.toXML()); // xml to
-																	// append
-			processor.execute(command.toXML(), this);
-			return true;
-		} // catch
-		return !toRetry;
+			}
+			final Map<String, List<XDSInstanceElement>> found = new HashMap<String, List<XDSInstanceElement>>();
+			@SuppressWarnings("unchecked")
+			final List<XDSInstanceElement> instances = result.extractInstanceElements();
+			if (instances != null) {
+				for (final XDSInstanceElement instance : instances) {
+					final XDSAssociationElement association = instance.extractAssociationElement();
+					final String assValue = (association == null) ? null : association.extractText();
+					if ((assValue == null) || !associations.contains(assValue)) {
+						trace.trace("Association query returned an instance that does not match an association."
+								+ " Looking up the records one by one.", TraceLevel.DEBUG);
+						return;
+					}
+					List<XDSInstanceElement> list = found.get(assValue);
+					if (list == null) {
+						list = new ArrayList<XDSInstanceElement>(1);
+						found.put(assValue, list);
+					}
+					list.add(instance);
+				}
+			}
+			// Same rule as for a single lookup: only exactly one instance is a
+			// modify
+			for (final String assValue : associations) {
+				final List<XDSInstanceElement> list = found.get(assValue);
+				associationCache.put(assValue,
+						((list != null) && (list.size() == 1)) ? list.get(0).getSrcDN() : null);
+			}
+		} catch (final XDSParseException e) {
+			trace.trace("Unable to parse the association query result: " + e.getMessage()
+					+ ". Looking up the records one by one.", TraceLevel.DEBUG);
+		}
+	}
+
+	/**
+	 * Reads the records of a file a number of records ahead, so the
+	 * associations of these records can be looked up in one query.
+	 */
+	private final class RecordReadAhead {
+		private final XmlCommandProcessor processor;
+		private final IFileReadStrategy fileReader;
+		private final LinkedList<Map<String, String>> ahead = new LinkedList<Map<String, String>>();
+		private boolean endOfFile = false;
+
+		private RecordReadAhead(final XmlCommandProcessor processor, final IFileReadStrategy fileReader) {
+			this.processor = processor;
+			this.fileReader = fileReader;
+		}
+
+		/**
+		 * Get the next record of the file.
+		 *
+		 * @return the record, or null at the end of the file
+		 * @throws ReadException
+		 */
+		private Map<String, String> next() throws ReadException {
+			if (!isPrefetching()) {
+				return fileReader.readRecord();
+			}
+			if (ahead.isEmpty() && !endOfFile) {
+				while (ahead.size() < associationPrefetch) {
+					final Map<String, String> aRecord = fileReader.readRecord();
+					if (aRecord == null) {
+						endOfFile = true;
+						break;
+					}
+					ahead.add(aRecord);
+				}
+				prefetchAssociations(processor, ahead);
+			}
+			return ahead.poll();
+		}
+	}
+
+	private IPublisherCheckpointStrategy getCheckpointStrategy() {
+		return (IPublisherCheckpointStrategy) strategyMap.get(Strategies.CHECKPOINT);
+	}
+
+	/**
+	 * Can the commands be created without querying the vault (ie on a worker
+	 * thread)?
+	 *
+	 * @return
+	 */
+	private boolean isStaticCommand() {
+		return (commandToGenerate != GenerateCommnd.DYNAMIC) && (commandToGenerate != GenerateCommnd.DYNAMIC_INPUT);
+	}
+
+	/**
+	 * Submit the error of a record on the publisher channel.
+	 *
+	 * @param processor
+	 * @param e
+	 */
+	private void sendProcessError(final XmlCommandProcessor processor, final Exception e) {
+		final XDSCommandDocument command = driver.newCommandDoc();
+		final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR, StatusType.DRIVER_GENERAL,
+				null); // event-id
+		XDSUtil.appendStatus(command, // doc to append to
+				pollAttrs, // status attribute values
+				Errors.PROCESS_ERROR, // description
+				e, // exception
+				true, // append stack trace?
+				null); // xml to append
+		processor.execute(command.toXML(), this);
+	}
+
+	/**
+	 * Submit an error reading a file on the publisher channel.
+	 *
+	 * @param processor
+	 * @param workFile
+	 * @param re
+	 */
+	private void sendReadError(final XmlCommandProcessor processor, final File workFile, final ReadException re) {
+		final XDSCommandDocument command = driver.newCommandDoc();
+		final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR, StatusType.DRIVER_GENERAL,
+				null); // event-id
+		// Append the correct exception message
+		Exception e = (Exception) re.getCause();
+		if (e == null) {
+			e = re;
+		}
+		trace.trace(Errors.FILE_READ_ERROR + "(" + workFile.getAbsolutePath() + ")" + e.getMessage(),
+				TraceLevel.ERROR_WARN);
+		XDSUtil.appendStatus(command, // doc to append to
+				pollAttrs, // status attribute values
+				Errors.FILE_READ_ERROR + "(" + workFile.getAbsolutePath() + ")", // description:
+																					// Communications
+																					// error.
+				e, // exception
+				false, // append stack trace?
+				null); // xml to append
+		processor.execute(command.toXML(), this);
 	}
 
 	/**
 	 * Skip recordsToSkip from the inputfile. Return the current record number.
+	 * If the reader can resume at the position saved in the publisher state,
+	 * the records are not read.
 	 *
 	 * @param recordsToSkip
+	 * @param resumePosition
+	 *            the position of the reader after the last record to skip, or
+	 *            null
 	 * @return
 	 * @throws ReadException
 	 */
-	private int skipRecords(final int recordsToSkip) throws ReadException {
+	private int skipRecords(final int recordsToSkip, final String resumePosition) throws ReadException {
 		int recordNumber = 0;
 		final IFileReadStrategy fileReader = (IFileReadStrategy) strategyMap.get(Strategies.FILEREADER);
 
 		// skip the given number of records.
 		if (recordsToSkip > 0) {
+			if ((resumePosition != null) && (fileReader instanceof IResumableFileReadStrategy)) {
+				if (((IResumableFileReadStrategy) fileReader).resume(resumePosition, recordsToSkip)) {
+					trace.trace("Processing old file. Resumed after record " + recordsToSkip + " at position "
+							+ resumePosition + ".", TraceLevel.DEBUG);
+					return recordsToSkip;
+				}
+				trace.trace("Processing old file. Unable to resume at position " + resumePosition + ".",
+						TraceLevel.ERROR_WARN);
+			}
 			trace.trace("Processing old file. Skipping " + recordsToSkip + " record(s).", TraceLevel.DEBUG);
+			if (fileReader instanceof IRandomAccessFileReadStrategy) {
+				// The reader can skip without parsing the records
+				return ((IRandomAccessFileReadStrategy) fileReader).skipRecords(recordsToSkip);
+			}
 			for (int i = 0; i < recordsToSkip; i++) {
 				fileReader.readRecord();
 				recordNumber++;
@@ -1367,23 +3040,46 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	}
 
 	/**
-	 * Add all key/value pairs from the given map as a state element Add the
-	 * record number as a state element.
+	 * Get the publisher state after a record: all key/value pairs from the
+	 * given map and the record number. If the file reader supports it, the
+	 * position after the record is added as well.
 	 *
-	 * @param command
+	 * @param fileReader
+	 *            the reader of the file
 	 * @param stateDataMap
 	 * @param recordNumber
+	 * @return
+	 */
+	private Map<String, String> getPublisherState(final IFileReadStrategy fileReader,
+			final Map<String, String> stateDataMap, final int recordNumber) {
+		final Map<String, String> state = new HashMap<String, String>(stateDataMap);
+		state.put(STATE_RECORDNUMBER, recordNumber + "");
+		if (fileReader instanceof IResumableFileReadStrategy) {
+			String resumePosition = null;
+			if (recordNumber > 0) {
+				resumePosition = ((IResumableFileReadStrategy) fileReader).getResumePosition(recordNumber);
+			}
+			// Always set the attribute: a position of a previous record must
+			// not be used with this record number
+			state.put(STATE_RESUME_POSITION, (resumePosition == null) ? "" : resumePosition);
+		}
+		return state;
+	}
+
+	/**
+	 * Add all key/value pairs from the given state as a state element
+	 *
+	 * @param command
+	 * @param state
 	 */
-	private void addPublisherState(final StateDocument command, final Map<String, String> stateDataMap,
-			final int recordNumber) {
+	private void addPublisherState(final StateDocument command, final Map<String, String> state) {
 		final XDSPublisherStateElement stateElem = command.appendInitParamsElement().appendPublisherStateElement();
-		final Iterator<String> iter = stateDataMap.keySet().iterator();
+		final Iterator<String> iter = state.keySet().iterator();
 		while (iter.hasNext()) {
 			final String element = iter.next();
-			final String value = stateDataMap.get(element);
+			final String value = state.get(element);
 			stateElem.attributeValueSet(element, value);
 		}
-		stateElem.attributeValueSet(STATE_RECORDNUMBER, recordNumber + "");
 	}
 
 	/**
@@ -1393,10 +3089,10 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	 * DYNAMIC_INPUT - ADD - MODIFY - DELETE
 	 *
 	 * @param thisRecord
-	 * @return
+	 * @return the event-id of the command element
 	 * @throws XDSParseException
 	 */
-	private void addCommandElement(final XmlCommandProcessor processor, final XDSCommandDocument command,
+	private String addCommandElement(final XmlCommandProcessor processor, final XDSCommandDocument command,
 			final Map<String, String> thisRecord) throws XDSParseException {
 		// OK, we have all the data. Create and execute the command
 		final String assValue = driver.getAssociationField(thisRecord);
@@ -1422,6 +3118,25 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			}
 		}
 
+		Set<String> attributes = null;
+		if ((recordSnapshot != null) && (assValue != null)) {
+			if (calculatedCommand == GenerateCommnd.DELETE) {
+				recordSnapshot.remove(assValue);
+			} else {
+				final RecordSnapshot.Change change = recordSnapshot.compare(assValue, thisRecord);
+				if (change == null) {
+					return null;
+				}
+				if (change.isKnown()) {
+					// Published before: only the changes are needed
+					calculatedCommand = GenerateCommnd.MODIFY;
+					attributes = change.getChangedAttributes();
+					trace.trace("Record changed since the last file. Will trigger a 'modify' command.",
+							TraceLevel.DEBUG);
+				}
+			}
+		}
+
 		if (calculatedCommand == GenerateCommnd.DYNAMIC) {
 			if (assValue == null) {
 				calculatedCommand = GenerateCommnd.ADD;
@@ -1429,35 +3144,60 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 				// Get the actual commandname by querying the IDV based on the
 				// association
 				// If we find an object, it is a modify, otherwise it is an add
-				trace.trace("Command is dynamic. Querying vault to find associated object.", TraceLevel.DEBUG);
-				final XDSQueryDocument query = Util.createQueryDoc(((GenericFileDriverShim) driver).getObjectClass(),
-						null, assValue, null, null, null);
-				final XmlDocument response = processor.execute(query.toXML(), null);
-				final XDSQueryResultDocument result = new XDSQueryResultDocument(response);
-				@SuppressWarnings("unchecked")
-				final List<XDSInstanceElement> instances = result.extractInstanceElements();
-
-				if ((instances != null) && (instances.size() == 1)) {
-					calculatedCommand = GenerateCommnd.MODIFY;
-					final XDSInstanceElement singleton = instances.get(0);
-					destDn = singleton.getSrcDN();
-					trace.trace("Exactly one instance found. Will trigger a 'modify' command.", TraceLevel.DEBUG);
+				final AssociationCache.Entry cached = (associationCache == null) ? null
+						: associationCache.get(assValue);
+				if (cached != null) {
+					if (cached.isFound()) {
+						calculatedCommand = GenerateCommnd.MODIFY;
+						destDn = cached.getDestDn();
+						trace.trace("Associated object found in the cache. Will trigger a 'modify' command.",
+								TraceLevel.DEBUG);
+					} else {
+						calculatedCommand = GenerateCommnd.ADD;
+						trace.trace("No associated object in the cache. Will trigger an 'add' command.",
+								TraceLevel.DEBUG);
+					}
 				} else {
-					calculatedCommand = GenerateCommnd.ADD;
-					trace.trace("Zero or multiple instances found. Will trigger an 'add' command.", TraceLevel.DEBUG);
+					trace.trace("Command is dynamic. Querying vault to find associated object.", TraceLevel.DEBUG);
+					final XDSQueryDocument query = Util.createQueryDoc(
+							((GenericFileDriverShim) driver).getObjectClass(), null, assValue, null, null, null);
+					final XmlDocument response = processor.execute(query.toXML(), null);
+					final XDSQueryResultDocument result = new XDSQueryResultDocument(response);
+					@SuppressWarnings("unchecked")
+					final List<XDSInstanceElement> instances = result.extractInstanceElements();
+
+					if ((instances != null) && (instances.size() == 1)) {
+						calculatedCommand = GenerateCommnd.MODIFY;
+						final XDSInstanceElement singleton = instances.get(0);
+						destDn = singleton.getSrcDN();
+						trace.trace("Exactly one instance found. Will trigger a 'modify' command.", TraceLevel.DEBUG);
+					} else {
+						calculatedCommand = GenerateCommnd.ADD;
+						trace.trace("Zero or multiple instances found. Will trigger an 'add' command.",
+								TraceLevel.DEBUG);
+					}
+					if (associationCache != null) {
+						associationCache.put(assValue, destDn);
+					}
 				}
 			}
 		}
+		if ((associationCache != null) && (assValue != null)
+				&& ((calculatedCommand == GenerateCommnd.ADD) || (calculatedCommand == GenerateCommnd.DELETE))) {
+			// This command changes whether the associated object exists
+			associationCache.remove(assValue);
+		}
 
-		_addCommandElement(command, thisRecord, assValue, destDn, calculatedCommand);
+		return _addCommandElement(command, thisRecord, assValue, destDn, calculatedCommand, attributes);
 	}
 
 	/**
-	 * Make sure that we do not overflow. Start again if we would.
+	 * Make sure that we do not overflow. Start again if we would. Commands are
+	 * also created by the worker threads.
 	 *
 	 * @return
 	 */
-	private long getNextEventId() {
+	private synchronized long getNextEventId() {
 		if (eventid == Long.MAX_VALUE) {
 			eventid = 0;
 		}
@@ -1476,10 +3216,15 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 	 * @param destDn
 	 * @param calculatedCommand
 	 *            Command to generate (non-dynamic)
+	 * @param attributes
+	 *            the attributes to put in a modify, or null for all
+	 * @return the event-id of the command element
 	 */
-	private void _addCommandElement(final XDSCommandDocument command, final Map<String, String> thisRecord,
-			final String assValue, final String destDn, final GenerateCommnd calculatedCommand) {
+	private String _addCommandElement(final XDSCommandDocument command, final Map<String, String> thisRecord,
+			final String assValue, final String destDn, final GenerateCommnd calculatedCommand,
+			final Set<String> attributes) {
 		// OK, now do the actual command generation
+		final String eventId = "gfd-pub-" + (getNextEventId());
 		switch (calculatedCommand) {
 		case ADD: {
 			// We generate an 'add' event
@@ -1495,7 +3240,7 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			if ((srcValue != null) && !"".equals(srcValue)) {
 				addElement.setSrcDN(srcValue);
 			}
-			addElement.setEventID("gfd-pub-" + (getNextEventId()));
+			addElement.setEventID(eventId);
 			// Append all fields
 			final Iterator<String> iter = thisRecord.keySet().iterator();
 			while (iter.hasNext()) {
@@ -1518,7 +3263,7 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			if (assValue != null) {
 				deleteElem.appendAssociationElement(assValue);
 			}
-			deleteElem.setEventID("gfd-pub-" + (eventid++));
+			deleteElem.setEventID(eventId);
 			break;
 		}
 		default: {
@@ -1538,11 +3283,14 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			if (srcValue != null) {
 				modElement.setSrcDN(srcValue);
 			}
-			modElement.setEventID("gfd-pub-" + (eventid++));
+			modElement.setEventID(eventId);
 			// Append all fields
 			final Iterator<String> iter = thisRecord.keySet().iterator();
 			while (iter.hasNext()) {
 				final String key = iter.next();
+				if ((attributes != null) && !attributes.contains(key)) {
+					continue;
+				}
 				final String value = thisRecord.get(key);
 				final XDSModifyAttrElement addAttr = modElement.appendModifyAttrElement();
 				addAttr.setAttrName(key);
@@ -1556,6 +3304,7 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 			break;
 		}
 		}
+		return eventId;
 	}
 
 	/**
@@ -1631,50 +3380,44 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 				final Map<String, String> metaDataMap = metaData.getStaticMetaData(currentFile);
 				// Map stateDataMap = getInitialStateMap(workFile);
 
-				final IFileReadStrategy queryFileReader = createQueryFileReader();
-				try {
-					queryFileReader.openFile(currentFile);
-					Map<String, String> thisRecord = queryFileReader.readRecord();
-					Map<String, String> nextRecord = queryFileReader.readRecord();
-					int recordNumber = 0;
-
-					while (thisRecord != null) {
-						recordNumber++;
-						try {
-							metaData.addDynamicMetaData(metaDataMap, thisRecord, nextRecord, recordNumber);
-							// Read all records and add the matching records to
-							// the result
-							if (matcher.matchesRecord(thisRecord)) {
-								addInstanceToQueryResult(thisRecord, result, attributesToRead);
-							}
-						} catch (final Exception e) {
-							final StringWriter sw = new StringWriter();
-							final PrintWriter ps = new PrintWriter(sw);
-							e.printStackTrace(ps);
-							trace.trace(sw.toString(), 0);
-							// Add errorstatus to query result doc and continue
-							// with next record
-							errorAdded = true;
-							final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR,
-									StatusType.DRIVER_GENERAL, null); // event-id
-							XDSUtil.appendStatus(result, // doc to append to
-									pollAttrs, // status attribute values
-									Errors.PROCESS_ERROR, // description
-									e, // exception
-									true, // append stack trace?
-									null); // xml to append
+				// A random access reader can read the records of the current
+				// file without parsing the file again
+				synchronized (queryReaderLock) {
+					final IRandomAccessFileReadStrategy randomAccessReader = getQueryReader(currentFile);
+					// The index of the current file is built by the first query.
+					// Only the record numbers are indexed: the records must be
+					// read back by number.
+					RecordIndex index = null;
+					boolean buildIndex = false;
+					if ((queryIndexAttributes != null) && (randomAccessReader != null)) {
+						index = queryIndex;
+						if ((index == null) || !index.isFor(currentFile)) {
+							index = new RecordIndex(driver, currentFile, queryIndexAttributes);
+							buildIndex = true;
 						}
-
-						// Next record
-						thisRecord = nextRecord;
-						nextRecord = queryFileReader.readRecord();
 					}
-				} finally {
-					// Close the file
-					try {
-						queryFileReader.close();
-					} catch (final Exception e) {
-						// Eat this exception. We might have another one...
+					final int[] candidates = ((index == null) || buildIndex) ? null : index.getCandidates(queryElem);
+					if (candidates != null) {
+						trace.trace("query: " + candidates.length + " candidate record(s) found in the index.",
+								TraceLevel.DEBUG);
+						for (final int recordNumber : candidates) {
+							try {
+								final Map<String, String> thisRecord = randomAccessReader.readRecord(recordNumber);
+								// Only null matters for the next record: it marks
+								// the last record
+								metaData.addDynamicMetaData(metaDataMap, thisRecord,
+										(recordNumber < index.getRecordCount()) ? thisRecord : null, recordNumber);
+								if (matcher.matchesRecord(thisRecord)) {
+									addInstanceToQueryResult(thisRecord, result, attributesToRead);
+								}
+							} catch (final Exception e) {
+								errorAdded = true;
+								appendQueryError(result, e);
+							}
+						}
+					} else {
+						errorAdded = scanQuery(matcher, attributesToRead, metaDataMap, randomAccessReader,
+								buildIndex ? index : null, result);
 					}
 				}
 			}
@@ -1699,16 +3442,152 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 
 	}// query(XmlDocument):XmlDocument
 
+	/**
+	 * Execute a query by reading all records of the current file.
+	 *
+	 * @param matcher
+	 * @param attributesToRead
+	 * @param metaDataMap
+	 * @param randomAccessReader
+	 *            the reader of the current file if it can read records by
+	 *            number, otherwise null
+	 * @param index
+	 *            the index to build while reading, or null
+	 * @param result
+	 * @return true if an error status was added to the result
+	 * @throws Exception
+	 */
+	private boolean scanQuery(final QueryMatcher matcher, final List<String> attributesToRead,
+			final Map<String, String> metaDataMap, final IRandomAccessFileReadStrategy randomAccessReader,
+			final RecordIndex index, final XDSQueryResultDocument result) throws Exception {
+		boolean errorAdded = false;
+		boolean indexComplete = true;
+		final IFileReadStrategy queryFileReader = (randomAccessReader == null) ? createFileReader() : null;
+		try {
+			if (queryFileReader != null) {
+				queryFileReader.openFile(currentFile);
+			}
+			Map<String, String> thisRecord = readQueryRecord(queryFileReader, randomAccessReader, 1);
+			Map<String, String> nextRecord = readQueryRecord(queryFileReader, randomAccessReader, 2);
+			int recordNumber = 0;
+
+			while (thisRecord != null) {
+				recordNumber++;
+				try {
+					metaData.addDynamicMetaData(metaDataMap, thisRecord, nextRecord, recordNumber);
+					// Index the record as the matcher sees it
+					if (index != null) {
+						index.add(recordNumber, thisRecord);
+					}
+					// Read all records and add the matching records to
+					// the result
+					if (matcher.matchesRecord(thisRecord)) {
+						addInstanceToQueryResult(thisRecord, result, attributesToRead);
+					}
+				} catch (final Exception e) {
+					// Add errorstatus to query result doc and continue
+					// with next record
+					errorAdded = true;
+					indexComplete = false;
+					appendQueryError(result, e);
+				}
+
+				// Next record
+				thisRecord = nextRecord;
+				nextRecord = readQueryRecord(queryFileReader, randomAccessReader, recordNumber + 2);
+			}
+		} finally {
+			// Close the file
+			try {
+				if (queryFileReader != null) {
+					queryFileReader.close();
+				}
+			} catch (final Exception e) {
+				// Eat this exception. We might have another one...
+			}
+		}
+		if ((index != null) && indexComplete) {
+			trace.trace("query: indexed " + index.getRecordCount() + " record(s) of " + currentFile.getName(),
+					TraceLevel.DEBUG);
+			queryIndex = index;
+		}
+		return errorAdded;
+	}
+
+	/**
+	 * Get the reader the queries use to read the records of a file by number.
+	 * The reader is kept open for the next queries on the same file. Only
+	 * called while holding {@link #queryReaderLock}.
+	 *
+	 * @param file
+	 * @return the reader, or null if the file reader cannot read records by
+	 *         number
+	 * @throws Exception
+	 */
+	private IRandomAccessFileReadStrategy getQueryReader(final File file) throws Exception {
+		if ((queryReader != null) && file.equals(queryReaderFile)) {
+			return queryReader;
+		}
+		closeQueryReader();
+		if (!(strategyMap.get(Strategies.FILEREADER) instanceof IRandomAccessFileReadStrategy)) {
+			return null;
+		}
+		final IRandomAccessFileReadStrategy reader = (IRandomAccessFileReadStrategy) createFileReader();
+		reader.openFile(file);
+		queryReader = reader;
+		queryReaderFile = file;
+		return reader;
+	}
+
+	/**
+	 * Close the reader of the queries, if any. Called when the publisher is
+	 * done with a file, so the file can be moved.
+	 */
+	private void closeQueryReader() {
+		synchronized (queryReaderLock) {
+			if (queryReader != null) {
+				try {
+					queryReader.close();
+				} catch (final Exception e) {
+					Util.printStackTrace(trace, e);
+				}
+				queryReader = null;
+				queryReaderFile = null;
+			}
+		}
+	}
+
+	/**
+	 * Add the error of a record to a query result.
+	 *
+	 * @param result
+	 * @param e
+	 */
+	private void appendQueryError(final XDSQueryResultDocument result, final Exception e) {
+		final StringWriter sw = new StringWriter();
+		final PrintWriter ps = new PrintWriter(sw);
+		e.printStackTrace(ps);
+		trace.trace(sw.toString(), 0);
+		final StatusAttributes pollAttrs = StatusAttributes.factory(StatusLevel.ERROR, StatusType.DRIVER_GENERAL,
+				null); // event-id
+		XDSUtil.appendStatus(result, // doc to append to
+				pollAttrs, // status attribute values
+				Errors.PROCESS_ERROR, // description
+				e, // exception
+				true, // append stack trace?
+				null); // xml to append
+	}
+
 	/**
 	 * Create a new fileReader instance used for querying the file (support for
-	 * publisher query)
+	 * publisher query) or by a worker thread
 	 *
 	 * @return
 	 * @throws InstantiationException
 	 * @throws IllegalAccessException
 	 * @throws Exception
 	 */
-	private IFileReadStrategy createQueryFileReader() throws InstantiationException, IllegalAccessException, Exception {
+	private IFileReadStrategy createFileReader() throws InstantiationException, IllegalAccessException, Exception {
 		final IFileReadStrategy fileReader = (IFileReadStrategy) strategyMap.get(Strategies.FILEREADER);
 		final IFileReadStrategy queryFileReader = fileReader.getClass().newInstance();
 
@@ -1716,6 +3595,24 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		return queryFileReader;
 	}
 
+	/**
+	 * Read the next record for a query: either by number from the random
+	 * access reader, or the next record from the query reader.
+	 *
+	 * @param queryFileReader
+	 * @param randomAccessReader
+	 * @param recordNumber
+	 * @return
+	 * @throws ReadException
+	 */
+	private static Map<String, String> readQueryRecord(final IFileReadStrategy queryFileReader,
+			final IRandomAccessFileReadStrategy randomAccessReader, final int recordNumber) throws ReadException {
+		if (randomAccessReader != null) {
+			return randomAccessReader.readRecord(recordNumber);
+		}
+		return queryFileReader.readRecord();
+	}
+
 	private List<String> getAttributesToRead(final XDSQueryElement queryElem) {
 		// Note: we ignore the class name in the query
 		@SuppressWarnings("unchecked")
@@ -1830,4 +3727,30 @@ public class FileDriverPublicationShimImpl implements IPublisherImplStrategy, Xm
 		return currentFile;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see info.vancauwenberge.filedriver.filepublisher.IPublisher#wakeUp()
+	 */
+	@Override
+	public void wakeUp() {
+		synchronized (semaphore) {
+			pollRequested = true;
+			semaphore.notifyAll();
+		}
+	}
+
+	/**
+	 * Was a poll requested by {@link #wakeUp()}? The request is cleared.
+	 *
+	 * @return
+	 */
+	private boolean isPollRequested() {
+		synchronized (semaphore) {
+			final boolean requested = pollRequested;
+			pollRequested = false;
+			return requested;
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import info.vancauwenberge.filedriver.api.IFileSorterStrategy;
+import info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy;
+
+/**
+ * The files found during one poll, in the order of the file sorter. The sort
+ * key of a file is read once, when the file is added. A sorter that has no
+ * sort keys ({@link IKeyedFileSorterStrategy}) is asked for the first of the
+ * remaining files every time a file is taken. Listing the folder again
+ * only adds the files that were not seen before during this poll, so a file
+ * that could not be claimed is not tried again until the next poll.
+ */
+class FileQueue {
+	private final IFileSorterStrategy fileSorter;
+	// Null if the sorter has no sort keys
+	private final IKeyedFileSorterStrategy keyedSorter;
+	private final PriorityQueue<QueuedFile> queue = new PriorityQueue<QueuedFile>();
+	// The files of a sorter without sort keys, in the order they were found
+	private final List<File> unsorted = new ArrayList<File>();
+	private final Set<File> seen = new HashSet<File>();
+	private long arrivals = 0;
+
+	FileQueue(final IFileSorterStrategy fileSorter) {
+		this.fileSorter = fileSorter;
+		this.keyedSorter = (fileSorter instanceof IKeyedFileSorterStrategy) ? (IKeyedFileSorterStrategy) fileSorter
+				: null;
+	}
+
+	/**
+	 * Add the files that were not seen before.
+	 *
+	 * @param files
+	 *            the files found by the file locator (can be null)
+	 * @return the number of files added
+	 */
+	int offer(final File[] files) {
+		int added = 0;
+		if (files != null) {
+			for (final File file : files) {
+				if (seen.add(file)) {
+					if (keyedSorter != null) {
+						queue.add(new QueuedFile(file, keyedSorter.getSortKey(file), arrivals++));
+					} else {
+						unsorted.add(file);
+					}
+					added++;
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Get the next file to process. Files that are gone since they were
+	 * found are skipped.
+	 *
+	 * @return the file, or null if the queue is empty
+	 */
+	File poll() {
+		if (keyedSorter == null) {
+			return pollUnsorted();
+		}
+		QueuedFile next;
+		while ((next = queue.poll()) != null) {
+			if (next.file.exists()) {
+				return next.file;
+			}
+		}
+		return null;
+	}
+
+	private File pollUnsorted() {
+		final Iterator<File> iter = unsorted.iterator();
+		while (iter.hasNext()) {
+			if (!iter.next().exists()) {
+				iter.remove();
+			}
+		}
+		if (unsorted.isEmpty()) {
+			return null;
+		}
+		final File first = fileSorter.getFirstFile(unsorted.toArray(new File[unsorted.size()]));
+		// Not one of the files: take them in the order they were found
+		if ((first == null) || !unsorted.remove(first)) {
+			return unsorted.remove(0);
+		}
+		return first;
+	}
+
+	boolean isEmpty() {
+		return queue.isEmpty() && unsorted.isEmpty();
+	}
+
+	int size() {
+		return queue.size() + unsorted.size();
+	}
+
+	private static final class QueuedFile implements Comparable<QueuedFile> {
+		private final File file;
+		private final Comparable<Object> key;
+		private final long arrival;
+
+		@SuppressWarnings("unchecked")
+		private QueuedFile(final File file, final Comparable<?> key, final long arrival) {
+			this.file = file;
+			this.key = (Comparable<Object>) key;
+			this.arrival = arrival;
+		}
+
+		public int compareTo(final QueuedFile other) {
+			if ((key != null) && (other.key != null)) {
+				final int result = key.compareTo(other.key);
+				if (result != 0) {
+					return result;
+				}
+			}
+			// Same key: first come, first served
+			return (arrival < other.arrival) ? -1 : ((arrival == other.arrival) ? 0 : 1);
+		}
+	}
+}
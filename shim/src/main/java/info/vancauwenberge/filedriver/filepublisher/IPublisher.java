@@ -38,8 +38,16 @@ public interface IPublisher {
 	 * Get the current file in process (should be in workDir).
 	 * Note: files are only moved to the workdir just prior to processing. If multiple files are found for processing, only
 	 * the first one is moved to 'workdir' and processed. After this, the next file is moved and processed etc...
+	 * When the publisher uses several workers, one file per worker is moved to 'workdir' and read ahead. This
+	 * returns the file whose records are being submitted.
 	 * @return
 	 */
 	public File getCurrentFile();
 
+	/**
+	 * Wake the publisher thread up, so it looks for files now instead of at the end of the polling interval.
+	 * Can be called from any thread.
+	 */
+	public void wakeUp();
+
 }
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The files that are being read by the workers, in the order they were
+ * started (the order of the file sorter). The publisher thread takes them one
+ * by one: either in that order, or in the order their first records are ready.
+ * A job is removed as soon as it is taken, so a worker can start on the next
+ * file while the records of this one are submitted.
+ *
+ * @param <T>
+ *            the job type
+ */
+class JobQueue<T> {
+	private final List<T> started = new ArrayList<T>();
+	private final BlockingQueue<T> ready = new LinkedBlockingQueue<T>();
+	private final boolean firstReady;
+
+	/**
+	 * @param firstReady
+	 *            true if the job that is ready first is taken first, false
+	 *            to take the jobs in the order they were started
+	 */
+	JobQueue(final boolean firstReady) {
+		this.firstReady = firstReady;
+	}
+
+	/**
+	 * Add a job that was handed to a worker. Only called from the publisher
+	 * thread.
+	 */
+	void add(final T job) {
+		started.add(job);
+	}
+
+	/**
+	 * The first records of the job are ready. Called from the worker thread.
+	 */
+	void ready(final T job) {
+		if (firstReady) {
+			ready.add(job);
+		}
+	}
+
+	/**
+	 * Take the next job.
+	 *
+	 * @param timeout
+	 *            how long to wait for a job to be ready
+	 * @param unit
+	 * @return the job, or null if there are no jobs or if none got ready in
+	 *         time
+	 * @throws InterruptedException
+	 */
+	T take(final long timeout, final TimeUnit unit) throws InterruptedException {
+		if (started.isEmpty()) {
+			return null;
+		}
+		if (!firstReady) {
+			return started.remove(0);
+		}
+		final T job = ready.poll(timeout, unit);
+		if (job != null) {
+			started.remove(job);
+		}
+		return job;
+	}
+
+	boolean isEmpty() {
+		return started.isEmpty();
+	}
+
+	int size() {
+		return started.size();
+	}
+
+	/**
+	 * @return the jobs that were not taken, in the order they were started
+	 */
+	List<T> getJobs() {
+		return new ArrayList<T>(started);
+	}
+}
@@ -23,6 +23,7 @@ package info.vancauwenberge.filedriver.filepublisher;
 class PublisherStateMeta{
 	private int recordNumber;
 	private String fileName;
+	private String resumePosition;
 	/**
 	 * @return Returns the fileName.
 	 */
@@ -35,13 +36,28 @@ class PublisherStateMeta{
 	protected int getRecordNumber() {
 		return recordNumber;
 	}
+	/**
+	 * @return Returns the position of the file reader after the record, or null if not known.
+	 */
+	protected String getResumePosition() {
+		return resumePosition;
+	}
 	/**
 	 * @param recordNumber
 	 * @param fileName
 	 */
 	protected PublisherStateMeta(int recordNumber, String fileName) {
+		this(recordNumber, fileName, null);
+	}
+	/**
+	 * @param recordNumber
+	 * @param fileName
+	 * @param resumePosition
+	 */
+	protected PublisherStateMeta(int recordNumber, String fileName, String resumePosition) {
 		super();
 		this.recordNumber = recordNumber;
 		this.fileName = fileName;
+		this.resumePosition = resumePosition;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent snapshot of the records published from the last complete file:
+ * association to a 64-bit hash of the normalized record and, optionally, a
+ * hash per attribute. A new file is compared with the snapshot so only the
+ * records that changed need to be published.
+ * <p>
+ * While a file is processed, the records seen are collected in a pending
+ * snapshot. The pending snapshot replaces the file on disk (atomically) with
+ * {@link #commit()} when the file completes.
+ * <p>
+ * Only used by the publisher thread.
+ */
+class RecordSnapshot {
+	private static final int MAGIC = 0x47464453;
+	private static final int VERSION = 1;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * What the snapshot knows about one association.
+	 */
+	private static final class Entry {
+		private final long recordHash;
+		/**
+		 * Sorted attribute names, or null if there are no attribute hashes
+		 */
+		private final String[] names;
+		private final long[] attrHashes;
+
+		private Entry(final long recordHash, final String[] names, final long[] attrHashes) {
+			this.recordHash = recordHash;
+			this.names = names;
+			this.attrHashes = attrHashes;
+		}
+
+		private long getAttrHash(final String name) {
+			final int i = Arrays.binarySearch(names, name);
+			return (i < 0) ? 0 : attrHashes[i];
+		}
+	}
+
+	/**
+	 * The result of comparing a changed record with the snapshot.
+	 */
+	static final class Change {
+		private final boolean known;
+		private final Set<String> changedAttributes;
+
+		private Change(final boolean known, final Set<String> changedAttributes) {
+			this.known = known;
+			this.changedAttributes = changedAttributes;
+		}
+
+		/**
+		 * @return true if the association is in the snapshot (the record
+		 *         changed), false if it is new
+		 */
+		boolean isKnown() {
+			return known;
+		}
+
+		/**
+		 * @return the attributes that changed, or null if this is unknown (all
+		 *         attributes are to be published)
+		 */
+		Set<String> getChangedAttributes() {
+			return changedAttributes;
+		}
+	}
+
+	private final File snapshotFile;
+	private final boolean attributeHashes;
+	private final Set<String> ignoredFields;
+	private Map<String, Entry> current = new HashMap<String, Entry>();
+	private Map<String, Entry> pending = null;
+	/**
+	 * Does the file being processed hold all records (no records were
+	 * skipped)?
+	 */
+	private boolean complete;
+
+	/**
+	 * @param snapshotFile
+	 * @param attributeHashes
+	 *            keep a hash per attribute, so a modify only holds the
+	 *            attributes that changed
+	 */
+	RecordSnapshot(final File snapshotFile, final boolean attributeHashes) {
+		this(snapshotFile, attributeHashes, Collections.<String> emptySet());
+	}
+
+	/**
+	 * @param snapshotFile
+	 * @param attributeHashes
+	 *            keep a hash per attribute, so a modify only holds the
+	 *            attributes that changed
+	 * @param ignoredFields
+	 *            fields that are not compared (eg the metadata fields, that
+	 *            change with every file)
+	 */
+	RecordSnapshot(final File snapshotFile, final boolean attributeHashes, final Collection<String> ignoredFields) {
+		this.snapshotFile = snapshotFile;
+		this.attributeHashes = attributeHashes;
+		this.ignoredFields = new HashSet<String>(ignoredFields);
+	}
+
+	File getFile() {
+		return snapshotFile;
+	}
+
+	/**
+	 * Read the snapshot from disk. A missing file is an empty snapshot.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read. The snapshot is empty.
+	 */
+	void load() throws IOException {
+		current = new HashMap<String, Entry>();
+		if (!snapshotFile.exists()) {
+			return;
+		}
+		final Map<String, Entry> loaded = new HashMap<String, Entry>();
+		// Attribute names are shared by all entries
+		final Map<String, String> names = new HashMap<String, String>();
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				throw new IOException("Not a record snapshot: " + snapshotFile.getAbsolutePath());
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String association = in.readUTF();
+				final long recordHash = in.readLong();
+				final int attrCount = in.readInt();
+				String[] attrNames = null;
+				long[] attrHashes = null;
+				if (attrCount >= 0) {
+					attrNames = new String[attrCount];
+					attrHashes = new long[attrCount];
+					for (int j = 0; j < attrCount; j++) {
+						final String name = in.readUTF();
+						String shared = names.get(name);
+						if (shared == null) {
+							shared = name;
+							names.put(name, name);
+						}
+						attrNames[j] = shared;
+						attrHashes[j] = in.readLong();
+					}
+				}
+				loaded.put(association, new Entry(recordHash, attrNames, attrHashes));
+			}
+		} catch (final EOFException e) {
+			throw new IOException("Truncated record snapshot: " + snapshotFile.getAbsolutePath(), e);
+		} finally {
+			in.close();
+		}
+		current = loaded;
+	}
+
+	/**
+	 * Start comparing a new file.
+	 *
+	 * @param complete
+	 *            false if records of the file were skipped (resumed file).
+	 *            The records that are not seen are then kept and not
+	 *            reported missing.
+	 */
+	void startFile(final boolean complete) {
+		this.complete = complete;
+		pending = complete ? new HashMap<String, Entry>(Math.max(16, (current.size() * 4) / 3 + 1))
+				: new HashMap<String, Entry>(current);
+	}
+
+	/**
+	 * Compare a record with the snapshot. The record is added to the pending
+	 * snapshot.
+	 *
+	 * @param association
+	 * @param record
+	 * @return null if the record did not change, otherwise what changed
+	 */
+	Change compare(final String association, final Map<String, String> record) {
+		final List<String> fields = new ArrayList<String>(record.keySet());
+		fields.removeAll(ignoredFields);
+		final String[] names = fields.toArray(new String[fields.size()]);
+		Arrays.sort(names);
+		long recordHash = FNV_OFFSET;
+		final long[] attrHashes = attributeHashes ? new long[names.length] : null;
+		for (int i = 0; i < names.length; i++) {
+			final String value = normalize(record.get(names[i]));
+			recordHash = hash(hash(hash(recordHash, names[i]), '\0'), value);
+			recordHash = hash(recordHash, '\0');
+			if (attrHashes != null) {
+				attrHashes[i] = hash(FNV_OFFSET, value);
+			}
+		}
+		final Entry newEntry = new Entry(recordHash, (attrHashes == null) ? null : names, attrHashes);
+		final Entry oldEntry = current.get(association);
+		pending.put(association, newEntry);
+		if (oldEntry == null) {
+			return new Change(false, null);
+		}
+		if (oldEntry.recordHash == recordHash) {
+			return null;
+		}
+		if ((attrHashes == null) || (oldEntry.names == null)) {
+			return new Change(true, null);
+		}
+		final Set<String> changed = new HashSet<String>();
+		for (int i = 0; i < names.length; i++) {
+			if (oldEntry.getAttrHash(names[i]) != attrHashes[i]) {
+				changed.add(names[i]);
+			}
+		}
+		// Only the attribute names changed: publish all attributes
+		return new Change(true, changed.isEmpty() ? null : changed);
+	}
+
+	/**
+	 * Forget an association (it is deleted).
+	 *
+	 * @param association
+	 */
+	void remove(final String association) {
+		if (pending != null) {
+			pending.remove(association);
+		}
+	}
+
+	/**
+	 * The record of an association was not published successfully: keep what
+	 * the snapshot had, so the record is published again with the next file.
+	 *
+	 * @param association
+	 */
+	void reject(final String association) {
+		if (pending == null) {
+			return;
+		}
+		final Entry oldEntry = current.get(association);
+		if (oldEntry == null) {
+			pending.remove(association);
+		} else {
+			pending.put(association, oldEntry);
+		}
+	}
+
+	/**
+	 * Get the associations of the snapshot that were not in the file.
+	 *
+	 * @return the missing associations (empty if records of the file were
+	 *         skipped)
+	 */
+	List<String> getMissing() {
+		final List<String> missing = new ArrayList<String>();
+		if ((pending != null) && complete) {
+			for (final String association : current.keySet()) {
+				if (!pending.containsKey(association)) {
+					missing.add(association);
+				}
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Write the pending snapshot to disk. It replaces the current snapshot.
+	 *
+	 * @throws IOException
+	 *             if the snapshot could not be written. The file on disk is
+	 *             unchanged.
+	 */
+	void commit() throws IOException {
+		if (pending == null) {
+			return;
+		}
+		final File parent = snapshotFile.getAbsoluteFile().getParentFile();
+		if ((parent != null) && !parent.exists()) {
+			parent.mkdirs();
+		}
+		final File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+		final FileOutputStream fos = new FileOutputStream(tmpFile);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(pending.size());
+			for (final Map.Entry<String, Entry> mapEntry : pending.entrySet()) {
+				final Entry entry = mapEntry.getValue();
+				out.writeUTF(mapEntry.getKey());
+				out.writeLong(entry.recordHash);
+				if (entry.names == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(entry.names.length);
+					for (int i = 0; i < entry.names.length; i++) {
+						out.writeUTF(entry.names[i]);
+						out.writeLong(entry.attrHashes[i]);
+					}
+				}
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		try {
+			Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		current = pending;
+		pending = null;
+	}
+
+	/**
+	 * Drop the pending snapshot (the file did not complete).
+	 */
+	void abort() {
+		pending = null;
+	}
+
+	int size() {
+		return current.size();
+	}
+
+	private static String normalize(final String value) {
+		return (value == null) ? "" : value.trim();
+	}
+
+	/**
+	 * 64-bit FNV-1a of the chars of a string
+	 */
+	private static long hash(long hash, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			hash = hash(hash, value.charAt(i));
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, final char c) {
+		hash ^= (c & 0xff);
+		hash *= FNV_PRIME;
+		hash ^= (c >>> 8);
+		hash *= FNV_PRIME;
+		return hash;
+	}
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Records that got a retry status, waiting to be sent again. A record is
+ * retried after a delay that doubles with every attempt (with a random part,
+ * so the retries of many records are spread). Records are grouped by a key
+ * (the association): while a record is parked, the next records with the
+ * same key are held behind it, so they are sent in the order of the file.
+ * Not thread safe: only used by the publisher thread.
+ *
+ * @param <T>
+ *            the parked record
+ */
+final class RetryScheduler<T> {
+	/**
+	 * A parked record
+	 */
+	static final class Parked<T> implements Comparable<Parked<T>> {
+		private final String key;
+		private final T item;
+		private final int attempts;
+		private final long sequence;
+		private long dueAt;
+
+		private Parked(final String key, final T item, final int attempts, final long dueAt, final long sequence) {
+			this.key = key;
+			this.item = item;
+			this.attempts = attempts;
+			this.dueAt = dueAt;
+			this.sequence = sequence;
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		T getItem() {
+			return item;
+		}
+
+		/**
+		 * @return the number of times the record was sent
+		 */
+		int getAttempts() {
+			return attempts;
+		}
+
+		public int compareTo(final Parked<T> other) {
+			if (dueAt != other.dueAt) {
+				return (dueAt < other.dueAt) ? -1 : 1;
+			}
+			return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+		}
+	}
+
+	private final int maxAttempts;
+	private final long delayMillis;
+	private final long maxDelayMillis;
+	private final Random random;
+	/**
+	 * The parked records by key, in the order they must be sent. The first
+	 * record of a key is being retried when it is not in the list.
+	 */
+	private final Map<String, LinkedList<Parked<T>>> byKey = new HashMap<String, LinkedList<Parked<T>>>();
+	/**
+	 * The first record of every key that is waiting to be sent
+	 */
+	private final PriorityQueue<Parked<T>> due = new PriorityQueue<Parked<T>>();
+	private long sequence = 0;
+
+	/**
+	 * @param maxAttempts
+	 *            number of times a record is sent before it is given up
+	 * @param delayMillis
+	 *            delay before the first retry
+	 * @param maxDelayMillis
+	 *            maximum delay between two retries
+	 * @param random
+	 */
+	RetryScheduler(final int maxAttempts, final long delayMillis, final long maxDelayMillis, final Random random) {
+		this.maxAttempts = maxAttempts;
+		this.delayMillis = delayMillis;
+		this.maxDelayMillis = Math.max(delayMillis, maxDelayMillis);
+		this.random = random;
+	}
+
+	/**
+	 * Park a record that got a retry status. It is sent again before the
+	 * records that are held behind it.
+	 *
+	 * @param key
+	 * @param item
+	 * @param attempts
+	 *            the number of times the record was sent
+	 * @param now
+	 * @return false if the record was sent the maximum number of times. The
+	 *         record is then not parked: give it up and call
+	 *         {@link #release(String, long)}.
+	 */
+	boolean park(final String key, final T item, final int attempts, final long now) {
+		if (attempts >= maxAttempts) {
+			return false;
+		}
+		LinkedList<Parked<T>> parked = byKey.get(key);
+		if (parked == null) {
+			parked = new LinkedList<Parked<T>>();
+			byKey.put(key, parked);
+		}
+		final Parked<T> first = new Parked<T>(key, item, attempts, now + getDelay(attempts), sequence++);
+		parked.addFirst(first);
+		due.add(first);
+		return true;
+	}
+
+	/**
+	 * Hold a record that was not sent yet behind the parked records with the
+	 * same key.
+	 *
+	 * @param key
+	 *            a key for which {@link #isParked(String)} is true
+	 * @param item
+	 */
+	void hold(final String key, final T item) {
+		byKey.get(key).addLast(new Parked<T>(key, item, 0, Long.MAX_VALUE, sequence++));
+	}
+
+	/**
+	 * @param key
+	 * @return true if records with this key must wait
+	 */
+	boolean isParked(final String key) {
+		return byKey.containsKey(key);
+	}
+
+	/**
+	 * Take the next record to send. Until {@link #release(String, long)} is
+	 * called for its key, the records held behind it keep waiting.
+	 *
+	 * @param now
+	 * @return the record, or null if no record is due
+	 */
+	Parked<T> takeDue(final long now) {
+		final Parked<T> next = due.peek();
+		if ((next == null) || (next.dueAt > now)) {
+			return null;
+		}
+		due.poll();
+		byKey.get(next.key).removeFirst();
+		return next;
+	}
+
+	/**
+	 * The record taken for this key is done (or given up): the next record
+	 * held behind it is due now.
+	 *
+	 * @param key
+	 * @param now
+	 */
+	void release(final String key, final long now) {
+		final LinkedList<Parked<T>> parked = byKey.get(key);
+		if (parked == null) {
+			return;
+		}
+		if (parked.isEmpty()) {
+			byKey.remove(key);
+		} else {
+			final Parked<T> next = parked.getFirst();
+			next.dueAt = now;
+			due.add(next);
+		}
+	}
+
+	/**
+	 * @return the time the next record is due, or Long.MAX_VALUE if none is
+	 *         waiting
+	 */
+	long getNextDue() {
+		final Parked<T> next = due.peek();
+		return (next == null) ? Long.MAX_VALUE : next.dueAt;
+	}
+
+	boolean isEmpty() {
+		return byKey.isEmpty();
+	}
+
+	/**
+	 * @return all records that are parked or held
+	 */
+	List<T> getItems() {
+		final List<T> items = new ArrayList<T>();
+		for (final LinkedList<Parked<T>> parked : byKey.values()) {
+			for (final Parked<T> aParked : parked) {
+				items.add(aParked.item);
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * The delay before the next attempt: the delay doubles with every
+	 * attempt, up to the maximum. The actual delay is between half and all of
+	 * it.
+	 *
+	 * @param attempts
+	 * @return
+	 */
+	long getDelay(final int attempts) {
+		long delay = delayMillis;
+		for (int i = 1; (i < attempts) && (delay < maxDelayMillis); i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxDelayMillis);
+		final long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half));
+	}
+}
@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A record read from a file. The values are kept in an array, indexed by a
+ * {@link RecordSchema} that is shared by all records of the file. This avoids
+ * a hash map (and its entries) per record.
+ * <p>
+ * The record can be used as a regular map. A value is looked up in this order:
+ * <ol>
+ * <li>values put for names that are not in the schema (or that hide a meta
+ * data value)</li>
+ * <li>the meta data map, see {@link #setMetaData(Map)}. This map is shared and
+ * is never copied or modified.</li>
+ * <li>the schema fields</li>
+ * </ol>
+ * A field without a value is not part of the map. Removing a key copies the
+ * record to a regular map first.
+ */
+public class Record extends AbstractMap<String, String> {
+	private final RecordSchema schema;
+	private final String[] values;
+	private Map<String, String> metaData;
+	private Map<String, String> overlay;
+	private Map<String, String> materialized;
+
+	public Record(final RecordSchema schema) {
+		this.schema = schema;
+		this.values = new String[schema.size()];
+	}
+
+	public RecordSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Set the value of the field with the given schema index.
+	 *
+	 * @param index
+	 * @param value
+	 *            the value, or null to clear the field
+	 */
+	public void set(final int index, final String value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Does the field with the given schema index have a value?
+	 */
+	protected boolean hasValue(final int index) {
+		return values[index] != null;
+	}
+
+	/**
+	 * Get the value of the field with the given schema index.
+	 */
+	protected String getValue(final int index) {
+		return values[index];
+	}
+
+	/**
+	 * Overlay a map with meta data. The map is not copied: it must not be
+	 * modified as long as it is used by the record. Its values hide the
+	 * schema fields with the same name.
+	 * <p>
+	 * If the record already has meta data or values that are not in the
+	 * schema, the map is copied into the record as with {@link #putAll(Map)}.
+	 *
+	 * @param metaData
+	 */
+	public void setMetaData(final Map<String, String> metaData) {
+		if ((this.metaData == null) && (materialized == null) && ((overlay == null) || overlay.isEmpty())) {
+			this.metaData = metaData;
+		} else {
+			putAll(metaData);
+		}
+	}
+
+	/**
+	 * Get the index of the field that holds the value for the given name.
+	 *
+	 * @return the index or -1 if none of the fields with this name has a
+	 *         value.
+	 */
+	private int resolve(final Object key) {
+		int index = schema.indexOf(key);
+		while ((index >= 0) && !hasValue(index)) {
+			index = schema.previousIndexOf(index);
+		}
+		return index;
+	}
+
+	/**
+	 * Is the field with this index part of the map: it has a value that is
+	 * not hidden by the overlay, the meta data or a later field with the same
+	 * name.
+	 */
+	private boolean isVisible(final int index) {
+		if (!hasValue(index)) {
+			return false;
+		}
+		for (int next = schema.nextIndexOf(index); next >= 0; next = schema.nextIndexOf(next)) {
+			if (hasValue(next)) {
+				return false;
+			}
+		}
+		final String name = schema.getName(index);
+		return !(((overlay != null) && overlay.containsKey(name)) || ((metaData != null) && metaData.containsKey(name)));
+	}
+
+	@Override
+	public String get(final Object key) {
+		if (materialized != null) {
+			return materialized.get(key);
+		}
+		if ((overlay != null) && overlay.containsKey(key)) {
+			return overlay.get(key);
+		}
+		if ((metaData != null) && metaData.containsKey(key)) {
+			return metaData.get(key);
+		}
+		final int index = resolve(key);
+		return (index < 0) ? null : getValue(index);
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		if (materialized != null) {
+			return materialized.containsKey(key);
+		}
+		return ((overlay != null) && overlay.containsKey(key)) || ((metaData != null) && metaData.containsKey(key))
+				|| (resolve(key) >= 0);
+	}
+
+	@Override
+	public String put(final String key, final String value) {
+		if (materialized != null) {
+			return materialized.put(key, value);
+		}
+		final String previous = get(key);
+		if ((value != null) && ((overlay == null) || !overlay.containsKey(key))
+				&& ((metaData == null) || !metaData.containsKey(key))) {
+			int index = resolve(key);
+			if (index < 0) {
+				index = schema.indexOf(key);
+			}
+			if (index >= 0) {
+				set(index, value);
+				return previous;
+			}
+		}
+		if (overlay == null) {
+			overlay = new HashMap<String, String>(4);
+		}
+		overlay.put(key, value);
+		return previous;
+	}
+
+	@Override
+	public String remove(final Object key) {
+		return materialize().remove(key);
+	}
+
+	@Override
+	public void clear() {
+		materialized = new HashMap<String, String>();
+	}
+
+	@Override
+	public int size() {
+		if (materialized != null) {
+			return materialized.size();
+		}
+		int size = 0;
+		if (overlay != null) {
+			size = overlay.size();
+		}
+		if (metaData != null) {
+			for (final String key : metaData.keySet()) {
+				if ((overlay == null) || !overlay.containsKey(key)) {
+					size++;
+				}
+			}
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (isVisible(i)) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				if (materialized != null) {
+					return materialized.entrySet().iterator();
+				}
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return Record.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Copy the record to a regular map. All further operations use that map.
+	 */
+	private Map<String, String> materialize() {
+		if (materialized == null) {
+			final Map<String, String> result = new HashMap<String, String>();
+			final Iterator<Map.Entry<String, String>> iter = new EntryIterator();
+			while (iter.hasNext()) {
+				final Map.Entry<String, String> entry = iter.next();
+				result.put(entry.getKey(), entry.getValue());
+			}
+			materialized = result;
+		}
+		return materialized;
+	}
+
+	/**
+	 * Iterates the overlay, the meta data that is not hidden by the overlay
+	 * and the visible schema fields.
+	 */
+	private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+		private final Iterator<Map.Entry<String, String>> overlayIter = (overlay == null) ? null
+				: overlay.entrySet().iterator();
+		private final Iterator<Map.Entry<String, String>> metaDataIter = (metaData == null) ? null
+				: metaData.entrySet().iterator();
+		private int fieldIndex = 0;
+		private Map.Entry<String, String> next;
+		private Map.Entry<String, String> last;
+
+		private EntryIterator() {
+			next = findNext();
+		}
+
+		private Map.Entry<String, String> findNext() {
+			if ((overlayIter != null) && overlayIter.hasNext()) {
+				return new RecordEntry(overlayIter.next());
+			}
+			while ((metaDataIter != null) && metaDataIter.hasNext()) {
+				final Map.Entry<String, String> entry = metaDataIter.next();
+				if ((overlay == null) || !overlay.containsKey(entry.getKey())) {
+					return new RecordEntry(entry);
+				}
+			}
+			while (fieldIndex < values.length) {
+				final int index = fieldIndex++;
+				if (isVisible(index)) {
+					return new RecordEntry(schema.getName(index), getValue(index));
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, String> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = findNext();
+			return last;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+			Record.this.remove(last.getKey());
+			last = null;
+		}
+	}
+
+	/**
+	 * Entry that writes a new value through to the record.
+	 */
+	private final class RecordEntry extends AbstractMap.SimpleEntry<String, String> {
+		private static final long serialVersionUID = 1L;
+
+		private RecordEntry(final Map.Entry<String, String> entry) {
+			super(entry);
+		}
+
+		private RecordEntry(final String key, final String value) {
+			super(key, value);
+		}
+
+		@Override
+		public String setValue(final String value) {
+			Record.this.put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+}
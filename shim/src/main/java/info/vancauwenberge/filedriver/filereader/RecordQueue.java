@@ -19,81 +19,247 @@
  *******************************************************************************/
 package info.vancauwenberge.filedriver.filereader;
 
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Bounded queue between one parser thread (the producer) and one reader thread
+ * (the consumer).
+ * <p>
+ * The records are kept in a ring buffer. The producer only writes the tail
+ * index and the consumer only writes the head index, so no locks are needed.
+ * A thread that has to wait (full or empty queue) first spins, then yields,
+ * and finally parks until the other thread wakes it up.
+ * <p>
+ * Only use this queue with a single producer and a single consumer thread.
+ */
 public class RecordQueue {
-	private LinkedList<Map<String, String>> list = new LinkedList<Map<String, String>>();
-	private boolean isFinished = false;
-	private static final int MAXQUEUESIZE = 20;
-	private Exception exceptionToThrow = null;
+	/**
+	 * Default maximum number of records in the queue.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	/**
+	 * Largest maximum number of records in the queue.
+	 */
+	public static final int MAX_CAPACITY = 1 << 20;
 
-	public void setFinished() {
-		synchronized (list) {
-			isFinished = true;
-			list.notifyAll();
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 10;
+	// Safety net: a parked thread checks the queue at least this often
+	private static final long PARK_NANOS = 10L * 1000 * 1000;
+
+	private final Object[] buffer;
+	private final int mask;
+	// Next position to read. Only written by the consumer.
+	private volatile long head = 0;
+	// Next position to write. Only written by the producer.
+	private volatile long tail = 0;
+	// Cached copies of the index of the other thread
+	private long cachedHead = 0;
+	private long cachedTail = 0;
+
+	private volatile boolean isFinished = false;
+	private volatile Exception exceptionToThrow = null;
+	private volatile Thread waitingProducer = null;
+	private volatile Thread waitingConsumer = null;
+
+	public RecordQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximum number of records in the queue. This is rounded
+	 *            up to a power of 2, and limited to {@link #MAX_CAPACITY}.
+	 */
+	public RecordQueue(final int capacity) {
+		final int limited = Math.min(capacity, MAX_CAPACITY);
+		int size = 1;
+		while (size < limited) {
+			size <<= 1;
 		}
+		buffer = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @return the maximum number of records in the queue.
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * No more records will be added. Can also be called by the consumer to
+	 * release a producer that is waiting for room in the queue.
+	 */
+	public void setFinished() {
+		isFinished = true;
+		wakeUp(waitingConsumer);
+		wakeUp(waitingProducer);
 	}
 
-	public void addRecord(Map<String, String> record) {
-		synchronized (list) {
-			// Only add when we did not have any exception and are still running
-			if ((exceptionToThrow == null) && !isFinished) {
-				if (list.size() >= MAXQUEUESIZE) {
-					try {
-						System.out.println("..waiting before appending records to the queue.");
-						list.wait();
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+	/**
+	 * Add a record, waiting as long as the queue is full. The record is
+	 * ignored when the queue is finished (normally or in error).
+	 *
+	 * @param record
+	 */
+	public void addRecord(final Map<String, String> record) {
+		final long currentTail = tail;
+		final long wrapPoint = currentTail - buffer.length;
+		if (cachedHead <= wrapPoint) {
+			cachedHead = head;
+			int tries = 0;
+			while (cachedHead <= wrapPoint) {
+				if (isClosed()) {
+					return;
+				}
+				if (tries < (SPIN_TRIES + YIELD_TRIES)) {
+					pause(tries++);
+				} else {
+					waitingProducer = Thread.currentThread();
+					if ((head <= wrapPoint) && !isClosed()) {
+						LockSupport.parkNanos(this, PARK_NANOS);
 					}
+					waitingProducer = null;
 				}
-				list.add(record);
+				cachedHead = head;
 			}
-			list.notifyAll();
 		}
+		if (isClosed()) {
+			return;
+		}
+		buffer[(int) currentTail & mask] = record;
+		tail = currentTail + 1;
+		wakeUp(waitingConsumer);
 	}
 
+	/**
+	 * Get the next record, waiting until one is available.
+	 *
+	 * @return the next record, or null if all records were read.
+	 * @throws Exception
+	 *             the exception given to {@link #setFinishedInError(Exception)}
+	 *             once all records before the error were read.
+	 */
 	public Map<String, String> getNextRecord() throws Exception {
-		Map<String, String> result = null;
-		synchronized (list) {
-			// If 0, we either reached the end, we had an exception or still
-			// parsing and we need to wait
-			if (list.size() == 0) {
-				if (!isFinished && (exceptionToThrow == null)) {
-					try {
-						// wait until we get notified about an update
-						System.out.println("..waiting for next record to get added.");
-						list.wait();
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				if (list.size() == 0) {
-					if (exceptionToThrow != null) {
-						list.notifyAll();
-						throw exceptionToThrow;
-					} // Assume finished. Only option left...
-					return null;
-				} else {
-					result = list.removeFirst();
-					list.notifyAll();
+		if (!awaitRecords()) {
+			return null;
+		}
+		return take();
+	}
+
+	/**
+	 * Move the available records to the given collection. Waits until at least
+	 * one record is available.
+	 *
+	 * @param target
+	 * @param maxRecords
+	 *            the maximum number of records to move
+	 * @return the number of records moved. 0 if all records were read.
+	 * @throws Exception
+	 *             the exception given to {@link #setFinishedInError(Exception)}
+	 *             once all records before the error were read.
+	 */
+	public int drainTo(final Collection<Map<String, String>> target, final int maxRecords) throws Exception {
+		if ((maxRecords <= 0) || !awaitRecords()) {
+			return 0;
+		}
+		final long available = cachedTail - head;
+		final int count = (int) Math.min(available, maxRecords);
+		for (int i = 0; i < count; i++) {
+			target.add(take());
+		}
+		return count;
+	}
+
+	/**
+	 * Wait until a record is available.
+	 *
+	 * @return false if no more records will be added
+	 */
+	private boolean awaitRecords() throws Exception {
+		final long currentHead = head;
+		if (currentHead < cachedTail) {
+			return true;
+		}
+		cachedTail = tail;
+		int tries = 0;
+		while (currentHead >= cachedTail) {
+			// Check the flags before reading the tail again: a record added
+			// before the producer finished is always seen.
+			final boolean finished = isClosed();
+			cachedTail = tail;
+			if (currentHead < cachedTail) {
+				break;
+			}
+			if (finished) {
+				if (exceptionToThrow != null) {
+					throw exceptionToThrow;
 				}
+				return false;
+			}
+			if (tries < (SPIN_TRIES + YIELD_TRIES)) {
+				pause(tries++);
 			} else {
-				// size >0
-				result = list.removeFirst();
-				list.notifyAll();
+				waitingConsumer = Thread.currentThread();
+				if ((tail <= currentHead) && !isClosed()) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				waitingConsumer = null;
 			}
+			cachedTail = tail;
 		}
+		return true;
+	}
+
+	/**
+	 * Take the record at the head. Only call this when a record is available.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, String> take() {
+		final long currentHead = head;
+		final int index = (int) currentHead & mask;
+		final Map<String, String> result = (Map<String, String>) buffer[index];
+		buffer[index] = null;
+		head = currentHead + 1;
+		wakeUp(waitingProducer);
 		return result;
 	}
 
 	/**
-	 *
+	 * Is the queue finished (normally or in error)? A producer can use this to
+	 * stop early when the consumer finished the queue.
 	 */
-	public void setFinishedInError(Exception e) {
-		exceptionToThrow = e;
-		synchronized (list) {
-			list.notifyAll();
+	public boolean isFinished() {
+		return isClosed();
+	}
+
+	private boolean isClosed() {
+		return isFinished || (exceptionToThrow != null);
+	}
+
+	private static void pause(final int tries) {
+		if (tries >= SPIN_TRIES) {
+			Thread.yield();
 		}
 	}
+
+	private static void wakeUp(final Thread thread) {
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * The producer failed: the consumer gets the exception once all queued
+	 * records are read.
+	 */
+	public void setFinishedInError(final Exception e) {
+		exceptionToThrow = e;
+		wakeUp(waitingConsumer);
+		wakeUp(waitingProducer);
+	}
 }
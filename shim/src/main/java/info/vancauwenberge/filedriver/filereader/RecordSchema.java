@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The field names of a {@link Record}, with a name to index lookup. A schema
+ * is immutable and is shared by all records of a file.
+ * <p>
+ * A name can be used for more than one field. As with a map, the value of the
+ * last field with that name wins.
+ */
+public final class RecordSchema {
+	public static final RecordSchema EMPTY = new RecordSchema(new String[0]);
+
+	private final String[] names;
+	// Name to the last index with that name
+	private final Map<String, Integer> lastIndexes;
+	// Previous and next index with the same name, or -1
+	private final int[] previousIndexes;
+	private final int[] nextIndexes;
+
+	public RecordSchema(final String[] names) {
+		this.names = names.clone();
+		this.lastIndexes = new HashMap<String, Integer>(((names.length * 4) / 3) + 1);
+		this.previousIndexes = new int[names.length];
+		this.nextIndexes = new int[names.length];
+		Arrays.fill(nextIndexes, -1);
+		for (int i = 0; i < names.length; i++) {
+			final Integer previous = lastIndexes.put(names[i], Integer.valueOf(i));
+			if (previous == null) {
+				previousIndexes[i] = -1;
+			} else {
+				previousIndexes[i] = previous.intValue();
+				nextIndexes[previous.intValue()] = i;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of fields
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(final int index) {
+		return names[index];
+	}
+
+	/**
+	 * @return a copy of the field names
+	 */
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	/**
+	 * @param name
+	 * @return the last index of the field with the given name, or -1
+	 */
+	public int indexOf(final Object name) {
+		final Integer index = lastIndexes.get(name);
+		return (index == null) ? -1 : index.intValue();
+	}
+
+	/**
+	 * @return the previous index of a field with the same name, or -1
+	 */
+	int previousIndexOf(final int index) {
+		return previousIndexes[index];
+	}
+
+	/**
+	 * @return the next index of a field with the same name, or -1
+	 */
+	int nextIndexOf(final int index) {
+		return nextIndexes[index];
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(names);
+	}
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * CSV parser that reads the input in large char blocks instead of one char at
+ * a time. The block is scanned in place for separators, quotes and newlines
+ * and fields are cut straight from the block. Only fields that span two blocks
+ * (or contain escaped quotes or carriage returns) are copied to a buffer.
+ * <p>
+ * The quoting, comment line and empty line semantics are identical to
+ * {@link CSVFileParser}.
+ */
+public class CSVBlockFileParser extends CSVFileParser {
+	/**
+	 * Default number of chars read in one go.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private final int blockSize;
+
+	public CSVBlockFileParser(final char seperator, final String[] dataRecordFields, final boolean skipEmptyLines,
+			final boolean hasHeader, final boolean loadNodeNamesFromHeader) {
+		this(seperator, dataRecordFields, skipEmptyLines, hasHeader, loadNodeNamesFromHeader, DEFAULT_BLOCK_SIZE);
+	}
+
+	public CSVBlockFileParser(final char seperator, final String[] dataRecordFields, final boolean skipEmptyLines,
+			final boolean hasHeader, final boolean loadNodeNamesFromHeader, final int blockSize) {
+		super(seperator, dataRecordFields, skipEmptyLines, hasHeader, loadNodeNamesFromHeader);
+		this.blockSize = (blockSize > 0) ? blockSize : DEFAULT_BLOCK_SIZE;
+	}
+
+	/**
+	 * Parse the stream block by block.
+	 * <p>
+	 * The chars of the current field that are in the block are tracked by
+	 * <code>runStart</code> (-1 if there are none). They are only copied to
+	 * <code>aPart</code> when the field does not end in the current block, or
+	 * when the field is interrupted by a char that is not part of the value
+	 * (a quote or a carriage return).
+	 */
+	@Override
+	public void doParse(final Reader stream) throws java.text.ParseException, IOException {
+		final char[] buf = new char[blockSize];
+		final StringBuilder aPart = new StringBuilder();
+		final char sep = token_seperator;
+		int lineStat = LINE_BEGIN;
+		int fieldStat = FIELD_BEGIN;
+		int charStat = CHAR_NORMAL;
+		int len;
+		while ((len = stream.read(buf, 0, blockSize)) != -1) {
+			if (isAborted()) {
+				finishParse();
+				return;
+			}
+			int runStart = -1;
+			int i = 0;
+			while (i < len) {
+				if (lineStat == LINE_COMMENT) {
+					// comment line: skip everything up to the newline
+					while ((i < len) && (buf[i] != '\n')) {
+						i++;
+					}
+					if (i < len) {
+						lineStat = LINE_BEGIN;
+						i++;
+					}
+					continue;
+				}
+				if (lineStat == LINE_BEGIN) {
+					if (buf[i] == TOKEN_COMMENT) {
+						lineStat = LINE_COMMENT;
+						i++;
+						continue;
+					}
+					startRecord();
+					lineStat = LINE_NORMAL;
+				}
+
+				if (fieldStat == FIELD_BEGIN) {
+					// Unquoted: the run ends at a separator, quote or line end
+					if (runStart == -1) {
+						runStart = i;
+					}
+					char c = 0;
+					while ((i < len) && ((c = buf[i]) != sep) && (c != '"') && (c != '\n') && (c != '\r')) {
+						i++;
+					}
+					if (i == len) {
+						break;
+					}
+					if (c == '"') {
+						// The quote is dropped and quoting starts
+						appendRun(aPart, buf, runStart, i);
+						runStart = -1;
+						fieldStat = FIELD_QUOTED;
+						i++;
+					} else if (c == '\r') {
+						if (((i + 1) < len) && (buf[i + 1] == '\n')) {
+							// DOS newline: the \r does not need to be copied
+							saveField(cutField(aPart, buf, runStart, i));
+							runStart = -1;
+							saveRecord();
+							lineStat = LINE_BEGIN;
+							i += 2;
+						} else {
+							appendRun(aPart, buf, runStart, i);
+							runStart = -1;
+							i++;
+						}
+					} else {
+						saveField(cutField(aPart, buf, runStart, i));
+						runStart = -1;
+						if (c == '\n') {
+							saveRecord();
+							lineStat = LINE_BEGIN;
+						}
+						i++;
+					}
+				} else if (charStat == CHAR_NORMAL) {
+					// Quoted: separators and newlines are part of the value
+					if (runStart == -1) {
+						runStart = i;
+					}
+					char c = 0;
+					while ((i < len) && ((c = buf[i]) != '"') && (c != '\r')) {
+						i++;
+					}
+					if (i == len) {
+						break;
+					}
+					appendRun(aPart, buf, runStart, i);
+					runStart = -1;
+					if (c == '"') {
+						charStat = CHAR_ESCAPE;
+					}
+					i++;
+				} else {
+					// Quoted, after a quote: this char decides on the field
+					final char c = buf[i];
+					if (c == sep) {
+						saveField(cutField(aPart, buf, -1, i));
+						fieldStat = FIELD_BEGIN;
+						charStat = CHAR_NORMAL;
+					} else if (c == '\n') {
+						saveField(cutField(aPart, buf, -1, i));
+						fieldStat = FIELD_BEGIN;
+						charStat = CHAR_NORMAL;
+						saveRecord();
+						lineStat = LINE_BEGIN;
+					} else if (c != '\r') {
+						// An escaped quote, or a quote in the middle of the
+						// value: both are kept quoted
+						aPart.append(c);
+						charStat = CHAR_NORMAL;
+					}
+					i++;
+				}
+			}
+			// Save what we have of a field that continues in the next block
+			if (runStart != -1) {
+				appendRun(aPart, buf, runStart, len);
+			}
+		}
+
+		// if the file does not finish with a newline, save the last field and
+		// record
+		if (lineStat == LINE_NORMAL) {
+			saveField(aPart.toString());
+			saveLastRecord();
+		} else {
+			finishParse();
+		}
+	}
+
+	/**
+	 * Append the chars from start (inclusive) to end (exclusive) to the field
+	 * buffer. A start of -1 means there is nothing to append.
+	 */
+	private static void appendRun(final StringBuilder aPart, final char[] buf, final int start, final int end) {
+		if ((start != -1) && (end > start)) {
+			aPart.append(buf, start, end - start);
+		}
+	}
+
+	/**
+	 * Get the value of a field ending at position end. If nothing was buffered,
+	 * the value is cut straight from the block.
+	 */
+	private static String cutField(final StringBuilder aPart, final char[] buf, final int runStart, final int end) {
+		if (aPart.length() == 0) {
+			if (runStart == -1) {
+				return "";
+			}
+			return new String(buf, runStart, end - runStart);
+		}
+		appendRun(aPart, buf, runStart, end);
+		final String value = aPart.toString();
+		aPart.setLength(0);
+		return value;
+	}
+}
@@ -22,26 +22,27 @@ package info.vancauwenberge.filedriver.filereader.csv;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.HashMap;
 import java.util.Map;
 
 import com.novell.nds.dirxml.driver.Trace;
 
+import info.vancauwenberge.filedriver.filereader.Record;
 import info.vancauwenberge.filedriver.filereader.RecordQueue;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 
 public class CSVFileParser {
-	private static final char TOKEN_COMMENT = '#';
-	private static final int LINE_BEGIN = 0;
-	private static final int LINE_NORMAL = 1;
-	private static final int LINE_COMMENT = 2;
+	protected static final char TOKEN_COMMENT = '#';
+	protected static final int LINE_BEGIN = 0;
+	protected static final int LINE_NORMAL = 1;
+	protected static final int LINE_COMMENT = 2;
 
-	private static final int FIELD_BEGIN = 0;
-	private static final int FIELD_QUOTED = 1;
-	private static final int FIELD_NORMAL = 2;
+	protected static final int FIELD_BEGIN = 0;
+	protected static final int FIELD_QUOTED = 1;
+	protected static final int FIELD_NORMAL = 2;
 
-	private static final int CHAR_NORMAL = 0;
-	private static final int CHAR_ESCAPE = 1;
+	protected static final int CHAR_NORMAL = 0;
+	protected static final int CHAR_ESCAPE = 1;
 
 	// fields
 	private boolean fileHeaderprocessed = false;
@@ -51,16 +52,20 @@ public class CSVFileParser {
 	private int fieldStat = FIELD_BEGIN;
 	private int charStat = CHAR_NORMAL;
 	private int lineStat = LINE_BEGIN;
-	private HashMap<String, String> thisRecord = new HashMap<String, String>();
+	private Record thisRecord = new Record(RecordSchema.EMPTY);
 	private int fieldIndex = 0;
-	private char token_seperator = ';';
+	protected char token_seperator = ';';
 	private String[] currentRecordFields;
+	private RecordSchema currentRecordSchema = RecordSchema.EMPTY;
 	// private String dataRecordTag;
 	private String[] dataRecordFields;
 	// private String headerRecordTag;
 	private final String[] headerRecordFields;
 
 	private RecordQueue queue;
+	private int queueCapacity = RecordQueue.DEFAULT_CAPACITY;
+	// Set by abort(): the records that are not parsed yet are not needed
+	private volatile boolean aborted = false;
 
 	// caching fields
 	// private String currentRecordTag;
@@ -78,10 +83,11 @@ public class CSVFileParser {
 		fieldStat = FIELD_BEGIN;
 		charStat = CHAR_NORMAL;
 		lineStat = LINE_BEGIN;
-		thisRecord = new HashMap<String, String>();
 		fieldIndex = 0;
-		queue = new RecordQueue();
+		aborted = false;
+		queue = new RecordQueue(queueCapacity);
 		updateCurrentRecordMetaData();
+		thisRecord = new Record(currentRecordSchema);
 	}
 
 	/**
@@ -97,11 +103,15 @@ public class CSVFileParser {
 		while ((currentCharAsInt = stream.read()) != -1) {
 			final char currentChar = (char) currentCharAsInt;
 			if (lineStat == LINE_BEGIN) {
+				if (aborted) {
+					finishParse();
+					return;
+				}
 				// Start a new node
 				if (currentChar == TOKEN_COMMENT) {
 					lineStat = LINE_COMMENT;
 				} else {
-					fieldIndex = 0;
+					startRecord();
 					lineStat = doLineNormal(currentChar, aPart);
 				}
 			} else if (lineStat == LINE_NORMAL) {
@@ -120,8 +130,39 @@ public class CSVFileParser {
 		// record
 		if (lineStat == LINE_NORMAL) {
 			saveField(aPart);
-			queue.addRecord(thisRecord);
+			saveLastRecord();
+		} else {
+			finishParse();
 		}
+	}
+
+	/**
+	 * Stop parsing (e.g. the file is closed before all records are read). The
+	 * parser stops at the next line (at the next block for the block and
+	 * parallel parsers).
+	 */
+	public void abort() {
+		aborted = true;
+	}
+
+	protected boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Queue the record that was not terminated by a newline (end of file) and
+	 * mark the queue as finished.
+	 */
+	protected void saveLastRecord() {
+		queue.addRecord(thisRecord);
+		finishParse();
+	}
+
+	/**
+	 * Mark the end of the file: the header is considered processed and no more
+	 * records will be added to the queue.
+	 */
+	protected void finishParse() {
 		closeFileHeaders();
 		queue.setFinished();
 	}
@@ -172,17 +213,34 @@ public class CSVFileParser {
 	 * Add the current buffer as a field in the xml document
 	 */
 	private void saveField(final StringBuffer aPart) {
-		final String value = aPart.toString();
-		thisRecord.put(getFieldName(fieldIndex), value);
+		saveField(aPart.toString());
+		aPart.setLength(0);
+		fieldStat = FIELD_BEGIN;
+		charStat = CHAR_NORMAL;
+	}
+
+	/**
+	 * Add the given value as the next field of the current record
+	 */
+	protected void saveField(final String value) {
+		if (fieldIndex < currentRecordSchema.size()) {
+			thisRecord.set(fieldIndex, value);
+		} else {
+			thisRecord.put(getFieldName(fieldIndex), value);
+		}
 		// If we need to load the tags from the header, save it as tag name if
 		// we are still processing the header
 		if (loadNodeNamesFromHeader & !fileHeaderprocessed) {
 			saveHeaderName(value, fieldIndex);
 		}
-		aPart.setLength(0);
 		fieldIndex++;
-		fieldStat = FIELD_BEGIN;
-		charStat = CHAR_NORMAL;
+	}
+
+	/**
+	 * A new (non-comment) line is started
+	 */
+	protected void startRecord() {
+		fieldIndex = 0;
 	}
 
 	private void updateCurrentRecordMetaData() {
@@ -193,6 +251,7 @@ public class CSVFileParser {
 			// currentRecordTag = headerRecordTag;
 			currentRecordFields = headerRecordFields;
 		}
+		currentRecordSchema = new RecordSchema(currentRecordFields);
 	}
 
 	public String[] getCurrentSchema() {
@@ -232,18 +291,7 @@ public class CSVFileParser {
 		} else if (c == '\n') {// DOS & UNIX newline
 			if ((fieldStat != FIELD_QUOTED) || ((fieldStat == FIELD_QUOTED) && (charStat == CHAR_ESCAPE))) {
 				saveField(aPart);
-				// Save the current record
-				final boolean toAdd = currentRecordNeedsAdded();
-				if (toAdd) {
-					if (!fileHeaderprocessed) {
-						closeFileHeaders();
-						updateCurrentRecordMetaData();
-					} else {
-						queue.addRecord(thisRecord);
-					}
-					// Start a new record
-					thisRecord = new HashMap<String, String>();
-				}
+				saveRecord();
 				return LINE_BEGIN;
 			}
 		} else if (c == '\r') {// DOS return: ignore it
@@ -254,6 +302,25 @@ public class CSVFileParser {
 		return LINE_NORMAL;
 	}
 
+	/**
+	 * The current line is complete: save the current record (or the header)
+	 * unless it is an empty line that needs to be skipped.
+	 */
+	protected void saveRecord() {
+		final boolean toAdd = currentRecordNeedsAdded();
+		if (toAdd) {
+			if (!fileHeaderprocessed) {
+				closeFileHeaders();
+				updateCurrentRecordMetaData();
+			} else {
+				queue.addRecord(thisRecord);
+			}
+		}
+		// Start a new record. A skipped record is not reused: its values
+		// would shadow the values of the next line for duplicate field names.
+		thisRecord = new Record(currentRecordSchema);
+	}
+
 	/**
 	 * Mark the fileheaders as closed and notify any waiting thread that the
 	 * status changed
@@ -328,6 +395,15 @@ public class CSVFileParser {
 
 	}
 
+	/**
+	 * Set the capacity of the queue created by {@link #resetParser()}.
+	 *
+	 * @param queueCapacity
+	 */
+	public void setQueueCapacity(final int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
 	/**
 	 * @return Returns the queue.
 	 */
@@ -21,6 +21,7 @@ package info.vancauwenberge.filedriver.filereader.csv;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.Reader;
 import java.util.Map;
 
@@ -28,6 +29,7 @@ import com.novell.nds.dirxml.driver.Trace;
 import com.novell.nds.dirxml.driver.xds.Constraint;
 import com.novell.nds.dirxml.driver.xds.DataType;
 import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.RangeConstraint;
 import com.novell.nds.dirxml.driver.xds.XDSParameterException;
 
 import info.vancauwenberge.filedriver.api.AbstractStrategy;
@@ -50,6 +52,32 @@ public class CSVFileReader extends AbstractStrategy implements IFileReadStrategy
 	private String[] schema;
 	private Trace trace;
 	private CSVFileParser handler;
+	private ParserEngine parserEngine;
+	private int parserThreads;
+	private int queueSize;
+
+	/**
+	 * The tokenizer used to parse the CSV file.
+	 */
+	protected enum ParserEngine {
+		/**
+		 * Reads the file one char at a time ({@link CSVFileParser}).
+		 */
+		CHAR,
+		/**
+		 * Reads the file in large char blocks ({@link CSVBlockFileParser}).
+		 */
+		BLOCK,
+		/**
+		 * Splits the file in chunks that are tokenized on multiple threads
+		 * ({@link CSVParallelFileParser}).
+		 */
+		PARALLEL;
+		@Override
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
 
 	protected enum Parameters implements IStrategyParameters {
 		//@formatter:off
@@ -57,7 +85,10 @@ public class CSVFileReader extends AbstractStrategy implements IFileReadStrategy
 		USE_HEADER_NAMES("csvReader_UseHeaderNames","true",DataType.BOOLEAN),
 		HAS_HEADER      ("csvReader_hasHeader"     ,"true",DataType.BOOLEAN),
 		FORCED_ENCODING ("csvReader_forcedEncoding",null  ,DataType.STRING),
-		SEPERATOR       ("csvReader_seperator"     ,","   ,DataType.STRING);
+		SEPERATOR       ("csvReader_seperator"     ,","   ,DataType.STRING),
+		PARSER_ENGINE   ("csvReader_parserEngine"  ,"char",DataType.STRING),
+		PARSER_THREADS  ("csvReader_parserThreads" ,"0"   ,DataType.INT),
+		QUEUE_SIZE      ("csvReader_queueSize"     ,String.valueOf(RecordQueue.DEFAULT_CAPACITY),DataType.INT);
 		//@formatter:on
 		private Parameters(final String name, final String defaultValue, final DataType dataType) {
 			this.name = name;
@@ -86,6 +117,9 @@ public class CSVFileReader extends AbstractStrategy implements IFileReadStrategy
 
 		@Override
 		public Constraint[] getConstraints() {
+			if (this == QUEUE_SIZE) {
+				return new Constraint[] { new RangeConstraint(1, RecordQueue.MAX_CAPACITY) };
+			}
 			return null;
 		}
 	}
@@ -133,9 +167,60 @@ public class CSVFileReader extends AbstractStrategy implements IFileReadStrategy
 			throw new XDSParameterException("Invalid parameter value for seperator:" + strSeperator);
 		}
 
+		// Older configurations do not have the parser engine: use the char
+		// parser.
+		parserEngine = ParserEngine.CHAR;
+		final Parameter paramParserEngine = driverParams.get(Parameters.PARSER_ENGINE.getParameterName());
+		if ((paramParserEngine != null) && !"".equals(paramParserEngine.toString().trim())) {
+			try {
+				parserEngine = ParserEngine.valueOf(paramParserEngine.toString().trim().toUpperCase());
+			} catch (final IllegalArgumentException e) {
+				throw new XDSParameterException("Invalid parameter value for parser engine:" + paramParserEngine);
+			}
+		}
+
+		// 0 (or no value) means one thread per processor
+		parserThreads = 0;
+		final Parameter paramParserThreads = driverParams.get(Parameters.PARSER_THREADS.getParameterName());
+		if (paramParserThreads != null) {
+			parserThreads = paramParserThreads.toInteger();
+		}
+
+		queueSize = RecordQueue.DEFAULT_CAPACITY;
+		final Parameter paramQueueSize = driverParams.get(Parameters.QUEUE_SIZE.getParameterName());
+		if (paramQueueSize != null) {
+			queueSize = paramQueueSize.toInteger();
+		}
+
 		schema = GenericFileDriverShim.getSchemaAsArray(driverParams);
 	}
 
+	/**
+	 * Create the parser for the configured parser engine.
+	 *
+	 * @param f
+	 *            the file to parse
+	 * @return
+	 * @throws IOException
+	 */
+	private CSVFileParser createParser(final File f) throws IOException {
+		switch (parserEngine) {
+		case PARALLEL:
+			final CSVParallelFileParser parallelParser = new CSVParallelFileParser(seperator, schema, skipEmptyLines,
+					hasHeader, useHeaderNames, parserThreads);
+			if (parallelParser.prepare(f, encoding)) {
+				return parallelParser;
+			}
+			trace.trace("The encoding of " + f.getName() + " does not allow parallel parsing. Using the block parser.",
+					TraceLevel.ERROR_WARN);
+			return new CSVBlockFileParser(seperator, schema, skipEmptyLines, hasHeader, useHeaderNames);
+		case BLOCK:
+			return new CSVBlockFileParser(seperator, schema, skipEmptyLines, hasHeader, useHeaderNames);
+		default:
+			return new CSVFileParser(seperator, schema, skipEmptyLines, hasHeader, useHeaderNames);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -147,17 +232,23 @@ public class CSVFileReader extends AbstractStrategy implements IFileReadStrategy
 	public void openFile(final File f) throws ReadException {
 		try {
 			// Start the parser that will parse this document
-			final FileInputStream fr = new FileInputStream(f);
-			final Reader reader = new UnicodeReader(fr, encoding);
-			handler = new CSVFileParser(seperator, schema, skipEmptyLines, hasHeader, useHeaderNames);
+			handler = createParser(f);
+			handler.setQueueCapacity(queueSize);
 			handler.resetParser();
 			queue = handler.getQueue();
+			// The parallel parser reads the file itself
+			final Reader reader = (handler instanceof CSVParallelFileParser) ? null
+					: new UnicodeReader(new FileInputStream(f), encoding);
 
 			parsingThread = new Thread() {
 				@Override
 				public void run() {
 					try {
-						handler.doParse(reader);
+						if (reader == null) {
+							((CSVParallelFileParser) handler).doParse(f);
+						} else {
+							handler.doParse(reader);
+						}
 					} catch (final Exception e) {
 						Util.printStackTrace(trace, e);
 						queue.setFinishedInError(e);
@@ -196,6 +287,14 @@ public class CSVFileReader extends AbstractStrategy implements IFileReadStrategy
 	 */
 	@Override
 	public void close() throws ReadException {
+		// Stop the parser: the records that are not read are not needed
+		if (handler != null) {
+			handler.abort();
+		}
+		// Release the parser if it is waiting for room in the queue
+		if (queue != null) {
+			queue.setFinished();
+		}
 		queue = null;
 		if (parsingThread.isAlive()) {
 			trace.trace("WARN: parsing thread is still alive...", TraceLevel.ERROR_WARN);
@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * CSV parser that splits the file in chunks of (about) chunkSize bytes and
+ * tokenizes the chunks on a pool of threads.
+ * <p>
+ * A chunk always ends on a record boundary. The boundaries are found by a
+ * quote-aware pre-scan of the raw bytes: a newline inside a quoted field does
+ * not end a record. The tokenized chunks are handed back in file order, and
+ * their records are added to the queue by the parsing thread. The header,
+ * field name and empty line handling is therefore identical to
+ * {@link CSVFileParser}.
+ * <p>
+ * Splitting on bytes requires an encoding where the separator, quote, comment
+ * and newline characters are single ASCII bytes (UTF-8 and the single byte
+ * encodings). Use {@link #prepare(File, String)} to check if a file can be
+ * parsed by this parser.
+ */
+public class CSVParallelFileParser extends CSVFileParser {
+	/**
+	 * Default minimum number of bytes in one chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+
+	private final int threads;
+	private final int chunkSize;
+	private Charset charset;
+	private long dataStart;
+
+	public CSVParallelFileParser(final char seperator, final String[] dataRecordFields, final boolean skipEmptyLines,
+			final boolean hasHeader, final boolean loadNodeNamesFromHeader, final int threads) {
+		this(seperator, dataRecordFields, skipEmptyLines, hasHeader, loadNodeNamesFromHeader, threads,
+				DEFAULT_CHUNK_SIZE);
+	}
+
+	public CSVParallelFileParser(final char seperator, final String[] dataRecordFields, final boolean skipEmptyLines,
+			final boolean hasHeader, final boolean loadNodeNamesFromHeader, final int threads, final int chunkSize) {
+		super(seperator, dataRecordFields, skipEmptyLines, hasHeader, loadNodeNamesFromHeader);
+		this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+		this.chunkSize = (chunkSize > 0) ? chunkSize : DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Check the byte order mark and encoding of the file.
+	 *
+	 * @param f
+	 * @param encoding
+	 *            the configured encoding. A UTF-8 byte order mark overrules
+	 *            this encoding (as {@link UnicodeReader} does).
+	 * @return false if the file cannot be split on bytes.
+	 * @throws IOException
+	 */
+	public boolean prepare(final File f, final String encoding) throws IOException {
+		final byte[] bom = new byte[4];
+		int n = 0;
+		final FileInputStream in = new FileInputStream(f);
+		try {
+			int read;
+			while ((n < bom.length) && ((read = in.read(bom, n, bom.length - n)) != -1)) {
+				n += read;
+			}
+		} finally {
+			in.close();
+		}
+		final int b0 = bom[0] & 0xFF;
+		final int b1 = bom[1] & 0xFF;
+		if ((n >= 3) && (b0 == 0xEF) && (b1 == 0xBB) && ((bom[2] & 0xFF) == 0xBF)) {
+			charset = Charset.forName("UTF-8");
+			dataStart = 3;
+		} else if ((n >= 2) && (((b0 == 0xFE) && (b1 == 0xFF)) || ((b0 == 0xFF) && (b1 == 0xFE))
+				|| ((b0 == 0x00) && (b1 == 0x00)))) {
+			// UTF-16 or UTF-32
+			return false;
+		} else {
+			charset = (encoding == null) ? Charset.defaultCharset() : Charset.forName(encoding);
+			dataStart = 0;
+		}
+		return MappedCSVFileReader.isAsciiCompatible(charset, token_seperator);
+	}
+
+	/**
+	 * Parse the file that was checked by {@link #prepare(File, String)}.
+	 * <p>
+	 * The calling thread pre-scans the file and submits the chunks. To limit
+	 * the memory use, it adds the records of the oldest chunk to the queue as
+	 * soon as twice the number of threads chunks are in progress.
+	 */
+	public void doParse(final File f) throws java.text.ParseException, IOException {
+		final FileInputStream in = new FileInputStream(f);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				thread.setName("CSVParser-" + (++count));
+				return thread;
+			}
+		});
+		try {
+			final FileChannel channel = in.getChannel();
+			final LinkedList<Future<ParsedChunk>> pending = new LinkedList<Future<ParsedChunk>>();
+			final BoundaryScanner scanner = new BoundaryScanner((byte) token_seperator);
+			final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+			final byte[] buf = buffer.array();
+			long chunkStart = dataStart;
+			long position = dataStart;
+			int len;
+			while ((len = channel.read(buffer, position)) != -1) {
+				if (isAborted()) {
+					finishParse();
+					return;
+				}
+				int i = 0;
+				while (i < len) {
+					// Do not look for a boundary before the chunk is large enough
+					final long minEnd = chunkStart + chunkSize;
+					if ((position + i) < minEnd) {
+						final int to = (int) Math.min(len, minEnd - position);
+						scanner.skip(buf, i, to);
+						i = to;
+						continue;
+					}
+					final int boundary = scanner.nextBoundary(buf, i, len);
+					if (boundary == -1) {
+						break;
+					}
+					pending.add(executor.submit(new ChunkTask(channel, chunkStart, position + boundary, false)));
+					chunkStart = position + boundary;
+					i = boundary;
+					while (pending.size() >= (2 * threads)) {
+						addRecords(pending.removeFirst());
+					}
+				}
+				position += len;
+				buffer.clear();
+			}
+			if (position > chunkStart) {
+				pending.add(executor.submit(new ChunkTask(channel, chunkStart, position, true)));
+			}
+			while (!pending.isEmpty() && !isAborted()) {
+				addRecords(pending.removeFirst());
+			}
+			finishParse();
+		} finally {
+			executor.shutdownNow();
+			in.close();
+		}
+	}
+
+	/**
+	 * Wait for the chunk and add its records to the queue.
+	 */
+	private void addRecords(final Future<ParsedChunk> future) throws IOException {
+		final ParsedChunk chunk;
+		try {
+			chunk = future.get();
+		} catch (final InterruptedException e) {
+			throw new IOException("Interrupted while waiting for a parsed chunk", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Exception while parsing a chunk:" + e.getCause().getMessage(), e.getCause());
+		}
+		final List<String[]> records = chunk.records;
+		final int last = records.size() - 1;
+		for (int r = 0; r <= last; r++) {
+			startRecord();
+			final String[] fields = records.get(r);
+			for (int i = 0; i < fields.length; i++) {
+				saveField(fields[i]);
+			}
+			if ((r == last) && chunk.lastRecordUnterminated) {
+				saveLastRecord();
+			} else {
+				saveRecord();
+			}
+		}
+	}
+
+	/**
+	 * Tracks the parser state over the raw bytes. The transitions are those
+	 * of {@link CSVFileParser}, without building any values.
+	 */
+	private static final class BoundaryScanner {
+		private final byte sep;
+		private int lineStat = LINE_BEGIN;
+		private boolean quoted = false;
+		private boolean escape = false;
+
+		private BoundaryScanner(final byte sep) {
+			this.sep = sep;
+		}
+
+		/**
+		 * Update the state for the bytes from start to end.
+		 */
+		private void skip(final byte[] buf, final int start, final int end) {
+			for (int i = start; i < end; i++) {
+				next(buf[i]);
+			}
+		}
+
+		/**
+		 * Get the position after the first newline (from start) that ends a
+		 * record or comment line.
+		 *
+		 * @return the position or -1 if there is no boundary before end.
+		 */
+		private int nextBoundary(final byte[] buf, final int start, final int end) {
+			for (int i = start; i < end; i++) {
+				if (next(buf[i])) {
+					return i + 1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return true if the byte ended a line.
+		 */
+		private boolean next(final byte b) {
+			if (lineStat == LINE_COMMENT) {
+				if (b == '\n') {
+					lineStat = LINE_BEGIN;
+					return true;
+				}
+				return false;
+			}
+			if (lineStat == LINE_BEGIN) {
+				if (b == TOKEN_COMMENT) {
+					lineStat = LINE_COMMENT;
+					return false;
+				}
+				lineStat = LINE_NORMAL;
+			}
+			if (!quoted) {
+				if (b == '"') {
+					quoted = true;
+				} else if (b == '\n') {
+					lineStat = LINE_BEGIN;
+					return true;
+				}
+			} else if (!escape) {
+				if (b == '"') {
+					escape = true;
+				}
+			} else if ((b == sep) || (b == '\n')) {
+				quoted = false;
+				escape = false;
+				if (b == '\n') {
+					lineStat = LINE_BEGIN;
+					return true;
+				}
+			} else if (b != '\r') {
+				escape = false;
+			}
+			return false;
+		}
+	}
+
+	private static final class ParsedChunk {
+		private final List<String[]> records = new ArrayList<String[]>();
+		private boolean lastRecordUnterminated = false;
+	}
+
+	/**
+	 * Reads and tokenizes one chunk.
+	 */
+	private final class ChunkTask implements Callable<ParsedChunk> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final boolean lastChunk;
+
+		private ChunkTask(final FileChannel channel, final long start, final long end, final boolean lastChunk) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.lastChunk = lastChunk;
+		}
+
+		@Override
+		public ParsedChunk call() throws Exception {
+			final long size = end - start;
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("CSV record at offset " + start + " is too large to be parsed in parallel.");
+			}
+			final ByteBuffer bytes = ByteBuffer.allocate((int) size);
+			while (bytes.hasRemaining()) {
+				// FileChannel positional reads can be done concurrently
+				if (channel.read(bytes, start + bytes.position()) == -1) {
+					throw new EOFException("Unexpected end of file at offset " + (start + bytes.position()));
+				}
+			}
+			final ChunkTokenizer tokenizer = new ChunkTokenizer(token_seperator);
+			tokenizer.doParse(new InputStreamReader(new ByteArrayInputStream(bytes.array()), charset));
+			if (!lastChunk && tokenizer.chunk.lastRecordUnterminated) {
+				throw new IOException("CSV chunk at offset " + start + " does not end on a record boundary.");
+			}
+			return tokenizer.chunk;
+		}
+	}
+
+	/**
+	 * Block tokenizer that collects the field values of the records instead of
+	 * queueing named records.
+	 */
+	private static final class ChunkTokenizer extends CSVBlockFileParser {
+		private final ParsedChunk chunk = new ParsedChunk();
+		private final List<String> fields = new ArrayList<String>();
+
+		private ChunkTokenizer(final char seperator) {
+			super(seperator, new String[] {}, false, false, false);
+		}
+
+		@Override
+		protected void startRecord() {
+			fields.clear();
+		}
+
+		@Override
+		protected void saveField(final String value) {
+			fields.add(value);
+		}
+
+		@Override
+		protected void saveRecord() {
+			chunk.records.add(fields.toArray(new String[fields.size()]));
+		}
+
+		@Override
+		protected void saveLastRecord() {
+			saveRecord();
+			chunk.lastRecordUnterminated = true;
+		}
+
+		@Override
+		protected void finishParse() {
+			// Nothing to do: the outer parser finishes the queue
+		}
+	}
+}
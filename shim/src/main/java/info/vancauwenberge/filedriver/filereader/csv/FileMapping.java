@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.csv;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The windows mapped on one file. A mapped window is normally only released
+ * when it is garbage collected, and on Windows a file cannot be moved or
+ * deleted while it is mapped. The windows are therefore unmapped explicitly:
+ * a window that is no longer used by the reader nor by a record is unmapped
+ * when the next window is mapped (once the garbage collector noticed it is no
+ * longer used), the other windows are unmapped when the file is closed.
+ * <p>
+ * After a window is unmapped, its bytes can no longer be read:
+ * {@link Window#decode(Charset, int, int, boolean)} then throws an
+ * IllegalStateException.
+ */
+class FileMapping {
+	/**
+	 * Unmaps a buffer: sun.misc.Unsafe.invokeCleaner (Java 9 and later) or the
+	 * cleaner of the buffer (Java 8 and earlier). Null if neither is
+	 * available: the windows are then released by the garbage collector.
+	 */
+	private static final Unmapper UNMAPPER = getUnmapper();
+
+	// The windows that are still mapped
+	private final Set<WindowReference> windows = new HashSet<WindowReference>();
+	// The windows that are no longer used
+	private final ReferenceQueue<Window> unused = new ReferenceQueue<Window>();
+	private volatile boolean closed = false;
+
+	/**
+	 * A mapped part of the file. The records of the window keep it in use.
+	 */
+	static final class Window {
+		private final MappedByteBuffer buffer;
+		private boolean unmapped = false;
+
+		private Window(final MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * The mapped bytes. Only to be used by the reader, that does not read
+		 * them after the file is closed.
+		 */
+		MappedByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		/**
+		 * Decode a field (see {@link MappedCSVRecord#decode}).
+		 *
+		 * @throws IllegalStateException
+		 *             if the window is unmapped
+		 */
+		synchronized String decode(final Charset charset, final int start, final int end, final boolean escaped) {
+			if (unmapped) {
+				// Reading an unmapped window could crash the JVM
+				throw new IllegalStateException("The file of this record is closed.");
+			}
+			return MappedCSVRecord.decode(buffer, charset, start, end, escaped);
+		}
+
+		private synchronized void setUnmapped() {
+			unmapped = true;
+		}
+	}
+
+	/**
+	 * Keeps the buffer of a window, so it can be unmapped when the window is
+	 * no longer used.
+	 */
+	private static final class WindowReference extends WeakReference<Window> {
+		private final MappedByteBuffer buffer;
+
+		private WindowReference(final Window window, final ReferenceQueue<Window> queue) {
+			super(window, queue);
+			this.buffer = window.buffer;
+		}
+	}
+
+	private interface Unmapper {
+		void unmap(MappedByteBuffer buffer) throws Exception;
+	}
+
+	private static Unmapper getUnmapper() {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return new Unmapper() {
+				public void unmap(final MappedByteBuffer buffer) throws Exception {
+					invokeCleaner.invoke(unsafe, buffer);
+				}
+			};
+		} catch (final Exception e) {
+			// Not Java 9 or later
+		}
+		try {
+			final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return new Unmapper() {
+				public void unmap(final MappedByteBuffer buffer) throws Exception {
+					final Object cleaner = cleanerMethod.invoke(buffer);
+					if (cleaner != null) {
+						cleanMethod.invoke(cleaner);
+					}
+				}
+			};
+		} catch (final Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Map a part of the file. The windows that are no longer used are
+	 * unmapped first.
+	 */
+	Window map(final FileChannel channel, final long start, final long size) throws IOException {
+		releaseUnused();
+		final Window window = new Window(channel.map(FileChannel.MapMode.READ_ONLY, start, size));
+		windows.add(new WindowReference(window, unused));
+		return window;
+	}
+
+	/**
+	 * Unmap the windows that are no longer used by the reader nor by a record.
+	 */
+	void releaseUnused() {
+		Reference<? extends Window> reference;
+		while ((reference = unused.poll()) != null) {
+			if (windows.remove(reference)) {
+				unmap(((WindowReference) reference).buffer);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of windows that are still mapped
+	 */
+	int size() {
+		return windows.size();
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Unmap all windows.
+	 *
+	 * @return false if the windows are left to the garbage collector
+	 */
+	boolean unmap() {
+		closed = true;
+		boolean unmapped = (UNMAPPER != null);
+		for (final WindowReference reference : windows) {
+			final Window window = reference.get();
+			if (window != null) {
+				window.setUnmapped();
+			}
+			unmapped &= unmap(reference.buffer);
+		}
+		windows.clear();
+		return unmapped;
+	}
+
+	private static boolean unmap(final MappedByteBuffer buffer) {
+		if (UNMAPPER == null) {
+			return false;
+		}
+		try {
+			UNMAPPER.unmap(buffer);
+			return true;
+		} catch (final Exception e) {
+			return false;
+		}
+	}
+}
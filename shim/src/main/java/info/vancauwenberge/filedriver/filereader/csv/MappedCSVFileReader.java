@@ -0,0 +1,728 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Constraint;
+import com.novell.nds.dirxml.driver.xds.DataType;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.XDSParameterException;
+
+import info.vancauwenberge.filedriver.api.AbstractStrategy;
+import info.vancauwenberge.filedriver.api.IRandomAccessFileReadStrategy;
+import info.vancauwenberge.filedriver.api.IResumableFileReadStrategy;
+import info.vancauwenberge.filedriver.exception.ReadException;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
+import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+import info.vancauwenberge.filedriver.util.TraceLevel;
+import info.vancauwenberge.filedriver.util.Util;
+
+/**
+ * CSV file reader that memory maps the file and tokenizes the bytes directly.
+ * Fields are only decoded when they are read. While reading, the start offset
+ * of every record is kept in an index so that records can be skipped or read
+ * again without parsing the file from the start. The byte offset of a record
+ * is also used as resume position (see {@link IResumableFileReadStrategy}).
+ * <p>
+ * Only encodings where the separator, quote, comment and newline characters
+ * are single (ASCII) bytes are supported: UTF-8, US-ASCII and the single byte
+ * encodings (eg ISO-8859-1, windows-1252). The quoting, comment line and empty
+ * line semantics are the same as {@link CSVFileReader}.
+ * <p>
+ * A window that is no longer used is unmapped when the next window is mapped.
+ * The file is unmapped when it is closed (see {@link FileMapping}), so it can
+ * be moved right away. The fields of the records that were not read before
+ * the file was closed can no longer be read.
+ */
+public class MappedCSVFileReader extends AbstractStrategy
+		implements IRandomAccessFileReadStrategy, IResumableFileReadStrategy {
+	/**
+	 * Size of the part of the file that is mapped in memory at once. Records
+	 * larger than this will enlarge the window.
+	 */
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	private static final int INITIAL_INDEX_SIZE = 1024;
+	private static final int INITIAL_FIELD_COUNT = 16;
+	private static final byte TOKEN_COMMENT = '#';
+
+	protected enum Parameters implements IStrategyParameters {
+		//@formatter:off
+		SKIP_EMPTY_LINES("csvReader_skipEmptyLines","true",DataType.BOOLEAN),
+		USE_HEADER_NAMES("csvReader_UseHeaderNames","true",DataType.BOOLEAN),
+		HAS_HEADER      ("csvReader_hasHeader"     ,"true",DataType.BOOLEAN),
+		FORCED_ENCODING ("csvReader_forcedEncoding",null  ,DataType.STRING),
+		SEPERATOR       ("csvReader_seperator"     ,","   ,DataType.STRING);
+		//@formatter:on
+		private Parameters(final String name, final String defaultValue, final DataType dataType) {
+			this.name = name;
+			this.defaultValue = defaultValue;
+			this.dataType = dataType;
+		}
+
+		private final String name;
+		private final String defaultValue;
+		private final DataType dataType;
+
+		@Override
+		public String getParameterName() {
+			return name;
+		}
+
+		@Override
+		public String getDefaultValue() {
+			return defaultValue;
+		}
+
+		@Override
+		public DataType getDataType() {
+			return dataType;
+		}
+
+		@Override
+		public Constraint[] getConstraints() {
+			return null;
+		}
+	}
+
+	private Trace trace;
+	// Package visible so tests can force small windows
+	int windowSize = DEFAULT_WINDOW_SIZE;
+	private boolean useHeaderNames;
+	private boolean hasHeader;
+	private boolean skipEmptyLines;
+	private byte seperator;
+	private Charset charset;
+	private String[] schema;
+
+	// File state
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long fileSize;
+	private FileMapping mapping;
+	// The current window, and its bytes
+	private FileMapping.Window currentWindow;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+	private Charset fileCharset;
+	private RecordSchema recordSchema;
+	// The record schema extended with fieldX names for the extra fields
+	private RecordSchema extendedSchema;
+	private String[] actualSchema;
+
+	// Start of the first data line (after the header)
+	private long dataOffset;
+	// Record index: start offset of each data record, starting with record
+	// indexBase+1. The index only starts after record 1 when the file was
+	// resumed.
+	private long[] recordOffsets;
+	private int indexedCount;
+	private int indexBase;
+	private long indexBaseOffset;
+	// Where the scan for the next (not yet indexed) record starts
+	private long scanOffset;
+	private boolean endOfFileReached;
+	// Number of records returned by readRecord()
+	private int readCount;
+
+	// The result of the last scanned line
+	private int[] fieldStarts = new int[INITIAL_FIELD_COUNT];
+	private int[] fieldEnds = new int[INITIAL_FIELD_COUNT];
+	private boolean[] fieldEscaped = new boolean[INITIAL_FIELD_COUNT];
+	private int fieldCount;
+	private boolean lineTerminated;
+	private long lastLineEnd;
+
+	@Override
+	public void init(final Trace trace, final Map<String, Parameter> driverParams, final IPublisher publisher)
+			throws XDSParameterException {
+		if (trace.getTraceLevel() > TraceLevel.TRACE) {
+			trace.trace("MappedCSVFileReader.init() driverParams:" + driverParams);
+		}
+		this.trace = trace;
+
+		useHeaderNames = getBoolValueFor(Parameters.USE_HEADER_NAMES, driverParams);
+		hasHeader = getBoolValueFor(Parameters.HAS_HEADER, driverParams);
+		skipEmptyLines = getBoolValueFor(Parameters.SKIP_EMPTY_LINES, driverParams);
+		String encoding = getStringValueFor(Parameters.FORCED_ENCODING, driverParams);
+		if ("".equals(encoding)) {
+			encoding = Util.getSystemDefaultEncoding();
+			trace.trace("No encoding given. Using system default of " + encoding, TraceLevel.ERROR_WARN);
+		}
+		try {
+			charset = Charset.forName(encoding);
+		} catch (final IllegalArgumentException e) {
+			throw new XDSParameterException("Invalid parameter value for encoding:" + encoding);
+		}
+
+		// Tabs and spaces in the driver config are removed by Designer, so we
+		// need to use a special 'encoding' for the tab character.
+		final String strSeperator = getStringValueFor(Parameters.SEPERATOR, driverParams);
+		final char charSeperator;
+		if ("{tab}".equalsIgnoreCase(strSeperator)) {
+			charSeperator = '\t';
+		} else if ("{space}".equalsIgnoreCase(strSeperator)) {
+			charSeperator = ' ';
+		} else if ((strSeperator != null) && !"".equals(strSeperator)) {
+			charSeperator = strSeperator.charAt(0);
+		} else {
+			throw new XDSParameterException("Invalid parameter value for seperator:" + strSeperator);
+		}
+		if ((charSeperator >= 0x80) || (charSeperator == '"') || (charSeperator == '\n')
+				|| (charSeperator == '\r')) {
+			throw new XDSParameterException("Seperator " + strSeperator + " is not supported by "
+					+ getClass().getSimpleName() + ". Use " + CSVFileReader.class.getName() + " instead.");
+		}
+		seperator = (byte) charSeperator;
+		if (!isAsciiCompatible(charset, charSeperator)) {
+			throw new XDSParameterException("Encoding " + encoding + " is not supported by "
+					+ getClass().getSimpleName() + ". Use " + CSVFileReader.class.getName() + " instead.");
+		}
+
+		schema = GenericFileDriverShim.getSchemaAsArray(driverParams);
+	}
+
+	/**
+	 * Can we tokenize bytes instead of chars for this charset? This is the case
+	 * for UTF-8 and the single byte charsets that encode the special chars as
+	 * ASCII.
+	 */
+	static boolean isAsciiCompatible(final Charset charset, final char seperator) {
+		if (!"UTF-8".equals(charset.name()) && (charset.newEncoder().maxBytesPerChar() > 1.0f)) {
+			return false;
+		}
+		final String specialChars = "\"#\r\n" + seperator;
+		try {
+			final byte[] encoded = specialChars.getBytes(charset.name());
+			if (encoded.length != specialChars.length()) {
+				return false;
+			}
+			for (int i = 0; i < encoded.length; i++) {
+				if (encoded[i] != (byte) specialChars.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void openFile(final File f) throws ReadException {
+		try {
+			file = new RandomAccessFile(f, "r");
+			channel = file.getChannel();
+			fileSize = channel.size();
+			mapping = new FileMapping();
+			currentWindow = null;
+			window = null;
+			windowStart = 0;
+			windowEnd = 0;
+			fileCharset = charset;
+			scanOffset = skipByteOrderMark();
+			readHeader();
+			dataOffset = scanOffset;
+			resetIndex(0, dataOffset);
+			readCount = 0;
+		} catch (final ReadException e) {
+			closeFile();
+			throw e;
+		} catch (final Exception e1) {
+			closeFile();
+			trace.trace("Exception while handeling CSV document:" + e1.getMessage(), TraceLevel.ERROR_WARN);
+			throw new ReadException("Exception while handeling CSV document:" + e1.getMessage(), e1);
+		}
+	}
+
+	/**
+	 * Check for a byte order mark. A UTF-8 BOM overrules the configured
+	 * encoding (as {@link UnicodeReader} does). Other BOMs are not supported.
+	 *
+	 * @return the offset of the first byte after the BOM
+	 */
+	private long skipByteOrderMark() throws IOException, ReadException {
+		if (fileSize < 2) {
+			return 0;
+		}
+		mapWindow(0, 4);
+		final int b0 = window.get(0) & 0xFF;
+		final int b1 = window.get(1) & 0xFF;
+		if ((fileSize >= 3) && (b0 == 0xEF) && (b1 == 0xBB) && ((window.get(2) & 0xFF) == 0xBF)) {
+			fileCharset = Charset.forName("UTF-8");
+			return 3;
+		}
+		if (((b0 == 0xFE) && (b1 == 0xFF)) || ((b0 == 0xFF) && (b1 == 0xFE)) || ((b0 == 0x00) && (b1 == 0x00))) {
+			throw new ReadException("UTF-16 and UTF-32 files are not supported by " + getClass().getSimpleName()
+					+ ". Use " + CSVFileReader.class.getName() + " instead.");
+		}
+		return 0;
+	}
+
+	/**
+	 * Read the header line (if any) and calculate the field names.
+	 */
+	private void readHeader() throws IOException {
+		String[] names = schema;
+		actualSchema = schema;
+		if (hasHeader) {
+			final long headerStart = nextDataLine(scanOffset);
+			if (headerStart < 0) {
+				scanOffset = fileSize;
+			} else {
+				if (useHeaderNames) {
+					actualSchema = getHeaderNames();
+				}
+				if (lineTerminated) {
+					scanOffset = lastLineEnd;
+					names = actualSchema;
+				} else {
+					// Like CSVFileParser: the unterminated last line is always
+					// returned as a record. The fields are named headerX.
+					names = new String[fieldCount];
+					for (int i = 0; i < names.length; i++) {
+						names[i] = "header" + i;
+					}
+				}
+			}
+		}
+		recordSchema = new RecordSchema(names);
+		extendedSchema = null;
+	}
+
+	/**
+	 * Get the schema for a record with the given number of fields. Fields
+	 * without a name are called fieldX.
+	 */
+	private RecordSchema getRecordSchema(final int count) {
+		if (count <= recordSchema.size()) {
+			return recordSchema;
+		}
+		if ((extendedSchema == null) || (extendedSchema.size() < count)) {
+			final String[] names = Arrays.copyOf(recordSchema.getNames(), count);
+			for (int i = recordSchema.size(); i < count; i++) {
+				names[i] = "field" + i;
+			}
+			extendedSchema = new RecordSchema(names);
+		}
+		return extendedSchema;
+	}
+
+	/**
+	 * The header names of the last scanned line. Header fields overwrite the
+	 * configured schema names. If the header contains more fields, the schema
+	 * is extended.
+	 */
+	private String[] getHeaderNames() {
+		final String[] names = Arrays.copyOf(schema, Math.max(schema.length, fieldCount));
+		for (int i = 0; i < fieldCount; i++) {
+			names[i] = MappedCSVRecord.decode(window, fileCharset, fieldStarts[i], fieldEnds[i], fieldEscaped[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * Find the start of the next line (starting at or after offset) that is
+	 * not a comment and not an empty line to skip. The line is scanned: the
+	 * result is available in the scan fields.
+	 *
+	 * @return the start offset of the line or -1 if no more lines are found.
+	 */
+	private long nextDataLine(long offset) throws IOException {
+		while (offset < fileSize) {
+			final long next = scanLine(offset);
+			if ((fieldCount > 0) && !(skipEmptyLines && lineTerminated && isEmptyLine())) {
+				return offset;
+			}
+			offset = next;
+		}
+		return -1;
+	}
+
+	/**
+	 * Is the last scanned line an empty line (one empty field)?
+	 */
+	private boolean isEmptyLine() {
+		if (fieldCount != 1) {
+			return false;
+		}
+		if (fieldEnds[0] == fieldStarts[0]) {
+			return true;
+		}
+		return fieldEscaped[0]
+				&& "".equals(MappedCSVRecord.decode(window, fileCharset, fieldStarts[0], fieldEnds[0], true));
+	}
+
+	/**
+	 * Map the part of the file starting at start, with at least minSize bytes
+	 * (unless the end of the file is reached).
+	 */
+	private void mapWindow(final long start, final long minSize) throws IOException {
+		final long size = Math.min(fileSize - start, Math.max(minSize, windowSize));
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Record at offset " + start + " is too large to be mapped.");
+		}
+		currentWindow = mapping.map(channel, start, size);
+		window = currentWindow.getBuffer();
+		windowStart = start;
+		windowEnd = start + size;
+	}
+
+	/**
+	 * Scan the line starting at offset and store the field offsets (relative
+	 * to the window). A line starting with # is a comment line: fieldCount is
+	 * set to 0.
+	 *
+	 * @return the offset of the next line
+	 */
+	private long scanLine(final long offset) throws IOException {
+		if ((window == null) || (offset < windowStart) || (offset >= windowEnd)) {
+			mapWindow(offset, windowSize);
+		}
+		while (true) {
+			final long next = scanLineInWindow(offset);
+			if (next >= 0) {
+				lastLineEnd = next;
+				return next;
+			}
+			// The line does not fit in the window: remap from the start of
+			// the line with a larger window
+			mapWindow(offset, (windowEnd - offset) * 2);
+		}
+	}
+
+	/**
+	 * Scan the line starting at offset.
+	 *
+	 * @return the offset of the next line, or -1 if the window ends before the
+	 *         line (and the window does not end at the end of the file).
+	 */
+	private long scanLineInWindow(final long offset) {
+		final ByteBuffer buf = window;
+		final byte sep = seperator;
+		final int limit = (int) (windowEnd - windowStart);
+		final boolean windowAtEnd = (windowEnd == fileSize);
+		int p = (int) (offset - windowStart);
+		fieldCount = 0;
+		lineTerminated = false;
+
+		if (buf.get(p) == TOKEN_COMMENT) {
+			while (p < limit) {
+				if (buf.get(p++) == '\n') {
+					lineTerminated = true;
+					return windowStart + p;
+				}
+			}
+			return windowAtEnd ? windowEnd : -1;
+		}
+
+		int fieldStart = p;
+		boolean quoted = false;
+		boolean afterQuote = false;
+		boolean escaped = false;
+		while (p < limit) {
+			final byte b = buf.get(p);
+			if (!quoted) {
+				if (b == sep) {
+					addField(fieldStart, p, escaped);
+					fieldStart = ++p;
+					escaped = false;
+					continue;
+				} else if (b == '\n') {
+					addField(fieldStart, p, escaped);
+					lineTerminated = true;
+					return windowStart + p + 1;
+				} else if (b == '\r') {
+					if (((p + 1) < limit) && (buf.get(p + 1) == '\n')) {
+						addField(fieldStart, p, escaped);
+						lineTerminated = true;
+						return windowStart + p + 2;
+					}
+					escaped = true;
+				} else if (b == '"') {
+					quoted = true;
+					escaped = true;
+				}
+			} else if (!afterQuote) {
+				if (b == '"') {
+					afterQuote = true;
+				}
+			} else {
+				if (b == sep) {
+					addField(fieldStart, p, escaped);
+					fieldStart = ++p;
+					quoted = false;
+					afterQuote = false;
+					escaped = false;
+					continue;
+				} else if (b == '\n') {
+					addField(fieldStart, p, escaped);
+					lineTerminated = true;
+					return windowStart + p + 1;
+				} else if (b != '\r') {
+					afterQuote = false;
+				}
+			}
+			p++;
+		}
+		if (!windowAtEnd) {
+			return -1;
+		}
+		// Last line of the file without a newline
+		addField(fieldStart, p, escaped);
+		return windowEnd;
+	}
+
+	private void addField(final int start, final int end, final boolean escaped) {
+		if (fieldCount == fieldStarts.length) {
+			final int newLength = fieldCount * 2;
+			fieldStarts = Arrays.copyOf(fieldStarts, newLength);
+			fieldEnds = Arrays.copyOf(fieldEnds, newLength);
+			fieldEscaped = Arrays.copyOf(fieldEscaped, newLength);
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldEscaped[fieldCount] = escaped;
+		fieldCount++;
+	}
+
+	/**
+	 * Create a record from the last scanned line.
+	 */
+	private MappedCSVRecord createRecord() {
+		return new MappedCSVRecord(getRecordSchema(fieldCount), currentWindow, fileCharset,
+				Arrays.copyOf(fieldStarts, fieldCount), Arrays.copyOf(fieldEnds, fieldCount),
+				Arrays.copyOf(fieldEscaped, fieldCount), fieldCount);
+	}
+
+	/**
+	 * Start a new (empty) index at the given record.
+	 *
+	 * @param recordNumber
+	 *            the number of records before offset
+	 * @param offset
+	 *            where the scan for record recordNumber+1 starts
+	 */
+	private void resetIndex(final int recordNumber, final long offset) {
+		recordOffsets = new long[INITIAL_INDEX_SIZE];
+		indexedCount = 0;
+		indexBase = recordNumber;
+		indexBaseOffset = offset;
+		scanOffset = offset;
+		endOfFileReached = false;
+	}
+
+	/**
+	 * Scan the next record that is not yet in the index and add it to the
+	 * index.
+	 *
+	 * @return the record or null if the end of the file is reached
+	 */
+	private MappedCSVRecord indexNextRecord() throws IOException {
+		if (endOfFileReached) {
+			return null;
+		}
+		final long start = nextDataLine(scanOffset);
+		if (start < 0) {
+			endOfFileReached = true;
+			scanOffset = fileSize;
+			return null;
+		}
+		final MappedCSVRecord record = createRecord();
+		scanOffset = lastLineEnd;
+		if (indexedCount == recordOffsets.length) {
+			recordOffsets = Arrays.copyOf(recordOffsets, indexedCount * 2);
+		}
+		recordOffsets[indexedCount++] = start;
+		return record;
+	}
+
+	@Override
+	public synchronized Map<String, String> readRecord(final int recordNumber) throws ReadException {
+		if ((recordNumber <= 0) || (channel == null)) {
+			return null;
+		}
+		try {
+			if (recordNumber <= indexBase) {
+				// Before the resume position: index the file from the start
+				resetIndex(0, dataOffset);
+			}
+			while ((indexBase + indexedCount) < recordNumber) {
+				final MappedCSVRecord record = indexNextRecord();
+				if (record == null) {
+					return null;
+				}
+				if ((indexBase + indexedCount) == recordNumber) {
+					return record;
+				}
+			}
+			scanLine(recordOffsets[recordNumber - indexBase - 1]);
+			return createRecord();
+		} catch (final IOException e) {
+			throw new ReadException("Exception while reading record " + recordNumber + ":" + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public Map<String, String> readRecord() throws ReadException {
+		final Map<String, String> record = readRecord(readCount + 1);
+		if (record != null) {
+			readCount++;
+		}
+		return record;
+	}
+
+	@Override
+	public synchronized int skipRecords(final int recordsToSkip) throws ReadException {
+		int skipped = 0;
+		try {
+			while ((skipped < recordsToSkip) && (readCount < (indexBase + indexedCount))) {
+				readCount++;
+				skipped++;
+			}
+			while ((skipped < recordsToSkip) && (indexNextRecord() != null)) {
+				readCount++;
+				skipped++;
+			}
+		} catch (final IOException e) {
+			throw new ReadException("Exception while skipping records:" + e.getMessage(), e);
+		}
+		return skipped;
+	}
+
+	/**
+	 * The position is <code>offset;fileSize;schemaHash</code>: the offset of
+	 * the line after the record. The file size and the hash of the actual
+	 * schema are used to check that the file did not change.
+	 */
+	@Override
+	public synchronized String getResumePosition(final int recordNumber) {
+		if ((channel == null) || (recordNumber < indexBase)) {
+			return null;
+		}
+		final long offset;
+		final int indexPosition = recordNumber - indexBase;
+		if (indexPosition == 0) {
+			offset = indexBaseOffset;
+		} else if (indexPosition < indexedCount) {
+			offset = recordOffsets[indexPosition];
+		} else if (indexPosition == indexedCount) {
+			offset = scanOffset;
+		} else {
+			return null;
+		}
+		return offset + ";" + fileSize + ";" + Integer.toHexString(Arrays.hashCode(actualSchema));
+	}
+
+	@Override
+	public synchronized boolean resume(final String position, final int recordNumber) throws ReadException {
+		if ((channel == null) || (position == null) || (recordNumber < 0)) {
+			return false;
+		}
+		final String[] parts = position.split(";");
+		if (parts.length != 3) {
+			trace.trace("Invalid resume position " + position, TraceLevel.ERROR_WARN);
+			return false;
+		}
+		final long offset;
+		try {
+			offset = Long.parseLong(parts[0]);
+			if ((Long.parseLong(parts[1]) != fileSize)
+					|| !Integer.toHexString(Arrays.hashCode(actualSchema)).equals(parts[2])) {
+				trace.trace("File size or schema changed since position " + position + " was saved.",
+						TraceLevel.ERROR_WARN);
+				return false;
+			}
+		} catch (final NumberFormatException e) {
+			trace.trace("Invalid resume position " + position, TraceLevel.ERROR_WARN);
+			return false;
+		}
+		if ((offset < dataOffset) || (offset > fileSize)) {
+			trace.trace("Resume position " + position + " is outside the data of the file.", TraceLevel.ERROR_WARN);
+			return false;
+		}
+		try {
+			// The position must be the start of a line
+			if (offset > dataOffset) {
+				if ((window == null) || ((offset - 1) < windowStart) || (offset > windowEnd)) {
+					mapWindow(offset - 1, windowSize);
+				}
+				if (window.get((int) (offset - 1 - windowStart)) != '\n') {
+					trace.trace("Resume position " + position + " is not the start of a line.", TraceLevel.ERROR_WARN);
+					return false;
+				}
+			}
+		} catch (final IOException e) {
+			throw new ReadException("Exception while resuming at " + position + ":" + e.getMessage(), e);
+		}
+		resetIndex(recordNumber, offset);
+		readCount = recordNumber;
+		return true;
+	}
+
+	@Override
+	public synchronized void close() throws ReadException {
+		closeFile();
+		recordOffsets = null;
+	}
+
+	private void closeFile() {
+		currentWindow = null;
+		window = null;
+		if (mapping != null) {
+			if (!mapping.unmap()) {
+				trace.trace("The file could not be unmapped. It stays mapped until it is garbage collected.",
+						TraceLevel.DEBUG);
+			}
+			mapping = null;
+		}
+		if (file != null) {
+			try {
+				file.close();
+			} catch (final IOException e) {
+				Util.printStackTrace(trace, e);
+			}
+		}
+		file = null;
+		channel = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E extends Enum<?> & IStrategyParameters> Class<E> getParametersEnum() {
+		return (Class<E>) Parameters.class;
+	}
+
+	@Override
+	public String[] getActualSchema() {
+		return actualSchema;
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import info.vancauwenberge.filedriver.filereader.Record;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
+
+/**
+ * A CSV record backed by the bytes of a memory mapped file. Only the field
+ * offsets are kept: a field is decoded when it is read for the first time.
+ */
+class MappedCSVRecord extends Record {
+	private final FileMapping.Window window;
+	private final Charset charset;
+	private final int[] fieldStarts;
+	private final int[] fieldEnds;
+	private final boolean[] fieldEscaped;
+	private final int fieldCount;
+
+	/**
+	 * @param schema
+	 *            the field names. The schema has at least fieldCount fields.
+	 * @param window
+	 *            the mapped window containing the record. The record keeps
+	 *            the window in use.
+	 * @param charset
+	 * @param fieldStarts
+	 *            start of each field (inclusive, relative to the window)
+	 * @param fieldEnds
+	 *            end of each field (exclusive, relative to the window)
+	 * @param fieldEscaped
+	 *            true if the field contains quotes or carriage returns that
+	 *            need to be removed
+	 * @param fieldCount
+	 */
+	MappedCSVRecord(final RecordSchema schema, final FileMapping.Window window, final Charset charset,
+			final int[] fieldStarts, final int[] fieldEnds, final boolean[] fieldEscaped, final int fieldCount) {
+		super(schema);
+		this.window = window;
+		this.charset = charset;
+		this.fieldStarts = fieldStarts;
+		this.fieldEnds = fieldEnds;
+		this.fieldEscaped = fieldEscaped;
+		this.fieldCount = fieldCount;
+	}
+
+	@Override
+	protected boolean hasValue(final int index) {
+		return (index < fieldCount) || super.hasValue(index);
+	}
+
+	/**
+	 * Get the (decoded) value of the field with the given index.
+	 */
+	@Override
+	protected String getValue(final int index) {
+		String value = super.getValue(index);
+		if ((value == null) && (index < fieldCount)) {
+			value = window.decode(charset, fieldStarts[index], fieldEnds[index], fieldEscaped[index]);
+			set(index, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Decode the bytes from start (inclusive) to end (exclusive). If escaped is
+	 * true, the quotes and carriage returns are removed the same way as
+	 * {@link CSVFileParser} does.
+	 */
+	static String decode(final ByteBuffer buffer, final Charset charset, final int start, final int end,
+			final boolean escaped) {
+		final int length = end - start;
+		if (length <= 0) {
+			return "";
+		}
+		final byte[] bytes = new byte[length];
+		int count = 0;
+		boolean ascii = true;
+		if (escaped) {
+			boolean quoted = false;
+			boolean afterQuote = false;
+			for (int i = start; i < end; i++) {
+				final byte b = buffer.get(i);
+				if (b == '\r') {
+					continue;
+				}
+				if (b == '"') {
+					if (!quoted) {
+						quoted = true;
+						continue;
+					}
+					if (!afterQuote) {
+						afterQuote = true;
+						continue;
+					}
+				}
+				afterQuote = false;
+				ascii &= (b >= 0);
+				bytes[count++] = b;
+			}
+		} else {
+			for (int i = start; i < end; i++) {
+				final byte b = buffer.get(i);
+				ascii &= (b >= 0);
+				bytes[count++] = b;
+			}
+		}
+		if (ascii) {
+			final char[] chars = new char[count];
+			for (int i = 0; i < count; i++) {
+				chars[i] = (char) bytes[i];
+			}
+			return new String(chars);
+		}
+		return new String(bytes, 0, count, charset);
+	}
+}
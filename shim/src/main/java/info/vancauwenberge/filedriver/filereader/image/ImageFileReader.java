@@ -21,7 +21,7 @@ package info.vancauwenberge.filedriver.filereader.image;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
@@ -29,9 +29,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -45,6 +48,8 @@ import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 
@@ -93,6 +98,20 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 	private boolean includeImageMeta;
 	private Color paddingColor;
 	private boolean resizeExact; 
+	/**
+	 * Reader providers of the formats seen so far. These are probed before
+	 * asking ImageIO to probe every registered provider.
+	 */
+	private final Map<String, ImageReaderSpi> readerSpis = new LinkedHashMap<String, ImageReaderSpi>();
+	/**
+	 * Writer provider per format
+	 */
+	private final Map<String, ImageWriterSpi> writerSpis = new HashMap<String, ImageWriterSpi>();
+	/**
+	 * Metadata transcoder per source format, target format and image type
+	 * (null if there is none)
+	 */
+	private final Map<List<Object>, ImageTranscoder> transcoders = new HashMap<List<Object>, ImageTranscoder>();
 
 	protected enum Parameters implements IStrategyParameters{
 		/**
@@ -463,7 +482,7 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 	}
 
 	private BufferedImage resize(final BufferedImage image, final int width, final int height, final ImageTypeSpecifier sourceType){
-		final Image tmp = image.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+		final BufferedImage tmp = downscale(image, width, height);
 		final BufferedImage resized ;
 		if (paddingColor != null){
 			//We need to pad. The canvas size is resizeWidth and Height
@@ -473,18 +492,109 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 		}
 		//final BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 		final Graphics2D g2d = resized.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 		if (paddingColor != null){
 			g2d.setBackground(paddingColor);//The color used to draw the transparency of the image
 			g2d.setColor(paddingColor);//The color used to draw the rectangle
 			g2d.fillRect(0, 0, resizeWidth, resizeHeight);
-			g2d.drawImage(tmp, (resizeWidth-width)/2, (resizeHeight-height)/2, paddingColor, null);//No need for an observer since the image is already buffered
+			g2d.drawImage(tmp, (resizeWidth-width)/2, (resizeHeight-height)/2, width, height, paddingColor, null);//No need for an observer since the image is already buffered
 		}else{
-			g2d.drawImage(tmp, 0, 0, null, null);//No need for an observer since the image is already buffered
+			g2d.drawImage(tmp, 0, 0, width, height, null, null);//No need for an observer since the image is already buffered
 		}
 		g2d.dispose();
 		return resized;
 	}
 
+	/**
+	 * Halve the image (bilinear) until it is less than twice the requested
+	 * size. A single bilinear step skips source pixels and gives aliasing;
+	 * halving steps use all of them at a fraction of the cost of an area
+	 * averaging scale.
+	 */
+	private static BufferedImage downscale(final BufferedImage image, final int width, final int height){
+		final int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage current = image;
+		int currentWidth = image.getWidth();
+		int currentHeight = image.getHeight();
+		while ((currentWidth >= (width * 2)) || (currentHeight >= (height * 2))) {
+			currentWidth = Math.max(width, currentWidth / 2);
+			currentHeight = Math.max(height, currentHeight / 2);
+			final BufferedImage step = new BufferedImage(currentWidth, currentHeight, type);
+			final Graphics2D g2d = step.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+			g2d.dispose();
+			current = step;
+		}
+		return current;
+	}
+
+	/**
+	 * Get a reader for the opened image. The providers of the formats read
+	 * before are probed first.
+	 * @throws NoSuchElementException if the image type is not supported
+	 */
+	private ImageReader getImageReader() throws IOException {
+		for (final ImageReaderSpi spi : readerSpis.values()) {
+			inputStream.mark();
+			final boolean canDecode;
+			try {
+				canDecode = spi.canDecodeInput(inputStream);
+			} finally {
+				inputStream.reset();
+			}
+			if (canDecode) {
+				return spi.createReaderInstance();
+			}
+		}
+		final ImageReader imgReader = ImageIO.getImageReaders(inputStream).next();
+		if (imgReader.getOriginatingProvider() != null) {
+			readerSpis.put(imgReader.getFormatName(), imgReader.getOriginatingProvider());
+		}
+		return imgReader;
+	}
+
+	/**
+	 * Get the writer corresponding to the given reader.
+	 */
+	private ImageWriter getImageWriter(final ImageReader imgReader) throws IOException {
+		final ImageWriterSpi spi = writerSpis.get(imgReader.getFormatName());
+		if (spi != null) {
+			return spi.createWriterInstance();
+		}
+		final ImageWriter imgWriter = ImageIO.getImageWriter(imgReader);
+		if ((imgWriter != null) && (imgWriter.getOriginatingProvider() != null)) {
+			writerSpis.put(imgReader.getFormatName(), imgWriter.getOriginatingProvider());
+		}
+		return imgWriter;
+	}
+
+	/**
+	 * Get a writer for the given format, preferably one that can encode the
+	 * given image type.
+	 */
+	private ImageWriter getImageWriter(final String format, final ImageTypeSpecifier imageType) throws IOException, ReadException {
+		final ImageWriterSpi spi = writerSpis.get(format);
+		if ((spi != null) && spi.canEncodeImage(imageType)) {
+			return spi.createWriterInstance();
+		}
+		final ImageWriter imgWriter;
+		final Iterator<ImageWriter> writers = ImageIO.getImageWriters(imageType, format);
+		if (writers.hasNext()) {
+			imgWriter = writers.next();
+		} else {
+			final Iterator<ImageWriter> writers2 = ImageIO.getImageWritersByFormatName(format);
+			if (writers2.hasNext()) {
+				imgWriter = writers2.next();
+			}else{
+				throw new ReadException("No image writer found for format "+format);
+			}
+		}
+		if (imgWriter.getOriginatingProvider() != null) {
+			writerSpis.put(format, imgWriter.getOriginatingProvider());
+		}
+		return imgWriter;
+	}
 
 	private ImageTranscoder getTranscoder(final ImageReader imgReader, final Iterator<ImageWriter> writerIter){
 		while (writerIter.hasNext()) {
@@ -502,6 +612,11 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 		if (transcodeTargetFormat==null) {
 			return null;
 		}
+		//The writers (and so the transcoder) found depend on the image type
+		final List<Object> key = Arrays.<Object>asList(imgReader.getFormatName(), transcodeTargetFormat, imageSrcDestType);
+		if (transcoders.containsKey(key)) {
+			return transcoders.get(key);
+		}
 		final Iterator<ImageWriter> writers = ImageIO.getImageWriters(imageSrcDestType, transcodeTargetFormat);
 		//First try to get a transcoder
 		ImageTranscoder transcoder = getTranscoder(imgReader, writers);
@@ -509,6 +624,7 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 			final Iterator<ImageWriter> writers2 = ImageIO.getImageWritersByFormatName(transcodeTargetFormat);
 			transcoder = getTranscoder(imgReader, writers2);
 		}
+		transcoders.put(key, transcoder);
 		return transcoder;
 	}
 
@@ -522,7 +638,7 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 	private Map<String,String> getImageDataMap() throws ReadException, IOException {
 		final Map<String,String> result = new HashMap<String, String>();
 
-		final ImageReader imgReader = ImageIO.getImageReaders(inputStream).next();
+		final ImageReader imgReader = getImageReader();
 		trace.trace("Reading image of type:"+imgReader.getFormatName());
 		result.put(FIELD_SRC_FORMAT, imgReader.getFormatName());
 
@@ -534,12 +650,13 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 		final ImageReadParam imageReadParams = imgReader.getDefaultReadParam();
 		imageReadParams.setDestinationType(imageSrcDestType);
 
-		final BufferedImage img = imgReader.read(0, imageReadParams);
+		//The size is known from the header: no need to decode the image yet
 		final int imgWidth = imgReader.getWidth(0);
 		final int imgHeight = imgReader.getHeight(0);
 		result.put(FIELD_SRC_WIDTH, Integer.toString(imgWidth));
 		result.put(FIELD_SRC_HEIGHT, Integer.toString(imgHeight));
 
+		final BufferedImage img;
 		final BufferedImage scaledImage;
 		if (resize){
 			//Calculate the new size
@@ -564,6 +681,16 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 				}
 
 			}
+			desiredWidth = Math.max(1, desiredWidth);
+			desiredHeight = Math.max(1, desiredHeight);
+			//Only decode every n-th pixel, keeping twice the requested size for the downscale
+			final int xSubsampling = Math.max(1, imgWidth / (desiredWidth * 2));
+			final int ySubsampling = Math.max(1, imgHeight / (desiredHeight * 2));
+			if ((xSubsampling > 1) || (ySubsampling > 1)) {
+				trace.trace("Decoding with subsampling "+xSubsampling+"x"+ySubsampling, TraceLevel.DEBUG);
+				imageReadParams.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+			}
+			img = imgReader.read(0, imageReadParams);
 			if (paddingColor==null){//No padding: wet the calculated image dimentions
 				result.put(FIELD_IMAGE_WIDTH, Integer.toString(desiredWidth));
 				result.put(FIELD_IMAGE_HEIGHT, Integer.toString(desiredHeight));
@@ -576,28 +703,19 @@ public class ImageFileReader extends AbstractStrategy implements IFileReadStrate
 			//No resizing
 			result.put(FIELD_IMAGE_WIDTH, Integer.toString(imgWidth));
 			result.put(FIELD_IMAGE_HEIGHT, Integer.toString(imgHeight));
+			img = imgReader.read(0, imageReadParams);
 			scaledImage = img;
 		}
 
 		//Get the image writer. If transcoding, get a specific one, otherwise get the one corresponding to the input
 		final ImageWriter imgWriter;
 		if (transcode){
-			final Iterator<ImageWriter> writers = ImageIO.getImageWriters(imageSrcDestType, transcodeTargetFormat);
-			if (writers.hasNext()) {
-				imgWriter = writers.next();
-			} else {
-				final Iterator<ImageWriter> writers2 = ImageIO.getImageWritersByFormatName(transcodeTargetFormat);
-				if (writers2.hasNext()) {
-					imgWriter = writers2.next();
-				}else{
-					throw new ReadException("No image writer found for format "+transcodeTargetFormat);
-				}
-			}
+			imgWriter = getImageWriter(transcodeTargetFormat, imageSrcDestType);
 			result.put(FIELD_IMAGE_FORMAT, transcodeTargetFormat);
 		}
 		else{
 			//Get the writer corresponding to this reader
-			imgWriter = ImageIO.getImageWriter(imgReader);
+			imgWriter = getImageWriter(imgReader);
 			result.put(FIELD_IMAGE_FORMAT, imgReader.getFormatName());
 		}
 
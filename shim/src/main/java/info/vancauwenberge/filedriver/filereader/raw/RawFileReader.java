@@ -22,6 +22,9 @@ package info.vancauwenberge.filedriver.filereader.raw;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
@@ -32,7 +35,6 @@ import com.novell.nds.dirxml.driver.xds.DataType;
 import com.novell.nds.dirxml.driver.xds.EnumConstraint;
 import com.novell.nds.dirxml.driver.xds.Parameter;
 import com.novell.nds.dirxml.driver.xds.XDSParameterException;
-import com.novell.xml.util.Base64Codec;
 
 import info.vancauwenberge.filedriver.api.AbstractStrategy;
 import info.vancauwenberge.filedriver.api.IFileReadStrategy;
@@ -44,6 +46,13 @@ import info.vancauwenberge.filedriver.util.Util;
 public class RawFileReader extends AbstractStrategy implements IFileReadStrategy {
 	//Image properties after transformation
 	protected static final String FIELD_RAW_DATA = "rawData";
+	/**
+	 * Number of bytes read from the file in one go. Multiple of 3 so that
+	 * every full chunk encodes to Base64 without padding.
+	 */
+	private static final int CHUNK_SIZE = 48 * 1024;
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final Charset ASCII = Charset.forName("US-ASCII");
 
 	private Trace trace;
 	/**
@@ -60,6 +69,11 @@ public class RawFileReader extends AbstractStrategy implements IFileReadStrategy
 
 	private long currentFileLength;
 
+	/**
+	 * Read buffer, reused for every file.
+	 */
+	private ByteBuffer chunk;
+
 	protected enum Parameters implements IStrategyParameters{
 		/**
 		 * Binary or text raw data
@@ -182,27 +196,83 @@ public class RawFileReader extends AbstractStrategy implements IFileReadStrategy
 		}
 	}
 
-	private byte[] readBinary() throws ReadException {
-
-		final byte[] buffer = new byte[(int)currentFileLength];
-		try {
-			if (inputStream.read(buffer) == -1) {
-				throw new ReadException("Unexpected EOF reached while trying to read the whole file");
+	/**
+	 * Read the whole file through the channel and Base64 encode it chunk by
+	 * chunk. The encoded value is written to an ASCII byte array that is
+	 * sized upfront, so the file itself is never held in memory.
+	 */
+	private String readBase64() throws IOException, ReadException {
+		if (chunk == null) {
+			chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		}
+		final FileChannel channel = inputStream.getChannel();
+		final byte[] encoded = new byte[(int) (((currentFileLength + 2) / 3) * 4)];
+		int pos = 0;
+		long bytesRead = 0;
+		boolean eof = false;
+		chunk.clear();
+		while (!eof) {
+			final int read = channel.read(chunk);
+			if (read == -1) {
+				eof = true;
+			} else {
+				bytesRead += read;
+				if (bytesRead > currentFileLength) {
+					throw new ReadException("File changed while reading: more than " + currentFileLength + " bytes read");
+				}
 			}
-		} catch (final IOException e) {
-			Util.printStackTrace(trace, e);
-			throw new ReadException(e);
-		} finally {
-			try {
-				if (inputStream != null) {
-					inputStream.close();
+			chunk.flip();
+			while (chunk.remaining() >= 3) {
+				final int b = ((chunk.get() & 0xFF) << 16) | ((chunk.get() & 0xFF) << 8) | (chunk.get() & 0xFF);
+				encoded[pos++] = (byte) BASE64[(b >>> 18) & 0x3F];
+				encoded[pos++] = (byte) BASE64[(b >>> 12) & 0x3F];
+				encoded[pos++] = (byte) BASE64[(b >>> 6) & 0x3F];
+				encoded[pos++] = (byte) BASE64[b & 0x3F];
+			}
+			if (eof && chunk.hasRemaining()) {
+				// One or two bytes left: pad the last group
+				final int b1 = chunk.get() & 0xFF;
+				final int b2 = chunk.hasRemaining() ? (chunk.get() & 0xFF) : -1;
+				encoded[pos++] = (byte) BASE64[b1 >>> 2];
+				if (b2 == -1) {
+					encoded[pos++] = (byte) BASE64[(b1 & 0x03) << 4];
+					encoded[pos++] = '=';
+				} else {
+					encoded[pos++] = (byte) BASE64[((b1 & 0x03) << 4) | (b2 >>> 4)];
+					encoded[pos++] = (byte) BASE64[(b2 & 0x0F) << 2];
 				}
-			} catch (final IOException e) {
+				encoded[pos++] = '=';
 			}
-			inputStream=null;
+			chunk.compact();
+		}
+		traceMemory(bytesRead, CHUNK_SIZE + encoded.length);
+		// The file shrunk while reading: only return what was encoded
+		return new String(encoded, 0, pos, ASCII);
+	}
+
+	/**
+	 * Read the whole file as text. Chars are decoded in chunks into a builder
+	 * sized to the file length.
+	 */
+	private String readText() throws IOException {
+		final InputStreamReader reader = new InputStreamReader(inputStream, encoding);
+		final StringBuilder result = new StringBuilder((int) currentFileLength);
+		final char[] buffer = new char[CHUNK_SIZE];
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			result.append(buffer, 0, read);
 		}
-		return buffer;
+		traceMemory(currentFileLength, (buffer.length + result.capacity()) * 2L);
+		return result.toString();
 	}
+
+	private void traceMemory(final long bytesRead, final long bufferBytes) {
+		if (trace.getTraceLevel() >= TraceLevel.DEBUG) {
+			trace.trace("RawFileReader: read " + bytesRead + " bytes, peak buffer memory " + bufferBytes + " bytes",
+					TraceLevel.DEBUG);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileReader#openFile(com.novell.nds.dirxml.driver.Trace, java.io.File)
 	 */
@@ -225,15 +295,18 @@ public class RawFileReader extends AbstractStrategy implements IFileReadStrategy
 	}
 
 	private String readFile() throws ReadException{
-
-		if (isBinary){
-			//Base64 encode it
-			return new String(Base64Codec.encode(readBinary()));
-		}else{
-			//Now encode it a a string
-			return new String(readBinary(),encoding);
+		try {
+			if (isBinary){
+				//Base64 encode it
+				return readBase64();
+			}else{
+				//Now encode it a a string
+				return readText();
+			}
+		} catch (final IOException e) {
+			Util.printStackTrace(trace, e);
+			throw new ReadException(e);
 		}
-
 	}
 
 	/* (non-Javadoc)
@@ -23,12 +23,13 @@ import info.vancauwenberge.filedriver.api.AbstractStrategy;
 import info.vancauwenberge.filedriver.api.IFileReadStrategy;
 import info.vancauwenberge.filedriver.exception.ReadException;
 import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.filereader.Record;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
 import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -123,6 +124,7 @@ public class XlsFileReader extends AbstractStrategy implements IFileReadStrategy
 	private String sheetName;
 	private boolean hasHeader;
 	private String[] schema;
+	private RecordSchema recordSchema;
 	//private File targetFile;
 	private boolean useHeaderNames;
 	private Trace trace;
@@ -141,6 +143,7 @@ public class XlsFileReader extends AbstractStrategy implements IFileReadStrategy
 		useHeaderNames = getBoolValueFor(Parameters.XLS_USE_HEADER_NAMES,driverParams);
 		//driverParams.get(XLS_USE_HEADER_NAMES).toBoolean().booleanValue();
    		schema = GenericFileDriverShim.getSchemaAsArray(driverParams);
+   		recordSchema = new RecordSchema(schema);
 	}
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileReadStrategy#openFile(com.novell.nds.dirxml.driver.Trace, java.io.File)
@@ -181,6 +184,7 @@ public class XlsFileReader extends AbstractStrategy implements IFileReadStrategy
 						fields[i]="_Unknown_"+i+"_";
 				}
 				schema = fields;
+				recordSchema = new RecordSchema(schema);
 				nextRowNumber++;
 			}
 		}
@@ -193,7 +197,7 @@ public class XlsFileReader extends AbstractStrategy implements IFileReadStrategy
 		HSSFRow row = currentSheet.getRow(nextRowNumber);
 		if (row!=null){
 			//We have data.
-			Map<String,String> result = new HashMap<String,String>(schema.length);
+			Record result = new Record(recordSchema);
 			//Do not use the iterator (row.cellIterator()): this will cause to skip empty cells!
 			//Use the schema to loop over the cells
 			for (short i = 0; i < schema.length; i++) {
@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.xls;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Constraint;
+import com.novell.nds.dirxml.driver.xds.DataType;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.RangeConstraint;
+import com.novell.nds.dirxml.driver.xds.XDSParameterException;
+
+import info.vancauwenberge.filedriver.api.AbstractStrategy;
+import info.vancauwenberge.filedriver.api.IFileReadStrategy;
+import info.vancauwenberge.filedriver.exception.ReadException;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.filereader.RecordQueue;
+import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+import info.vancauwenberge.filedriver.util.TraceLevel;
+import info.vancauwenberge.filedriver.util.Util;
+
+/**
+ * Reader for Excel 2007+ (xlsx) files. The worksheet is parsed with SAX in a
+ * separate thread and every row is put in a {@link RecordQueue}, so the memory
+ * use does not depend on the size of the sheet. Shared strings are loaded
+ * up to the highest index used so far.
+ * <p>
+ * The parameters are the same as for {@link XlsFileReader}.
+ */
+public class XlsxFileReader extends AbstractStrategy implements IFileReadStrategy {
+	private static final String WORKBOOK_PART = "xl/workbook.xml";
+	private static final String WORKBOOK_RELS_PART = "xl/_rels/workbook.xml.rels";
+	private static final String SHARED_STRINGS_TYPE = "/sharedStrings";
+	private static final String SHARED_STRINGS_PART = "xl/sharedStrings.xml";
+	// The workbook parts never have a DTD: refuse them (no external entities)
+	private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+
+	protected enum Parameters implements IStrategyParameters {
+		SHEET_NAME      ("xlsReader_SheetName"      ,"Sheet1",DataType.STRING),
+		HAS_HEADER      ("xlsReader_HasHeader"      ,"true"  ,DataType.BOOLEAN),
+		USE_HEADER_NAMES("xlsReader_UseHeaderNames" ,"true"  ,DataType.BOOLEAN),
+		QUEUE_SIZE      ("xlsxReader_queueSize"     ,String.valueOf(RecordQueue.DEFAULT_CAPACITY),DataType.INT);
+
+		private Parameters(final String name, final String defaultValue, final DataType dataType) {
+			this.name = name;
+			this.defaultValue = defaultValue;
+			this.dataType = dataType;
+		}
+
+		private final String name;
+		private final String defaultValue;
+		private final DataType dataType;
+
+		@Override
+		public String getParameterName() {
+			return name;
+		}
+
+		@Override
+		public String getDefaultValue() {
+			return defaultValue;
+		}
+
+		@Override
+		public DataType getDataType() {
+			return dataType;
+		}
+
+		@Override
+		public Constraint[] getConstraints() {
+			if (this == QUEUE_SIZE) {
+				return new Constraint[] { new RangeConstraint(1, RecordQueue.MAX_CAPACITY) };
+			}
+			return null;
+		}
+	}
+
+	private Trace trace;
+	private String sheetName;
+	private boolean hasHeader;
+	private boolean useHeaderNames;
+	private String[] schema;
+	private int queueSize = RecordQueue.DEFAULT_CAPACITY;
+
+	private ZipFile zipFile;
+	private XlsxSharedStrings sharedStrings;
+	private XlsxSheetHandler handler;
+	private RecordQueue queue;
+	private Thread parsingThread;
+	private String[] actualSchema;
+
+	@Override
+	public void init(final Trace trace, final Map<String, Parameter> driverParams, final IPublisher publisher)
+			throws XDSParameterException {
+		this.trace = trace;
+		sheetName = getStringValueFor(Parameters.SHEET_NAME, driverParams);
+		hasHeader = getBoolValueFor(Parameters.HAS_HEADER, driverParams);
+		useHeaderNames = getBoolValueFor(Parameters.USE_HEADER_NAMES, driverParams);
+		schema = GenericFileDriverShim.getSchemaAsArray(driverParams);
+		final Parameter paramQueueSize = driverParams.get(Parameters.QUEUE_SIZE.getParameterName());
+		if (paramQueueSize != null) {
+			queueSize = paramQueueSize.toInteger();
+		}
+	}
+
+	@Override
+	public void openFile(final File f) throws ReadException {
+		trace.trace("Reading " + f.getAbsolutePath());
+		try {
+			zipFile = new ZipFile(f);
+			final Map<String, String> relationships = new HashMap<String, String>();
+			final String sheetPart = findSheetPart(relationships);
+			if (sheetPart == null) {
+				throw new ReadException("No sheet with name " + sheetName + " found in file " + f.getAbsolutePath(),
+						null);
+			}
+			final ZipEntry sheetEntry = zipFile.getEntry(sheetPart);
+			if (sheetEntry == null) {
+				throw new ReadException("Sheet " + sheetName + " (" + sheetPart + ") not found in file "
+						+ f.getAbsolutePath(), null);
+			}
+			String sharedStringsPart = relationships.get(SHARED_STRINGS_TYPE);
+			if (sharedStringsPart == null) {
+				sharedStringsPart = SHARED_STRINGS_PART;
+			}
+			final ZipEntry sharedStringsEntry = zipFile.getEntry(sharedStringsPart);
+			sharedStrings = new XlsxSharedStrings(
+					(sharedStringsEntry == null) ? null : zipFile.getInputStream(sharedStringsEntry));
+
+			//The parsing thread uses its own references: close() clears the fields
+			final RecordQueue recordQueue = new RecordQueue(queueSize);
+			final XlsxSheetHandler sheetHandler = new XlsxSheetHandler(schema, hasHeader, useHeaderNames,
+					sharedStrings, recordQueue);
+			final InputStream sheetStream = zipFile.getInputStream(sheetEntry);
+			queue = recordQueue;
+			handler = sheetHandler;
+
+			final SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+			factory.setFeature(DISALLOW_DOCTYPE, true);
+			final SAXParser parser = factory.newSAXParser();
+			parsingThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						parser.parse(sheetStream, sheetHandler);
+						recordQueue.setFinished();
+					} catch (final XlsxSheetHandler.StopParsingException e) {
+						recordQueue.setFinished();
+					} catch (final Exception e) {
+						Util.printStackTrace(trace, e);
+						recordQueue.setFinishedInError(e);
+					} finally {
+						sheetHandler.releaseHeader();
+						try {
+							sheetStream.close();
+						} catch (final IOException e) {
+							Util.printStackTrace(trace, e);
+						}
+					}
+				}
+			};
+			parsingThread.setName("XLSXParser");
+			parsingThread.start();
+
+			//The header row determines the actual schema
+			if (hasHeader) {
+				sheetHandler.awaitHeader();
+			}
+			actualSchema = sheetHandler.getSchema();
+		} catch (final ReadException e) {
+			closeFile();
+			throw e;
+		} catch (final Exception e) {
+			closeFile();
+			Util.printStackTrace(trace, e);
+			throw new ReadException("Error while trying to read file " + f.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Find the part name of the sheet with the configured name. The
+	 * relationships of the workbook are added to the given map: by id and by
+	 * the last part of their type (eg /sharedStrings).
+	 *
+	 * @return the part name, or null if the workbook has no such sheet
+	 */
+	private String findSheetPart(final Map<String, String> relationships) throws Exception {
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setExpandEntityReferences(false);
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setFeature(DISALLOW_DOCTYPE, true);
+
+		final ZipEntry relsEntry = zipFile.getEntry(WORKBOOK_RELS_PART);
+		if (relsEntry != null) {
+			final Document rels = parse(factory, relsEntry);
+			final NodeList relList = rels.getElementsByTagNameNS("*", "Relationship");
+			for (int i = 0; i < relList.getLength(); i++) {
+				final Element rel = (Element) relList.item(i);
+				final String target = getPartName(rel.getAttribute("Target"));
+				final String type = rel.getAttribute("Type");
+				relationships.put(rel.getAttribute("Id"), target);
+				relationships.put(type.substring(type.lastIndexOf('/')), target);
+			}
+		}
+
+		final ZipEntry workbookEntry = zipFile.getEntry(WORKBOOK_PART);
+		if (workbookEntry == null) {
+			throw new ReadException("Not an xlsx file: " + WORKBOOK_PART + " not found.", null);
+		}
+		final NodeList sheets = parse(factory, workbookEntry).getElementsByTagNameNS("*", "sheet");
+		for (int i = 0; i < sheets.getLength(); i++) {
+			final Element sheet = (Element) sheets.item(i);
+			if (sheetName.equals(sheet.getAttribute("name"))) {
+				// The relationship id attribute (r:id) is in the relationships namespace
+				final NamedNodeMap attributes = sheet.getAttributes();
+				for (int j = 0; j < attributes.getLength(); j++) {
+					final Attr attribute = (Attr) attributes.item(j);
+					if ("id".equals(attribute.getLocalName()) && (attribute.getNamespaceURI() != null)) {
+						return relationships.get(attribute.getValue());
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private Document parse(final DocumentBuilderFactory factory, final ZipEntry entry) throws Exception {
+		final InputStream is = zipFile.getInputStream(entry);
+		try {
+			return factory.newDocumentBuilder().parse(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Get the zip entry name of a relationship target of the workbook.
+	 * Relative targets are relative to the xl folder.
+	 */
+	private static String getPartName(final String target) {
+		if (target.startsWith("/")) {
+			return target.substring(1);
+		}
+		return "xl/" + target;
+	}
+
+	@Override
+	public Map<String, String> readRecord() throws ReadException {
+		try {
+			return queue.getNextRecord();
+		} catch (final Exception e) {
+			throw new ReadException(e);
+		}
+	}
+
+	@Override
+	public void close() throws ReadException {
+		closeFile();
+	}
+
+	private void closeFile() {
+		//Stop the parser and release it if it is waiting for room in the queue
+		if (handler != null) {
+			handler.stop();
+		}
+		if (queue != null) {
+			queue.setFinished();
+		}
+		if (parsingThread != null) {
+			try {
+				parsingThread.join();
+			} catch (final InterruptedException e) {
+				trace.trace("Interrupted while waiting for the parsing thread.", TraceLevel.ERROR_WARN);
+			}
+		}
+		if (sharedStrings != null) {
+			sharedStrings.close();
+		}
+		if (zipFile != null) {
+			try {
+				zipFile.close();
+			} catch (final IOException e) {
+				Util.printStackTrace(trace, e);
+			}
+		}
+		parsingThread = null;
+		handler = null;
+		queue = null;
+		sharedStrings = null;
+		zipFile = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E extends Enum<?> & IStrategyParameters> Class<E> getParametersEnum() {
+		return (Class<E>) Parameters.class;
+	}
+
+	@Override
+	public String[] getActualSchema() {
+		return actualSchema;
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.xls;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The shared strings table of an xlsx workbook. The table is read
+ * (streaming) up to the highest index that was requested so far: strings that
+ * are never used by the rows that were read, are never loaded.
+ */
+final class XlsxSharedStrings {
+	private final InputStream stream;
+	private final XMLStreamReader reader;
+	private final List<String> strings = new ArrayList<String>();
+	private boolean endReached;
+
+	/**
+	 * @param stream
+	 *            the sharedStrings part, or null if the workbook does not have
+	 *            one
+	 */
+	XlsxSharedStrings(final InputStream stream) throws XMLStreamException {
+		this.stream = stream;
+		if (stream == null) {
+			reader = null;
+			endReached = true;
+		} else {
+			final XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			reader = factory.createXMLStreamReader(stream);
+		}
+	}
+
+	/**
+	 * Get the string with the given index.
+	 *
+	 * @throws XMLStreamException
+	 *             if the table does not contain the index
+	 */
+	String get(final int index) throws XMLStreamException {
+		while ((strings.size() <= index) && !endReached) {
+			readNextItem();
+		}
+		if ((index < 0) || (index >= strings.size())) {
+			throw new XMLStreamException("Shared string " + index + " not found (table size " + strings.size() + ").");
+		}
+		return strings.get(index);
+	}
+
+	/**
+	 * Read the next string item (si element) of the table.
+	 */
+	private void readNextItem() throws XMLStreamException {
+		while (reader.hasNext()) {
+			if ((reader.next() == XMLStreamConstants.START_ELEMENT) && "si".equals(reader.getLocalName())) {
+				strings.add(readItem());
+				return;
+			}
+		}
+		endReached = true;
+	}
+
+	/**
+	 * Read the text of the current string item: the text of all t elements
+	 * (a plain string or the runs of a rich text string), except the phonetic
+	 * runs. The reader ends on the end of the item.
+	 */
+	private String readItem() throws XMLStreamException {
+		final StringBuilder text = new StringBuilder();
+		int depth = 1;
+		int phoneticDepth = 0;
+		boolean inText = false;
+		while (depth > 0) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				if ("rPh".equals(reader.getLocalName())) {
+					phoneticDepth++;
+				} else if ("t".equals(reader.getLocalName())) {
+					inText = (phoneticDepth == 0);
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				if ("rPh".equals(reader.getLocalName())) {
+					phoneticDepth--;
+				} else if ("t".equals(reader.getLocalName())) {
+					inText = false;
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if (inText) {
+					text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return text.toString();
+	}
+
+	void close() {
+		try {
+			if (reader != null) {
+				reader.close();
+			}
+		} catch (final XMLStreamException e) {
+			// Nothing to do: the stream is closed below
+		}
+		try {
+			if (stream != null) {
+				stream.close();
+			}
+		} catch (final IOException e) {
+			// Nothing to do
+		}
+	}
+}
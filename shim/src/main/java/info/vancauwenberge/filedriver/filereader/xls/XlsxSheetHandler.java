@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.xls;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import info.vancauwenberge.filedriver.filereader.Record;
+import info.vancauwenberge.filedriver.filereader.RecordQueue;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
+
+/**
+ * SAX handler for a worksheet part of an xlsx file. Every row is added to the
+ * queue as soon as it is parsed. Only the current row is kept in memory.
+ * <p>
+ * As with {@link XlsFileReader}, the data ends at the first missing row and
+ * numeric cells are returned as a double (eg 12.0).
+ */
+class XlsxSheetHandler extends DefaultHandler {
+	/**
+	 * Thrown to stop the parser once the data ended or the reader was closed.
+	 */
+	static class StopParsingException extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		StopParsingException() {
+			super("Parsing stopped");
+		}
+	}
+
+	private final RecordQueue queue;
+	private final XlsxSharedStrings sharedStrings;
+	private final boolean hasHeader;
+	private final boolean useHeaderNames;
+	private String[] schema;
+	private RecordSchema recordSchema;
+	private final CountDownLatch headerLatch = new CountDownLatch(1);
+	private volatile boolean stopped = false;
+
+	// The row that is being parsed
+	private int nextRowNumber = -1;
+	private boolean firstRowRead = false;
+	private final List<String> rowValues = new ArrayList<String>();
+	// The cell that is being parsed
+	private int column;
+	private String cellType;
+	private final StringBuilder cellValue = new StringBuilder();
+	private boolean inValue = false;
+	private int phoneticDepth = 0;
+
+	XlsxSheetHandler(final String[] schema, final boolean hasHeader, final boolean useHeaderNames,
+			final XlsxSharedStrings sharedStrings, final RecordQueue queue) {
+		this.schema = schema;
+		this.recordSchema = new RecordSchema(schema);
+		this.hasHeader = hasHeader;
+		this.useHeaderNames = useHeaderNames;
+		this.sharedStrings = sharedStrings;
+		this.queue = queue;
+	}
+
+	/**
+	 * Wait until the header row is parsed (or the parsing ended).
+	 */
+	void awaitHeader() throws InterruptedException {
+		headerLatch.await();
+	}
+
+	/**
+	 * Release the threads waiting for the header. Called when the parsing
+	 * ended.
+	 */
+	void releaseHeader() {
+		headerLatch.countDown();
+	}
+
+	/**
+	 * Stop the parsing at the next row.
+	 */
+	void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * @return the field names: the header names (if used) or the driver schema
+	 */
+	String[] getSchema() {
+		return schema;
+	}
+
+	@Override
+	public void startElement(final String uri, final String localName, final String qName, final Attributes atts)
+			throws SAXException {
+		if ("row".equals(localName)) {
+			if (stopped) {
+				throw new StopParsingException();
+			}
+			final String r = atts.getValue("r");
+			final int rowNumber = (r == null) ? Math.max(nextRowNumber, 1) : Integer.parseInt(r);
+			if ((nextRowNumber != -1) && (rowNumber != nextRowNumber)) {
+				// A missing row ends the data
+				throw new StopParsingException();
+			}
+			nextRowNumber = rowNumber + 1;
+			rowValues.clear();
+			column = -1;
+		} else if ("c".equals(localName)) {
+			final String r = atts.getValue("r");
+			column = (r == null) ? (column + 1) : getColumnIndex(r);
+			cellType = atts.getValue("t");
+			cellValue.setLength(0);
+		} else if ("v".equals(localName)) {
+			inValue = true;
+		} else if ("rPh".equals(localName)) {
+			phoneticDepth++;
+		} else if ("t".equals(localName)) {
+			// Text of an inline string
+			inValue = (phoneticDepth == 0);
+		}
+	}
+
+	@Override
+	public void characters(final char[] ch, final int start, final int length) {
+		if (inValue) {
+			cellValue.append(ch, start, length);
+		}
+	}
+
+	@Override
+	public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+		if ("v".equals(localName) || "t".equals(localName)) {
+			inValue = false;
+		} else if ("rPh".equals(localName)) {
+			phoneticDepth--;
+		} else if ("c".equals(localName)) {
+			while (rowValues.size() <= column) {
+				rowValues.add(null);
+			}
+			rowValues.set(column, getCellValue());
+		} else if ("row".equals(localName)) {
+			endRow();
+		}
+	}
+
+	/**
+	 * Convert the raw value of the current cell, based on the cell type.
+	 */
+	private String getCellValue() throws SAXException {
+		final String value = cellValue.toString();
+		if ("s".equals(cellType)) {
+			try {
+				return sharedStrings.get(Integer.parseInt(value.trim()));
+			} catch (final XMLStreamException e) {
+				throw new SAXException(e);
+			}
+		}
+		if ("b".equals(cellType)) {
+			return String.valueOf("1".equals(value.trim()));
+		}
+		if (((cellType == null) || "n".equals(cellType)) && (value.length() > 0)) {
+			return Double.parseDouble(value) + "";
+		}
+		// inlineStr, str (formula result), e (error) and d (ISO date)
+		return value;
+	}
+
+	private void endRow() {
+		if (!firstRowRead) {
+			firstRowRead = true;
+			if (hasHeader) {
+				if (useHeaderNames) {
+					final String[] fields = rowValues.toArray(new String[rowValues.size()]);
+					// We might have some nulls in the array. Default them.
+					for (int i = 0; i < fields.length; i++) {
+						if (fields[i] == null) {
+							fields[i] = "_Unknown_" + i + "_";
+						}
+					}
+					schema = fields;
+					recordSchema = new RecordSchema(schema);
+				}
+				headerLatch.countDown();
+				return;
+			}
+		}
+		final Record record = new Record(recordSchema);
+		for (int i = 0; i < schema.length; i++) {
+			final String value = (i < rowValues.size()) ? rowValues.get(i) : null;
+			record.put(schema[i], (value == null) ? "" : value);
+		}
+		queue.addRecord(record);
+	}
+
+	/**
+	 * Get the (zero based) column index from a cell reference (eg AB12).
+	 */
+	static int getColumnIndex(final String cellReference) {
+		int index = 0;
+		for (int i = 0; i < cellReference.length(); i++) {
+			final char c = cellReference.charAt(i);
+			if ((c < 'A') || (c > 'Z')) {
+				break;
+			}
+			index = (index * 26) + (c - 'A' + 1);
+		}
+		return index - 1;
+	}
+}
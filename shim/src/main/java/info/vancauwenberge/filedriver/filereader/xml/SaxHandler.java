@@ -21,7 +21,6 @@ package info.vancauwenberge.filedriver.filereader.xml;
 
 import java.io.FileReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -31,16 +30,20 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
-import info.vancauwenberge.filedriver.filereader.*;
+import info.vancauwenberge.filedriver.filereader.Record;
+import info.vancauwenberge.filedriver.filereader.RecordQueue;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
 
 public class SaxHandler extends DefaultHandler {
-	private RecordQueue queue = new RecordQueue();
+	private final RecordQueue queue;
 	
 	private int level = 0;
 	private StringBuffer currentValue;
-	private HashMap<String,String> currentRecord;
+	private Record currentRecord;
 	
-	private HashMap<String,String> queuedRecord;
+	private Record queuedRecord;
+	//Field names of the first record, shared by all records that follow
+	private RecordSchema recordSchema = RecordSchema.EMPTY;
 	//private Object semaphore = new Object();
 
 	private String[] alternateTags;
@@ -99,7 +102,7 @@ public class SaxHandler extends DefaultHandler {
 		//Level == 3 => new record is started
 		if (level == 3){
 			currentTagIndex = 0;
-			currentRecord = new HashMap<String,String>();
+			currentRecord = new Record(recordSchema);
 		}
 		//DEBUG
 		/*
@@ -122,6 +125,19 @@ public class SaxHandler extends DefaultHandler {
 		return actualFirstRecordTags.toArray(new String[actualFirstRecordTags.size()]);
 	}
 	
+	/**
+	 * The document could not be parsed: pass the exception to the reader of
+	 * the queue and release any thread waiting for the schema.
+	 * @param e
+	 */
+	public void setFinishedInError(Exception e) {
+		queue.setFinishedInError(e);
+		synchronized (actualFirstRecordTags) {
+			firstRecordRead = true;
+			actualFirstRecordTags.notifyAll();
+		}
+	}
+
 	/**
 	 * @param uri the Namespace URI, or the empty string if the element has no Namespace URI or if Namespace processing is not being performed.
 	 * @param name the local name (without prefix), or the empty string if Namespace processing is not being performed.
@@ -131,7 +147,8 @@ public class SaxHandler extends DefaultHandler {
 		//If level == 3: we ended a field for the current tag.
 		if (level==4)
 		{
-			String fieldName = getFieldName(localName);
+			//Events from a transformation may not have the local name
+			String fieldName = getFieldName(((localName == null) || "".equals(localName)) ? qName : localName);
 			currentRecord.put(fieldName, currentValue.toString());
 			currentValue = new StringBuffer();
 			currentTagIndex++;
@@ -142,6 +159,8 @@ public class SaxHandler extends DefaultHandler {
 			//If level == 4: we ended a record
 			if (level==3){
 				synchronized (actualFirstRecordTags) {
+					if (!firstRecordRead)
+						recordSchema = new RecordSchema(actualFirstRecordTags.toArray(new String[actualFirstRecordTags.size()]));
 					firstRecordRead = true;
 					actualFirstRecordTags.notifyAll();
 				}
@@ -242,7 +261,17 @@ public class SaxHandler extends DefaultHandler {
 	 * 
 	 */
 	protected SaxHandler(boolean useTagNames, String[] alternateTags) {
+		this(useTagNames, alternateTags, RecordQueue.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param useTagNames do we use the tag names found in te xml file as field names or not
+	 * @param alternateTags if <code>useTagNames</code> is false, the actual tags to use
+	 * @param queueCapacity the maximum number of parsed records waiting to be read
+	 */
+	protected SaxHandler(boolean useTagNames, String[] alternateTags, int queueCapacity) {
 		super();
+		this.queue = new RecordQueue(queueCapacity);
 		this.useTagNames = useTagNames;
 		this.alternateTags = alternateTags;
 		if ((useTagNames == false) && (alternateTags==null)){
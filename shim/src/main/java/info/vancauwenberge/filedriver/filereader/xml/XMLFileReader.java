@@ -26,17 +26,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -48,6 +49,7 @@ import com.novell.nds.dirxml.driver.Trace;
 import com.novell.nds.dirxml.driver.xds.Constraint;
 import com.novell.nds.dirxml.driver.xds.DataType;
 import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.RangeConstraint;
 import com.novell.nds.dirxml.driver.xds.XDSParameterException;
 
 import info.vancauwenberge.filedriver.api.AbstractStrategy;
@@ -56,6 +58,7 @@ import info.vancauwenberge.filedriver.exception.ReadException;
 import info.vancauwenberge.filedriver.filepublisher.IPublisher;
 import info.vancauwenberge.filedriver.filereader.RecordQueue;
 import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+import info.vancauwenberge.filedriver.util.TemplatesCache;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 import info.vancauwenberge.filedriver.util.Util;
 
@@ -68,7 +71,9 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 	protected enum Parameters implements IStrategyParameters{
 		USE_TAG_NAMES  ("xmlReader_useTagNames"   ,"true",DataType.BOOLEAN),
 		PRE_XSLT       ("xmlReader_preXslt"       ,""    ,DataType.STRING),
-		FORCED_ENCODING("xmlReader_forcedEncoding",null  ,DataType.STRING);
+		FORCED_ENCODING("xmlReader_forcedEncoding",null  ,DataType.STRING),
+		QUEUE_SIZE     ("xmlReader_queueSize"     ,String.valueOf(RecordQueue.DEFAULT_CAPACITY),DataType.INT),
+		DUMP_PRE_XSLT  ("xmlReader_dumpPreXslt"   ,"false",DataType.BOOLEAN);
 
 		private Parameters(final String name, final String defaultValue, final DataType dataType) {
 			this.name = name;
@@ -97,6 +102,9 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 
 		@Override
 		public Constraint[] getConstraints() {
+			if (this == QUEUE_SIZE) {
+				return new Constraint[] { new RangeConstraint(1, RecordQueue.MAX_CAPACITY) };
+			}
 			return null;
 		}
 	}
@@ -107,8 +115,15 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 
 	private boolean useTagNames = true;
 	private String[] tagNames;
-	private Transformer xsltTransformer;
+	//The compiled pre XSLT, shared with other readers using the same stylesheet
+	private Templates xsltTemplates;
+	/**
+	 * Write the result of the pre XSLT to a .transformed file (and parse that
+	 * file) instead of parsing the transformation result directly.
+	 */
+	private boolean dumpPreXslt = false;
 	private SaxHandler handler = null;
+	private int queueSize = RecordQueue.DEFAULT_CAPACITY;
 
 	/**
 	 * The encoding to use for the XML file. Empty will use the encoding as specified in the XML file (or the platform default if not specified).
@@ -134,22 +149,25 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 
 		useTagNames = getBoolValueFor(Parameters.USE_TAG_NAMES,driverParams);
 		tagNames = GenericFileDriverShim.getSchemaAsArray(driverParams);
+		final Parameter paramQueueSize = driverParams.get(Parameters.QUEUE_SIZE.getParameterName());
+		if (paramQueueSize != null) {
+			queueSize = paramQueueSize.toInteger();
+		}
 
 		encoding = getStringValueFor(Parameters.FORCED_ENCODING, driverParams);
 		if ("".equals(encoding)) {
 			encoding=null;
 		}
+		final Parameter paramDumpPreXslt = driverParams.get(Parameters.DUMP_PRE_XSLT.getParameterName());
+		if (paramDumpPreXslt != null) {
+			dumpPreXslt = paramDumpPreXslt.toBoolean().booleanValue();
+		}
 		final String preXslt = getStringValueFor(Parameters.PRE_XSLT, driverParams);
 		if ((preXslt != null) && !"".equals(preXslt.trim())) //We need to apply an xslt prior to processing the file
 		{
-			// construct a transformer using the generic stylesheet
-			final TransformerFactory factory = TransformerFactory.newInstance();
-			final StreamSource xslSource     = new StreamSource(new StringReader(preXslt));
+			// get the compiled stylesheet: every file gets its own transformer
 			try {
-				xsltTransformer    = factory.newTransformer(xslSource);
-				if (encoding != null) {
-					xsltTransformer.setOutputProperty( OutputKeys.ENCODING, encoding);
-				}
+				xsltTemplates = TemplatesCache.getTemplates(preXslt);
 			} catch (final TransformerConfigurationException e) {
 				Util.printStackTrace(trace,e);
 				throw new XDSParameterException("Error creating XSLT transformer:"+e.getMessage());
@@ -163,32 +181,38 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 	@Override
 	public void openFile(final File initialFile) throws ReadException {
 		try {
-			File targetFile;
-			//Transform if required
-			if (xsltTransformer!=null){
+			File targetFile = initialFile;
+			//Transform to a file if required. Otherwise the transformation result is parsed directly.
+			final boolean pipeTransformation = (xsltTemplates != null) && !dumpPreXslt;
+			if ((xsltTemplates != null) && dumpPreXslt){
 				targetFile = transformFile(initialFile);
-			}else{
-				targetFile = initialFile;
 			}
 
 			// Start the parser that will parse this document		
 			final InputSource is = getEncodedInputSource(targetFile);
 			final XMLReader xr = XMLReaderFactory.createXMLReader();
-			handler = new SaxHandler(useTagNames, tagNames);
-			xr.setContentHandler(handler);
-			xr.setErrorHandler(handler);
-			queue = handler.getQueue();
+			//The parsing thread uses its own references: close() clears the fields
+			final SaxHandler saxHandler = new SaxHandler(useTagNames, tagNames, queueSize);
+			final Transformer transformer = pipeTransformation ? newTransformer() : null;
+			handler = saxHandler;
+			queue = saxHandler.getQueue();
 
 			parsingThread = new Thread(){
 				@Override
 				public void run(){
 					try {
-						//FileReader r = new FileReader(f);
-						//xr.parse(new InputSource(r));	
-						xr.parse(is);
+						if (pipeTransformation) {
+							//The transformed document is sent to the handler while the input is read
+							final SAXResult result = new SAXResult(saxHandler);
+							transformer.transform(new SAXSource(xr, is), result);
+						} else {
+							xr.setContentHandler(saxHandler);
+							xr.setErrorHandler(saxHandler);
+							xr.parse(is);
+						}
 					} catch (final Exception e) {
 						Util.printStackTrace(trace, e);
-						queue.setFinishedInError(e);
+						saxHandler.setFinishedInError(e);
 					}
 				}
 			};
@@ -221,6 +245,7 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 
 	/**
 	 * XSLT Transform the file. Write the result to a new file. Return the new file.
+	 * Only used if the transformed file needs to be kept (see {@link Parameters#DUMP_PRE_XSLT}).
 	 * @param initialFile
 	 * @return
 	 * @throws UnsupportedEncodingException
@@ -228,6 +253,7 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 	 * @throws TransformerException
 	 */
 	private File transformFile(final File initialFile) throws TransformerException, IOException {
+		final Transformer xsltTransformer = newTransformer();
 
 		Source source;
 		if (encoding != null) //Use the given encoding
@@ -264,6 +290,17 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 	}
 
 
+	/**
+	 * Get a new transformer for the pre XSLT.
+	 */
+	private Transformer newTransformer() throws TransformerConfigurationException {
+		final Transformer transformer = xsltTemplates.newTransformer();
+		if (encoding != null) {
+			transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+		}
+		return transformer;
+	}
+
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileReader#readRecord(com.novell.nds.dirxml.driver.Trace)
 	 */
@@ -281,6 +318,10 @@ public class XMLFileReader extends AbstractStrategy implements IFileReadStrategy
 	 */
 	@Override
 	public void close() throws ReadException{
+		//Release the parser if it is waiting for room in the queue
+		if (queue != null) {
+			queue.setFinished();
+		}
 		queue = null;
 		if (parsingThread.isAlive()){
 			trace.trace("WARN: parsing thread is still alive...", TraceLevel.ERROR_WARN);
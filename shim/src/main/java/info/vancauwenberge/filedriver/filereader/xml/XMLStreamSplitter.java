@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Splits an XML stream in small DOM documents: one for every element that
+ * matches a simple location path. Only the current element is kept in memory.
+ * <p>
+ * The supported paths are absolute paths of element names, eg
+ * <code>/root/record</code> or <code>//record</code>. A step can be a
+ * (qualified) name or <code>*</code>. Predicates, attributes and functions
+ * are not supported. Elements that match inside a matched element are part of
+ * that element and are not returned separately.
+ */
+class XMLStreamSplitter {
+	/**
+	 * Receives the matched elements.
+	 */
+	interface FragmentHandler {
+		/**
+		 * @param element
+		 *            the matched element. It is the document element of its
+		 *            own document.
+		 * @return false to stop the splitting
+		 */
+		public boolean handleFragment(Element element) throws Exception;
+	}
+
+	private final String[] stepNames;
+	private final boolean[] stepDescendant;
+
+	/**
+	 * @param path
+	 * @throws IllegalArgumentException
+	 *             if the path is not supported
+	 */
+	XMLStreamSplitter(final String path) {
+		final String trimmed = path.trim();
+		if (!trimmed.startsWith("/")) {
+			throw new IllegalArgumentException("Only absolute paths are supported in streaming mode: " + path);
+		}
+		final List<String> names = new ArrayList<String>();
+		final List<Boolean> descendant = new ArrayList<Boolean>();
+		int i = 0;
+		while (i < trimmed.length()) {
+			if (trimmed.startsWith("//", i)) {
+				descendant.add(Boolean.TRUE);
+				i += 2;
+			} else if (trimmed.charAt(i) == '/') {
+				descendant.add(Boolean.FALSE);
+				i++;
+			} else {
+				throw new IllegalArgumentException("Unsupported path in streaming mode: " + path);
+			}
+			int end = trimmed.indexOf('/', i);
+			if (end == -1) {
+				end = trimmed.length();
+			}
+			final String name = trimmed.substring(i, end);
+			if (!name.matches("\\*|[\\p{L}_][\\p{L}\\p{N}_.\\-]*(:[\\p{L}_][\\p{L}\\p{N}_.\\-]*)?")) {
+				throw new IllegalArgumentException("Unsupported step '" + name + "' in streaming mode path: " + path);
+			}
+			names.add(name);
+			i = end;
+		}
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException("The streaming mode path must select elements: " + path);
+		}
+		stepNames = names.toArray(new String[names.size()]);
+		stepDescendant = new boolean[descendant.size()];
+		for (int j = 0; j < stepDescendant.length; j++) {
+			stepDescendant[j] = descendant.get(j).booleanValue();
+		}
+	}
+
+	/**
+	 * Read the stream and give every matching element to the handler.
+	 *
+	 * @param reader
+	 * @param builder
+	 *            used to create the documents of the matched elements
+	 * @param handler
+	 * @throws Exception
+	 */
+	void split(final XMLStreamReader reader, final DocumentBuilder builder, final FragmentHandler handler)
+			throws Exception {
+		final List<String> path = new ArrayList<String>();
+		Document doc = null;
+		Node current = null;
+		int depth = 0;
+		while (reader.hasNext()) {
+			final int event = reader.next();
+			if (doc == null) {
+				// Outside a matched element: only keep track of the path
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					path.add(getQName(reader.getPrefix(), reader.getLocalName()));
+					if (!matches(path, 0, 0)) {
+						continue;
+					}
+					doc = builder.newDocument();
+					current = doc;
+				} else {
+					if (event == XMLStreamConstants.END_ELEMENT) {
+						path.remove(path.size() - 1);
+					}
+					continue;
+				}
+			}
+			switch (event) {
+			case XMLStreamConstants.START_ELEMENT:
+				final Element element = createElement(doc, reader);
+				current.appendChild(element);
+				current = element;
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				current = current.getParentNode();
+				depth--;
+				if (depth == 0) {
+					path.remove(path.size() - 1);
+					final Element matched = doc.getDocumentElement();
+					doc = null;
+					current = null;
+					if (!handler.handleFragment(matched)) {
+						return;
+					}
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				current.appendChild(doc.createTextNode(reader.getText()));
+				break;
+			case XMLStreamConstants.CDATA:
+				current.appendChild(doc.createCDATASection(reader.getText()));
+				break;
+			case XMLStreamConstants.COMMENT:
+				current.appendChild(doc.createComment(reader.getText()));
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Create an element (with its attributes and namespace declarations) for
+	 * the current start element. Qualified names are used, as the document
+	 * builder of {@link XPathXMLFileReader} is not namespace aware.
+	 */
+	private static Element createElement(final Document doc, final XMLStreamReader reader) {
+		final Element element = doc.createElement(getQName(reader.getPrefix(), reader.getLocalName()));
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			final String prefix = reader.getNamespacePrefix(i);
+			final String uri = reader.getNamespaceURI(i);
+			element.setAttribute(getQName("xmlns", prefix), (uri == null) ? "" : uri);
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(getQName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+					reader.getAttributeValue(i));
+		}
+		return element;
+	}
+
+	private static String getQName(final String prefix, final String localName) {
+		if ((prefix == null) || (prefix.length() == 0)) {
+			return localName;
+		}
+		if ((localName == null) || (localName.length() == 0)) {
+			return prefix;
+		}
+		return prefix + ":" + localName;
+	}
+
+	/**
+	 * Does the path (from pathIndex) match the steps (from stepIndex)?
+	 */
+	private boolean matches(final List<String> path, final int pathIndex, final int stepIndex) {
+		if (stepIndex == stepNames.length) {
+			return pathIndex == path.size();
+		}
+		if (pathIndex == path.size()) {
+			return false;
+		}
+		if (stepDescendant[stepIndex]) {
+			for (int i = pathIndex; i < path.size(); i++) {
+				if (nameMatches(stepIndex, path.get(i)) && matches(path, i + 1, stepIndex + 1)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return nameMatches(stepIndex, path.get(pathIndex)) && matches(path, pathIndex + 1, stepIndex + 1);
+	}
+
+	private boolean nameMatches(final int stepIndex, final String name) {
+		return "*".equals(stepNames[stepIndex]) || stepNames[stepIndex].equals(name);
+	}
+}
@@ -22,16 +22,18 @@ package info.vancauwenberge.filedriver.filereader.xml;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
@@ -39,6 +41,7 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
@@ -47,13 +50,16 @@ import com.novell.nds.dirxml.driver.Trace;
 import com.novell.nds.dirxml.driver.xds.Constraint;
 import com.novell.nds.dirxml.driver.xds.DataType;
 import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.RangeConstraint;
 import com.novell.nds.dirxml.driver.xds.XDSParameterException;
 
 import info.vancauwenberge.filedriver.api.AbstractStrategy;
 import info.vancauwenberge.filedriver.api.IFileReadStrategy;
 import info.vancauwenberge.filedriver.exception.ReadException;
 import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.filereader.Record;
 import info.vancauwenberge.filedriver.filereader.RecordQueue;
+import info.vancauwenberge.filedriver.filereader.RecordSchema;
 import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 import info.vancauwenberge.filedriver.util.Util;
@@ -64,7 +70,9 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 		USE_DRIVER_SCHEMA   ("xmlxpathReader_UseDriverSchema","true",DataType.BOOLEAN),
 		FORCED_ENCODING     ("xmlxpathReader_forcedEncoding" ,null  ,DataType.STRING),
 		XPATH_EXPRESSIONS   ("xmlxpathReader_attributeXpaths",null  ,DataType.STRING),
-		XPATH_RECORD_NODESET("xmlxpathReader_recordXpath"    ,"/"   ,DataType.STRING);
+		XPATH_RECORD_NODESET("xmlxpathReader_recordXpath"    ,"/"   ,DataType.STRING),
+		QUEUE_SIZE          ("xmlxpathReader_queueSize"      ,String.valueOf(RecordQueue.DEFAULT_CAPACITY),DataType.INT),
+		STREAMING           ("xmlxpathReader_streaming"      ,"false",DataType.BOOLEAN);
 
 		private Parameters(final String name, final String defaultValue, final DataType dataType) {
 			this.name = name;
@@ -93,11 +101,15 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 
 		@Override
 		public Constraint[] getConstraints() {
+			if (this == QUEUE_SIZE) {
+				return new Constraint[] { new RangeConstraint(1, RecordQueue.MAX_CAPACITY) };
+			}
 			return null;
 		}
 	}
 
 	private RecordQueue queue;
+	private int queueSize = RecordQueue.DEFAULT_CAPACITY;
 	private Thread parsingThread;
 
 	private String[] tagNames=null;
@@ -111,6 +123,12 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 	private DocumentBuilder builder;
 	private ArrayList<XPathExpression> xPathExpressions;
 	private XPathExpression xpathRecordNodeSet;
+	/**
+	 * Splitter for the streaming mode: the record XPath is matched while
+	 * reading the file, and only one record element is in memory at a time.
+	 * Null if the whole document is parsed.
+	 */
+	private XMLStreamSplitter streamSplitter;
 
 	@SuppressWarnings("unchecked")
 	@Override
@@ -184,6 +202,22 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 			final String xPathRecordParam = getStringValueFor(Parameters.XPATH_RECORD_NODESET,driverParams);
 			this.xpathRecordNodeSet = xpath.compile(xPathRecordParam);
 
+			final Parameter paramStreaming = driverParams.get(Parameters.STREAMING.getParameterName());
+			if ((paramStreaming != null) && paramStreaming.toBoolean().booleanValue()) {
+				try {
+					streamSplitter = new XMLStreamSplitter(xPathRecordParam);
+				} catch (final IllegalArgumentException e) {
+					throw new XDSParameterException(e.getMessage());
+				}
+			} else {
+				streamSplitter = null;
+			}
+
+			final Parameter paramQueueSize = driverParams.get(Parameters.QUEUE_SIZE.getParameterName());
+			if (paramQueueSize != null) {
+				queueSize = paramQueueSize.toInteger();
+			}
+
 
 		} catch (final ParserConfigurationException e1) {
 			Util.printStackTrace(trace, e1);
@@ -199,11 +233,18 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 	 */
 	@Override
 	public void openFile(final File initialFile) throws ReadException {
+		if (streamSplitter != null) {
+			openStreaming(initialFile);
+			return;
+		}
 		try {
 			final InputSource is = getEncodedInputSource(initialFile);
 			final Document doc = builder.parse(is);
 
-			queue = new RecordQueue();
+			//The parsing thread uses its own reference: close() clears the field
+			final RecordQueue recordQueue = new RecordQueue(queueSize);
+			queue = recordQueue;
+			final RecordSchema recordSchema = new RecordSchema(tagNames);
 
 			parsingThread = new Thread(){
 				@Override
@@ -211,40 +252,78 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 					try {
 						final NodeList nodes = (NodeList) xpathRecordNodeSet.evaluate(doc, XPathConstants.NODESET);
 						for (int i = 0; i < nodes.getLength(); i++) {
-							final Map<String,String> record = new HashMap<String, String>();
-							for (int j = 0; j < xPathExpressions.size(); j++) {
-								final XPathExpression anExpression = xPathExpressions.get(j);
-								String value=null;
-								try{
-									final Node result = (Node)anExpression.evaluate(nodes.item(i), XPathConstants.NODE);
-									switch (result.getNodeType()) {
-									case Node.ATTRIBUTE_NODE:
-									case Node.TEXT_NODE:
-									case Node.COMMENT_NODE:
-									case Node.CDATA_SECTION_NODE:
-										value=result.getNodeValue();									
-										break;
-									default:
-										value=result.getNodeName();									
-										break;
-									} 
-								}catch(final Exception e){
-									try{
-										//It seems that the XPath does not evaluate to a Node, try a String
-										value = (String)anExpression.evaluate(nodes.item(i), XPathConstants.STRING);
-									}catch(final Exception e3){
-										//It seems that the XPath does not evaluate to a String, try a Boolean
-										value = ((Boolean)anExpression.evaluate(nodes.item(i), XPathConstants.BOOLEAN)).toString();
-									}
-								}
-								record.put(tagNames[j], value);
-							}
-							queue.addRecord(record);
+							recordQueue.addRecord(createRecord(nodes.item(i), recordSchema));
 						}
-						queue.setFinished();
+						recordQueue.setFinished();
+					} catch (final Exception e) {
+						Util.printStackTrace(trace, e);
+						recordQueue.setFinishedInError(e);
+					}
+				}
+			};
+			parsingThread.setName("XMLParser");
+			parsingThread.start();
+		} catch (final Exception e1) {
+			Util.printStackTrace(trace, e1);
+			throw new ReadException("Exception while handeling XML document:" +e1.getClass().getName()+" - "+e1.getMessage(),e1);
+		}
+	}
+
+	/**
+	 * Streaming mode: read the file with StAX. Every element matching the
+	 * record XPath is copied to a small document, the attribute XPaths are
+	 * evaluated against it and the document is discarded.
+	 * <p>
+	 * The attribute XPaths should be relative to the record element: the
+	 * ancestors and siblings of the record are not available.
+	 */
+	private void openStreaming(final File initialFile) throws ReadException {
+		try {
+			final XMLInputFactory factory = XMLInputFactory.newInstance();
+			//Text is one node, as in the parsed document
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			final InputStream fis = new FileInputStream(initialFile);
+			final XMLStreamReader reader;
+			try {
+				if (encoding != null) {
+					reader = factory.createXMLStreamReader(new InputStreamReader(fis, encoding));
+				} else {
+					reader = factory.createXMLStreamReader(fis);
+				}
+			} catch (final Exception e) {
+				fis.close();
+				throw e;
+			}
+
+			//The parsing thread uses its own reference: close() clears the field
+			final RecordQueue recordQueue = new RecordQueue(queueSize);
+			queue = recordQueue;
+			final RecordSchema recordSchema = new RecordSchema(tagNames);
+			final XMLStreamSplitter splitter = streamSplitter;
+
+			parsingThread = new Thread(){
+				@Override
+				public void run(){
+					try {
+						splitter.split(reader, builder, new XMLStreamSplitter.FragmentHandler() {
+							@Override
+							public boolean handleFragment(final Element element) throws Exception {
+								recordQueue.addRecord(createRecord(element, recordSchema));
+								//Stop if the reader was closed
+								return !recordQueue.isFinished();
+							}
+						});
+						recordQueue.setFinished();
 					} catch (final Exception e) {
 						Util.printStackTrace(trace, e);
-						queue.setFinishedInError(e);
+						recordQueue.setFinishedInError(e);
+					} finally {
+						try {
+							reader.close();
+							fis.close();
+						} catch (final Exception e) {
+							Util.printStackTrace(trace, e);
+						}
 					}
 				}
 			};
@@ -256,6 +335,41 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 		}
 	}
 
+	/**
+	 * Evaluate the attribute XPaths against a record node.
+	 */
+	private Record createRecord(final Node recordNode, final RecordSchema recordSchema) throws XPathExpressionException {
+		final Record record = new Record(recordSchema);
+		for (int j = 0; j < xPathExpressions.size(); j++) {
+			final XPathExpression anExpression = xPathExpressions.get(j);
+			String value=null;
+			try{
+				final Node result = (Node)anExpression.evaluate(recordNode, XPathConstants.NODE);
+				switch (result.getNodeType()) {
+				case Node.ATTRIBUTE_NODE:
+				case Node.TEXT_NODE:
+				case Node.COMMENT_NODE:
+				case Node.CDATA_SECTION_NODE:
+					value=result.getNodeValue();									
+					break;
+				default:
+					value=result.getNodeName();									
+					break;
+				} 
+			}catch(final Exception e){
+				try{
+					//It seems that the XPath does not evaluate to a Node, try a String
+					value = (String)anExpression.evaluate(recordNode, XPathConstants.STRING);
+				}catch(final Exception e3){
+					//It seems that the XPath does not evaluate to a String, try a Boolean
+					value = ((Boolean)anExpression.evaluate(recordNode, XPathConstants.BOOLEAN)).toString();
+				}
+			}
+			record.put(tagNames[j], value);
+		}
+		return record;
+	}
+
 	/**
 	 * @param targetFile
 	 * @return
@@ -294,6 +408,10 @@ public class XPathXMLFileReader extends AbstractStrategy implements IFileReadStr
 	 */
 	@Override
 	public void close() throws ReadException{
+		//Release the parser if it is waiting for room in the queue
+		if (queue != null) {
+			queue.setFinished();
+		}
 		queue = null;
 		if (parsingThread.isAlive()){
 			trace.trace("WARN: parsing thread is still alive...", TraceLevel.ERROR_WARN);
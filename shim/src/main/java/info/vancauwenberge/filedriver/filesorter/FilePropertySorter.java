@@ -21,7 +21,7 @@
 package info.vancauwenberge.filedriver.filesorter;
 
 import info.vancauwenberge.filedriver.api.AbstractStrategy;
-import info.vancauwenberge.filedriver.api.IFileSorterStrategy;
+import info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy;
 import info.vancauwenberge.filedriver.filepublisher.IPublisher;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 
@@ -29,7 +29,6 @@ import java.io.File;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -43,8 +42,10 @@ import com.novell.nds.dirxml.driver.xds.XDSParameterException;
 
 /**
  * FileSorterStrategy that sorts a list of files based on a file property.
+ * Next to the properties of the File object, two orderings are built in: smallestFirst (the smallest file first,
+ * whatever the sort order) and fileNameSequence (the last number in the file name, files without a number last).
  */
-public class FilePropertySorter extends AbstractStrategy implements IFileSorterStrategy{
+public class FilePropertySorter extends AbstractStrategy implements IKeyedFileSorterStrategy{
 	private enum Parameters implements IStrategyParameters{
 		DRIVER_PARAM_FILE_SORT_METHOD{
 			public String getParameterName() {
@@ -94,6 +95,89 @@ public class FilePropertySorter extends AbstractStrategy implements IFileSorterS
 		public abstract Constraint[] getConstraints();
 		
 	}
+	/**
+	 * Orderings that are read without reflection. Keys of other File methods are read using reflection, once per file.
+	 */
+	private enum SortProperty {
+		NAME("getName") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return file.getName();
+			}
+		},
+		PATH("getPath") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return file.getPath();
+			}
+		},
+		ABSOLUTE_PATH("getAbsolutePath") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return file.getAbsolutePath();
+			}
+		},
+		LAST_MODIFIED("lastModified") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return Long.valueOf(file.lastModified());
+			}
+		},
+		LENGTH("length") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return Long.valueOf(file.length());
+			}
+		},
+		/**
+		 * Smallest file first, so small files are not stuck behind a big one. Ignores the sort order.
+		 */
+		SMALLEST_FIRST("smallestFirst") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return Long.valueOf(file.length());
+			}
+
+			@Override
+			boolean isAlwaysAscending() {
+				return true;
+			}
+		},
+		/**
+		 * The last number in the file name (eg export_0042.csv)
+		 */
+		FILE_NAME_SEQUENCE("fileNameSequence") {
+			@Override
+			Comparable<?> getKey(File file) {
+				return getSequenceNumber(file.getName());
+			}
+		};
+
+		private final String methodName;
+
+		private SortProperty(String methodName) {
+			this.methodName = methodName;
+		}
+
+		abstract Comparable<?> getKey(File file);
+
+		boolean isAlwaysAscending() {
+			return false;
+		}
+
+		static SortProperty forMethodName(String methodName) {
+			for (SortProperty property : values()) {
+				if (property.methodName.equals(methodName))
+					return property;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Built-in ordering to sort the files on, or null if fileSortMethod is used.
+	 */
+	private SortProperty sortProperty;
 	/**
 	 * Methode to use to sort files on. Based on the method as set in the driver's Publisher parameters.
 	 */
@@ -123,9 +207,37 @@ public class FilePropertySorter extends AbstractStrategy implements IFileSorterS
 					possibleMethods.add(method.getName());
 			}
 		}
+		possibleMethods.add(SortProperty.SMALLEST_FIRST.methodName);
+		possibleMethods.add(SortProperty.FILE_NAME_SEQUENCE.methodName);
 		return possibleMethods;
 	}
 
+	/**
+	 * Get the last number in a file name.
+	 * @param fileName
+	 * @return the number, or null if the name does not contain a number
+	 */
+	static Long getSequenceNumber(String fileName) {
+		int end = fileName.length();
+		while (end > 0 && !isDigit(fileName.charAt(end - 1)))
+			end--;
+		if (end == 0)
+			return null;
+		int start = end - 1;
+		while (start > 0 && isDigit(fileName.charAt(start - 1)))
+			start--;
+		//Leading zeros do not count
+		while (start < end - 1 && fileName.charAt(start) == '0')
+			start++;
+		if (end - start > 18)
+			return Long.valueOf(Long.MAX_VALUE);
+		return Long.valueOf(fileName.substring(start, end));
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileSorterStrategy#getFirstFile(java.io.File[])
 	 */
@@ -133,20 +245,48 @@ public class FilePropertySorter extends AbstractStrategy implements IFileSorterS
 		if (fileList != null && fileList.length > 0)
 		{
 			trace.trace("getNextFile: found file(s)", TraceLevel.DEBUG);
-			if (fileSortMethod != null && fileList.length>1){
-				//Sort the files
-				List<File> list = Arrays.asList(fileList);
-				Collections.sort(list, fileComparator);
-				return (File) list.get(0);
-			}
-			else
-			{
-				return fileList[0];
+			File firstFile = fileList[0];
+			if (isSorting() && fileList.length>1){
+				//Read every key once, and keep the smallest
+				SortKey firstKey = readSortKey(firstFile);
+				for (int i = 1; i < fileList.length; i++) {
+					SortKey key = readSortKey(fileList[i]);
+					if (key.compareTo(firstKey) < 0){
+						firstFile = fileList[i];
+						firstKey = key;
+					}
+				}
 			}
+			return firstFile;
 		}
 		return null;
 	}
 
+	/* (non-Javadoc)
+	 * @see info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy#getSortKey(java.io.File)
+	 */
+	public Comparable<?> getSortKey(File file) {
+		if (isSorting())
+			return readSortKey(file);
+		return null;
+	}
+
+	private boolean isSorting() {
+		return sortProperty != null || fileSortMethod != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private SortKey readSortKey(File file) {
+		if (sortProperty != null)
+			return new SortKey((Comparable<Object>) sortProperty.getKey(file),
+					fileSortOrderAsc || sortProperty.isAlwaysAscending());
+		try {
+			return new SortKey((Comparable<Object>) fileSortMethod.invoke(file, new Object[]{}), fileSortOrderAsc);
+		} catch (Exception e) {
+			throw new RuntimeException("Error trying to invoke "+fileSortMethod.getName()+" on given file "+file, e);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileSorterStrategy#init(com.novell.nds.dirxml.driver.Trace, java.util.Map)
 	 */
@@ -155,21 +295,25 @@ public class FilePropertySorter extends AbstractStrategy implements IFileSorterS
 
 		String fileSortMethodName = getStringValueFor(Parameters.DRIVER_PARAM_FILE_SORT_METHOD, driverParams);
 		//driverParams.get(DRIVER_PARAM_FILE_SORT_METHOD).toString();
+		sortProperty = SortProperty.forMethodName(fileSortMethodName);
+		fileSortMethod = null;
 		List<String> possibleMethods = getSortMethods();
 		if (possibleMethods.contains(fileSortMethodName)){
 			fileSortOrderAsc = getBoolValueFor(Parameters.DRIVER_PARAM_FILE_SORT_ORDER_ASC, driverParams);
 			//driverParams.get(DRIVER_PARAM_FILE_SORT_ORDER_ASC).toBoolean().booleanValue();
-			try {
-				fileSortMethod = File.class.getMethod(fileSortMethodName,new Class[]{});
-			} catch (SecurityException e) {
-				throwXDSParameterException(trace, "fileSortMethodName cannot be called:"+e.getMessage());
-			} catch (NoSuchMethodException e) {
-				throwXDSParameterException(trace, "fileSortMethodName not found:"+e.getMessage());
+			if (sortProperty == null){
+				try {
+					fileSortMethod = File.class.getMethod(fileSortMethodName,new Class[]{});
+				} catch (SecurityException e) {
+					throwXDSParameterException(trace, "fileSortMethodName cannot be called:"+e.getMessage());
+				} catch (NoSuchMethodException e) {
+					throwXDSParameterException(trace, "fileSortMethodName not found:"+e.getMessage());
+				}
 			}
 		}
 		else
 		{
-			if (fileSortMethod!= null && !"".equals(fileSortMethod))
+			if (fileSortMethodName!= null && !"".equals(fileSortMethodName))
 				throwXDSParameterException(trace, "fileSortMethode ("+fileSortMethodName+") is not a valid method for the object File. Possible methodes are:"+possibleMethods);
 		}
 	}
@@ -180,16 +324,31 @@ public class FilePropertySorter extends AbstractStrategy implements IFileSorterS
 		
 	}
 
-
-
 	/**
-	 * The Comparator to use when multipe files are found.
+	 * Key of a file: the value of the sort property and the sort order. Files without a value are always last.
 	 */
-	private final Comparator<File> fileComparator = getFileComparator();
+	private static final class SortKey implements Comparable<SortKey> {
+		private final Comparable<Object> value;
+		private final boolean ascending;
+
+		private SortKey(Comparable<Object> value, boolean ascending) {
+			this.value = value;
+			this.ascending = ascending;
+		}
+
+		public int compareTo(SortKey other) {
+			if (value == null)
+				return (other.value == null) ? 0 : 1;
+			if (other.value == null)
+				return -1;
+			int result = value.compareTo(other.value);
+			return ascending ? result : -result;
+		}
+	}
 
 	/**
-	 * Get the Comparator used to sort the inout files found for processing.
-	 * Overwrite if you want to use another Comparator 
+	 * Get a Comparator that sorts files the way this strategy does.
+	 * Note that the keys are read on every comparison: the publisher itself reads them only once, using getSortKey.
 	 * @return
 	 */
 	public Comparator<File> getFileComparator(){
@@ -197,29 +356,15 @@ public class FilePropertySorter extends AbstractStrategy implements IFileSorterS
 	}
 
 	/**
-	 * Comparator that sorts the files that matches the filter. Only used if more then 1 file is found.
+	 * Comparator that sorts the files that matches the filter.
 	 * The Comparator uses the given property/method from the file object and the given sort order as specified in
 	 * the driver's subscription parameters.
 	 */
 	public class SimpleFileComparator implements Comparator<File> {
-		@SuppressWarnings("unchecked")
 		public int compare(File file1, File file2){
-			Comparable<Object> result1;
-			Comparable<Object> result2;
-			try {
-				result1 = (Comparable<Object>) fileSortMethod.invoke(file1,new Object[]{});
-			} catch (Exception e) {
-				throw new RuntimeException("Error trying to invoke "+fileSortMethod.getName()+" on given file "+file1, e);
-			}
-			try {
-				result2 = (Comparable<Object>) fileSortMethod.invoke(file2,new Object[]{});
-			} catch (Exception e) {
-				throw new RuntimeException("Error trying to invoke "+fileSortMethod.getName()+" on given file "+file2, e);
-			}
-			if (fileSortOrderAsc)
-				return result1.compareTo(result2);
-			else
-				return -(result1.compareTo(result2));
+			if (!isSorting())
+				return 0;
+			return readSortKey(file1).compareTo(readSortKey(file2));
 		}
 	}
 
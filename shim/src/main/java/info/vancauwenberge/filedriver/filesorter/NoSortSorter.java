@@ -20,7 +20,7 @@
 
 package info.vancauwenberge.filedriver.filesorter;
 
-import info.vancauwenberge.filedriver.api.IFileSorterStrategy;
+import info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy;
 import info.vancauwenberge.filedriver.filepublisher.IPublisher;
 
 import java.io.File;
@@ -34,7 +34,7 @@ import com.novell.nds.dirxml.driver.xds.XDSParameterException;
 /**
  * Implementation used if no sort order strategy is given.
  */
-public class NoSortSorter implements IFileSorterStrategy{
+public class NoSortSorter implements IKeyedFileSorterStrategy{
 
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileSorterStrategy#getParameterDefinitions()
@@ -50,6 +50,13 @@ public class NoSortSorter implements IFileSorterStrategy{
 		return fileList[0];
 	}
 
+	/* (non-Javadoc)
+	 * @see info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy#getSortKey(java.io.File)
+	 */
+	public Comparable<?> getSortKey(File file) {
+		return null;
+	}
+
 	/* (non-Javadoc)
 	 * @see info.vancauwenberge.filedriver.api.IFileSorterStrategy#init(com.novell.nds.dirxml.driver.Trace, java.util.Map)
 	 */
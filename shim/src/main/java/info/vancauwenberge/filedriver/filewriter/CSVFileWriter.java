@@ -37,6 +37,7 @@ import info.vancauwenberge.filedriver.api.IDriver;
 import info.vancauwenberge.filedriver.api.IFileWriteStrategy;
 import info.vancauwenberge.filedriver.exception.WriteException;
 import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+import info.vancauwenberge.filedriver.util.CSVCodec;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 import info.vancauwenberge.filedriver.util.Util;
 
@@ -109,6 +110,7 @@ public class CSVFileWriter extends AbstractStrategy implements IFileWriteStrateg
 	private String[] schema;
 	private Trace trace;
 	private boolean quoteAlways;
+	private CSVCodec codec;
 
 
 	/* (non-Javadoc)
@@ -136,6 +138,7 @@ public class CSVFileWriter extends AbstractStrategy implements IFileWriteStrateg
 		} else {
 			throw new XDSParameterException("Invalid parameter value for seperator:"+strSeperator);
 		}
+		codec = new CSVCodec(seperator, quoteAlways);
 
 		if ("".equals(encoding) || (encoding==null)){
 			encoding=Util.getSystemDefaultEncoding();
@@ -172,32 +175,8 @@ public class CSVFileWriter extends AbstractStrategy implements IFileWriteStrateg
 		trace.trace(" OpenFile completed.", TraceLevel.TRACE);
 	}
 
-	/**
-	 * Escape the value in a csv file. Assumed seperator is ;
-	 * @param input
-	 * @return
-	 */
-	private String escapeCsv(final String input){
-		if (input==null) {
-			return "";
-		}
-		//if it contains a double quote: escape with double quote
-		String temp = input.replaceAll("\"","\"\"");
-		//if it contains a double quote, the seperator or newline: surround with double quote
-		if (quoteAlways || (temp.indexOf('"')>=0) || (temp.indexOf('\n')>=0) || (temp.indexOf(seperator)>=0)) {
-			temp = "\""+temp+"\"";
-		}
-		return temp;
-	}
-
 	private void writeLine(final String[] values) throws IOException{
-		for (int i = 0; i < values.length; i++) {
-			if (i>0) {
-				bos.write(seperator);
-			}
-			final String string = values[i];
-			bos.write(escapeCsv(string));
-		}
+		codec.writeFields(bos, values);
 		bos.newLine();
 		if (flushEvryLine) {
 			bos.flush();
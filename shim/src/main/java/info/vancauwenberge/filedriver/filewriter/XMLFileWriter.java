@@ -24,6 +24,7 @@ import info.vancauwenberge.filedriver.api.IDriver;
 import info.vancauwenberge.filedriver.api.IFileWriteStrategy;
 import info.vancauwenberge.filedriver.exception.WriteException;
 import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+import info.vancauwenberge.filedriver.util.TemplatesCache;
 import info.vancauwenberge.filedriver.util.TraceLevel;
 import info.vancauwenberge.filedriver.util.Util;
 
@@ -35,7 +36,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.Map;
@@ -43,10 +43,10 @@ import java.util.Map;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -151,7 +151,8 @@ public class XMLFileWriter extends AbstractStrategy implements IFileWriteStrateg
         	"&apos;", "'"
         }
 	};
-	private Transformer xsltTransformer;
+	//The compiled xslt, shared with other strategies using the same stylesheet
+	private Templates xsltTemplates;
 	private Trace trace;
 
 	/* (non-Javadoc)
@@ -183,13 +184,9 @@ public class XMLFileWriter extends AbstractStrategy implements IFileWriteStrateg
    		schema = GenericFileDriverShim.getSchemaAsArray(driverParams);
    		if (!"".equals(xslt)) //We need to apply an xslt prior to processing the file
    		{
-   	        // construct a transformer using the generic stylesheet
-   	        TransformerFactory factory = TransformerFactory.newInstance();
-   	        StreamSource xslSource     = new StreamSource(new StringReader(xslt));
+   	        // get the compiled stylesheet: every file gets its own transformer
    	        try {
-				xsltTransformer    = factory.newTransformer(xslSource);
-				if (encoding != null)
-					xsltTransformer.setOutputProperty( OutputKeys.ENCODING, encoding);
+				xsltTemplates = TemplatesCache.getTemplates(xslt);
 			} catch (TransformerConfigurationException e) {
 				Util.printStackTrace(trace,e);
 				throw new XDSParameterException("Error creating XSLT transformer:"+e.getMessage());
@@ -202,7 +199,7 @@ public class XMLFileWriter extends AbstractStrategy implements IFileWriteStrateg
    		trace.trace(" RecordElement:"+recordElement, TraceLevel.TRACE);
    		trace.trace(" Xslt:"+xslt, TraceLevel.TRACE);
    		trace.trace(" Xslt:"+xslt, TraceLevel.TRACE);
-   		trace.trace(" XsltTransformer:"+xsltTransformer, TraceLevel.TRACE);
+   		trace.trace(" XsltTemplates:"+xsltTemplates, TraceLevel.TRACE);
 	}
 	
 	
@@ -309,6 +306,9 @@ public class XMLFileWriter extends AbstractStrategy implements IFileWriteStrateg
 	 * @throws TransformerException
 	 */
 	private File transformFile(File initialFile) throws TransformerException, IOException {
+		Transformer xsltTransformer = xsltTemplates.newTransformer();
+		if (encoding != null)
+			xsltTransformer.setOutputProperty( OutputKeys.ENCODING, encoding);
 		
 		Source source;
 		InputStreamReader isr = new InputStreamReader(new FileInputStream(initialFile), encoding);
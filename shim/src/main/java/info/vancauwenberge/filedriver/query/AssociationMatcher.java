@@ -40,28 +40,31 @@ public class AssociationMatcher extends QueryMatcher {
 	}
 
 
+	/**
+	 * The association and the src-dn of a record are only computed when the
+	 * query needs them. With both, the src-dn is only computed for the records
+	 * with the right association.
+	 */
 	@Override
 	public boolean matchesRecord(Map<String,String> record) {
-		String thisRecordAssociation = driver.getAssociationField(record);
-		String thisRecordDestDN = driver.getSourceField(record);
-		if (destDNValue!= null && associationValue != null){
-			boolean result = associationValue.equals(thisRecordAssociation) && destDNValue.equals(thisRecordDestDN);
-			if (result)
-				trace.trace("Matched on association and destDn");
-			return result;
+		if (associationValue != null){
+			if (!associationValue.equals(driver.getAssociationField(record)))
+				return false;
+			if (destDNValue!= null){
+				boolean result = destDNValue.equals(driver.getSourceField(record));
+				if (result)
+					trace.trace("Matched on association and destDn");
+				return result;
+			}
+			trace.trace("Matched on association");
+			return true;
 		}
 		if (destDNValue!= null){
-			boolean result= destDNValue.equals(thisRecordDestDN);
+			boolean result= destDNValue.equals(driver.getSourceField(record));
 			if (result)
 				trace.trace("Matched on destDn");
 			return result;
 		}
-		if (associationValue != null){
-			boolean result = associationValue.equals(thisRecordAssociation);
-			if (result)
-				trace.trace("Matched on association");
-			return result;
-		}
 		//This should never happen
 		return false;
 	}
@@ -19,6 +19,7 @@
  *******************************************************************************/
 package info.vancauwenberge.filedriver.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -27,33 +28,59 @@ import com.novell.nds.dirxml.driver.Trace;
 import com.novell.nds.dirxml.driver.xds.XDSSearchAttrElement;
 import com.novell.nds.dirxml.driver.xds.XDSValueElement;
 
+/**
+ * Matches the records that have all search attributes. The search attributes
+ * are extracted from the query once: the attribute names and values are kept
+ * in arrays, so matching a record does not touch the query DOM.
+ */
 public class AttributeMatcher extends QueryMatcher {
-	private List<XDSSearchAttrElement> attributesToSearch;
+	/**
+	 * The attribute names. The attributes with a search value come first: these
+	 * are the most selective tests.
+	 */
+	private final String[] names;
+	/**
+	 * The search value of each attribute, or null if the attribute only needs
+	 * to be present
+	 */
+	private final String[] values;
 	private Trace trace;
 
 	protected AttributeMatcher(Trace trace,List<XDSSearchAttrElement> attributesToSearch) {
 		super();
-		this.attributesToSearch = attributesToSearch;
 		this.trace = trace;
-
-	}
-
-	@Override
-	public boolean matchesRecord(Map<String,String> record) {
+		List<String> valueNames = new ArrayList<String>(attributesToSearch.size());
+		List<String> searchValues = new ArrayList<String>(attributesToSearch.size());
+		List<String> presentNames = new ArrayList<String>();
 		Iterator<XDSSearchAttrElement> it = attributesToSearch.iterator();
 		while (it.hasNext()) {
 			XDSSearchAttrElement anAttribute = it.next();
-			String value = (String)record.get(anAttribute.getAttrName());
-			if (value != null){
-				@SuppressWarnings("unchecked")
-				List<XDSValueElement> searchValues = anAttribute.extractValueElements();
-				if (searchValues.size()>0){
-					XDSValueElement theSearchValue = (XDSValueElement)searchValues.get(0);//We only support one value element
-					if (!value.equals(theSearchValue.extractText())){
-						return false;
-					}
-				}
+			@SuppressWarnings("unchecked")
+			List<XDSValueElement> valueElements = anAttribute.extractValueElements();
+			if (valueElements.size()>0){
+				valueNames.add(anAttribute.getAttrName());
+				//We only support one value element
+				searchValues.add(valueElements.get(0).extractText());
 			}else{
+				presentNames.add(anAttribute.getAttrName());
+			}
+		}
+		names = new String[valueNames.size() + presentNames.size()];
+		values = new String[names.length];
+		for (int i = 0; i < valueNames.size(); i++) {
+			names[i] = valueNames.get(i);
+			values[i] = searchValues.get(i);
+		}
+		for (int i = 0; i < presentNames.size(); i++) {
+			names[valueNames.size() + i] = presentNames.get(i);
+		}
+	}
+
+	@Override
+	public boolean matchesRecord(Map<String,String> record) {
+		for (int i = 0; i < names.length; i++) {
+			String value = record.get(names[i]);
+			if ((value == null) || ((values[i] != null) && !value.equals(values[i]))){
 				return false;
 			}
 		}
@@ -41,7 +41,8 @@ public abstract class QueryMatcher {
 		List<XDSSearchAttrElement> attributesToSearch = queryElem.extractSearchAttrElements();
 		if (((associationValue != null)||(destDNValue!=null)) 
 				&& (attributesToSearch != null) && (attributesToSearch.size()>0)){
-			return new AndMatcher(trace, new AssociationMatcher(trace, driver,associationValue,destDNValue), new AttributeMatcher(trace, attributesToSearch));
+			//The attributes are tested first: they are a map lookup, the association and src-dn might need a script
+			return new AndMatcher(trace, new AttributeMatcher(trace, attributesToSearch), new AssociationMatcher(trace, driver,associationValue,destDNValue));
 		}
 		if ((associationValue != null)||(destDNValue!=null))
 			return new AssociationMatcher(trace, driver,associationValue,destDNValue);
@@ -50,7 +51,7 @@ public abstract class QueryMatcher {
 		return new NullMatcher(trace);
 	}
 	
-	private static String getAssociationValueFromQuery(XDSQueryElement queryElem) {
+	static String getAssociationValueFromQuery(XDSQueryElement queryElem) {
 		XDSAssociationElement association = queryElem.extractAssociationElement();
 		String associationValue = null;
 		if (association != null)
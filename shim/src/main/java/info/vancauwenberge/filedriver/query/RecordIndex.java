@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.query;
+
+import info.vancauwenberge.filedriver.api.IDriver;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.novell.nds.dirxml.driver.xds.XDSQueryElement;
+import com.novell.nds.dirxml.driver.xds.XDSSearchAttrElement;
+import com.novell.nds.dirxml.driver.xds.XDSValueElement;
+
+/**
+ * Index of the records of one file, used to answer publisher queries without
+ * parsing the whole file for every query. The records are indexed on their
+ * association, their source dn and, optionally, on a number of attributes.
+ * <p>
+ * An index only holds the record numbers: the records are read back by their
+ * number, so only files read by a random access file reader are indexed.
+ * <p>
+ * The index only gives the candidate records: the {@link QueryMatcher} still
+ * decides if a record matches.
+ */
+public class RecordIndex {
+	private final IDriver driver;
+	private final File file;
+	private final long fileLength;
+	private final long fileModified;
+	private final Map<String, int[]> byAssociation = new HashMap<String, int[]>();
+	private final Map<String, int[]> bySourceDn = new HashMap<String, int[]>();
+	private final Map<String, Map<String, int[]>> byAttribute = new HashMap<String, Map<String, int[]>>();
+	private int recordCount = 0;
+
+	/**
+	 * @param driver
+	 * @param file the file that is indexed
+	 * @param attributes the attributes to index (can be empty)
+	 */
+	public RecordIndex(IDriver driver, File file, Collection<String> attributes) {
+		this.driver = driver;
+		this.file = file;
+		this.fileLength = file.length();
+		this.fileModified = file.lastModified();
+		for (String attribute : attributes) {
+			byAttribute.put(attribute, new HashMap<String, int[]>());
+		}
+	}
+
+	/**
+	 * Is this the index of the given file (and did the file not change since)?
+	 * @param aFile
+	 * @return
+	 */
+	public boolean isFor(File aFile) {
+		return (aFile != null) && file.equals(aFile) && (fileLength == aFile.length())
+				&& (fileModified == aFile.lastModified());
+	}
+
+	/**
+	 * Add the next record of the file to the index. Records are added in order, starting with record 1.
+	 * @param recordNumber
+	 * @param record the record, with the meta data the {@link QueryMatcher} sees
+	 */
+	public void add(int recordNumber, Map<String, String> record) {
+		add(byAssociation, driver.getAssociationField(record), recordNumber);
+		add(bySourceDn, driver.getSourceField(record), recordNumber);
+		for (Map.Entry<String, Map<String, int[]>> entry : byAttribute.entrySet()) {
+			add(entry.getValue(), record.get(entry.getKey()), recordNumber);
+		}
+		recordCount = recordNumber;
+	}
+
+	/**
+	 * @return the number of records in the file
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Get the numbers of the records that can match the query. The most
+	 * selective index is used: association, then dest-dn, then the first
+	 * indexed search attribute.
+	 * @param queryElem
+	 * @return the record numbers in file order, or null if the query cannot use the index (all records must be scanned)
+	 */
+	@SuppressWarnings("unchecked")
+	public int[] getCandidates(XDSQueryElement queryElem) {
+		String associationValue = QueryMatcher.getAssociationValueFromQuery(queryElem);
+		if (associationValue != null) {
+			return get(byAssociation, associationValue);
+		}
+		String destDNValue = queryElem.getDestDN();
+		if (destDNValue != null) {
+			return get(bySourceDn, destDNValue);
+		}
+		List<XDSSearchAttrElement> attributesToSearch = queryElem.extractSearchAttrElements();
+		if (attributesToSearch != null) {
+			for (XDSSearchAttrElement anAttribute : attributesToSearch) {
+				Map<String, int[]> index = byAttribute.get(anAttribute.getAttrName());
+				List<XDSValueElement> searchValues = anAttribute.extractValueElements();
+				// Only the first value is used by the matcher
+				if ((index != null) && (searchValues != null) && (searchValues.size() > 0)) {
+					return get(index, searchValues.get(0).extractText());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The record numbers are kept in an int[] of which the first element is the
+	 * number of records.
+	 */
+	private static void add(Map<String, int[]> index, String key, int recordNumber) {
+		if (key == null) {
+			return;
+		}
+		int[] numbers = index.get(key);
+		if (numbers == null) {
+			numbers = new int[] { 1, recordNumber };
+			index.put(key, numbers);
+		} else {
+			if (numbers[0] + 1 == numbers.length) {
+				numbers = Arrays.copyOf(numbers, numbers.length * 2);
+				index.put(key, numbers);
+			}
+			numbers[0]++;
+			numbers[numbers[0]] = recordNumber;
+		}
+	}
+
+	private static int[] get(Map<String, int[]> index, String key) {
+		int[] numbers = (key == null) ? null : index.get(key);
+		if (numbers == null) {
+			return new int[0];
+		}
+		return Arrays.copyOfRange(numbers, 1, numbers[0] + 1);
+	}
+}
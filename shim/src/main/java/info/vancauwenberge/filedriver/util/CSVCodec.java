@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the fields of a CSV line. A field is quoted when it
+ * contains a double quote, the separator or a newline (or always, if so
+ * configured); a double quote in a quoted field is doubled. Fields are written
+ * straight to the target Writer: no intermediate strings are created.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class CSVCodec {
+	private static final char QUOTE = '"';
+	private static final char COMMENT = '#';
+
+	private final char separator;
+	private final boolean quoteAlways;
+
+	public CSVCodec(final char separator) {
+		this(separator, false);
+	}
+
+	public CSVCodec(final char separator, final boolean quoteAlways) {
+		this.separator = separator;
+		this.quoteAlways = quoteAlways;
+	}
+
+	public char getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * Write one field. A null value is written as an empty, unquoted field.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeField(final Writer out, final String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		final int length = value.length();
+		// One pass: find out if quotes are needed, and where the first quote
+		// to escape is
+		boolean quote = quoteAlways;
+		int firstQuote = -1;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c == QUOTE) {
+				quote = true;
+				firstQuote = i;
+				break;
+			}
+			if ((c == separator) || (c == '\n')) {
+				quote = true;
+			}
+		}
+		if (!quote) {
+			out.write(value, 0, length);
+			return;
+		}
+		out.write(QUOTE);
+		int start = 0;
+		if (firstQuote >= 0) {
+			for (int i = firstQuote; i < length; i++) {
+				if (value.charAt(i) == QUOTE) {
+					// Write up to and including the quote, then double it
+					out.write(value, start, (i + 1) - start);
+					out.write(QUOTE);
+					start = i + 1;
+				}
+			}
+		}
+		out.write(value, start, length - start);
+		out.write(QUOTE);
+	}
+
+	/**
+	 * Write the fields, separated by the separator. The line separator is not
+	 * written.
+	 *
+	 * @param out
+	 * @param values
+	 * @throws IOException
+	 */
+	public void writeFields(final Writer out, final String[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				out.write(separator);
+			}
+			writeField(out, values[i]);
+		}
+	}
+
+	/**
+	 * Split one line in its fields, the way the CSVFileParser does: a quote
+	 * anywhere in a field starts a quoted part, the next single quote ends it
+	 * (<code>--name="John Doe"</code> is <code>--name=John Doe</code>). A
+	 * doubled quote in a quoted part is a quote. Carriage returns are dropped.
+	 * A newline that is not quoted ends the line; empty lines and comment
+	 * lines (starting with #) before it are skipped.
+	 *
+	 * @param line
+	 * @return the unquoted fields
+	 */
+	public List<String> parseLine(final String line) {
+		final List<String> fields = new ArrayList<String>();
+		final StringBuilder field = new StringBuilder();
+		// In a quoted part, and right after a quote in a quoted part
+		boolean quoted = false;
+		boolean escape = false;
+		boolean lineBegin = true;
+		boolean comment = false;
+		final int length = line.length();
+		for (int i = 0; i < length; i++) {
+			final char c = line.charAt(i);
+			if (comment) {
+				if (c == '\n') {
+					comment = false;
+					lineBegin = true;
+				}
+				continue;
+			}
+			if (lineBegin) {
+				lineBegin = false;
+				if (c == COMMENT) {
+					comment = true;
+					continue;
+				}
+			}
+			if ((c == separator) && (!quoted || escape)) {
+				fields.add(field.toString());
+				field.setLength(0);
+				quoted = false;
+				escape = false;
+				continue;
+			}
+			if (c == QUOTE) {
+				if (!quoted) {
+					quoted = true;
+					continue;
+				}
+				if (!escape) {
+					escape = true;
+					continue;
+				}
+				// A doubled quote: keep one
+			} else if (c == '\n') {
+				if (!quoted || escape) {
+					fields.add(field.toString());
+					if ((fields.size() > 1) || (field.length() > 0)) {
+						return fields;
+					}
+					// Empty line
+					fields.clear();
+					field.setLength(0);
+					quoted = false;
+					escape = false;
+					lineBegin = true;
+					continue;
+				}
+			} else if (c == '\r') {
+				continue;
+			}
+			field.append(c);
+			escape = false;
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
@@ -26,6 +26,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import info.vancauwenberge.filedriver.filereader.Record;
+
 public class MetaDataManager {
 	//Meta data field names
 	private static final String META_RECORDNUMBER = "recordNumber";
@@ -88,8 +90,11 @@ public class MetaDataManager {
 	}
 	
 	public void addDynamicMetaData(Map<String,String> metaDataMap, Map<String,String> thisRecord, Map<String,String> nextRecord, int recordNumber) {
-		//Add the meta data if required
-		thisRecord.putAll(metaDataMap);
+		//Add the meta data if required. A Record shares the map instead of copying it.
+		if (thisRecord instanceof Record)
+			((Record) thisRecord).setMetaData(metaDataMap);
+		else
+			thisRecord.putAll(metaDataMap);
 		if (this.requiresRecordNumber)
 			thisRecord.put(META_RECORDNUMBER, recordNumber+"");
 		if (nextRecord == null)
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.util;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Process wide cache of compiled stylesheets, keyed by a hash of the
+ * stylesheet. A compiled stylesheet ({@link Templates}) is thread safe: every
+ * user gets its own {@link Transformer}, so readers and writers using the same
+ * stylesheet can transform at the same time without compiling it again.
+ * <p>
+ * Stylesheets are compiled with XSLTC if it is available. If XSLTC can not
+ * compile a stylesheet (eg because it uses extension functions of another
+ * processor), the default {@link TransformerFactory} is used.
+ */
+public final class TemplatesCache {
+	private static final String XSLTC_FACTORY = "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl";
+	private static final ConcurrentMap<String, Templates> cache = new ConcurrentHashMap<String, Templates>();
+
+	private TemplatesCache() {
+	}
+
+	/**
+	 * Get the compiled version of a stylesheet, compiling it if it is not
+	 * cached yet.
+	 *
+	 * @param stylesheet
+	 * @return
+	 * @throws TransformerConfigurationException
+	 *             if the stylesheet can not be compiled
+	 */
+	public static Templates getTemplates(final String stylesheet) throws TransformerConfigurationException {
+		final String key = getKey(stylesheet);
+		Templates templates = cache.get(key);
+		if (templates == null) {
+			templates = compile(stylesheet);
+			final Templates existing = cache.putIfAbsent(key, templates);
+			if (existing != null) {
+				templates = existing;
+			}
+		}
+		return templates;
+	}
+
+	/**
+	 * Get a new transformer for the given stylesheet. The transformer must
+	 * only be used by one thread at a time.
+	 *
+	 * @param stylesheet
+	 * @return
+	 * @throws TransformerConfigurationException
+	 */
+	public static Transformer newTransformer(final String stylesheet) throws TransformerConfigurationException {
+		return getTemplates(stylesheet).newTransformer();
+	}
+
+	/**
+	 * @return the number of cached stylesheets
+	 */
+	public static int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Remove all compiled stylesheets from the cache.
+	 */
+	public static void clear() {
+		cache.clear();
+	}
+
+	private static Templates compile(final String stylesheet) throws TransformerConfigurationException {
+		TransformerFactory xsltc = null;
+		try {
+			xsltc = TransformerFactory.newInstance(XSLTC_FACTORY, null);
+		} catch (final TransformerFactoryConfigurationError e) {
+			// XSLTC not available: use the default factory
+		}
+		if (xsltc != null) {
+			try {
+				return xsltc.newTemplates(new StreamSource(new StringReader(stylesheet)));
+			} catch (final TransformerConfigurationException e) {
+				// Try again with the default factory
+			}
+		}
+		return TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(stylesheet)));
+	}
+
+	private static String getKey(final String stylesheet) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(stylesheet.getBytes("UTF-8"));
+			final StringBuilder key = new StringBuilder(digest.length * 2);
+			for (final byte b : digest) {
+				key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			// Every java platform supports SHA-256
+			throw new IllegalStateException(e);
+		} catch (final UnsupportedEncodingException e) {
+			// Every java platform supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+}
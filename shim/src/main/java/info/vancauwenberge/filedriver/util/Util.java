@@ -492,6 +492,16 @@ public class Util {
 	public static XDSQueryDocument createQueryDoc(String className, String destDN, String association, QueryScope scope,
 			Collection<String> readAttr, Map<String, String> matchAttributes) {
 		XDSQueryDocument query = new XDSQueryDocument();
+		appendQueryElement(query, className, destDN, association, scope, readAttr, matchAttributes);
+		return query;
+	}
+
+	/**
+	 * Append a query element to a query document. A document can hold several
+	 * queries that are executed together.
+	 */
+	public static XDSQueryElement appendQueryElement(XDSQueryDocument query, String className, String destDN,
+			String association, QueryScope scope, Collection<String> readAttr, Map<String, String> matchAttributes) {
 		XDSQueryElement queryElem = query.appendQueryElement();
 		if (className != null) {
 			queryElem.setClassName(className);
@@ -525,7 +535,7 @@ public class Util {
 				search.appendValueElement(value);
 			}
 		}
-		return query;
+		return queryElem;
 	}
 
 	/**
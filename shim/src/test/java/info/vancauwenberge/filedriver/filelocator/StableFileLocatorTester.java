@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filelocator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+
+public class StableFileLocatorTester extends AbstractStrategyTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File folder;
+
+	private StableFileLocator newLocator(final int quietSeconds, final String doneExtension) throws Exception {
+		return newLocator(new StableFileLocator(), quietSeconds, doneExtension);
+	}
+
+	private StableFileLocator newLocator(final StableFileLocator locator, final int quietSeconds,
+			final String doneExtension) throws Exception {
+		folder = temporaryFolder.newFolder();
+		final ParamMap params = new ParamMap();
+		params.putParameter("regExp-sourceFolder", folder.getAbsolutePath());
+		params.putParameter("regExp-regExp", ".*\\.csv");
+		params.putParameter(StableFileLocator.Parameters.QUIET_SECONDS.getParameterName(), quietSeconds);
+		params.putParameter(StableFileLocator.Parameters.DONE_EXTENSION.getParameterName(), doneExtension);
+		locator.init(getTrace(), params, null);
+		return locator;
+	}
+
+	private File write(final String name, final String content) throws Exception {
+		final File file = new File(folder, name);
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Poll until the locator offers a file, for at most 5 seconds.
+	 */
+	private static File[] waitForFileList(final StableFileLocator locator) throws InterruptedException {
+		final long timeout = System.currentTimeMillis() + 5000;
+		File[] files;
+		while (((files = locator.getFileList()) == null) && (System.currentTimeMillis() < timeout)) {
+			Thread.sleep(50);
+		}
+		return files;
+	}
+
+	@Test
+	public void testFileIsReadyAfterQuietPeriod() throws Exception {
+		final StableFileLocator locator = newLocator(1, "");
+		write("new.csv", "a;b\n");
+		write("other.txt", "a;b\n");
+		assertNull(locator.getFileList());
+
+		final File[] files = waitForFileList(locator);
+		assertEquals(1, files.length);
+		assertEquals("new.csv", files[0].getName());
+		assertTrue(locator.canClaim(files[0]));
+	}
+
+	@Test
+	public void testOldFileIsNotReadyAtFirstSight() throws Exception {
+		final StableFileLocator locator = newLocator(60, "");
+		// A copied file can keep its old modification time while it is written
+		final File file = write("old.csv", "a;b\n");
+		assertTrue(file.setLastModified(System.currentTimeMillis() - 120000));
+		assertNull(locator.getFileList());
+	}
+
+	@Test
+	public void testChangingFileIsNotReady() throws Exception {
+		final StableFileLocator locator = newLocator(1, "");
+		write("new.csv", "a;b\n");
+		assertEquals(1, waitForFileList(locator).length);
+
+		// The producer writes more: a new quiet period starts
+		write("new.csv", "c;d\n");
+		assertNull(locator.getFileList());
+	}
+
+	@Test
+	public void testQuietPeriodOfZero() throws Exception {
+		final StableFileLocator locator = newLocator(0, "");
+		write("new.csv", "a;b\n");
+		assertEquals(1, locator.getFileList().length);
+	}
+
+	@Test
+	public void testMarkerFile() throws Exception {
+		final StableFileLocator locator = newLocator(0, ".done");
+		final File file = write("input.csv", "a;b\n");
+		assertNull(locator.getFileList());
+
+		write("input.csv.done", "");
+		final File[] files = locator.getFileList();
+		assertEquals(1, files.length);
+		assertEquals("input.csv", files[0].getName());
+
+		// Once the file is claimed, the marker is removed
+		assertTrue(file.delete());
+		assertNull(locator.getFileList());
+		assertFalse(new File(folder, "input.csv.done").exists());
+	}
+
+	@Test
+	public void testLockedFileIsNotOfferedAgainRightAway() throws Exception {
+		final boolean[] locked = new boolean[] { true };
+		final StableFileLocator locator = newLocator(new StableFileLocator() {
+			@Override
+			protected boolean isLocked(final File actualFile) {
+				return locked[0];
+			}
+		}, 0, ".done");
+		write("input.csv", "a;b\n");
+		write("input.csv.done", "");
+		final File[] files = locator.getFileList();
+		assertEquals(1, files.length);
+		assertFalse(locator.canClaim(files[0]));
+		// The marker is still there, but the locked file is kept out of the list
+		assertNull(locator.getFileList());
+
+		// Once released, the file is offered again after a while
+		locked[0] = false;
+		final File[] again = waitForFileList(locator);
+		assertEquals(1, again.length);
+		assertTrue(locator.canClaim(again[0]));
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filelocator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+
+public class WatchServiceFileLocatorTester extends AbstractStrategyTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final Semaphore wakeUps = new Semaphore(0);
+	private WatchServiceFileLocator locator;
+
+	private File newLocator() throws Exception {
+		locator = new WatchServiceFileLocator();
+		return initLocator();
+	}
+
+	private File initLocator() throws Exception {
+		final File folder = temporaryFolder.newFolder();
+		final ParamMap params = new ParamMap();
+		params.putParameter("regExp-sourceFolder", folder.getAbsolutePath());
+		params.putParameter("regExp-regExp", ".*\\.csv");
+		locator.init(getTrace(), params, new IPublisher() {
+			public String getWorkDir() {
+				return null;
+			}
+
+			public File getCurrentFile() {
+				return null;
+			}
+
+			public void wakeUp() {
+				wakeUps.release();
+			}
+		});
+		return folder;
+	}
+
+	@After
+	public void tearDown() {
+		if (locator != null) {
+			locator.onShutdown(null);
+		}
+	}
+
+	private static void write(final File file) throws Exception {
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("a;b\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void testNewFileWakesUpPublisher() throws Exception {
+		final File folder = newLocator();
+		write(new File(folder, "input.csv"));
+		assertTrue(wakeUps.tryAcquire(10, TimeUnit.SECONDS));
+		final File[] files = locator.getFileList();
+		assertEquals(1, files.length);
+		assertEquals("input.csv", files[0].getName());
+	}
+
+	@Test
+	public void testOtherFileIsIgnored() throws Exception {
+		final File folder = newLocator();
+		write(new File(folder, "input.txt"));
+		assertFalse(wakeUps.tryAcquire(WatchServiceFileLocator.SETTLE_MILLIS * 3, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testInitAgainStopsTheOldWatcher() throws Exception {
+		final File oldFolder = newLocator();
+		final File folder = initLocator();
+		write(new File(oldFolder, "input.csv"));
+		assertFalse(wakeUps.tryAcquire(WatchServiceFileLocator.SETTLE_MILLIS * 3, TimeUnit.MILLISECONDS));
+		write(new File(folder, "input.csv"));
+		assertTrue(wakeUps.tryAcquire(10, TimeUnit.SECONDS));
+	}
+}
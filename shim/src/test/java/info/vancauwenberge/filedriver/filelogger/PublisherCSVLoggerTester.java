@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filelogger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+import info.vancauwenberge.filedriver.api.IPublisherLoggerStrategy.LogField;
+
+public class PublisherCSVLoggerTester extends AbstractStrategyTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private PublisherCSVLogger newLogger(final boolean async, final int bufferSize) throws Exception {
+		final ParamMap params = new ParamMap();
+		params.putParameter("csvLogger_WriteHeader", true);
+		params.putParameter("csvLogger_Seperator", ";");
+		params.putParameter("csvLogger_ForcedEncoding", "UTF-8");
+		params.putParameter("csvLogger_FlushMethod", false);
+		params.putParameter("csvLogger_Async", async);
+		params.putParameter("csvLogger_AsyncBufferSize", bufferSize);
+		params.putParameter("csvLogger_AsyncFlushMillis", 50);
+		final PublisherCSVLogger logger = new PublisherCSVLogger();
+		logger.init(getTrace(), params, null);
+		return logger;
+	}
+
+	private List<String> log(final PublisherCSVLogger logger, final int records) throws Exception {
+		final File file = temporaryFolder.newFile();
+		logger.openFile(file, new String[] { "id", "name" }, new EnumMap<LogField, String>(LogField.class));
+		for (int i = 0; i < records; i++) {
+			final Map<String, String> record = new HashMap<String, String>();
+			record.put("id", Integer.toString(i));
+			record.put("name", "a;b");
+			logger.logCommand(i, record, null);
+		}
+		assertEquals(file, logger.close());
+		return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+	}
+
+	@Test
+	public void testAsyncWritesAllEntriesOnClose() throws Exception {
+		final List<String> lines = log(newLogger(true, 20000), 10000);
+		assertEquals(10001, lines.size());
+		assertEquals("id;name", lines.get(0));
+		assertEquals("0;\"a;b\"", lines.get(1));
+		assertEquals("9999;\"a;b\"", lines.get(10000));
+	}
+
+	@Test
+	public void testAsyncSameAsSync() throws Exception {
+		assertEquals(log(newLogger(false, 1), 100), log(newLogger(true, 1000), 100));
+	}
+
+	@Test
+	public void testAsyncFlushesOnTime() throws Exception {
+		final PublisherCSVLogger logger = newLogger(true, 100);
+		final File file = temporaryFolder.newFile();
+		logger.openFile(file, new String[] { "id" }, new EnumMap<LogField, String>(LogField.class));
+		final Map<String, String> record = new HashMap<String, String>();
+		record.put("id", "1");
+		logger.logCommand(1, record, null);
+		final long timeout = System.currentTimeMillis() + 5000;
+		while ((Files.readAllLines(file.toPath(), Charset.forName("UTF-8")).size() < 2)
+				&& (System.currentTimeMillis() < timeout)) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, Files.readAllLines(file.toPath(), Charset.forName("UTF-8")).size());
+		logger.close();
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepubcheckpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+import info.vancauwenberge.filedriver.api.IPublisherCheckpointStrategy;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+
+public class JournalCheckpointStrategyTester extends AbstractStrategyTest {
+	//The Folder will be created before each test method and (recursively) deleted after each test method.
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private JournalCheckpointStrategy newStrategy(final File workDir, final int engineRecords) throws Exception {
+		final ParamMap params = new ParamMap();
+		params.putParameter(JournalCheckpointStrategy.Parameters.JOURNAL_FILE.getParameterName(), "");
+		params.putParameter(JournalCheckpointStrategy.Parameters.ENGINE_RECORDS.getParameterName(), engineRecords);
+		params.putParameter(JournalCheckpointStrategy.Parameters.ENGINE_SECONDS.getParameterName(), 3600);
+		final JournalCheckpointStrategy strategy = new JournalCheckpointStrategy();
+		strategy.init(getTrace(), params, new IPublisher() {
+			public String getWorkDir() {
+				return workDir.getAbsolutePath();
+			}
+
+			public File getCurrentFile() {
+				return null;
+			}
+
+			public void wakeUp() {
+			}
+		});
+		return strategy;
+	}
+
+	private static Map<String, String> state(final String filePath, final int recordNumber) {
+		final Map<String, String> state = new HashMap<String, String>();
+		state.put(IPublisherCheckpointStrategy.STATE_FILE_PATH, filePath);
+		state.put(IPublisherCheckpointStrategy.STATE_FILE_READER_CLASS, "some.Reader");
+		state.put(IPublisherCheckpointStrategy.STATE_RECORDNUMBER, recordNumber + "");
+		return state;
+	}
+
+	@Test
+	public void testRestartFromLastCheckpoint() throws Exception {
+		final File workDir = temporaryFolder.newFolder();
+		final JournalCheckpointStrategy strategy = newStrategy(workDir, 10);
+		assertNull(strategy.getRestartState(null));
+		for (int i = 1; i <= 5; i++) {
+			strategy.checkpoint(state("/work/a.csv", i));
+		}
+		strategy.onShutdown(null);
+
+		final Map<String, String> restart = newStrategy(workDir, 10).getRestartState(null);
+		assertEquals(state("/work/a.csv", 5), restart);
+	}
+
+	@Test
+	public void testPartlyWrittenLineIsIgnored() throws Exception {
+		final File workDir = temporaryFolder.newFolder();
+		final JournalCheckpointStrategy strategy = newStrategy(workDir, 10);
+		strategy.checkpoint(state("/work/a.csv", 1));
+		strategy.checkpoint(state("/work/a.csv", 2));
+		strategy.onShutdown(null);
+
+		// A crash in the middle of the next entry
+		final byte[] entry = JournalCheckpointStrategy.encode(state("/work/a.csv", 3));
+		final FileOutputStream out = new FileOutputStream(
+				new File(workDir, JournalCheckpointStrategy.DEFAULT_JOURNAL_NAME), true);
+		out.write(entry, 0, entry.length - 5);
+		out.close();
+
+		final JournalCheckpointStrategy restarted = newStrategy(workDir, 10);
+		assertEquals(state("/work/a.csv", 2), restarted.getRestartState(null));
+		// The next checkpoint is not glued to the partial line
+		restarted.checkpoint(state("/work/b.csv", 1));
+		assertEquals(state("/work/b.csv", 1), newStrategy(workDir, 10).getRestartState(null));
+	}
+
+	@Test
+	public void testEngineStateFurtherOnSameFile() throws Exception {
+		final File workDir = temporaryFolder.newFolder();
+		final JournalCheckpointStrategy strategy = newStrategy(workDir, 10);
+		strategy.checkpoint(state("/work/a.csv", 5));
+
+		// The engine got the next command, the journal did not
+		final Map<String, String> engineState = state("/work/a.csv", 6);
+		assertSame(engineState, strategy.getRestartState(engineState));
+		final Map<String, String> finishedState = state("/work/a.csv", -1);
+		assertSame(finishedState, strategy.getRestartState(finishedState));
+		// The engine state is older
+		assertEquals(state("/work/a.csv", 5), strategy.getRestartState(state("/work/a.csv", 2)));
+		assertEquals(state("/work/a.csv", 5), strategy.getRestartState(state("/work/old.csv", 8)));
+	}
+
+	@Test
+	public void testEngineCheckpointEveryNRecords() throws Exception {
+		final JournalCheckpointStrategy strategy = newStrategy(temporaryFolder.newFolder(), 3);
+		assertFalse(strategy.isEngineCheckpoint(1));
+		assertFalse(strategy.isEngineCheckpoint(1));
+		assertTrue(strategy.isEngineCheckpoint(1));
+		assertFalse(strategy.isEngineCheckpoint(1));
+		// A batch counts all its records
+		assertTrue(strategy.isEngineCheckpoint(5));
+	}
+
+	@Test
+	public void testEncodeSpecialCharacters() throws Exception {
+		final Map<String, String> state = state("/work/a\tb=c\\d\r\n.csv", 7);
+		state.put(IPublisherCheckpointStrategy.STATE_RESUME_POSITION, "");
+		final byte[] entry = JournalCheckpointStrategy.encode(state);
+		final String line = new String(entry, "UTF-8");
+		assertEquals(line.length() - 1, line.indexOf('\n'));
+		assertEquals(state, JournalCheckpointStrategy.decode(line.substring(0, line.length() - 1)));
+		assertNull(JournalCheckpointStrategy.decode("0\t" + line.substring(line.indexOf('\t') + 1)));
+	}
+}
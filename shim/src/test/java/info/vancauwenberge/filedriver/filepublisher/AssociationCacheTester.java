@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AssociationCacheTester {
+
+	@Test
+	public void testFoundAndNotFound() {
+		final AssociationCache cache = new AssociationCache(10, 60000);
+		assertNull(cache.get("a"));
+		cache.put("a", "\\TREE\\users\\a");
+		cache.put("b", null);
+
+		final AssociationCache.Entry a = cache.get("a");
+		assertNotNull(a);
+		assertTrue(a.isFound());
+		assertEquals("\\TREE\\users\\a", a.getDestDn());
+
+		// A negative entry is cached as well
+		final AssociationCache.Entry b = cache.get("b");
+		assertNotNull(b);
+		assertFalse(b.isFound());
+		assertNull(b.getDestDn());
+
+		cache.remove("a");
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		final AssociationCache cache = new AssociationCache(2, 60000);
+		cache.put("a", "dnA");
+		cache.put("b", "dnB");
+		// Using a makes b the eldest
+		assertNotNull(cache.get("a"));
+		cache.put("c", "dnC");
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void testEntriesExpire() throws InterruptedException {
+		final AssociationCache cache = new AssociationCache(10, 20);
+		cache.put("a", "dnA");
+		Thread.sleep(50);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.novell.nds.dirxml.driver.xds.StatusLevel;
+import com.novell.nds.dirxml.driver.xds.XDSCommandResultDocument;
+import com.novell.nds.dirxml.driver.xds.XDSStatusElement;
+
+public class BatchedRecordTester {
+	private final XDSCommandResultDocument response = new XDSCommandResultDocument();
+
+	private XDSStatusElement status(final StatusLevel level, final String eventId) {
+		final XDSStatusElement status = response.appendStatusElement();
+		status.setLevel(level);
+		if (eventId != null) {
+			status.setEventID(eventId);
+		}
+		return status;
+	}
+
+	private static List<BatchedRecord> batch(final int firstRecord, final int count) {
+		final List<BatchedRecord> records = new ArrayList<BatchedRecord>();
+		for (int i = firstRecord; i < (firstRecord + count); i++) {
+			records.add(new BatchedRecord(i, new HashMap<String, String>(), "event" + i));
+		}
+		return records;
+	}
+
+	@Test
+	public void testStatusesByEventId() {
+		final List<BatchedRecord> sent = batch(1, 3);
+		final XDSStatusElement third = status(StatusLevel.SUCCESS, "event3");
+		final XDSStatusElement first = status(StatusLevel.WARNING, "event1");
+		final List<BatchedRecord> toRetry = BatchedRecord.assignStatuses(Arrays.asList(third, first), sent);
+		assertTrue(toRetry.isEmpty());
+		assertEquals(Arrays.asList(first), sent.get(0).statusList);
+		assertTrue(sent.get(1).statusList.isEmpty());
+		assertEquals(Arrays.asList(third), sent.get(2).statusList);
+	}
+
+	@Test
+	public void testRetryOfOneRecordIsSplitOut() {
+		final List<BatchedRecord> sent = batch(1, 3);
+		final XDSStatusElement retry = status(StatusLevel.RETRY, "event2");
+		final List<BatchedRecord> toRetry = BatchedRecord.assignStatuses(
+				Arrays.asList(status(StatusLevel.SUCCESS, "event1"), retry, status(StatusLevel.SUCCESS, "event3")),
+				sent);
+		assertEquals(1, toRetry.size());
+		assertSame(sent.get(1), toRetry.get(0));
+		assertSame(retry, toRetry.get(0).getRetryStatus());
+		assertNull(sent.get(0).getRetryStatus());
+	}
+
+	@Test
+	public void testRetryOfTheDocument() {
+		final List<BatchedRecord> sent = batch(1, 3);
+		// A retry without event-id: the records without a status of their own
+		// and the last record are retried
+		final XDSStatusElement retry = status(StatusLevel.RETRY, null);
+		final List<BatchedRecord> toRetry = BatchedRecord
+				.assignStatuses(Arrays.asList(status(StatusLevel.SUCCESS, "event1"), retry), sent);
+		assertEquals(Arrays.asList(sent.get(1), sent.get(2)), toRetry);
+		assertSame(retry, sent.get(2).getRetryStatus());
+	}
+
+	@Test
+	public void testNoStatus() {
+		final List<BatchedRecord> sent = batch(1, 2);
+		assertTrue(BatchedRecord.assignStatuses(null, sent).isEmpty());
+		assertTrue(sent.get(1).statusList.isEmpty());
+	}
+
+	@Test
+	public void testStateOnShutdown() {
+		// Records 5 to 7 were not sent: the state is the one of record 4
+		assertEquals(4, BatchedRecord.getStateBefore(batch(5, 3)));
+		assertEquals(0, BatchedRecord.getStateBefore(batch(1, 1)));
+	}
+}
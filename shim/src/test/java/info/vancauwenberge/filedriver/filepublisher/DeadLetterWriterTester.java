@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeadLetterWriterTester {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testWrite() throws Exception {
+		final File file = new File(temporaryFolder.getRoot(), "in.deadletter.csv");
+		final DeadLetterWriter writer = new DeadLetterWriter(file, new String[] { "id", "name" });
+		writer.close();
+		assertFalse(file.exists());
+
+		final Map<String, String> record = new HashMap<String, String>();
+		record.put("id", "1");
+		record.put("name", "a;\"b\"");
+		writer.write(3, record, 5, "busy");
+		writer.close();
+		assertEquals(1, writer.getCount());
+		assertEquals("id;name;recordNumber;attempts;lastStatus" + System.getProperty("line.separator")
+				+ "1;\"a;\"\"b\"\"\";3;5;busy" + System.getProperty("line.separator"),
+				new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+	}
+}
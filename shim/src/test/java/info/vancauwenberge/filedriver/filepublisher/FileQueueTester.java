@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.XDSParameterException;
+
+import info.vancauwenberge.filedriver.api.IFileSorterStrategy;
+import info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy;
+
+public class FileQueueTester {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	/**
+	 * Sorts on the file name and counts the keys read.
+	 */
+	private static class NameSorter implements IKeyedFileSorterStrategy {
+		private int keysRead = 0;
+
+		public Map<String, Parameter> getParameterDefinitions() {
+			return new HashMap<String, Parameter>(0);
+		}
+
+		public void init(final Trace trace, final Map<String, Parameter> driverParams, final IPublisher publisher)
+				throws XDSParameterException {
+		}
+
+		public File getFirstFile(final File[] fileList) {
+			return fileList[0];
+		}
+
+		public Comparable<?> getSortKey(final File file) {
+			keysRead++;
+			return file.getName();
+		}
+	}
+
+	@Test
+	public void testOnlyNewFilesAreAdded() throws Exception {
+		final NameSorter sorter = new NameSorter();
+		final FileQueue queue = new FileQueue(sorter);
+		final File c = temporaryFolder.newFile("c.csv");
+		final File b = temporaryFolder.newFile("b.csv");
+		assertEquals(2, queue.offer(new File[] { c, b }));
+		assertSame(b, queue.poll());
+
+		// b was taken, a arrived
+		final File a = temporaryFolder.newFile("a.csv");
+		assertEquals(1, queue.offer(new File[] { a, b, c }));
+		assertEquals(3, sorter.keysRead);
+		assertSame(a, queue.poll());
+		assertSame(c, queue.poll());
+		assertNull(queue.poll());
+		assertEquals(0, queue.offer(null));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testFilesThatAreGoneAreSkipped() throws Exception {
+		final FileQueue queue = new FileQueue(new NameSorter());
+		final File a = temporaryFolder.newFile("a.csv");
+		final File b = temporaryFolder.newFile("b.csv");
+		queue.offer(new File[] { a, b });
+		assertTrue(a.delete());
+		assertSame(b, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testEqualKeysInArrivalOrder() throws Exception {
+		final FileQueue queue = new FileQueue(new NameSorter() {
+			@Override
+			public Comparable<?> getSortKey(final File file) {
+				return null;
+			}
+		});
+		final File[] files = new File[5];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = temporaryFolder.newFile((files.length - i) + ".csv");
+		}
+		queue.offer(files);
+		for (final File file : files) {
+			assertSame(file, queue.poll());
+		}
+	}
+
+	@Test
+	public void testSorterWithoutKeysPicksTheFirstFile() throws Exception {
+		// A sorter written before the sort keys: it only knows getFirstFile
+		final FileQueue queue = new FileQueue(new IFileSorterStrategy() {
+			public Map<String, Parameter> getParameterDefinitions() {
+				return new HashMap<String, Parameter>(0);
+			}
+
+			public void init(final Trace trace, final Map<String, Parameter> driverParams,
+					final IPublisher publisher) throws XDSParameterException {
+			}
+
+			public File getFirstFile(final File[] fileList) {
+				File last = fileList[0];
+				for (final File file : fileList) {
+					if (file.getName().compareTo(last.getName()) > 0) {
+						last = file;
+					}
+				}
+				return last;
+			}
+		});
+		final File a = temporaryFolder.newFile("a.csv");
+		final File c = temporaryFolder.newFile("c.csv");
+		assertEquals(2, queue.offer(new File[] { a, c }));
+		assertSame(c, queue.poll());
+		final File b = temporaryFolder.newFile("b.csv");
+		assertEquals(1, queue.offer(new File[] { a, b }));
+		assertEquals(2, queue.size());
+		assertSame(b, queue.poll());
+		assertTrue(a.delete());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+}
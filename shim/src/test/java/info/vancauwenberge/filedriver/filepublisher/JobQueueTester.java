@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.novell.nds.dirxml.driver.Trace;
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.XDSParameterException;
+
+import info.vancauwenberge.filedriver.api.IKeyedFileSorterStrategy;
+
+public class JobQueueTester {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static class NameSorter implements IKeyedFileSorterStrategy {
+		public Map<String, Parameter> getParameterDefinitions() {
+			return new HashMap<String, Parameter>(0);
+		}
+
+		public void init(final Trace trace, final Map<String, Parameter> driverParams, final IPublisher publisher)
+				throws XDSParameterException {
+		}
+
+		public File getFirstFile(final File[] fileList) {
+			return fileList[0];
+		}
+
+		public Comparable<?> getSortKey(final File file) {
+			return file.getName();
+		}
+	}
+
+	/**
+	 * Start a job for every file in the queue, in the order of the sorter.
+	 */
+	private File[] start(final JobQueue<File> jobs) throws Exception {
+		final File c = temporaryFolder.newFile("c.csv");
+		final File a = temporaryFolder.newFile("a.csv");
+		final File b = temporaryFolder.newFile("b.csv");
+		final FileQueue files = new FileQueue(new NameSorter());
+		files.offer(new File[] { c, a, b });
+		File file;
+		while ((file = files.poll()) != null) {
+			jobs.add(file);
+		}
+		return new File[] { a, b, c };
+	}
+
+	@Test
+	public void testSorterOrder() throws Exception {
+		final JobQueue<File> jobs = new JobQueue<File>(false);
+		final File[] sorted = start(jobs);
+		// The last file is ready first, but the files are taken in the order
+		// they were started
+		jobs.ready(sorted[2]);
+		jobs.ready(sorted[1]);
+		for (final File file : sorted) {
+			assertSame(file, jobs.take(0, TimeUnit.MILLISECONDS));
+		}
+		assertTrue(jobs.isEmpty());
+		assertNull(jobs.take(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testFirstReadyOrder() throws Exception {
+		final JobQueue<File> jobs = new JobQueue<File>(true);
+		final File[] sorted = start(jobs);
+		// Nothing is ready yet
+		assertNull(jobs.take(10, TimeUnit.MILLISECONDS));
+		jobs.ready(sorted[2]);
+		jobs.ready(sorted[0]);
+		assertSame(sorted[2], jobs.take(0, TimeUnit.MILLISECONDS));
+		assertSame(sorted[0], jobs.take(0, TimeUnit.MILLISECONDS));
+		assertEquals(1, jobs.size());
+		// The job that is not taken yet is still known
+		assertSame(sorted[1], jobs.getJobs().get(0));
+	}
+
+	@Test
+	public void testTakenJobFreesItsWorker() throws Exception {
+		final JobQueue<File> jobs = new JobQueue<File>(false);
+		final File[] sorted = start(jobs);
+		assertEquals(3, jobs.size());
+		// A worker is free as soon as its file is taken, not when all files
+		// of the poll are taken
+		jobs.take(0, TimeUnit.MILLISECONDS);
+		assertEquals(2, jobs.size());
+		final File d = temporaryFolder.newFile("d.csv");
+		jobs.add(d);
+		assertSame(sorted[1], jobs.take(0, TimeUnit.MILLISECONDS));
+		assertSame(sorted[2], jobs.take(0, TimeUnit.MILLISECONDS));
+		assertSame(d, jobs.take(0, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.vancauwenberge.filedriver.util.MetaDataManager;
+
+public class RecordSnapshotTester {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Map<String, String> record(final String id, final String name, final String mail) {
+		final Map<String, String> record = new HashMap<String, String>();
+		record.put("id", id);
+		record.put("name", name);
+		record.put("mail", mail);
+		return record;
+	}
+
+	private RecordSnapshot firstFile(final File file, final boolean attributeHashes) throws Exception {
+		final RecordSnapshot snapshot = new RecordSnapshot(file, attributeHashes);
+		snapshot.load();
+		snapshot.startFile(true);
+		assertFalse(snapshot.compare("1", record("1", "John", "john@acme.com")).isKnown());
+		assertFalse(snapshot.compare("2", record("2", "Jane", "jane@acme.com")).isKnown());
+		assertFalse(snapshot.compare("3", record("3", "Joe", "joe@acme.com")).isKnown());
+		snapshot.commit();
+		return snapshot;
+	}
+
+	@Test
+	public void testOnlyChangedRecordsAreReported() throws Exception {
+		final RecordSnapshot snapshot = firstFile(new File(folder.getRoot(), "snapshot"), true);
+
+		snapshot.startFile(true);
+		// Whitespace around a value is not a change
+		assertNull(snapshot.compare("1", record("1", " John ", "john@acme.com")));
+		final RecordSnapshot.Change change = snapshot.compare("2", record("2", "Jane", "jane.doe@acme.com"));
+		assertNotNull(change);
+		assertTrue(change.isKnown());
+		assertEquals(Collections.singleton("mail"), change.getChangedAttributes());
+		assertFalse(snapshot.compare("4", record("4", "Jim", "jim@acme.com")).isKnown());
+		assertEquals(Arrays.asList("3"), snapshot.getMissing());
+	}
+
+	@Test
+	public void testWithoutAttributeHashesAllAttributesArePublished() throws Exception {
+		final RecordSnapshot snapshot = firstFile(new File(folder.getRoot(), "snapshot"), false);
+
+		snapshot.startFile(true);
+		final RecordSnapshot.Change change = snapshot.compare("2", record("2", "Jane", "jane.doe@acme.com"));
+		assertTrue(change.isKnown());
+		assertNull(change.getChangedAttributes());
+	}
+
+	@Test
+	public void testCommitIsReadBack() throws Exception {
+		final File file = new File(folder.getRoot(), "snapshot");
+		firstFile(file, true);
+
+		final RecordSnapshot snapshot = new RecordSnapshot(file, true);
+		snapshot.load();
+		assertEquals(3, snapshot.size());
+		snapshot.startFile(true);
+		assertNull(snapshot.compare("1", record("1", "John", "john@acme.com")));
+		assertEquals(new HashSet<String>(Arrays.asList("name", "mail")),
+				snapshot.compare("3", record("3", "Joey", "joey@acme.com")).getChangedAttributes());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void testRejectedRecordIsReportedAgain() throws Exception {
+		final File file = new File(folder.getRoot(), "snapshot");
+		final RecordSnapshot snapshot = firstFile(file, true);
+
+		snapshot.startFile(true);
+		assertNotNull(snapshot.compare("1", record("1", "John", "john.doe@acme.com")));
+		snapshot.reject("1");
+		assertFalse(snapshot.compare("5", record("5", "Ann", "ann@acme.com")).isKnown());
+		snapshot.reject("5");
+		snapshot.compare("2", record("2", "Jane", "jane@acme.com"));
+		snapshot.compare("3", record("3", "Joe", "joe@acme.com"));
+		snapshot.commit();
+
+		snapshot.startFile(true);
+		assertNotNull(snapshot.compare("1", record("1", "John", "john.doe@acme.com")));
+		assertFalse(snapshot.compare("5", record("5", "Ann", "ann@acme.com")).isKnown());
+	}
+
+	@Test
+	public void testResumedFileDoesNotReportMissing() throws Exception {
+		final RecordSnapshot snapshot = firstFile(new File(folder.getRoot(), "snapshot"), true);
+
+		snapshot.startFile(false);
+		assertNull(snapshot.compare("3", record("3", "Joe", "joe@acme.com")));
+		assertTrue(snapshot.getMissing().isEmpty());
+		snapshot.commit();
+		assertEquals(3, snapshot.size());
+	}
+
+	@Test
+	public void testAbortKeepsSnapshot() throws Exception {
+		final File file = new File(folder.getRoot(), "snapshot");
+		final RecordSnapshot snapshot = firstFile(file, true);
+
+		snapshot.startFile(true);
+		snapshot.compare("1", record("1", "John", "john@acme.com"));
+		snapshot.abort();
+
+		final RecordSnapshot reloaded = new RecordSnapshot(file, true);
+		reloaded.load();
+		reloaded.startFile(true);
+		reloaded.compare("1", record("1", "John", "john@acme.com"));
+		assertEquals(2, reloaded.getMissing().size());
+	}
+
+	private static Map<String, String> withMetaData(final MetaDataManager metaData, final File file,
+			final Map<String, String> record, final int recordNumber) {
+		metaData.addDynamicMetaData(metaData.getStaticMetaData(file), record, null, recordNumber);
+		return record;
+	}
+
+	@Test
+	public void testMetaDataIsNotCompared() throws Exception {
+		final File file = new File(folder.getRoot(), "snapshot");
+		final MetaDataManager metaData = new MetaDataManager("fileName,filePath,fileSize,recordNumber,isLastRecord");
+		RecordSnapshot snapshot = new RecordSnapshot(file, true, metaData.getSchemaFields());
+		snapshot.load();
+		snapshot.startFile(true);
+		final File firstFile = folder.newFile("first.csv");
+		assertFalse(snapshot.compare("1", withMetaData(metaData, firstFile, record("1", "John", "john@acme.com"), 1))
+				.isKnown());
+		assertFalse(snapshot.compare("2", withMetaData(metaData, firstFile, record("2", "Jane", "jane@acme.com"), 2))
+				.isKnown());
+		snapshot.commit();
+
+		snapshot = new RecordSnapshot(file, true, metaData.getSchemaFields());
+		snapshot.load();
+		snapshot.startFile(true);
+		// Another file, other record numbers: only the record fields count
+		final File secondFile = folder.newFile("second.csv");
+		assertNull(snapshot.compare("2", withMetaData(metaData, secondFile, record("2", "Jane", "jane@acme.com"), 1)));
+		final RecordSnapshot.Change change = snapshot.compare("1",
+				withMetaData(metaData, secondFile, record("1", "John", "john.doe@acme.com"), 2));
+		assertTrue(change.isKnown());
+		assertEquals(Collections.singleton("mail"), change.getChangedAttributes());
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filepublisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RetrySchedulerTester {
+	/**
+	 * Random that always returns the same value
+	 */
+	private static Random fixedRandom(final double value) {
+		return new Random() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public double nextDouble() {
+				return value;
+			}
+		};
+	}
+
+	@Test
+	public void testExponentialBackoff() {
+		final RetryScheduler<String> scheduler = new RetryScheduler<String>(10, 1000, 5000, fixedRandom(0.999999));
+		assertEquals(999, scheduler.getDelay(1));
+		assertEquals(1999, scheduler.getDelay(2));
+		assertEquals(3999, scheduler.getDelay(3));
+		assertEquals(4999, scheduler.getDelay(4));
+		assertEquals(4999, scheduler.getDelay(50));
+		// The jitter takes off up to half of the delay
+		assertEquals(2000, new RetryScheduler<String>(10, 1000, 5000, fixedRandom(0)).getDelay(3));
+	}
+
+	@Test
+	public void testLaterRecordsWaitForTheirAssociation() {
+		final RetryScheduler<String> scheduler = new RetryScheduler<String>(3, 1000, 1000, fixedRandom(0));
+		assertTrue(scheduler.isEmpty());
+		assertTrue(scheduler.park("a", "a1", 1, 0));
+		assertTrue(scheduler.isParked("a"));
+		assertFalse(scheduler.isParked("b"));
+		scheduler.hold("a", "a2");
+		assertEquals(2, scheduler.getItems().size());
+		assertEquals(500, scheduler.getNextDue());
+		assertNull(scheduler.takeDue(499));
+
+		RetryScheduler.Parked<String> parked = scheduler.takeDue(500);
+		assertEquals("a1", parked.getItem());
+		assertEquals(1, parked.getAttempts());
+		// Retry status again: a1 is still first
+		assertTrue(scheduler.park("a", "a1", 2, 600));
+		assertNull(scheduler.takeDue(1000));
+		parked = scheduler.takeDue(1100);
+		assertEquals("a1", parked.getItem());
+		// Success: a2 is due now
+		scheduler.release("a", 1200);
+		parked = scheduler.takeDue(1200);
+		assertEquals("a2", parked.getItem());
+		assertEquals(0, parked.getAttempts());
+		scheduler.release("a", 1300);
+		assertTrue(scheduler.isEmpty());
+		assertEquals(Long.MAX_VALUE, scheduler.getNextDue());
+	}
+
+	@Test
+	public void testGiveUpAfterMaxAttempts() {
+		final RetryScheduler<String> scheduler = new RetryScheduler<String>(2, 1000, 1000, fixedRandom(0));
+		assertTrue(scheduler.park("a", "a1", 1, 0));
+		scheduler.hold("a", "a2");
+		assertTrue(scheduler.park("b", "b1", 1, 100));
+		assertEquals("a1", scheduler.takeDue(10000).getItem());
+		assertFalse(scheduler.park("a", "a1", 2, 10000));
+		scheduler.release("a", 10000);
+		// Due in the order they were parked
+		assertEquals("b1", scheduler.takeDue(10000).getItem());
+		assertEquals("a2", scheduler.takeDue(10000).getItem());
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RecordQueueTester {
+
+	private static Map<String, String> createRecord(final int i) {
+		final Map<String, String> record = new HashMap<String, String>();
+		record.put("index", String.valueOf(i));
+		return record;
+	}
+
+	private static Thread startProducer(final RecordQueue queue, final int count) {
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					queue.addRecord(createRecord(i));
+				}
+				queue.setFinished();
+			}
+		};
+		producer.setDaemon(true);
+		producer.start();
+		return producer;
+	}
+
+	@Test
+	public void testCapacityIsPowerOfTwo() {
+		assertEquals(32, new RecordQueue(20).getCapacity());
+		assertEquals(RecordQueue.DEFAULT_CAPACITY, new RecordQueue().getCapacity());
+	}
+
+	@Test
+	public void testCapacityIsLimited() {
+		assertEquals(RecordQueue.MAX_CAPACITY, new RecordQueue(Integer.MAX_VALUE).getCapacity());
+		assertEquals(1, new RecordQueue(0).getCapacity());
+	}
+
+	@Test
+	public void testRecordsInOrder() throws Exception {
+		final RecordQueue queue = new RecordQueue(4);
+		final Thread producer = startProducer(queue, 10000);
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(String.valueOf(i), queue.getNextRecord().get("index"));
+		}
+		assertNull(queue.getNextRecord());
+		producer.join();
+	}
+
+	@Test
+	public void testDrainTo() throws Exception {
+		final RecordQueue queue = new RecordQueue(8);
+		final Thread producer = startProducer(queue, 1000);
+		final List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+		int drained;
+		while ((drained = queue.drainTo(records, 5)) > 0) {
+			if (drained > 5) {
+				fail("Drained more than the maximum: " + drained);
+			}
+		}
+		assertEquals(1000, records.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(String.valueOf(i), records.get(i).get("index"));
+		}
+		producer.join();
+	}
+
+	@Test
+	public void testExceptionAfterQueuedRecords() throws Exception {
+		final RecordQueue queue = new RecordQueue(4);
+		final Exception error = new Exception("parse error");
+		queue.addRecord(createRecord(0));
+		queue.setFinishedInError(error);
+		// Records after the error are ignored
+		queue.addRecord(createRecord(1));
+		assertEquals("0", queue.getNextRecord().get("index"));
+		try {
+			queue.getNextRecord();
+			fail("Exception expected");
+		} catch (final Exception e) {
+			assertSame(error, e);
+		}
+	}
+
+	@Test
+	public void testSetFinishedReleasesProducer() throws Exception {
+		final RecordQueue queue = new RecordQueue(2);
+		// The producer blocks on a full queue until the consumer gives up
+		final Thread producer = startProducer(queue, 100);
+		assertEquals("0", queue.getNextRecord().get("index"));
+		queue.setFinished();
+		producer.join(5000);
+		assertEquals(false, producer.isAlive());
+	}
+}
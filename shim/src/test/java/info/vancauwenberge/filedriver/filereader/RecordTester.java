@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RecordTester {
+
+	private static Record createRecord(final String[] names, final String[] values) {
+		final Record record = new Record(new RecordSchema(names));
+		for (int i = 0; i < values.length; i++) {
+			record.set(i, values[i]);
+		}
+		return record;
+	}
+
+	@Test
+	public void testEqualsHashMap() {
+		final Record record = createRecord(new String[] { "a", "b", "c" }, new String[] { "1", "2" });
+		final Map<String, String> expected = new HashMap<String, String>();
+		expected.put("a", "1");
+		expected.put("b", "2");
+		assertEquals(expected, record);
+		assertEquals(expected.hashCode(), record.hashCode());
+		assertEquals(2, record.size());
+		assertFalse(record.containsKey("c"));
+	}
+
+	@Test
+	public void testDuplicateNames() {
+		final Record record = createRecord(new String[] { "x", "y", "x" }, new String[] { "1", "2", "3" });
+		assertEquals("3", record.get("x"));
+		assertEquals(2, record.size());
+		record.set(2, null);
+		assertEquals("1", record.get("x"));
+		assertEquals(2, record.size());
+	}
+
+	@Test
+	public void testMetaDataOverlay() {
+		final Map<String, String> metaData = new HashMap<String, String>();
+		metaData.put("fileName", "test.csv");
+		metaData.put("a", "meta");
+		final Record record = createRecord(new String[] { "a", "b" }, new String[] { "1", "2" });
+		record.setMetaData(metaData);
+		record.put("recordNumber", "5");
+		assertEquals("meta", record.get("a"));
+		assertEquals("test.csv", record.get("fileName"));
+		assertEquals("5", record.get("recordNumber"));
+		assertEquals(4, record.size());
+		// The shared meta data is never modified
+		record.put("fileName", "other.csv");
+		assertEquals("other.csv", record.get("fileName"));
+		assertEquals("test.csv", metaData.get("fileName"));
+		assertEquals(2, metaData.size());
+	}
+
+	@Test
+	public void testPutAndRemove() {
+		final Record record = createRecord(new String[] { "a", "b" }, new String[] { "1" });
+		assertNull(record.put("b", "2"));
+		assertEquals("1", record.put("a", "3"));
+		assertEquals("3", record.get("a"));
+		assertEquals("2", record.remove("b"));
+		assertFalse(record.containsKey("b"));
+		assertEquals(1, record.size());
+		record.put("c", null);
+		assertTrue(record.containsKey("c"));
+		assertNull(record.get("c"));
+	}
+
+	@Test
+	public void testEntrySetValue() {
+		final Record record = createRecord(new String[] { "a" }, new String[] { "1" });
+		for (final Map.Entry<String, String> entry : record.entrySet()) {
+			entry.setValue("2");
+		}
+		assertEquals("2", record.get("a"));
+	}
+}
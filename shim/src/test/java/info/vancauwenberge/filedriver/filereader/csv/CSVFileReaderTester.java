@@ -22,9 +22,16 @@ package info.vancauwenberge.filedriver.filereader.csv;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Rule;
@@ -329,4 +336,161 @@ public class CSVFileReaderTester extends AbstractStrategyTest {
 		assertEquals(record.keySet().size(), 3);
 
 	}
+
+	@Test
+	public void testCSVBlockParserQuotedFields() throws Exception {
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		// No clue how the Parameter works, so just overwrite what we need...
+		params.putParameter(CSVFileReader.Parameters.HAS_HEADER.getParameterName(), true);
+		params.putParameter(CSVFileReader.Parameters.FORCED_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(CSVFileReader.Parameters.SEPERATOR.getParameterName(), ",");
+		params.putParameter(CSVFileReader.Parameters.SKIP_EMPTY_LINES.getParameterName(), true);
+		params.putParameter(CSVFileReader.Parameters.USE_HEADER_NAMES.getParameterName(), true);
+		params.putParameter(CSVFileReader.Parameters.PARSER_ENGINE.getParameterName(), "block");
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(), "not,used,schema");
+		final File f = temporaryFolder.newFile();
+		// Write the CSV file
+		final FileWriter fw = new FileWriter(f);
+		fw.write("AField,BField,CField\r\n#A comment line\r\n\r\n\"A,Value\",\"B\"\"Value\",\"C\nValue\"\r\nA2,B2,C2");
+		fw.close();
+
+		// Start the test
+		final CSVFileReader testSubject = new CSVFileReader();
+		testSubject.init(trace, params, publisher);
+		testSubject.openFile(f);
+		Map<String, String> record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A,Value");
+		assertEquals(record.get("BField"), "B\"Value");
+		assertEquals(record.get("CField"), "C\nValue");
+		assertEquals(record.keySet().size(), 3);
+
+		record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A2");
+		assertEquals(record.get("BField"), "B2");
+		assertEquals(record.get("CField"), "C2");
+
+		// The file should contain only two records.
+		assertNull(testSubject.readRecord());
+		assertArrayEquals(new String[] { "AField", "BField", "CField" }, testSubject.getActualSchema());
+	}
+
+	@Test
+	public void testCSVParallelParser() throws Exception {
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		// No clue how the Parameter works, so just overwrite what we need...
+		params.putParameter(CSVFileReader.Parameters.HAS_HEADER.getParameterName(), true);
+		params.putParameter(CSVFileReader.Parameters.FORCED_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(CSVFileReader.Parameters.SEPERATOR.getParameterName(), ",");
+		params.putParameter(CSVFileReader.Parameters.SKIP_EMPTY_LINES.getParameterName(), true);
+		params.putParameter(CSVFileReader.Parameters.USE_HEADER_NAMES.getParameterName(), true);
+		params.putParameter(CSVFileReader.Parameters.PARSER_ENGINE.getParameterName(), "parallel");
+		params.putParameter(CSVFileReader.Parameters.PARSER_THREADS.getParameterName(), 2);
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(), "not,used,schema");
+		final File f = temporaryFolder.newFile();
+		// Write the CSV file
+		final FileWriter fw = new FileWriter(f);
+		fw.write("AField,BField,CField\n#A comment line\n\n\"A,Value\",B1,\"C\nValue\"\nA2,B2,C2");
+		fw.close();
+
+		// Start the test
+		final CSVFileReader testSubject = new CSVFileReader();
+		testSubject.init(trace, params, publisher);
+		testSubject.openFile(f);
+		Map<String, String> record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A,Value");
+		assertEquals(record.get("BField"), "B1");
+		assertEquals(record.get("CField"), "C\nValue");
+
+		record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A2");
+		assertEquals(record.get("CField"), "C2");
+
+		// The file should contain only two records.
+		assertNull(testSubject.readRecord());
+		assertArrayEquals(new String[] { "AField", "BField", "CField" }, testSubject.getActualSchema());
+		testSubject.close();
+	}
+
+	@Test
+	public void testAbortStopsTheParser() throws Exception {
+		final String content = manyLines(1000);
+		final CSVFileParser parser = new CSVFileParser(',', new String[] { "AField", "BField" }, true, false, false);
+		parser.setQueueCapacity(2000);
+		parser.resetParser();
+		final int[] read = { 0 };
+		parser.doParse(new FilterReader(new StringReader(content)) {
+			@Override
+			public int read() throws IOException {
+				if (++read[0] == 64) {
+					parser.abort();
+				}
+				return super.read();
+			}
+		});
+		assertTrue(parser.getQueue().isFinished());
+		assertTrue(read[0] < content.length());
+	}
+
+	@Test
+	public void testAbortStopsTheBlockParser() throws Exception {
+		final String content = manyLines(1000);
+		final CSVBlockFileParser parser = new CSVBlockFileParser(',', new String[] { "AField", "BField" }, true, false,
+				false, 16);
+		parser.setQueueCapacity(2000);
+		parser.resetParser();
+		final int[] read = { 0 };
+		parser.doParse(new FilterReader(new StringReader(content)) {
+			@Override
+			public int read(final char[] cbuf, final int off, final int len) throws IOException {
+				final int n = super.read(cbuf, off, len);
+				read[0] += Math.max(n, 0);
+				if (read[0] >= 64) {
+					parser.abort();
+				}
+				return n;
+			}
+		});
+		assertTrue(parser.getQueue().isFinished());
+		assertTrue(read[0] < content.length());
+	}
+
+	@Test
+	public void testBlockParserSmallBlocks() throws Exception {
+		// Small blocks: quotes, escapes, separators and DOS newlines end up on
+		// a block boundary
+		final String content = "AField,BField,CField\r\n#A comment line\r\n\r\n\"A,Value\",\"B\"\"Value\",\"C\nValue\"\r\n"
+				+ "A2,B2,C2\n\"\"\"quoted\"\"\",,\"\"\r\n#,\"not\",a,record\nA long unquoted value,B\r\r\n\n"
+				+ "\"A long \"\"quoted\"\" value, with a separator\",\"\r\n\",C4";
+		final List<Map<String, String>> expected = parse(
+				new CSVFileParser(',', new String[] { "not", "used" }, true, true, true), content);
+		assertEquals(5, expected.size());
+		for (final int blockSize : new int[] { 1, 2, 3, 7, 16 }) {
+			final List<Map<String, String>> actual = parse(
+					new CSVBlockFileParser(',', new String[] { "not", "used" }, true, true, true, blockSize), content);
+			assertEquals("Block size " + blockSize, expected, actual);
+		}
+	}
+
+	private static List<Map<String, String>> parse(final CSVFileParser parser, final String content)
+			throws Exception {
+		parser.setQueueCapacity(100);
+		parser.resetParser();
+		parser.doParse(new StringReader(content));
+		final List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+		Map<String, String> record;
+		while ((record = parser.getQueue().getNextRecord()) != null) {
+			records.add(record);
+		}
+		return records;
+	}
+
+	private static String manyLines(final int lines) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append('A').append(i).append(",B").append(i).append('\n');
+		}
+		return sb.toString();
+	}
 }
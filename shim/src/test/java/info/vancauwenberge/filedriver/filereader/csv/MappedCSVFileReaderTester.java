@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+import com.novell.nds.dirxml.driver.Trace;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+
+public class MappedCSVFileReaderTester extends AbstractStrategyTest {
+	@Mock
+	IPublisher publisher;
+
+	// The Folder will be created before each test method and (recursively)
+	// deleted after each test method.
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ParamMap getParams(final boolean hasHeader, final boolean useHeaderNames) {
+		final ParamMap params = new ParamMap();
+		params.putParameter(MappedCSVFileReader.Parameters.HAS_HEADER.getParameterName(), hasHeader);
+		params.putParameter(MappedCSVFileReader.Parameters.FORCED_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(MappedCSVFileReader.Parameters.SEPERATOR.getParameterName(), ",");
+		params.putParameter(MappedCSVFileReader.Parameters.SKIP_EMPTY_LINES.getParameterName(), true);
+		params.putParameter(MappedCSVFileReader.Parameters.USE_HEADER_NAMES.getParameterName(), useHeaderNames);
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(), "other,optional,schema");
+		return params;
+	}
+
+	private File writeFile(final String content) throws Exception {
+		final File f = temporaryFolder.newFile();
+		final FileWriter fw = new FileWriter(f);
+		fw.write(content);
+		fw.close();
+		return f;
+	}
+
+	@Test
+	public void testSequentialRead() throws Exception {
+		final Trace trace = new Trace(">");
+		final File f = writeFile("AField,BField,CField\r\n#A comment line\n\n\"A,Value\",\"B\"\"Value\",\"C\nValue\"\nA2,B2,C2");
+
+		final MappedCSVFileReader testSubject = new MappedCSVFileReader();
+		testSubject.init(trace, getParams(true, true), publisher);
+		testSubject.openFile(f);
+		Map<String, String> record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A,Value");
+		assertEquals(record.get("BField"), "B\"Value");
+		assertEquals(record.get("CField"), "C\nValue");
+		assertEquals(record.keySet().size(), 3);
+
+		record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A2");
+		assertEquals(record.get("BField"), "B2");
+		assertEquals(record.get("CField"), "C2");
+
+		// The file should contain only two records.
+		assertNull(testSubject.readRecord());
+		assertArrayEquals(new String[] { "AField", "BField", "CField" }, testSubject.getActualSchema());
+		testSubject.close();
+	}
+
+	@Test
+	public void testRandomAccess() throws Exception {
+		final Trace trace = new Trace(">");
+		final File f = writeFile("AField,BField,CField\nA1,B1,C1\nA2,B2,C2\nA3,B3,C3\n");
+
+		final MappedCSVFileReader testSubject = new MappedCSVFileReader();
+		testSubject.init(trace, getParams(true, false), publisher);
+		testSubject.openFile(f);
+
+		// Random access does not change the read position
+		assertEquals(testSubject.readRecord(3).get("other"), "A3");
+		assertEquals(testSubject.readRecord(1).get("schema"), "C1");
+		assertNull(testSubject.readRecord(4));
+		assertEquals(testSubject.readRecord().get("other"), "A1");
+
+		// Skip one record: the next one is the third
+		assertEquals(1, testSubject.skipRecords(1));
+		assertEquals(testSubject.readRecord().get("optional"), "B3");
+		assertNull(testSubject.readRecord());
+		// Nothing left to skip
+		assertEquals(0, testSubject.skipRecords(5));
+		testSubject.close();
+	}
+
+	@Test
+	public void testSmallWindow() throws Exception {
+		final Trace trace = new Trace(">");
+		final File f = writeFile("A1,B1,C1\nA long value that does not fit,B2,C2\nA3,B3,C3");
+
+		final MappedCSVFileReader testSubject = new MappedCSVFileReader();
+		testSubject.init(trace, getParams(false, false), publisher);
+		testSubject.windowSize = 8;
+		testSubject.openFile(f);
+		assertEquals(testSubject.readRecord().get("other"), "A1");
+		assertEquals(testSubject.readRecord().get("other"), "A long value that does not fit");
+		final Map<String, String> record = testSubject.readRecord();
+		assertEquals(record.get("schema"), "C3");
+		assertEquals(record.keySet().size(), 3);
+		assertNull(testSubject.readRecord());
+		testSubject.close();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		final Trace trace = new Trace(">");
+		final File f = writeFile("AField,BField,CField\nA1,B1,C1\n#A comment line\nA2,B2,C2\nA3,B3,C3\n");
+
+		MappedCSVFileReader testSubject = new MappedCSVFileReader();
+		testSubject.init(trace, getParams(true, true), publisher);
+		testSubject.openFile(f);
+		testSubject.readRecord();
+		testSubject.readRecord();
+		final String position = testSubject.getResumePosition(1);
+		testSubject.close();
+
+		// A restarted reader continues after the first record
+		testSubject = new MappedCSVFileReader();
+		testSubject.init(trace, getParams(true, true), publisher);
+		testSubject.openFile(f);
+		assertTrue(testSubject.resume(position, 1));
+		assertEquals(testSubject.readRecord().get("AField"), "A2");
+		// Records before the resume position can still be read
+		assertEquals(testSubject.readRecord(1).get("BField"), "B1");
+		assertEquals(testSubject.readRecord().get("CField"), "C3");
+		assertNull(testSubject.readRecord());
+		testSubject.close();
+
+		// The position is not used for a different schema
+		testSubject = new MappedCSVFileReader();
+		testSubject.init(trace, getParams(true, false), publisher);
+		testSubject.openFile(f);
+		assertFalse(testSubject.resume(position, 1));
+		assertFalse(testSubject.resume("7;100;0", 1));
+		assertEquals(testSubject.readRecord().get("other"), "A1");
+		testSubject.close();
+	}
+
+	@Test
+	public void testCloseUnmapsTheFile() throws Exception {
+		final File f = writeFile("AField,BField,CField\nA1,B1,C1\n");
+
+		final MappedCSVFileReader testSubject = new MappedCSVFileReader();
+		testSubject.init(new Trace(">"), getParams(true, true), publisher);
+		testSubject.openFile(f);
+		final Map<String, String> record = testSubject.readRecord();
+		assertEquals("A1", record.get("AField"));
+		testSubject.close();
+
+		// The file is no longer mapped: it can be moved
+		final File moved = new File(f.getParentFile(), "moved.csv");
+		assertTrue(f.renameTo(moved));
+		assertTrue(moved.delete());
+		// A field that was read before is kept, the others can no longer be
+		// read
+		assertEquals("A1", record.get("AField"));
+		try {
+			record.get("BField");
+			fail("The window is unmapped");
+		} catch (final IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testUnmap() throws Exception {
+		final File f = writeFile("AField\nA1\n");
+		final RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			final FileMapping mapping = new FileMapping();
+			mapping.map(file.getChannel(), 0, f.length());
+			assertFalse(mapping.isClosed());
+			assertTrue(mapping.unmap());
+			assertTrue(mapping.isClosed());
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Unused windows are found by the garbage collector: give it a few tries.
+	 */
+	private static void releaseUnused(final FileMapping mapping, final int expectedSize) throws Exception {
+		for (int i = 0; (i < 20) && (mapping.size() > expectedSize); i++) {
+			System.gc();
+			Thread.sleep(10);
+			mapping.releaseUnused();
+		}
+	}
+
+	@Test
+	public void testUnusedWindowsAreUnmapped() throws Exception {
+		final File f = writeFile("AField\nA1\n");
+		final RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			final FileMapping mapping = new FileMapping();
+			final FileMapping.Window used = mapping.map(file.getChannel(), 0, f.length());
+			for (int i = 0; i < 10; i++) {
+				mapping.map(file.getChannel(), 0, f.length());
+			}
+			assertEquals(11, mapping.size());
+			releaseUnused(mapping, 1);
+			assertEquals(1, mapping.size());
+			assertEquals("A1", used.decode(Charset.forName("UTF-8"), 7, 9, false));
+			assertTrue(mapping.unmap());
+			assertEquals(0, mapping.size());
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void testRecordKeepsItsWindow() throws Exception {
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			content.append('A').append(i).append(",B").append(i).append('\n');
+		}
+		final MappedCSVFileReader testSubject = new MappedCSVFileReader();
+		testSubject.init(new Trace(">"), getParams(false, false), publisher);
+		testSubject.windowSize = 8;
+		testSubject.openFile(writeFile(content.toString()));
+		final Map<String, String> first = testSubject.readRecord();
+		int count = 1;
+		while (testSubject.readRecord() != null) {
+			count++;
+		}
+		assertEquals(100, count);
+		// Random access maps windows again
+		assertEquals("B1", testSubject.readRecord(2).get("optional"));
+		assertEquals("B50", testSubject.readRecord(51).get("optional"));
+		System.gc();
+		Thread.sleep(10);
+		assertEquals("B99", testSubject.readRecord(100).get("optional"));
+		// The window of the first record was not unmapped
+		assertEquals("B0", first.get("optional"));
+		testSubject.close();
+	}
+}
@@ -540,4 +540,51 @@ public class ImageFileReaderTester extends AbstractStrategyTest{
 	public void testIllegalPNG() throws Exception {
 		testPlain("png", PNG_IM_ILLEGAL);
 	}
+
+	/**
+	 * A large image is decoded subsampled and scaled down in steps. The same
+	 * reader is used twice to go through the cached image providers.
+	 */
+	@Test
+	public void testResizeLargeImage() throws Exception {
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		params.putParameter(ImageFileReader.Parameters.IMAGE_META.getParameterName(), false);
+		params.putParameter(ImageFileReader.Parameters.RESIZE.getParameterName(), true);
+		params.putParameter(ImageFileReader.Parameters.RESIZE_WIDTH.getParameterName(), 200);
+		params.putParameter(ImageFileReader.Parameters.RESIZE_HEIGTH.getParameterName(), 0);
+		params.putParameter(ImageFileReader.Parameters.RESIZE_RESIZE_MODE.getParameterName(), "DYNAMIC");
+		params.putParameter(ImageFileReader.Parameters.RESIZE_RESIZE_PADDING.getParameterName(), "NOPADDING");
+		params.putParameter(ImageFileReader.Parameters.TRANSCODE.getParameterName(), false);
+
+		//Left half red, right half blue
+		final BufferedImage large = new BufferedImage(2400, 1800, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < large.getWidth(); x++) {
+			final int rgb = (x < (large.getWidth() / 2)) ? 0xFF0000 : 0x0000FF;
+			for (int y = 0; y < large.getHeight(); y++) {
+				large.setRGB(x, y, rgb);
+			}
+		}
+
+		final ImageFileReader testSubject = new ImageFileReader();
+		testSubject.init(trace,params,publisher);
+		for (int i = 0; i < 2; i++) {
+			final File f = temporaryFolder.newFile();
+			ImageIO.write(large, "png", f);
+			testSubject.openFile(f);
+			final Map<String, String> record = testSubject.readRecord();
+			assertNull(testSubject.readRecord());
+
+			assertEquals("2400", record.get(ImageFileReader.FIELD_SRC_WIDTH));
+			assertEquals("1800", record.get(ImageFileReader.FIELD_SRC_HEIGHT));
+			assertEquals("200", record.get(ImageFileReader.FIELD_IMAGE_WIDTH));
+			assertEquals("150", record.get(ImageFileReader.FIELD_IMAGE_HEIGHT));
+
+			final BufferedImage img = ImageIO.read(new ByteArrayInputStream(decoder.decode(record.get(ImageFileReader.FIELD_IMAGE_BYTES))));
+			assertEquals(200, img.getWidth());
+			assertEquals(150, img.getHeight());
+			assertEquals(0xFF0000, img.getRGB(10, 75) & 0xFFFFFF);
+			assertEquals(0x0000FF, img.getRGB(190, 75) & 0xFFFFFF);
+		}
+	}
 }
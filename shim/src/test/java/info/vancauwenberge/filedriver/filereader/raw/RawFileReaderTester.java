@@ -28,6 +28,7 @@ import java.io.FileWriter;
 import java.util.Base64;
 import java.util.Base64.Decoder;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -170,4 +171,58 @@ public class RawFileReaderTester extends AbstractStrategyTest{
 		assertEquals(record.get(RawFileReader.FIELD_RAW_DATA), TEST_STRING);
 	}
 
+	@Test
+	public void testBinaryMultipleChunks() throws Exception{
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		params.putParameter(RawFileReader.Parameters.TYPE.getParameterName(), "BINARY");
+		params.putParameter(RawFileReader.Parameters.TEXT_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(RawFileReader.Parameters.MAX_SIZE.getParameterName(), 0);
+
+		final RawFileReader testSubject = new RawFileReader();
+		testSubject.init(trace,params,publisher);
+		final Random random = new Random(42);
+		//Cover all paddings, an empty file and files spanning several chunks
+		final int[] sizes = new int[]{0, 1, 2, 3, 48*1024-1, 48*1024, 48*1024+1, 200000, 200001};
+		for (final int size : sizes) {
+			final byte[] data = new byte[size];
+			random.nextBytes(data);
+			final File f = temporaryFolder.newFile();
+			final FileOutputStream fw = new FileOutputStream(f);
+			fw.write(data);
+			fw.close();
+
+			testSubject.openFile(f);
+			final Map<String, String> record = testSubject.readRecord();
+			assertNull(testSubject.readRecord());
+			assertEquals("size "+size, Base64.getEncoder().encodeToString(data), record.get(RawFileReader.FIELD_RAW_DATA));
+		}
+	}
+
+	@Test
+	public void testPlainMultipleChunks() throws Exception{
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		params.putParameter(RawFileReader.Parameters.TYPE.getParameterName(), "TEXT");
+		params.putParameter(RawFileReader.Parameters.TEXT_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(RawFileReader.Parameters.MAX_SIZE.getParameterName(), 0);
+
+		final StringBuilder sb = new StringBuilder();
+		while (sb.length() < 150000) {
+			sb.append("line ").append(sb.length()).append(" \u00e9\u20ac\n");
+		}
+		final String text = sb.toString();
+		final File f = temporaryFolder.newFile();
+		final FileOutputStream fw = new FileOutputStream(f);
+		fw.write(text.getBytes("UTF-8"));
+		fw.close();
+
+		final RawFileReader testSubject = new RawFileReader();
+		testSubject.init(trace,params,publisher);
+		testSubject.openFile(f);
+		final Map<String, String> record = testSubject.readRecord();
+		assertNull(testSubject.readRecord());
+		assertEquals(text, record.get(RawFileReader.FIELD_RAW_DATA));
+	}
+
 }
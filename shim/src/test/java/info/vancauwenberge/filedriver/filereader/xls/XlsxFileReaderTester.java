@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filereader.xls;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+import com.novell.nds.dirxml.driver.Trace;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+import info.vancauwenberge.filedriver.exception.ReadException;
+import info.vancauwenberge.filedriver.filepublisher.IPublisher;
+import info.vancauwenberge.filedriver.shim.driver.GenericFileDriverShim;
+
+public class XlsxFileReaderTester extends AbstractStrategyTest {
+	private static final String WORKBOOK = "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\""
+			+ " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+			+ "<sheets><sheet name=\"Other\" sheetId=\"1\" r:id=\"rId1\"/><sheet name=\"Users\" sheetId=\"2\" r:id=\"rId2\"/></sheets></workbook>";
+	private static final String WORKBOOK_RELS = "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+			+ "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+			+ "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet2.xml\"/>"
+			+ "<Relationship Id=\"rId3\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\" Target=\"sharedStrings.xml\"/>"
+			+ "</Relationships>";
+	private static final String SHARED_STRINGS = "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+			+ "<si><t>Name</t></si><si><t>Count</t></si><si><r><t>Rich </t></r><r><t>text</t></r><rPh><t>x</t></rPh></si>"
+			+ "<si><t>Flag</t></si></sst>";
+	private static final String SHEET = "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+			+ "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c><c r=\"D1\" t=\"s\"><v>3</v></c></row>"
+			+ "<row r=\"2\"><c r=\"A2\" t=\"s\"><v>2</v></c><c r=\"B2\"><v>12</v></c><c r=\"D2\" t=\"b\"><v>1</v></c></row>"
+			+ "<row r=\"3\"><c r=\"A3\" t=\"inlineStr\"><is><t>Inline</t></is></c><c r=\"C3\" t=\"str\"><f>A3</f><v>Formula</v></c></row>"
+			+ "<row r=\"5\"><c r=\"A5\" t=\"inlineStr\"><is><t>After a missing row</t></is></c></row>"
+			+ "</sheetData></worksheet>";
+
+	@Mock
+	IPublisher publisher;
+
+	// The Folder will be created before each test method and (recursively)
+	// deleted after each test method.
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private ParamMap getParams(final String sheetName, final boolean useHeaderNames) {
+		final ParamMap params = new ParamMap();
+		params.putParameter(XlsxFileReader.Parameters.SHEET_NAME.getParameterName(), sheetName);
+		params.putParameter(XlsxFileReader.Parameters.HAS_HEADER.getParameterName(), true);
+		params.putParameter(XlsxFileReader.Parameters.USE_HEADER_NAMES.getParameterName(), useHeaderNames);
+		params.putParameter(XlsxFileReader.Parameters.QUEUE_SIZE.getParameterName(), 2);
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(), "first,second,third,fourth");
+		return params;
+	}
+
+	private File writeWorkbook() throws Exception {
+		return writeWorkbook(WORKBOOK, SHEET);
+	}
+
+	private File writeWorkbook(final String workbook, final String sheet) throws Exception {
+		final File f = temporaryFolder.newFile();
+		final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(f));
+		writeEntry(zos, "xl/workbook.xml", workbook);
+		writeEntry(zos, "xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+		writeEntry(zos, "xl/sharedStrings.xml", SHARED_STRINGS);
+		writeEntry(zos, "xl/worksheets/sheet1.xml", "<worksheet/>");
+		writeEntry(zos, "xl/worksheets/sheet2.xml", sheet);
+		zos.close();
+		return f;
+	}
+
+	private static void writeEntry(final ZipOutputStream zos, final String name, final String content)
+			throws Exception {
+		zos.putNextEntry(new ZipEntry(name));
+		zos.write(content.getBytes("UTF-8"));
+		zos.closeEntry();
+	}
+
+	@Test
+	public void testReadRecord_WithHeaderNames() throws Exception {
+		final Trace trace = new Trace(">");
+		final XlsxFileReader testSubject = new XlsxFileReader();
+		testSubject.init(trace, getParams("Users", true), publisher);
+		testSubject.openFile(writeWorkbook());
+		assertArrayEquals(new String[] { "Name", "Count", "_Unknown_2_", "Flag" }, testSubject.getActualSchema());
+
+		Map<String, String> record = testSubject.readRecord();
+		assertEquals("Rich text", record.get("Name"));
+		assertEquals("12.0", record.get("Count"));
+		assertEquals("", record.get("_Unknown_2_"));
+		assertEquals("true", record.get("Flag"));
+
+		record = testSubject.readRecord();
+		assertEquals("Inline", record.get("Name"));
+		assertEquals("Formula", record.get("_Unknown_2_"));
+		assertEquals("", record.get("Flag"));
+
+		// The data ends at the missing row 4
+		assertNull(testSubject.readRecord());
+		testSubject.close();
+	}
+
+	@Test
+	public void testReadRecord_WithDriverSchema() throws Exception {
+		final Trace trace = new Trace(">");
+		final XlsxFileReader testSubject = new XlsxFileReader();
+		testSubject.init(trace, getParams("Users", false), publisher);
+		testSubject.openFile(writeWorkbook());
+		assertArrayEquals(new String[] { "first", "second", "third", "fourth" }, testSubject.getActualSchema());
+		final Map<String, String> record = testSubject.readRecord();
+		assertEquals("Rich text", record.get("first"));
+		assertEquals(4, record.size());
+		// Close before all records are read
+		testSubject.close();
+	}
+
+	@Test
+	public void testOpenFile_UnknownSheet() throws Exception {
+		thrown.expect(ReadException.class);
+		final XlsxFileReader testSubject = new XlsxFileReader();
+		testSubject.init(new Trace(">"), getParams("Unknown", true), publisher);
+		testSubject.openFile(writeWorkbook());
+	}
+
+	@Test
+	public void testOpenFile_WorkbookWithDoctype() throws Exception {
+		// Without the DTD the sheet name entity would resolve to the sheet
+		thrown.expect(ReadException.class);
+		final XlsxFileReader testSubject = new XlsxFileReader();
+		testSubject.init(new Trace(">"), getParams("Users", true), publisher);
+		testSubject.openFile(writeWorkbook("<!DOCTYPE workbook [<!ENTITY users \"Users\">]>"
+				+ WORKBOOK.replace("\"Users\"", "\"&users;\""), SHEET));
+	}
+
+	@Test
+	public void testReadRecord_SheetWithDoctype() throws Exception {
+		final File secret = temporaryFolder.newFile();
+		thrown.expect(ReadException.class);
+		final XlsxFileReader testSubject = new XlsxFileReader();
+		testSubject.init(new Trace(">"), getParams("Users", false), publisher);
+		testSubject.openFile(writeWorkbook(WORKBOOK,
+				"<!DOCTYPE worksheet [<!ENTITY name SYSTEM \"" + secret.toURI() + "\">]>" + SHEET.replace("Inline", "&name;")));
+		try {
+			testSubject.readRecord();
+		} finally {
+			testSubject.close();
+		}
+	}
+}
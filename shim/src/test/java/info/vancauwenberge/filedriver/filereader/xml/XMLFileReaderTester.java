@@ -21,6 +21,7 @@ package info.vancauwenberge.filedriver.filereader.xml;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -220,4 +221,45 @@ public class XMLFileReaderTester extends AbstractStrategyTest{
 		assertNull(testSubject.readRecord());
 
 	}
+
+	@Test
+	public void testReadRecord_XSLTDumped() throws Exception {
+		final Trace trace = new Trace(">");
+		final String preXslt = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"+
+				"<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" xmlns:fo=\"http://www.w3.org/1999/XSL/Format\">"+
+				"<xsl:output method=\"xml\" indent=\"yes\"/>"+
+				"<xsl:template match=\"/UserDetails\">"+
+				"<root>"+
+				"<aRecord>"+
+				"<xsl:for-each select=\"/UserDetails/*\">"+
+				"<xsl:copy-of select=\".\"/>"+
+				"</xsl:for-each>"+
+				"</aRecord>"+
+				"</root>"+
+				"</xsl:template>"+
+				"</xsl:stylesheet>";
+		final ParamMap params = new ParamMap();
+		params.putParameter(XMLFileReader.Parameters.USE_TAG_NAMES.getParameterName(), true);
+		params.putParameter(XMLFileReader.Parameters.FORCED_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(XMLFileReader.Parameters.PRE_XSLT.getParameterName(), preXslt);
+		params.putParameter(XMLFileReader.Parameters.DUMP_PRE_XSLT.getParameterName(), true);
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(),"not,used,schema");
+		final File f = temporaryFolder.newFile();
+		final FileWriter fw = new FileWriter(f);
+		fw.write("<UserDetails><AppUserID>10001</AppUserID><FirstName>Test10001</FirstName></UserDetails>");
+		fw.close();
+
+		//Start the test
+		final IFileReadStrategy testSubject = new XMLFileReader();
+		testSubject.init(trace,params,publisher);
+		testSubject.openFile(f);
+		final Map<String, String> record = testSubject.readRecord();
+		assertEquals(record.get("AppUserID"), "10001");
+		assertEquals(record.get("FirstName"), "Test10001");
+		assertNull(testSubject.readRecord());
+		testSubject.close();
+
+		//The transformed document is kept
+		assertTrue(new File(f.getParentFile(), f.getName()+".transformed").exists());
+	}
 }
@@ -360,4 +360,59 @@ public class XPathXMLFileReaderTester extends AbstractStrategyTest{
 		fail("Exception should have been thrown");
 
 	}
+
+	@Test
+	public void testReadRecord_Streaming() throws Exception {
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		params.putParameter(XPathXMLFileReader.Parameters.USE_DRIVER_SCHEMA.getParameterName(), true);
+		params.putParameter(XPathXMLFileReader.Parameters.FORCED_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(XPathXMLFileReader.Parameters.XPATH_RECORD_NODESET.getParameterName(), "//someRecord");
+		params.putParameter(XPathXMLFileReader.Parameters.XPATH_EXPRESSIONS.getParameterName(), "AField/@value,local-name(BField),count(CField)>0,CField/text()");
+		params.putParameter(XPathXMLFileReader.Parameters.STREAMING.getParameterName(), true);
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(),"AField,BField,CField,DField");
+		final File f = temporaryFolder.newFile();
+		//Write the XML file
+		final FileWriter fw = new FileWriter(f);
+		fw.write("<root xmlns:x='urn:test'><skipped><AField value='No'/></skipped>"
+				+ "<group><someRecord><AField value='AValue'/><BField>BValue</BField><CField>C&amp;<![CDATA[Value]]></CField></someRecord></group>"
+				+ "<someRecord><!-- comment --><AField value='A2'/><x:BField/></someRecord></root>");
+		fw.close();
+
+		//Start the test
+		final IFileReadStrategy testSubject = new XPathXMLFileReader();
+		testSubject.init(trace,params,publisher);
+		testSubject.openFile(f);
+		Map<String, String> record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "AValue");
+		assertEquals(record.get("BField"), "BField");
+		assertEquals(record.get("CField"), "true");
+		assertEquals(record.get("DField"), "C&Value");
+
+		record = testSubject.readRecord();
+		assertEquals(record.get("AField"), "A2");
+		assertEquals(record.get("BField"), "BField");
+		assertEquals(record.get("CField"), "false");
+
+		assertNull(testSubject.readRecord());
+		testSubject.close();
+	}
+
+	@Test
+	public void testReadRecord_StreamingUnsupportedXPath() throws Exception {
+		thrown.expect(XDSParameterException.class);
+
+		final Trace trace = new Trace(">");
+		final ParamMap params = new ParamMap();
+		params.putParameter(XPathXMLFileReader.Parameters.USE_DRIVER_SCHEMA.getParameterName(), true);
+		params.putParameter(XPathXMLFileReader.Parameters.FORCED_ENCODING.getParameterName(), "UTF-8");
+		params.putParameter(XPathXMLFileReader.Parameters.XPATH_RECORD_NODESET.getParameterName(), "/root/someRecord[@type='user']");
+		params.putParameter(XPathXMLFileReader.Parameters.XPATH_EXPRESSIONS.getParameterName(), "AField/text()");
+		params.putParameter(XPathXMLFileReader.Parameters.STREAMING.getParameterName(), true);
+		params.putParameter(GenericFileDriverShim.DriverParam.SCHEMA.getParamName(),"AField");
+
+		final IFileReadStrategy testSubject = new XPathXMLFileReader();
+		testSubject.init(trace,params,publisher);
+		fail("Exception should have been thrown");
+	}
 }
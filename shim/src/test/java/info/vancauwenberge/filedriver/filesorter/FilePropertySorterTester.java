@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.filesorter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.ParamMap;
+
+public class FilePropertySorterTester extends AbstractStrategyTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private FilePropertySorter newSorter(final String sortMethod, final boolean ascending) throws Exception {
+		final ParamMap params = new ParamMap();
+		params.putParameter("fileSort_SortMethod", sortMethod);
+		params.putParameter("fileSort_SortOrderAsc", ascending);
+		final FilePropertySorter sorter = new FilePropertySorter();
+		sorter.init(getTrace(), params, null);
+		return sorter;
+	}
+
+	private File write(final String name, final int size) throws Exception {
+		final File file = temporaryFolder.newFile(name);
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[size]);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void testSequenceNumber() {
+		assertEquals(Long.valueOf(42), FilePropertySorter.getSequenceNumber("export_0042.csv"));
+		assertEquals(Long.valueOf(7), FilePropertySorter.getSequenceNumber("v2_export7"));
+		assertEquals(Long.valueOf(0), FilePropertySorter.getSequenceNumber("export000.csv"));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), FilePropertySorter.getSequenceNumber("12345678901234567890.csv"));
+		assertNull(FilePropertySorter.getSequenceNumber("export.csv"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testFileNameSequence() throws Exception {
+		final File ten = write("export_10.csv", 1);
+		final File nine = write("export_9.csv", 1);
+		final File none = write("export.csv", 1);
+		final File[] files = new File[] { none, ten, nine };
+		assertSame(nine, newSorter("fileNameSequence", true).getFirstFile(files));
+		assertSame(ten, newSorter("fileNameSequence", false).getFirstFile(files));
+		// A file without a number is always last
+		assertTrue(((Comparable<Object>) newSorter("fileNameSequence", false).getSortKey(none))
+				.compareTo(newSorter("fileNameSequence", false).getSortKey(nine)) > 0);
+	}
+
+	@Test
+	public void testSmallestFirstIgnoresSortOrder() throws Exception {
+		final File big = write("a.csv", 100);
+		final File small = write("b.csv", 10);
+		assertSame(small, newSorter("smallestFirst", false).getFirstFile(new File[] { big, small }));
+		assertSame(big, newSorter("length", false).getFirstFile(new File[] { small, big }));
+	}
+
+	@Test
+	public void testReflectedProperty() throws Exception {
+		final File a = write("a.csv", 1);
+		final File b = write("b.csv", 1);
+		assertSame(b, newSorter("getName", false).getFirstFile(new File[] { a, b }));
+		assertSame(a, newSorter("toString", true).getFirstFile(new File[] { b, a }));
+		// No sort method: keep the order of the locator
+		assertNull(newSorter("", true).getSortKey(a));
+		assertSame(b, newSorter("", true).getFirstFile(new File[] { b, a }));
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.novell.nds.dirxml.driver.xds.Parameter;
+import com.novell.nds.dirxml.driver.xds.WriteableDocument;
+import com.novell.nds.dirxml.driver.xds.XDSCommandDocument;
+import com.novell.nds.dirxml.driver.xds.XDSResultDocument;
+
+import info.vancauwenberge.filedriver.api.IDriver;
+import info.vancauwenberge.filedriver.api.ISubscriberShim;
+import info.vancauwenberge.filedriver.util.EcmascriptBuilder;
+
+/**
+ * A driver that takes the association and the source dn of a record from the
+ * fields "association" and "dn", and counts how often they are asked for.
+ */
+class FieldDriver implements IDriver {
+	int associationCalls = 0;
+	int sourceCalls = 0;
+
+	/**
+	 * Create a record with the fields this driver reads.
+	 * @param association
+	 * @param dn
+	 * @param mail the mail field, or null to leave it out
+	 * @return
+	 */
+	static Map<String, String> record(final String association, final String dn, final String mail) {
+		final Map<String, String> record = new HashMap<String, String>();
+		record.put("association", association);
+		record.put("dn", dn);
+		if (mail != null) {
+			record.put("mail", mail);
+		}
+		return record;
+	}
+
+	public ISubscriberShim getSubscriber() {
+		return null;
+	}
+
+	public XDSResultDocument newResultDoc() {
+		return null;
+	}
+
+	public Map<? extends String, ? extends Parameter> getDriverParams() {
+		return null;
+	}
+
+	public void appendSourceInfo(final WriteableDocument doc) {
+	}
+
+	public String getDriverInstanceName() {
+		return "test";
+	}
+
+	public Object getSchema() {
+		return null;
+	}
+
+	public XDSCommandDocument newCommandDoc() {
+		return null;
+	}
+
+	public String getAssociationField(final Map<String, String> record) {
+		associationCalls++;
+		return record.get("association");
+	}
+
+	public String getSourceField(final Map<String, String> record) {
+		sourceCalls++;
+		return record.get("dn");
+	}
+
+	public EcmascriptBuilder getEcmaBuilder() {
+		return null;
+	}
+}
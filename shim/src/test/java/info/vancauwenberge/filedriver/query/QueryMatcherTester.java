@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.novell.nds.dirxml.driver.xds.XDSQueryDocument;
+import com.novell.nds.dirxml.driver.xds.XDSQueryElement;
+
+import info.vancauwenberge.filedriver.AbstractStrategyTest;
+import info.vancauwenberge.filedriver.util.Util;
+
+public class QueryMatcherTester extends AbstractStrategyTest {
+	private final FieldDriver driver = new FieldDriver();
+	private final XDSQueryDocument queryDoc = new XDSQueryDocument();
+
+	private XDSQueryElement query(final String destDN, final String association, final String mail) {
+		Map<String, String> matchAttributes = null;
+		if (mail != null) {
+			matchAttributes = new HashMap<String, String>();
+			matchAttributes.put("mail", mail);
+		}
+		return Util.appendQueryElement(queryDoc, null, destDN, association, null, null, matchAttributes);
+	}
+
+	private QueryMatcher getMatcher() {
+		return QueryMatcher.getMatcher(getTrace(), queryDoc, driver);
+	}
+
+	@Test
+	public void testAttributeValue() {
+		query(null, null, "one@x");
+		final QueryMatcher matcher = getMatcher();
+		assertTrue(matcher instanceof AttributeMatcher);
+		assertTrue(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", "one@x")));
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", "two@x")));
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", null)));
+	}
+
+	@Test
+	public void testAttributePresent() {
+		// A search attribute without a value: the attribute must be present
+		query(null, null, "one@x").appendSearchAttrElement().setAttrName("dn");
+		final QueryMatcher matcher = getMatcher();
+		assertTrue(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", "one@x")));
+		final Map<String, String> noDn = FieldDriver.record("a1", null, "one@x");
+		noDn.remove("dn");
+		assertFalse(matcher.matchesRecord(noDn));
+	}
+
+	@Test
+	public void testAssociation() {
+		query(null, " a1 ", null);
+		final QueryMatcher matcher = getMatcher();
+		assertTrue(matcher instanceof AssociationMatcher);
+		assertTrue(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", null)));
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a2", "cn=one", null)));
+		// The src-dn is not needed
+		assertEquals(0, driver.sourceCalls);
+	}
+
+	@Test
+	public void testDestDn() {
+		query("cn=one", null, null);
+		final QueryMatcher matcher = getMatcher();
+		assertTrue(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", null)));
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a1", "cn=two", null)));
+		// The association is not needed
+		assertEquals(0, driver.associationCalls);
+	}
+
+	@Test
+	public void testAssociationAndDestDn() {
+		query("cn=one", "a1", null);
+		final QueryMatcher matcher = getMatcher();
+		assertTrue(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", null)));
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a1", "cn=two", null)));
+		assertEquals(2, driver.sourceCalls);
+		// The src-dn is only computed for a record with the right association
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a2", "cn=one", null)));
+		assertEquals(3, driver.associationCalls);
+		assertEquals(2, driver.sourceCalls);
+	}
+
+	@Test
+	public void testAttributesAreTestedFirst() {
+		query(null, "a1", "one@x");
+		final QueryMatcher matcher = getMatcher();
+		assertTrue(matcher instanceof AndMatcher);
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", "two@x")));
+		assertEquals(0, driver.associationCalls);
+		assertTrue(matcher.matchesRecord(FieldDriver.record("a1", "cn=one", "one@x")));
+		assertFalse(matcher.matchesRecord(FieldDriver.record("a2", "cn=one", "one@x")));
+		assertEquals(2, driver.associationCalls);
+	}
+
+	@Test
+	public void testEmptyAssociation() {
+		assertNull(QueryMatcher.getAssociationValueFromQuery(query(null, "  ", null)));
+		assertTrue(getMatcher() instanceof NullMatcher);
+	}
+}
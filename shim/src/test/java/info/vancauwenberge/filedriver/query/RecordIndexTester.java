@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.novell.nds.dirxml.driver.xds.XDSQueryDocument;
+import com.novell.nds.dirxml.driver.xds.XDSQueryElement;
+
+import info.vancauwenberge.filedriver.util.Util;
+
+public class RecordIndexTester {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static XDSQueryElement query(final String destDN, final String association,
+			final Map<String, String> matchAttributes) {
+		return Util.appendQueryElement(new XDSQueryDocument(), null, destDN, association, null, null,
+				matchAttributes);
+	}
+
+	private RecordIndex newIndex(final File file) {
+		final RecordIndex index = new RecordIndex(new FieldDriver(), file, Arrays.asList("mail"));
+		index.add(1, FieldDriver.record("a1", "cn=one", "one@x"));
+		index.add(2, FieldDriver.record("a2", "cn=two", "shared@x"));
+		index.add(3, FieldDriver.record("a1", "cn=three", "shared@x"));
+		return index;
+	}
+
+	@Test
+	public void testCandidates() throws Exception {
+		final RecordIndex index = newIndex(temporaryFolder.newFile("input.csv"));
+		assertEquals(3, index.getRecordCount());
+		assertArrayEquals(new int[] { 1, 3 }, index.getCandidates(query(null, "a1", null)));
+		assertArrayEquals(new int[] { 2 }, index.getCandidates(query("cn=two", null, null)));
+		assertArrayEquals(new int[] { 2, 3 },
+				index.getCandidates(query(null, null, Collections.singletonMap("mail", "shared@x"))));
+		// Unknown values have no candidates
+		assertArrayEquals(new int[0], index.getCandidates(query(null, "a9", null)));
+		// The association is more selective than the dest-dn
+		assertArrayEquals(new int[] { 1, 3 }, index.getCandidates(query("cn=two", "a1", null)));
+	}
+
+	@Test
+	public void testNotIndexedQueryScansAllRecords() throws Exception {
+		final RecordIndex index = newIndex(temporaryFolder.newFile("input.csv"));
+		// No index on this attribute, nor a query without search criteria
+		assertNull(index.getCandidates(query(null, null, Collections.singletonMap("givenName", "x"))));
+		assertNull(index.getCandidates(query(null, null, null)));
+	}
+
+	@Test
+	public void testIsFor() throws Exception {
+		final File file = temporaryFolder.newFile("input.csv");
+		final RecordIndex index = newIndex(file);
+		assertTrue(index.isFor(file));
+		assertTrue(index.isFor(new File(file.getPath())));
+		assertFalse(index.isFor(null));
+		assertFalse(index.isFor(temporaryFolder.newFile("other.csv")));
+
+		// The file changed since it was indexed
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write("a;b\n".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		assertFalse(index.isFor(file));
+	}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CSVCodecTester {
+	private static String write(final CSVCodec codec, final String... values) throws Exception {
+		final StringWriter writer = new StringWriter();
+		codec.writeFields(writer, values);
+		return writer.toString();
+	}
+
+	@Test
+	public void testWriteField() throws Exception {
+		final CSVCodec codec = new CSVCodec(';');
+		assertEquals("a;;b c", write(codec, "a", null, "b c"));
+		assertEquals("\"a;b\";\"a\nb\"", write(codec, "a;b", "a\nb"));
+		assertEquals("\"\"\"\";\"a\"\"b\"\"\";\"x;\"\"\"", write(codec, "\"", "a\"b\"", "x;\""));
+		assertEquals("\"a\";\"\";", write(new CSVCodec(';', true), "a", "", null));
+	}
+
+	@Test
+	public void testParseLine() {
+		final CSVCodec codec = new CSVCodec(' ');
+		assertEquals(Arrays.asList("cmd", "", "a b", "say \"hi\"", ""),
+				codec.parseLine("cmd  \"a b\" \"say \"\"hi\"\"\" "));
+		assertEquals(Arrays.asList(""), codec.parseLine(""));
+	}
+
+	@Test
+	public void testParseLineQuoteInField() {
+		final CSVCodec codec = new CSVCodec(' ');
+		// A quote in the middle of a field starts a quoted part
+		assertEquals(Arrays.asList("cmd", "--name=John Doe", "x"), codec.parseLine("cmd --name=\"John Doe\" x"));
+		// Text after the closing quote belongs to the quoted part
+		assertEquals(Arrays.asList("cmd", "abcd e"), codec.parseLine("cmd \"ab\"cd e"));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final CSVCodec codec = new CSVCodec(',');
+		final String[] values = new String[] { "plain", "with,comma", "with \"quotes\"", "", "multi\nline" };
+		assertEquals(Arrays.asList(values), codec.parseLine(write(codec, values)));
+	}
+}
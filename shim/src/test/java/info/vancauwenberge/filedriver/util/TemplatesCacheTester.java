@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2007, 2018 Stefaan Van Cauwenberge
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0 (the "License"). If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *  	 
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ * the specific language governing rights and limitations under the License.
+ *
+ * The Initial Developer of the Original Code is
+ * Stefaan Van Cauwenberge. Portions created by
+ *  the Initial Developer are Copyright (C) 2007, 2018 by
+ * Stefaan Van Cauwenberge. All Rights Reserved.
+ *
+ * Contributor(s): none so far.
+ *    Stefaan Van Cauwenberge: Initial API and implementation
+ *******************************************************************************/
+package info.vancauwenberge.filedriver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+public class TemplatesCacheTester {
+	private static final String XSLT = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+			+ "<xsl:output method=\"text\"/>"
+			+ "<xsl:template match=\"/value\">[<xsl:value-of select=\".\"/>]</xsl:template>"
+			+ "</xsl:stylesheet>";
+
+	private static String transform(final Transformer transformer, final String value) throws Exception {
+		final StringWriter writer = new StringWriter();
+		transformer.transform(new StreamSource(new StringReader("<value>" + value + "</value>")),
+				new StreamResult(writer));
+		return writer.toString();
+	}
+
+	@Test
+	public void testSameStylesheetIsCompiledOnce() throws Exception {
+		final Templates templates = TemplatesCache.getTemplates(XSLT);
+		assertSame(templates, TemplatesCache.getTemplates(new StringBuilder(XSLT).toString()));
+
+		// Every user gets its own transformer
+		final Transformer first = TemplatesCache.newTransformer(XSLT);
+		final Transformer second = TemplatesCache.newTransformer(XSLT);
+		assertNotSame(first, second);
+		assertEquals("[a]", transform(first, "a"));
+		assertEquals("[b]", transform(second, "b"));
+	}
+
+	@Test
+	public void testConcurrentTransformations() throws Exception {
+		final String[] results = new String[8];
+		final Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						final StringBuilder result = new StringBuilder();
+						for (int j = 0; j < 50; j++) {
+							result.append(transform(TemplatesCache.newTransformer(XSLT), index + "-" + j));
+						}
+						results[index] = result.toString();
+					} catch (final Exception e) {
+						results[index] = e.toString();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			final StringBuilder expected = new StringBuilder();
+			for (int j = 0; j < 50; j++) {
+				expected.append('[').append(i).append('-').append(j).append(']');
+			}
+			assertEquals(expected.toString(), results[i]);
+		}
+	}
+
+	@Test(expected = TransformerConfigurationException.class)
+	public void testInvalidStylesheet() throws Exception {
+		TemplatesCache.getTemplates("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:template>");
+	}
+}